@@ -1,6 +1,6 @@
 package example;
 
-import ca.uhn.fhir.rest.server.FifoMemoryPagingProvider;
+import ca.uhn.fhir.rest.server.ConcurrentMemoryPagingProvider;
 import ca.uhn.fhir.rest.server.RestfulServer;
 
 @SuppressWarnings({ "serial" })
@@ -19,10 +19,10 @@ public class PagingServer extends RestfulServer {
 		setResourceProviders(new PagingPatientProvider());
 		
 		/*
-		 * Set a paging provider. Here a simple in-memory implementation
-		 * is used, but you may create your own. 
+		 * Set a paging provider. Here an in-memory implementation which
+		 * stores up to 100 result lists is used, but you may create your own. 
 		 */
-		FifoMemoryPagingProvider pp = new FifoMemoryPagingProvider(10);
+		ConcurrentMemoryPagingProvider pp = new ConcurrentMemoryPagingProvider(100);
 		pp.setDefaultPageSize(10);
 		pp.setMaximumPageSize(100);
 		setPagingProvider(pp);
@@ -35,6 +35,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.hl7.fhir.instance.model.api.IAnyResource;
 import org.hl7.fhir.instance.model.api.IBase;
@@ -43,6 +44,7 @@ import org.hl7.fhir.instance.model.api.IBaseDatatype;
 import org.hl7.fhir.instance.model.api.IBaseDatatypeElement;
 import org.hl7.fhir.instance.model.api.IBaseEnumeration;
 import org.hl7.fhir.instance.model.api.IBaseExtension;
+import org.hl7.fhir.instance.model.api.IBaseHasModifierExtensions;
 import org.hl7.fhir.instance.model.api.IBaseReference;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IBaseXhtml;
@@ -75,6 +77,7 @@ public abstract class BaseRuntimeElementCompositeDefinition<T extends IBase> ext
 	private List<BaseRuntimeChildDefinition> myChildrenAndExtensions;
 	private Map<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> myClassToElementDefinitions;
 	private FhirContext myContext;
+	private final Map<Class<?>, Boolean> myMayContainChildOfType = new ConcurrentHashMap<Class<?>, Boolean>();
 	private Map<String, BaseRuntimeChildDefinition> myNameToChild = new HashMap<String, BaseRuntimeChildDefinition>();
 
 	private volatile boolean mySealed;
@@ -122,6 +125,22 @@ public abstract class BaseRuntimeElementCompositeDefinition<T extends IBase> ext
 	}
 	
 	
+	/**
+	 * Returns <code>false</code> if the model definitions show that no element of the given type
+	 * can appear anywhere beneath an instance of this type, or <code>true</code> if one might.
+	 * The result is computed once per type and cached. This is used by
+	 * {@link ca.uhn.fhir.util.FhirTerser} to skip over subtrees when looking for elements of a
+	 * specific type.
+	 */
+	public boolean mayContainChildOfType(Class<?> theType) {
+		Boolean retVal = myMayContainChildOfType.get(theType);
+		if (retVal == null) {
+			retVal = mayContainChildOfType(this, theType, new HashSet<BaseRuntimeElementDefinition<?>>());
+			myMayContainChildOfType.put(theType, retVal);
+		}
+		return retVal;
+	}
+
 	/**
 	 * Has this class been sealed
 	 */
@@ -536,6 +555,45 @@ public abstract class BaseRuntimeElementCompositeDefinition<T extends IBase> ext
 		}
 	}
 
+	private static boolean mayContainChildOfType(BaseRuntimeElementCompositeDefinition<?> theDefinition, Class<?> theType, Set<BaseRuntimeElementDefinition<?>> theVisited) {
+		if (!theVisited.add(theDefinition)) {
+			return false;
+		}
+		if (IBaseHasModifierExtensions.class.isAssignableFrom(theDefinition.getImplementingClass())) {
+			return true;
+		}
+		for (BaseRuntimeChildDefinition nextChild : theDefinition.getChildrenAndExtension()) {
+			if (nextChild instanceof RuntimeChildExtension) {
+				// Extension values can be of any type
+				return true;
+			}
+			for (String nextName : nextChild.getValidChildNames()) {
+				BaseRuntimeElementDefinition<?> nextDef = nextChild.getChildByName(nextName);
+				if (nextDef == null || theType.isAssignableFrom(nextDef.getImplementingClass())) {
+					return true;
+				}
+				switch (nextDef.getChildType()) {
+				case ID_DATATYPE:
+				case PRIMITIVE_DATATYPE:
+				case PRIMITIVE_XHTML:
+				case PRIMITIVE_XHTML_HL7ORG:
+					break;
+				case RESOURCE:
+				case RESOURCE_BLOCK:
+				case COMPOSITE_DATATYPE:
+					if (mayContainChildOfType((BaseRuntimeElementCompositeDefinition<?>) nextDef, theType, theVisited)) {
+						return true;
+					}
+					break;
+				default:
+					// Contained resources, extensions, etc. could hold anything
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
 	private static int findIndex(List<BaseRuntimeChildDefinition> theChildren, String theName, boolean theDefaultAtEnd) {
 		int index = theDefaultAtEnd ? theChildren.size() : -1;
 		for (ListIterator<BaseRuntimeChildDefinition> iter = theChildren.listIterator(); iter.hasNext(); ) {
@@ -30,6 +30,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang3.Validate;
 import org.hl7.fhir.instance.model.api.IBase;
@@ -55,6 +56,7 @@ import ca.uhn.fhir.rest.client.api.IBasicClient;
 import ca.uhn.fhir.rest.client.api.IRestfulClient;
 import ca.uhn.fhir.rest.server.AddProfileTagEnum;
 import ca.uhn.fhir.rest.server.IVersionSpecificBundleFactory;
+import ca.uhn.fhir.util.CompiledTerserPath;
 import ca.uhn.fhir.util.FhirTerser;
 import ca.uhn.fhir.util.VersionUtil;
 import ca.uhn.fhir.validation.FhirValidator;
@@ -82,17 +84,19 @@ import ca.uhn.fhir.validation.FhirValidator;
  */
 public class FhirContext {
 
+	private static final int MAX_COMPILED_TERSER_PATHS = 10000;
 	private static final List<Class<? extends IBaseResource>> EMPTY_LIST = Collections.emptyList();
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(FhirContext.class);
 	private AddProfileTagEnum myAddProfileTagWhenEncoding = AddProfileTagEnum.ONLY_FOR_CUSTOM;
-	private volatile Map<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> myClassToElementDefinition = Collections.emptyMap();
+	private final ConcurrentHashMap<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> myClassToElementDefinition = new ConcurrentHashMap<Class<? extends IBase>, BaseRuntimeElementDefinition<?>>();
 	private ArrayList<Class<? extends IBase>> myCustomTypes;
+	private final ConcurrentHashMap<String, CompiledTerserPath> myCompiledTerserPaths = new ConcurrentHashMap<String, CompiledTerserPath>();
 	private Map<String, Class<? extends IBaseResource>> myDefaultTypeForProfile = new HashMap<String, Class<? extends IBaseResource>>();
-	private volatile Map<String, RuntimeResourceDefinition> myIdToResourceDefinition = Collections.emptyMap();
-	private boolean myInitialized;
+	private final ConcurrentHashMap<String, RuntimeResourceDefinition> myIdToResourceDefinition = new ConcurrentHashMap<String, RuntimeResourceDefinition>();
+	private volatile boolean myInitialized;
 	private HapiLocalizer myLocalizer = new HapiLocalizer();
-	private volatile Map<String, BaseRuntimeElementDefinition<?>> myNameToElementDefinition = Collections.emptyMap();
-	private volatile Map<String, RuntimeResourceDefinition> myNameToResourceDefinition = Collections.emptyMap();
+	private final ConcurrentHashMap<String, BaseRuntimeElementDefinition<?>> myNameToElementDefinition = new ConcurrentHashMap<String, BaseRuntimeElementDefinition<?>>();
+	private final ConcurrentHashMap<String, RuntimeResourceDefinition> myNameToResourceDefinition = new ConcurrentHashMap<String, RuntimeResourceDefinition>();
 	private volatile Map<String, Class<? extends IBaseResource>> myNameToResourceType;
 	private volatile INarrativeGenerator myNarrativeGenerator;
 	private volatile IParserErrorHandler myParserErrorHandler = new LenientErrorHandler();
@@ -100,8 +104,10 @@ public class FhirContext {
 	private Collection<Class<? extends IBaseResource>> myResourceTypesToScan;
 	private volatile IRestfulClientFactory myRestfulClientFactory;
 	private volatile RuntimeChildUndeclaredExtensionDefinition myRuntimeChildUndeclaredExtensionDefinition;
+	private final Object myScanLock = new Object();
 	private final IFhirVersion myVersion;
-	private Map<FhirVersionEnum, Map<String, Class<? extends IBaseResource>>> myVersionToNameToResourceType = Collections.emptyMap();
+	private final ConcurrentHashMap<FhirVersionEnum, Map<String, Class<? extends IBaseResource>>> myVersionToNameToResourceType = new ConcurrentHashMap<FhirVersionEnum, Map<String, Class<? extends IBaseResource>>>();
+	private Set<Class<? extends IBase>> myVersionTypes;
 	private boolean myInitializing;
 
 	/**
@@ -181,9 +187,16 @@ public class FhirContext {
 	}
 
 	private void ensureCustomTypeList() {
-		myClassToElementDefinition.clear();
-		if (myCustomTypes == null) {
-			myCustomTypes = new ArrayList<Class<? extends IBase>>();
+		synchronized (myScanLock) {
+			/*
+			 * Force a rescan (including the standard datatypes) so that the custom
+			 * types replace any existing definitions for the same names
+			 */
+			myClassToElementDefinition.clear();
+			myVersionTypes = null;
+			if (myCustomTypes == null) {
+				myCustomTypes = new ArrayList<Class<? extends IBase>>();
+			}
 		}
 	}
 
@@ -203,6 +216,26 @@ public class FhirContext {
 		return myNameToResourceDefinition.values();
 	}
 	
+	/**
+	 * Returns a compiled form of the given element path (e.g. <code>Patient.name.family</code>)
+	 * for use with {@link FhirTerser}. Compiled paths are cached by this context, so this method
+	 * is cheap to call repeatedly with the same path. Most code should call
+	 * {@link FhirTerser#compilePath(String)} instead of this method.
+	 */
+	public CompiledTerserPath getCompiledTerserPath(String thePath) {
+		CompiledTerserPath retVal = myCompiledTerserPaths.get(thePath);
+		if (retVal == null) {
+			retVal = new CompiledTerserPath(this, thePath);
+			if (myCompiledTerserPaths.size() < MAX_COMPILED_TERSER_PATHS) {
+				CompiledTerserPath existing = myCompiledTerserPaths.putIfAbsent(thePath, retVal);
+				if (existing != null) {
+					retVal = existing;
+				}
+			}
+		}
+		return retVal;
+	}
+
 	/**
 	 * Returns the default resource type for the given profile
 	 * 
@@ -308,11 +341,7 @@ public class FhirContext {
 		if (nameToType == null) {
 			nameToType = new HashMap<String, Class<? extends IBaseResource>>();
 			ModelScanner.scanVersionPropertyFile(null, nameToType, theVersion);
-
-			Map<FhirVersionEnum, Map<String, Class<? extends IBaseResource>>> newVersionToNameToResourceType = new HashMap<FhirVersionEnum, Map<String, Class<? extends IBaseResource>>>();
-			newVersionToNameToResourceType.putAll(myVersionToNameToResourceType);
-			newVersionToNameToResourceType.put(theVersion, nameToType);
-			myVersionToNameToResourceType = newVersionToNameToResourceType;
+			myVersionToNameToResourceType.putIfAbsent(theVersion, nameToType);
 		}
 
 		Class<? extends IBaseResource> resourceType = nameToType.get(theResourceName.toLowerCase());
@@ -570,57 +599,99 @@ public class FhirContext {
 		return (RuntimeResourceDefinition) defs.get(theResourceType);
 	}
 
-	private synchronized Map<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> scanResourceTypes(Collection<Class<? extends IElement>> theResourceTypes) {
-		myInitializing = true;
-		
-		List<Class<? extends IBase>> typesToScan = new ArrayList<Class<? extends IBase>>();
-		if (theResourceTypes != null) {
-			typesToScan.addAll(theResourceTypes);
-		}
-		if (myCustomTypes != null) {
-			typesToScan.addAll(myCustomTypes);
-			myCustomTypes = null;
-		}
+	/**
+	 * Scans the given types (and any pending custom types) and adds the resulting definitions
+	 * to this context. Scans are serialized, but only the definitions created by a scan are
+	 * added to the registry maps, so existing definitions are never copied and lookups of
+	 * already known types (which read the maps without locking) are never blocked.
+	 */
+	private Map<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> scanResourceTypes(Collection<Class<? extends IElement>> theResourceTypes) {
+		synchronized (myScanLock) {
+			if (myInitialized && myCustomTypes == null && isAlreadyScanned(theResourceTypes)) {
+				// Another thread scanned these types while we were waiting for the lock
+				return myClassToElementDefinition;
+			}
 
-		ModelScanner scanner = new ModelScanner(this, myVersion.getVersion(), myClassToElementDefinition, typesToScan);
-		if (myRuntimeChildUndeclaredExtensionDefinition == null) {
-			myRuntimeChildUndeclaredExtensionDefinition = scanner.getRuntimeChildUndeclaredExtensionDefinition();
-		}
+			myInitializing = true;
+
+			List<Class<? extends IBase>> typesToScan = new ArrayList<Class<? extends IBase>>();
+			if (theResourceTypes != null) {
+				typesToScan.addAll(theResourceTypes);
+			}
+			if (myCustomTypes != null) {
+				typesToScan.addAll(myCustomTypes);
+				myCustomTypes = null;
+			}
 
-		Map<String, BaseRuntimeElementDefinition<?>> nameToElementDefinition = new HashMap<String, BaseRuntimeElementDefinition<?>>();
-		nameToElementDefinition.putAll(myNameToElementDefinition);
-		nameToElementDefinition.putAll(scanner.getNameToElementDefinitions());
-
-		Map<String, RuntimeResourceDefinition> nameToResourceDefinition = new HashMap<String, RuntimeResourceDefinition>();
-		nameToResourceDefinition.putAll(myNameToResourceDefinition);
-		nameToResourceDefinition.putAll(scanner.getNameToResourceDefinition());
-
-		Map<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> classToElementDefinition = new HashMap<Class<? extends IBase>, BaseRuntimeElementDefinition<?>>();
-		classToElementDefinition.putAll(myClassToElementDefinition);
-		classToElementDefinition.putAll(scanner.getClassToElementDefinitions());
-		for (BaseRuntimeElementDefinition<?> next : classToElementDefinition.values()) {
-			if (next instanceof RuntimeResourceDefinition) {
-				if ("Bundle".equals(next.getName())) {
-					if (!IBaseBundle.class.isAssignableFrom(next.getImplementingClass())) {
-						throw new ConfigurationException("Resource type declares resource name Bundle but does not implement IBaseBundle");
+			ModelScanner scanner = new ModelScanner(this, myVersion.getVersion(), myClassToElementDefinition, typesToScan, myVersionTypes, myNameToResourceType);
+			if (myRuntimeChildUndeclaredExtensionDefinition == null) {
+				myRuntimeChildUndeclaredExtensionDefinition = scanner.getRuntimeChildUndeclaredExtensionDefinition();
+			}
+
+			Map<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> newDefinitions = scanner.getClassToElementDefinitions();
+			for (BaseRuntimeElementDefinition<?> next : newDefinitions.values()) {
+				if (next instanceof RuntimeResourceDefinition) {
+					if ("Bundle".equals(next.getName())) {
+						if (!IBaseBundle.class.isAssignableFrom(next.getImplementingClass())) {
+							throw new ConfigurationException("Resource type declares resource name Bundle but does not implement IBaseBundle");
+						}
 					}
 				}
 			}
+
+			/*
+			 * Publish the class map first, since name lookups which miss fall back
+			 * to a lookup (and if needed, a scan) by class
+			 */
+			myClassToElementDefinition.putAll(newDefinitions);
+			myNameToElementDefinition.putAll(scanner.getNameToElementDefinitions());
+			myNameToResourceDefinition.putAll(scanner.getNameToResourceDefinition());
+			myIdToResourceDefinition.putAll(scanner.getIdToResourceDefinition());
+
+			myNameToResourceType = scanner.getNameToResourceType();
+			myVersionTypes = scanner.getVersionTypes();
+
+			myInitialized = true;
+			return myClassToElementDefinition;
 		}
+	}
 
-		Map<String, RuntimeResourceDefinition> idToElementDefinition = new HashMap<String, RuntimeResourceDefinition>();
-		idToElementDefinition.putAll(myIdToResourceDefinition);
-		idToElementDefinition.putAll(scanner.getIdToResourceDefinition());
+	private boolean isAlreadyScanned(Collection<Class<? extends IElement>> theResourceTypes) {
+		if (theResourceTypes != null) {
+			for (Class<? extends IElement> next : theResourceTypes) {
+				if (!myClassToElementDefinition.containsKey(next)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
 
-		myNameToElementDefinition = nameToElementDefinition;
-		myClassToElementDefinition = classToElementDefinition;
-		myIdToResourceDefinition = idToElementDefinition;
-		myNameToResourceDefinition = nameToResourceDefinition;
+	/**
+	 * Scans all of the resource types which are defined by the FHIR structures version
+	 * used by this context (as well as any registered custom types), so that no model scanning
+	 * needs to happen later on when these types are first used. Scanning is otherwise performed
+	 * lazily, the first time a given type is needed.
+	 * <p>
+	 * Applications (servers in particular) may wish to call this method at startup in order to
+	 * avoid paying the cost of scanning while handling the first requests for each resource type.
+	 * </p>
+	 * 
+	 * @since 1.6
+	 */
+	public void scanAllResourceTypes() {
+		validateInitialized();
 
-		myNameToResourceType = scanner.getNameToResourceType();
+		List<Class<? extends IBaseResource>> typesToScan = new ArrayList<Class<? extends IBaseResource>>();
+		for (Class<? extends IBaseResource> next : myNameToResourceType.values()) {
+			if (!myClassToElementDefinition.containsKey(next) && !Modifier.isAbstract(next.getModifiers())) {
+				typesToScan.add(next);
+			}
+		}
 
-		myInitialized = true;
-		return classToElementDefinition;
+		if (!typesToScan.isEmpty() || myCustomTypes != null) {
+			scanResourceTypes(toElementList(typesToScan));
+		}
 	}
 
 	/**
@@ -741,8 +812,13 @@ public class FhirContext {
 	}
 
 	private void validateInitialized() {
-		if (!myInitialized && !myInitializing) {
-			scanResourceTypes(toElementList(myResourceTypesToScan));
+		if (!myInitialized) {
+			synchronized (myScanLock) {
+				// myInitializing is set if this thread is already performing the initial scan
+				if (!myInitialized && !myInitializing) {
+					scanResourceTypes(toElementList(myResourceTypesToScan));
+				}
+			}
 		}
 	}
 
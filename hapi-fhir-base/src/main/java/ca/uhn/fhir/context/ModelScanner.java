@@ -29,6 +29,8 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -39,6 +41,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
@@ -86,12 +89,13 @@ import ca.uhn.fhir.util.ReflectionUtil;
 class ModelScanner {
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(ModelScanner.class);
 
-	private Map<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> myClassToElementDefinitions = new HashMap<Class<? extends IBase>, BaseRuntimeElementDefinition<?>>();
+	private Map<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> myClassToElementDefinitions;
 	private FhirContext myContext;
 	private Map<String, RuntimeResourceDefinition> myIdToResourceDefinition = new HashMap<String, RuntimeResourceDefinition>();
 	private Map<String, BaseRuntimeElementDefinition<?>> myNameToElementDefinitions = new HashMap<String, BaseRuntimeElementDefinition<?>>();
 	private Map<String, RuntimeResourceDefinition> myNameToResourceDefinitions = new HashMap<String, RuntimeResourceDefinition>();
-	private Map<String, Class<? extends IBaseResource>> myNameToResourceType = new HashMap<String, Class<? extends IBaseResource>>();
+	private Map<String, Class<? extends IBaseResource>> myNameToResourceType;
+	private Map<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> myNewClassToElementDefinitions = new HashMap<Class<? extends IBase>, BaseRuntimeElementDefinition<?>>();
 	private RuntimeChildUndeclaredExtensionDefinition myRuntimeChildUndeclaredExtensionDefinition;
 	private Set<Class<? extends IBase>> myScanAlso = new HashSet<Class<? extends IBase>>();
 	private FhirVersionEnum myVersion;
@@ -100,6 +104,24 @@ class ModelScanner {
 
 	ModelScanner(FhirContext theContext, FhirVersionEnum theVersion, Map<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> theExistingDefinitions,
 			Collection<Class<? extends IBase>> theResourceTypes) throws ConfigurationException {
+		this(theContext, theVersion, theExistingDefinitions, theResourceTypes, null, null);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param theExistingDefinitions
+	 *           Definitions which have already been scanned. This map is not copied or modified, so the caller must ensure that it does
+	 *           not change while the scan is in progress.
+	 * @param theVersionTypes
+	 *           The standard datatypes for this version as returned by {@link #getVersionTypes()} from a previous scan, or
+	 *           <code>null</code> if the version property file should be read (and all standard datatypes scanned)
+	 * @param theNameToResourceType
+	 *           The resource name to type map as returned by {@link #getNameToResourceType()} from a previous scan. Required if
+	 *           <code>theVersionTypes</code> is provided.
+	 */
+	ModelScanner(FhirContext theContext, FhirVersionEnum theVersion, Map<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> theExistingDefinitions,
+			Collection<Class<? extends IBase>> theResourceTypes, Set<Class<? extends IBase>> theVersionTypes, Map<String, Class<? extends IBaseResource>> theNameToResourceType) throws ConfigurationException {
 		myContext = theContext;
 		myVersion = theVersion;
 		Set<Class<? extends IBase>> toScan;
@@ -108,7 +130,7 @@ class ModelScanner {
 		} else {
 			toScan = new HashSet<Class<? extends IBase>>();
 		}
-		init(theExistingDefinitions, toScan);
+		init(theExistingDefinitions, toScan, theVersionTypes, theNameToResourceType);
 	}
 
 	private void addScanAlso(Class<? extends IBase> theType) {
@@ -149,8 +171,11 @@ class ModelScanner {
 		}
 	}
 
+	/**
+	 * Returns the definitions created by this scan (i.e. not including any existing definitions passed to the constructor)
+	 */
 	public Map<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> getClassToElementDefinitions() {
-		return myClassToElementDefinitions;
+		return myNewClassToElementDefinitions;
 	}
 
 	public Map<String, RuntimeResourceDefinition> getIdToResourceDefinition() {
@@ -177,16 +202,26 @@ class ModelScanner {
 		return myRuntimeChildUndeclaredExtensionDefinition;
 	}
 
-	private void init(Map<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> theExistingDefinitions, Set<Class<? extends IBase>> theDatatypes) {
-		if (theExistingDefinitions != null) {
-			myClassToElementDefinitions.putAll(theExistingDefinitions);
+	public Set<Class<? extends IBase>> getVersionTypes() {
+		return myVersionTypes;
+	}
+
+	private void init(Map<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> theExistingDefinitions, Set<Class<? extends IBase>> theDatatypes, Set<Class<? extends IBase>> theVersionTypes, Map<String, Class<? extends IBaseResource>> theNameToResourceType) {
+		if (theExistingDefinitions != null && !theExistingDefinitions.isEmpty()) {
+			myClassToElementDefinitions = new LayeredDefinitionMap(theExistingDefinitions, myNewClassToElementDefinitions);
+		} else {
+			myClassToElementDefinitions = myNewClassToElementDefinitions;
 		}
 
-		int startSize = myClassToElementDefinitions.size();
 		long start = System.currentTimeMillis();
-		Map<String, Class<? extends IBaseResource>> resourceTypes = myNameToResourceType;
 
-		myVersionTypes = scanVersionPropertyFile(theDatatypes, resourceTypes, myVersion);
+		if (theVersionTypes != null) {
+			myVersionTypes = theVersionTypes;
+			myNameToResourceType = theNameToResourceType;
+		} else {
+			myNameToResourceType = new HashMap<String, Class<? extends IBaseResource>>();
+			myVersionTypes = scanVersionPropertyFile(theDatatypes, myNameToResourceType, myVersion);
+		}
 
 		// toScan.add(DateDt.class);
 		// toScan.add(CodeDt.class);
@@ -209,12 +244,7 @@ class ModelScanner {
 			myScanAlso.clear();
 		} while (!theDatatypes.isEmpty());
 
-		for (Entry<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> nextEntry : myClassToElementDefinitions.entrySet()) {
-			if (theExistingDefinitions != null && theExistingDefinitions.containsKey(nextEntry.getKey())) {
-				continue;
-			}
-			BaseRuntimeElementDefinition<?> next = nextEntry.getValue();
-			
+		for (BaseRuntimeElementDefinition<?> next : myNewClassToElementDefinitions.values()) {
 			boolean deferredSeal = false;
 			if (myContext.getPerformanceOptions().contains(PerformanceOptionsEnum.DEFERRED_MODEL_SCANNING)) {
 				if (next instanceof BaseRuntimeElementCompositeDefinition) {
@@ -230,7 +260,7 @@ class ModelScanner {
 		myRuntimeChildUndeclaredExtensionDefinition.sealAndInitialize(myContext, myClassToElementDefinitions);
 
 		long time = System.currentTimeMillis() - start;
-		int size = myClassToElementDefinitions.size() - startSize;
+		int size = myNewClassToElementDefinitions.size();
 		ourLog.debug("Done scanning FHIR library, found {} model entries in {}ms", size, time);
 	}
 
@@ -308,7 +338,7 @@ class ModelScanner {
 		}
 
 		RuntimeResourceBlockDefinition blockDef = new RuntimeResourceBlockDefinition(resourceName, theClass, isStandardType(theClass), myContext, myClassToElementDefinitions);
-		myClassToElementDefinitions.put(theClass, blockDef);
+		myNewClassToElementDefinitions.put(theClass, blockDef);
 
 		scanCompositeElementForChildren(theClass, blockDef);
 	}
@@ -328,7 +358,7 @@ class ModelScanner {
 		} else {
 			elementDef = new RuntimeCompositeDatatypeDefinition(theDatatypeDefinition, theClass, isStandardType(theClass), myContext, myClassToElementDefinitions);
 		}
-		myClassToElementDefinitions.put(theClass, elementDef);
+		myNewClassToElementDefinitions.put(theClass, elementDef);
 		myNameToElementDefinitions.put(elementDef.getName().toLowerCase(), elementDef);
 		scanCompositeElementForChildren(theClass, elementDef);
 	}
@@ -363,7 +393,7 @@ class ModelScanner {
 		} else {
 			elementDef = new RuntimePrimitiveDatatypeDefinition(theDatatypeDefinition, theClass, isStandardType(theClass));
 		}
-		myClassToElementDefinitions.put(theClass, elementDef);
+		myNewClassToElementDefinitions.put(theClass, elementDef);
 		if (!theDatatypeDefinition.isSpecialization()) {
 			if (myVersion.isRi() && IDatatype.class.isAssignableFrom(theClass)) {
 				ourLog.debug("Not adding non RI type {} to RI context", theClass);
@@ -415,7 +445,7 @@ class ModelScanner {
 		}
 
 		RuntimeResourceDefinition resourceDef = new RuntimeResourceDefinition(myContext, resourceName, theClass, resourceDefinition, standardType, myClassToElementDefinitions);
-		myClassToElementDefinitions.put(theClass, resourceDef);
+		myNewClassToElementDefinitions.put(theClass, resourceDef);
 		if (primaryNameProvider) {
 			if (resourceDef.getStructureVersion() == myVersion) {
 				myNameToResourceDefinitions.put(resourceName.toLowerCase(), resourceDef);
@@ -579,4 +609,93 @@ class ModelScanner {
 		return retVal;
 	}
 
+	/**
+	 * A read-only view over the definitions which existed before a scan, with the definitions
+	 * created by the scan layered on top. This lets a scan see (and seal its definitions against)
+	 * every known definition without copying the existing ones. Definitions which are later
+	 * published into the existing map are not reported twice.
+	 */
+	private static class LayeredDefinitionMap extends AbstractMap<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> {
+
+		private final Map<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> myExisting;
+		private final Map<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> myNew;
+
+		LayeredDefinitionMap(Map<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> theExisting, Map<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> theNew) {
+			myExisting = theExisting;
+			myNew = theNew;
+		}
+
+		@Override
+		public boolean containsKey(Object theKey) {
+			return myNew.containsKey(theKey) || myExisting.containsKey(theKey);
+		}
+
+		@Override
+		public Set<Entry<Class<? extends IBase>, BaseRuntimeElementDefinition<?>>> entrySet() {
+			return new AbstractSet<Entry<Class<? extends IBase>, BaseRuntimeElementDefinition<?>>>() {
+				@Override
+				public Iterator<Entry<Class<? extends IBase>, BaseRuntimeElementDefinition<?>>> iterator() {
+					final Iterator<Entry<Class<? extends IBase>, BaseRuntimeElementDefinition<?>>> existingIter = myExisting.entrySet().iterator();
+					final Iterator<Entry<Class<? extends IBase>, BaseRuntimeElementDefinition<?>>> newIter = myNew.entrySet().iterator();
+					return new Iterator<Entry<Class<? extends IBase>, BaseRuntimeElementDefinition<?>>>() {
+						private Entry<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> myNext;
+
+						@Override
+						public boolean hasNext() {
+							if (myNext != null) {
+								return true;
+							}
+							if (existingIter.hasNext()) {
+								myNext = existingIter.next();
+								return true;
+							}
+							while (newIter.hasNext()) {
+								Entry<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> next = newIter.next();
+								if (!myExisting.containsKey(next.getKey())) {
+									myNext = next;
+									return true;
+								}
+							}
+							return false;
+						}
+
+						@Override
+						public Entry<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> next() {
+							if (!hasNext()) {
+								throw new NoSuchElementException();
+							}
+							Entry<Class<? extends IBase>, BaseRuntimeElementDefinition<?>> retVal = myNext;
+							myNext = null;
+							return retVal;
+						}
+
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					int retVal = 0;
+					for (Iterator<?> iter = iterator(); iter.hasNext(); iter.next()) {
+						retVal++;
+					}
+					return retVal;
+				}
+			};
+		}
+
+		@Override
+		public BaseRuntimeElementDefinition<?> get(Object theKey) {
+			BaseRuntimeElementDefinition<?> retVal = myNew.get(theKey);
+			if (retVal == null) {
+				retVal = myExisting.get(theKey);
+			}
+			return retVal;
+		}
+
+	}
+
 }
@@ -32,6 +32,8 @@ public enum BundleTypeEnum {
 
 	TRANSACTION("transaction", "http://hl7.org/fhir/bundle-type"),
 	
+	BATCH("batch", "http://hl7.org/fhir/bundle-type"),
+	
 	DOCUMENT("document", "http://hl7.org/fhir/bundle-type"),
 	
 	MESSAGE("message", "http://hl7.org/fhir/bundle-type"),
@@ -23,6 +23,8 @@ import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
@@ -90,6 +92,8 @@ public abstract class BaseParser implements IParser {
 	private IIdType myEncodeForceResourceId;
 	private IParserErrorHandler myErrorHandler;
 	private boolean myOmitResourceId;
+	private ParseOnlyPathFilter myParseOnlyPathFilter;
+	private Set<String> myParseOnlyPaths;
 	private List<Class<? extends IBaseResource>> myPreferTypes;
 	private String myServerBaseUrl;
 	private boolean myStripVersionsFromReferences = true;
@@ -329,8 +333,28 @@ public abstract class BaseParser implements IParser {
 		return resourceBaseUrl;
 	}
 
+	/**
+	 * Subclasses may override this method to write bytes directly to the stream. The default implementation
+	 * wraps the stream in a UTF-8 writer and delegates to {@link #doEncodeBundleToWriter(Bundle, Writer)}
+	 */
+	protected void doEncodeBundleToOutputStream(Bundle theBundle, OutputStream theOutputStream) throws IOException, DataFormatException {
+		Writer writer = new OutputStreamWriter(theOutputStream, Constants.CHARSET_UTF8);
+		doEncodeBundleToWriter(theBundle, writer);
+		writer.flush();
+	}
+
 	protected abstract void doEncodeBundleToWriter(Bundle theBundle, Writer theWriter) throws IOException, DataFormatException;
 
+	/**
+	 * Subclasses may override this method to write bytes directly to the stream. The default implementation
+	 * wraps the stream in a UTF-8 writer and delegates to {@link #doEncodeResourceToWriter(IBaseResource, Writer)}
+	 */
+	protected void doEncodeResourceToOutputStream(IBaseResource theResource, OutputStream theOutputStream) throws IOException, DataFormatException {
+		Writer writer = new OutputStreamWriter(theOutputStream, Constants.CHARSET_UTF8);
+		doEncodeResourceToWriter(theResource, writer);
+		writer.flush();
+	}
+
 	protected abstract void doEncodeResourceToWriter(IBaseResource theResource, Writer theWriter) throws IOException, DataFormatException;
 
 	protected abstract <T extends IBaseResource> T doParseResource(Class<T> theResourceType, Reader theReader) throws DataFormatException;
@@ -350,6 +374,13 @@ public abstract class BaseParser implements IParser {
 		return stringWriter.toString();
 	}
 
+	@Override
+	public final void encodeBundleToOutputStream(Bundle theBundle, OutputStream theOutputStream) throws IOException, DataFormatException {
+		Validate.notNull(theBundle, "theBundle must not be null");
+		Validate.notNull(theOutputStream, "theOutputStream must not be null");
+		doEncodeBundleToOutputStream(theBundle, theOutputStream);
+	}
+
 	@Override
 	public final void encodeBundleToWriter(Bundle theBundle, Writer theWriter) throws IOException, DataFormatException {
 		Validate.notNull(theBundle, "theBundle must not be null");
@@ -368,16 +399,30 @@ public abstract class BaseParser implements IParser {
 		return stringWriter.toString();
 	}
 
+	@Override
+	public final void encodeResourceToOutputStream(IBaseResource theResource, OutputStream theOutputStream) throws IOException, DataFormatException {
+		Validate.notNull(theResource, "theResource can not be null");
+		Validate.notNull(theOutputStream, "theOutputStream can not be null");
+
+		validateResourceVersionForEncoding(theResource);
+
+		doEncodeResourceToOutputStream(theResource, theOutputStream);
+	}
+
 	@Override
 	public final void encodeResourceToWriter(IBaseResource theResource, Writer theWriter) throws IOException, DataFormatException {
 		Validate.notNull(theResource, "theResource can not be null");
 		Validate.notNull(theWriter, "theWriter can not be null");
 
+		validateResourceVersionForEncoding(theResource);
+
+		doEncodeResourceToWriter(theResource, theWriter);
+	}
+
+	protected void validateResourceVersionForEncoding(IBaseResource theResource) {
 		if (theResource.getStructureFhirVersionEnum() != myContext.getVersion().getVersion()) {
 			throw new IllegalArgumentException("This parser is for FHIR version " + myContext.getVersion().getVersion() + " - Can not encode a structure for version " + theResource.getStructureFhirVersionEnum());
 		}
-
-		doEncodeResourceToWriter(theResource, theWriter);
 	}
 
 	@Override
@@ -461,6 +506,18 @@ public abstract class BaseParser implements IParser {
 		return tags;
 	}
 
+	@Override
+	public Set<String> getParseOnlyPaths() {
+		return myParseOnlyPaths;
+	}
+
+	/**
+	 * Returns the compiled form of {@link #getParseOnlyPaths()}, or <code>null</code>
+	 */
+	ParseOnlyPathFilter getParseOnlyPathFilter() {
+		return myParseOnlyPathFilter;
+	}
+
 	@Override
 	public List<Class<? extends IBaseResource>> getPreferTypes() {
 		return myPreferTypes;
@@ -782,6 +839,18 @@ public abstract class BaseParser implements IParser {
 		return this;
 	}
 
+	@Override
+	public IParser setParseOnlyPaths(Set<String> theParseOnlyPaths) {
+		if (theParseOnlyPaths == null || theParseOnlyPaths.isEmpty()) {
+			myParseOnlyPaths = null;
+			myParseOnlyPathFilter = null;
+		} else {
+			myParseOnlyPaths = Collections.unmodifiableSet(new HashSet<String>(theParseOnlyPaths));
+			myParseOnlyPathFilter = new ParseOnlyPathFilter(myParseOnlyPaths);
+		}
+		return this;
+	}
+
 	@Override
 	public void setPreferTypes(List<Class<? extends IBaseResource>> thePreferTypes) {
 		myPreferTypes = thePreferTypes;
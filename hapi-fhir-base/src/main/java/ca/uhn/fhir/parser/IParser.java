@@ -21,6 +21,7 @@ package ca.uhn.fhir.parser;
  */
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
 import java.util.List;
@@ -51,10 +52,34 @@ public interface IParser {
 
 	void encodeBundleToWriter(Bundle theBundle, Writer theWriter) throws IOException, DataFormatException;
 
+	/**
+	 * Encodes a bundle directly to an output stream as UTF-8 bytes. This avoids the overhead of a
+	 * character based {@link Writer} when the eventual destination is a byte stream (e.g. an HTTP response).
+	 * 
+	 * @param theBundle
+	 *           The bundle to encode. Must not be null.
+	 * @param theOutputStream
+	 *           The stream to write to. Note that the stream will be flushed but not closed by the parser upon completion.
+	 * @since 1.6
+	 */
+	void encodeBundleToOutputStream(Bundle theBundle, OutputStream theOutputStream) throws IOException, DataFormatException;
+
 	String encodeResourceToString(IBaseResource theResource) throws DataFormatException;
 
 	void encodeResourceToWriter(IBaseResource theResource, Writer theWriter) throws IOException, DataFormatException;
 
+	/**
+	 * Encodes a resource directly to an output stream as UTF-8 bytes. This avoids the overhead of a
+	 * character based {@link Writer} when the eventual destination is a byte stream (e.g. an HTTP response).
+	 * 
+	 * @param theResource
+	 *           The resource to encode. Must not be null.
+	 * @param theOutputStream
+	 *           The stream to write to. Note that the stream will be flushed but not closed by the parser upon completion.
+	 * @since 1.6
+	 */
+	void encodeResourceToOutputStream(IBaseResource theResource, OutputStream theOutputStream) throws IOException, DataFormatException;
+
 	/**
 	 * Encodes a tag list, as defined in the <a href="http://hl7.org/implement/standards/fhir/http.html#tags">FHIR
 	 * Specification</a>.
@@ -97,6 +122,14 @@ public interface IParser {
 	 */
 	EncodingEnum getEncoding();
 
+	/**
+	 * Returns the paths which will be parsed, as set using {@link #setParseOnlyPaths(Set)}
+	 * 
+	 * @return Returns the paths, or <code>null</code> if resources will be parsed completely
+	 * @since 1.6
+	 */
+	Set<String> getParseOnlyPaths();
+
 	/**
 	 * Gets the preferred types, as set using {@link #setPreferTypes(List)}
 	 * 
@@ -292,6 +325,34 @@ public interface IParser {
 	 */
 	IParser setOmitResourceId(boolean theOmitResourceId);
 
+	/**
+	 * If provided, specifies the only elements which will be populated when parsing resources. Elements
+	 * which are not covered by one of the given paths are skipped over by the parser without any model
+	 * objects being created for them, which can be considerably faster when only a few values are needed
+	 * from a large resource. The input must still be well formed XML or JSON. Valid values for this
+	 * field would include:
+	 * <ul>
+	 * <li><b>Observation.code</b> - Parse the observation's code (and all of its children)</li>
+	 * <li><b>Observation.value</b> - Parse the observation's value, whatever its type (e.g. <code>valueQuantity</code>)</li>
+	 * <li><b>Patient.name.family</b> - Parse only the family part of the patient's names</li>
+	 * <li><b>*.meta</b> - Parse the meta element of any resource (only the very first position may contain a
+	 * wildcard)</li>
+	 * </ul>
+	 * <p>
+	 * The resource ID is always parsed. Resource types which are not mentioned in any path (and are not covered
+	 * by a wildcard path) are parsed completely, so for example the paths <code>Observation.code</code> will
+	 * parse a Bundle completely apart from any Observations it contains, for which only the code is parsed.
+	 * Note that unknown elements within skipped parts of the resource are not reported to the
+	 * {@link #setParserErrorHandler(IParserErrorHandler) error handler}.
+	 * </p>
+	 * 
+	 * @param theParseOnlyPaths
+	 *           The paths to parse, or <code>null</code> (the default) to parse resources completely
+	 * @return Returns a reference to <code>this</code> parser so that method calls can be chained together
+	 * @since 1.6
+	 */
+	IParser setParseOnlyPaths(Set<String> theParseOnlyPaths);
+
 	/**
 	 * Registers an error handler which will be invoked when any parse errors are found
 	 * 
@@ -25,6 +25,7 @@ import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
 import java.math.BigDecimal;
@@ -50,6 +51,7 @@ import javax.json.stream.JsonGenerator;
 import javax.json.stream.JsonGeneratorFactory;
 import javax.json.stream.JsonParsingException;
 
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.text.WordUtils;
 import org.hl7.fhir.instance.model.api.IBase;
@@ -98,6 +100,7 @@ import ca.uhn.fhir.model.primitive.InstantDt;
 import ca.uhn.fhir.model.primitive.IntegerDt;
 import ca.uhn.fhir.model.primitive.StringDt;
 import ca.uhn.fhir.narrative.INarrativeGenerator;
+import ca.uhn.fhir.rest.server.Constants;
 import ca.uhn.fhir.rest.server.EncodingEnum;
 import ca.uhn.fhir.util.ElementUtil;
 
@@ -111,6 +114,14 @@ public class JsonParser extends BaseParser implements IParser {
 	private static final Set<String> BUNDLE_TEXTNODE_CHILDREN_DSTU2;
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(JsonParser.HeldExtension.class);
 
+	/*
+	 * Generator factories are thread safe and relatively expensive to create (they involve a
+	 * service lookup), and each factory holds a pool of reusable buffers for the generators
+	 * it creates, so we keep one of each flavour around for the life of the JVM
+	 */
+	private static volatile JsonGeneratorFactory ourGeneratorFactory;
+	private static volatile JsonGeneratorFactory ourPrettyPrintGeneratorFactory;
+
 	static {
 		HashSet<String> hashSetDstu1 = new HashSet<String>();
 		hashSetDstu1.add("title");
@@ -185,27 +196,43 @@ public class JsonParser extends BaseParser implements IParser {
 		}
 	}
 
+	private JsonGenerator createJsonGenerator(OutputStream theOutputStream) {
+		/*
+		 * The stream is shielded from close so that we can close the generator once we're done
+		 * with it, which returns its buffer to the factory's pool
+		 */
+		return getOrCreateGeneratorFactory().createGenerator(new CloseShieldOutputStream(theOutputStream), Constants.CHARSET_UTF8);
+	}
+
 	private JsonGenerator createJsonGenerator(Writer theWriter) {
-		Map<String, Object> properties = new HashMap<String, Object>(1);
-		if (myPrettyPrint) {
-			properties.put(JsonGenerator.PRETTY_PRINTING, myPrettyPrint);
-		}
-		JsonGeneratorFactory jgf = Json.createGeneratorFactory(properties);
-		JsonGenerator eventWriter = jgf.createGenerator(theWriter);
-		return eventWriter;
+		return getOrCreateGeneratorFactory().createGenerator(theWriter);
+	}
+
+	@Override
+	protected void doEncodeBundleToOutputStream(Bundle theBundle, OutputStream theOutputStream) throws IOException {
+		JsonGenerator eventWriter = createJsonGenerator(theOutputStream);
+		encodeBundleToJsonStreamWriter(theBundle, eventWriter);
+		eventWriter.close();
+		theOutputStream.flush();
 	}
 
 	@Override
 	public void doEncodeBundleToWriter(Bundle theBundle, Writer theWriter) throws IOException {
 		JsonGenerator eventWriter = createJsonGenerator(theWriter);
-		if (myContext.getVersion().getVersion().isNewerThan(FhirVersionEnum.DSTU1)) {
-			encodeBundleToWriterInDstu2Format(theBundle, eventWriter);
-		} else {
-			encodeBundleToWriterInDstu1Format(theBundle, eventWriter);
-		}
+		encodeBundleToJsonStreamWriter(theBundle, eventWriter);
 		eventWriter.flush();
 	}
 
+	@Override
+	protected void doEncodeResourceToOutputStream(IBaseResource theResource, OutputStream theOutputStream) throws IOException {
+		JsonGenerator eventWriter = createJsonGenerator(theOutputStream);
+
+		RuntimeResourceDefinition resDef = myContext.getResourceDefinition(theResource);
+		encodeResourceToJsonStreamWriter(resDef, theResource, eventWriter, null, false);
+		eventWriter.close();
+		theOutputStream.flush();
+	}
+
 	@Override
 	protected void doEncodeResourceToWriter(IBaseResource theResource, Writer theWriter) throws IOException {
 		JsonGenerator eventWriter = createJsonGenerator(theWriter);
@@ -215,6 +242,14 @@ public class JsonParser extends BaseParser implements IParser {
 		eventWriter.flush();
 	}
 
+	private void encodeBundleToJsonStreamWriter(Bundle theBundle, JsonGenerator theEventWriter) throws IOException {
+		if (myContext.getVersion().getVersion().isNewerThan(FhirVersionEnum.DSTU1)) {
+			encodeBundleToWriterInDstu2Format(theBundle, theEventWriter);
+		} else {
+			encodeBundleToWriterInDstu1Format(theBundle, theEventWriter);
+		}
+	}
+
 	@Override
 	public <T extends IBaseResource> T doParseResource(Class<T> theResourceType, Reader theReader) {
 		try {
@@ -1023,6 +1058,26 @@ public class JsonParser extends BaseParser implements IParser {
 		return EncodingEnum.JSON;
 	}
 
+	private JsonGeneratorFactory getOrCreateGeneratorFactory() {
+		if (myPrettyPrint) {
+			JsonGeneratorFactory retVal = ourPrettyPrintGeneratorFactory;
+			if (retVal == null) {
+				Map<String, Object> properties = new HashMap<String, Object>(1);
+				properties.put(JsonGenerator.PRETTY_PRINTING, Boolean.TRUE);
+				retVal = Json.createGeneratorFactory(properties);
+				ourPrettyPrintGeneratorFactory = retVal;
+			}
+			return retVal;
+		}
+
+		JsonGeneratorFactory retVal = ourGeneratorFactory;
+		if (retVal == null) {
+			retVal = Json.createGeneratorFactory(new HashMap<String, Object>(0));
+			ourGeneratorFactory = retVal;
+		}
+		return retVal;
+	}
+
 	private JsonArray grabJsonArray(JsonObject theObject, String nextName, String thePosition) {
 		JsonValue object = theObject.get(nextName);
 		if (object == null || object.getValueType()==ValueType.NULL) {
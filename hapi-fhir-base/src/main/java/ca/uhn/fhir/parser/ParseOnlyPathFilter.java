@@ -0,0 +1,159 @@
+package ca.uhn.fhir.parser;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ca.uhn.fhir.context.BaseRuntimeChildDefinition;
+
+/**
+ * Compiled form of the paths passed to {@link IParser#setParseOnlyPaths(Set)}. Paths
+ * are compiled into a tree of element names for each resource type so that the parser
+ * can decide whether to descend into an element with a single map lookup.
+ */
+class ParseOnlyPathFilter {
+
+	private static final String WILDCARD = "*";
+
+	private final Map<String, Node> myResourceTypeToRoot = new HashMap<String, Node>();
+	private final Node myWildcardRoot;
+
+	ParseOnlyPathFilter(Set<String> thePaths) {
+		Map<String, List<String[]>> resourceTypeToPaths = new HashMap<String, List<String[]>>();
+		List<String[]> wildcardPaths = new ArrayList<String[]>();
+
+		for (String next : thePaths) {
+			if (isBlank(next)) {
+				continue;
+			}
+			String[] parts = next.trim().split("\\.");
+			if (WILDCARD.equals(parts[0])) {
+				wildcardPaths.add(parts);
+			} else {
+				List<String[]> list = resourceTypeToPaths.get(parts[0]);
+				if (list == null) {
+					list = new ArrayList<String[]>();
+					resourceTypeToPaths.put(parts[0], list);
+				}
+				list.add(parts);
+			}
+		}
+
+		if (wildcardPaths.isEmpty()) {
+			myWildcardRoot = null;
+		} else {
+			myWildcardRoot = createRoot(wildcardPaths);
+		}
+
+		for (Map.Entry<String, List<String[]>> next : resourceTypeToPaths.entrySet()) {
+			List<String[]> paths = next.getValue();
+			paths.addAll(wildcardPaths);
+			myResourceTypeToRoot.put(next.getKey(), createRoot(paths));
+		}
+	}
+
+	/**
+	 * Returns the filter to apply to the children of a resource of the given type,
+	 * or <code>null</code> if the resource should be parsed completely
+	 */
+	Node getResourceRoot(String theResourceName) {
+		Node retVal = myResourceTypeToRoot.get(theResourceName);
+		if (retVal == null) {
+			retVal = myWildcardRoot;
+		}
+		return retVal;
+	}
+
+	private static Node createRoot(List<String[]> thePaths) {
+		Node root = new Node();
+		for (String[] nextPath : thePaths) {
+			if (nextPath.length == 1) {
+				// A path consisting of only the resource type means "the whole resource"
+				root.myTerminal = true;
+				continue;
+			}
+			Node current = root;
+			for (int i = 1; i < nextPath.length; i++) {
+				current = current.getOrCreateChild(nextPath[i]);
+			}
+			current.myTerminal = true;
+		}
+
+		// The resource ID is always parsed
+		root.getOrCreateChild("id").myTerminal = true;
+
+		return root;
+	}
+
+	static class Node {
+		private Map<String, Node> myChildren;
+		private boolean myTerminal;
+
+		/**
+		 * Returns the node for the given child, or <code>null</code> if the child
+		 * (and everything beneath it) should be skipped
+		 *
+		 * @param theChildName
+		 *           The element name as it appears in the source document (e.g. <code>valueQuantity</code>)
+		 * @param theChildDefinition
+		 *           The child definition, used to match choice elements by their base name (e.g. <code>value</code>)
+		 */
+		Node getChild(String theChildName, BaseRuntimeChildDefinition theChildDefinition) {
+			if (myTerminal) {
+				return this;
+			}
+			if (myChildren == null) {
+				return null;
+			}
+			Node retVal = myChildren.get(theChildName);
+			if (retVal == null && theChildDefinition != null) {
+				retVal = myChildren.get(theChildDefinition.getElementName());
+			}
+			return retVal;
+		}
+
+		private Node getOrCreateChild(String theName) {
+			if (myChildren == null) {
+				myChildren = new HashMap<String, Node>();
+			}
+			Node retVal = myChildren.get(theName);
+			if (retVal == null) {
+				retVal = new Node();
+				myChildren.put(theName, retVal);
+			}
+			return retVal;
+		}
+
+		/**
+		 * Is this node (and therefore its entire subtree) selected for parsing
+		 */
+		boolean isTerminal() {
+			return myTerminal;
+		}
+	}
+
+}
@@ -103,6 +103,7 @@ class ParserState<T> {
 	private final boolean myJsonMode;
 	private T myObject;
 	private final IParser myParser;
+	private final ParseOnlyPathFilter myParseOnlyPathFilter;
 	private IBase myPreviousElement;
 	private BaseState myState;
 	private ParserState(IParser theParser, FhirContext theContext, boolean theJsonMode, IParserErrorHandler theErrorHandler) {
@@ -110,6 +111,11 @@ class ParserState<T> {
 		myContext = theContext;
 		myJsonMode = theJsonMode;
 		myErrorHandler = theErrorHandler;
+		if (theParser instanceof BaseParser) {
+			myParseOnlyPathFilter = ((BaseParser) theParser).getParseOnlyPathFilter();
+		} else {
+			myParseOnlyPathFilter = null;
+		}
 	}
 
 	public void attributeValue(String theName, String theValue) throws DataFormatException {
@@ -1542,6 +1548,7 @@ class ParserState<T> {
 
 		private BaseRuntimeElementCompositeDefinition<?> myDefinition;
 		private IBase myInstance;
+		private ParseOnlyPathFilter.Node myParseOnlyPathNode;
 		private Set<String> myParsedNonRepeatableNames = new HashSet<String>();
 
 		public ElementCompositeState(PreResourceState thePreResourceState, BaseRuntimeElementCompositeDefinition<?> theDef, IBase theInstance) {
@@ -1600,6 +1607,19 @@ class ParserState<T> {
 				return;
 			}
 
+			ParseOnlyPathFilter.Node childParseOnlyPathNode = null;
+			if (myParseOnlyPathNode != null) {
+				childParseOnlyPathNode = myParseOnlyPathNode.getChild(theChildName, child);
+				if (childParseOnlyPathNode == null) {
+					// Not a requested path, so skip over this element without building anything
+					push(new SwallowChildrenWholeState(getPreResourceState()));
+					return;
+				}
+				if (childParseOnlyPathNode.isTerminal()) {
+					childParseOnlyPathNode = null;
+				}
+			}
+
 			BaseRuntimeElementDefinition<?> target = child.getChildByName(theChildName);
 			if (target == null) {
 				// This is a bug with the structures and shouldn't happen..
@@ -1612,6 +1632,7 @@ class ParserState<T> {
 				ICompositeType newChildInstance = (ICompositeType) compositeTarget.newInstance(child.getInstanceConstructorArguments());
 				child.getMutator().addValue(myInstance, newChildInstance);
 				ParserState<T>.ElementCompositeState newState = new ElementCompositeState(getPreResourceState(), compositeTarget, newChildInstance);
+				newState.setParseOnlyPathNode(childParseOnlyPathNode);
 				push(newState);
 				return;
 			}
@@ -1630,6 +1651,7 @@ class ParserState<T> {
 				IBase newBlockInstance = blockTarget.newInstance();
 				child.getMutator().addValue(myInstance, newBlockInstance);
 				ElementCompositeState newState = new ElementCompositeState(getPreResourceState(), blockTarget, newBlockInstance);
+				newState.setParseOnlyPathNode(childParseOnlyPathNode);
 				push(newState);
 				return;
 			}
@@ -1689,6 +1711,14 @@ class ParserState<T> {
 
 		@Override
 		public void enteringNewElementExtension(StartElement theElement, String theUrlAttr, boolean theIsModifier) {
+			if (myParseOnlyPathNode != null) {
+				String childName = theIsModifier ? "modifierExtension" : "extension";
+				if (myParseOnlyPathNode.getChild(childName, null) == null) {
+					push(new SwallowChildrenWholeState(getPreResourceState()));
+					return;
+				}
+			}
+
 			RuntimeChildDeclaredExtensionDefinition declaredExtension = myDefinition.getDeclaredExtension(theUrlAttr);
 			if (declaredExtension != null) {
 				BaseState newState = new DeclaredExtensionState(getPreResourceState(), declaredExtension, myInstance);
@@ -1703,6 +1733,18 @@ class ParserState<T> {
 			return myInstance;
 		}
 
+		protected ParseOnlyPathFilter.Node getParseOnlyPathNode() {
+			return myParseOnlyPathNode;
+		}
+
+		/**
+		 * Restricts the children of this element which are parsed, or <code>null</code>
+		 * (the default) to parse all children
+		 */
+		public void setParseOnlyPathNode(ParseOnlyPathFilter.Node theParseOnlyPathNode) {
+			myParseOnlyPathNode = theParseOnlyPathNode;
+		}
+
 	}
 
 	public class ElementIdState extends BaseState {
@@ -2039,11 +2081,19 @@ class ParserState<T> {
 			String resourceName = def.getName();
 			if ("Binary".equals(resourceName) && myContext.getVersion().getVersion() == FhirVersionEnum.DSTU1) {
 				push(new BinaryResourceStateForDstu1(getRootPreResourceState(), (IBaseBinary) myInstance));
-			} else if (myInstance instanceof IResource) {
-				push(new ResourceStateHapi(getRootPreResourceState(), def, (IResource) myInstance));
+				return;
+			}
+
+			ElementCompositeState resourceState;
+			if (myInstance instanceof IResource) {
+				resourceState = new ResourceStateHapi(getRootPreResourceState(), def, (IResource) myInstance);
 			} else {
-				push(new ResourceStateHl7Org(getRootPreResourceState(), def, myInstance));
+				resourceState = new ResourceStateHl7Org(getRootPreResourceState(), def, myInstance);
+			}
+			if (myParseOnlyPathFilter != null) {
+				resourceState.setParseOnlyPathNode(myParseOnlyPathFilter.getResourceRoot(resourceName));
 			}
+			push(resourceState);
 		}
 
 		public Map<String, IBaseResource> getContainedResources() {
@@ -2412,6 +2462,10 @@ class ParserState<T> {
 			if ("id".equals(theChildName)) {
 				push(new PrimitiveState(getPreResourceState(), myInstance.getId()));
 			} else if ("meta".equals(theChildName)) {
+				if (getParseOnlyPathNode() != null && getParseOnlyPathNode().getChild(theChildName, null) == null) {
+					push(new SwallowChildrenWholeState(getPreResourceState()));
+					return;
+				}
 				push(new MetaElementState(getPreResourceState(), myInstance.getResourceMetadata()));
 			} else {
 				super.enteringNewElement(theNamespace, theChildName);
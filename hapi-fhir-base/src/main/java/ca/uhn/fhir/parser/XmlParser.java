@@ -24,6 +24,7 @@ import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
@@ -46,6 +47,7 @@ import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
 import org.hl7.fhir.instance.model.api.IAnyResource;
 import org.hl7.fhir.instance.model.api.IBase;
 import org.hl7.fhir.instance.model.api.IBaseBinary;
@@ -91,6 +93,7 @@ import ca.uhn.fhir.narrative.INarrativeGenerator;
 import ca.uhn.fhir.rest.server.Constants;
 import ca.uhn.fhir.rest.server.EncodingEnum;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.util.ContentHandlerStreamWriter;
 import ca.uhn.fhir.util.ElementUtil;
 import ca.uhn.fhir.util.NonPrettyPrintWriterWrapper;
 import ca.uhn.fhir.util.PrettyPrintWriterWrapper;
@@ -137,6 +140,13 @@ public class XmlParser extends BaseParser implements IParser {
 		}
 	}
 
+	private XMLStreamWriter createXmlWriter(OutputStream theOutputStream) throws XMLStreamException {
+		XMLStreamWriter eventWriter;
+		eventWriter = XmlUtil.createXmlStreamWriter(theOutputStream);
+		eventWriter = decorateStreamWriter(eventWriter);
+		return eventWriter;
+	}
+
 	private XMLStreamWriter createXmlWriter(Writer theWriter) throws XMLStreamException {
 		XMLStreamWriter eventWriter;
 		eventWriter = XmlUtil.createXmlStreamWriter(theWriter);
@@ -154,20 +164,42 @@ public class XmlParser extends BaseParser implements IParser {
 		}
 	}
 
+	@Override
+	protected void doEncodeBundleToOutputStream(Bundle theBundle, OutputStream theOutputStream) throws IOException, DataFormatException {
+		try {
+			XMLStreamWriter eventWriter = createXmlWriter(theOutputStream);
+			encodeBundleToXmlStreamWriter(theBundle, eventWriter);
+		} catch (XMLStreamException e) {
+			throw new ConfigurationException("Failed to initialize STaX event factory", e);
+		}
+		theOutputStream.flush();
+	}
+
 	@Override
 	public void doEncodeBundleToWriter(Bundle theBundle, Writer theWriter) throws DataFormatException {
 		try {
 			XMLStreamWriter eventWriter = createXmlWriter(theWriter);
-			if (myContext.getVersion().getVersion().isNewerThan(FhirVersionEnum.DSTU1)) {
-				encodeBundleToWriterDstu2(theBundle, eventWriter);
-			} else {
-				encodeBundleToWriterDstu1(theBundle, eventWriter);
-			}
+			encodeBundleToXmlStreamWriter(theBundle, eventWriter);
 		} catch (XMLStreamException e) {
 			throw new ConfigurationException("Failed to initialize STaX event factory", e);
 		}
 	}
 
+	@Override
+	protected void doEncodeResourceToOutputStream(IBaseResource theResource, OutputStream theOutputStream) throws IOException, DataFormatException {
+		try {
+			XMLStreamWriter eventWriter = createXmlWriter(theOutputStream);
+
+			encodeResourceToXmlStreamWriter(theResource, eventWriter, false);
+
+			// Closing the writer releases its buffers but does not close the underlying stream
+			eventWriter.close();
+		} catch (XMLStreamException e) {
+			throw new ConfigurationException("Failed to initialize STaX event factory", e);
+		}
+		theOutputStream.flush();
+	}
+
 	@Override
 	public void doEncodeResourceToWriter(IBaseResource theResource, Writer theWriter) throws DataFormatException {
 		XMLStreamWriter eventWriter;
@@ -292,6 +324,14 @@ public class XmlParser extends BaseParser implements IParser {
 		return stringWriter.toString();
 	}
 
+	private void encodeBundleToXmlStreamWriter(Bundle theBundle, XMLStreamWriter theEventWriter) throws XMLStreamException {
+		if (myContext.getVersion().getVersion().isNewerThan(FhirVersionEnum.DSTU1)) {
+			encodeBundleToWriterDstu2(theBundle, theEventWriter);
+		} else {
+			encodeBundleToWriterDstu1(theBundle, theEventWriter);
+		}
+	}
+
 	private void encodeBundleToWriterDstu1(Bundle theBundle, XMLStreamWriter eventWriter) throws XMLStreamException {
 		eventWriter.writeStartElement("feed");
 		eventWriter.writeDefaultNamespace(ATOM_NS);
@@ -735,6 +775,26 @@ public class XmlParser extends BaseParser implements IParser {
 		}
 	}
 
+	/**
+	 * Encodes a resource as a series of calls to the given StAX writer, instead of as text. Along with a
+	 * {@link ContentHandlerStreamWriter}, this can be used to pass a resource to something which consumes
+	 * XML events without serializing the resource and parsing it again. The writer is not closed.
+	 * 
+	 * @since 1.6
+	 */
+	public void encodeResourceToXmlStreamWriter(IBaseResource theResource, XMLStreamWriter theWriter) throws DataFormatException {
+		Validate.notNull(theResource, "theResource can not be null");
+		Validate.notNull(theWriter, "theWriter can not be null");
+
+		validateResourceVersionForEncoding(theResource);
+
+		try {
+			encodeResourceToXmlStreamWriter(theResource, decorateStreamWriter(theWriter), false);
+		} catch (XMLStreamException e) {
+			throw new DataFormatException(e);
+		}
+	}
+
 	private void encodeResourceToXmlStreamWriter(IBaseResource theResource, XMLStreamWriter theEventWriter, boolean theIncludedResource) throws XMLStreamException, DataFormatException {
 		IIdType resourceId = null;
 
@@ -75,6 +75,16 @@ public @interface OperationParam {
 	 * </ul>
 	 */
 	Class<? extends IBase> type() default IBase.class;
+
+	/**
+	 * The name of the type of the parameter, e.g. <code>"decimal"</code>. This may be used instead
+	 * of {@link #type()} by operations which are shared by providers for several versions of FHIR (and
+	 * so can not refer to a version specific datatype class). Like {@link #type()}, this will only have
+	 * effect on <code>@OperationParam</code> annotations specified as values for {@link Operation#returnParameters()}.
+	 * 
+	 * @since 1.6
+	 */
+	String typeName() default "";
 	
 	/**
 	 * The minimum number of repetitions allowed for this child (default is 0)
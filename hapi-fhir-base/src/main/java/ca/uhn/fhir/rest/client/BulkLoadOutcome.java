@@ -0,0 +1,174 @@
+package ca.uhn.fhir.rest.client;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+
+/**
+ * The result of a {@link BulkLoader} run. Instances are updated by the threads uploading
+ * the bundles while the load is running, and are complete once it has returned.
+ * 
+ * @since 1.6
+ */
+public class BulkLoadOutcome {
+
+	private int myBundleCount;
+	private long myElapsedNanos;
+	private int myFailedEntryCount;
+	private final List<FailedBundle> myFailedBundles = new ArrayList<FailedBundle>();
+	private long myRequestTotalNanos;
+	private int myResourceCount;
+	private int myRetryCount;
+
+	synchronized void addBundle(int theResourceCount, int theFailedEntryCount, long theRequestNanos) {
+		myBundleCount++;
+		myResourceCount += theResourceCount;
+		myFailedEntryCount += theFailedEntryCount;
+		myRequestTotalNanos += theRequestNanos;
+	}
+
+	synchronized void addFailedBundle(List<IBaseResource> theResources, BaseServerResponseException theException) {
+		myFailedBundles.add(new FailedBundle(theResources, theException));
+	}
+
+	synchronized void addRetry() {
+		myRetryCount++;
+	}
+
+	/**
+	 * Returns the number of bundles which were accepted by the server
+	 */
+	public synchronized int getBundleCount() {
+		return myBundleCount;
+	}
+
+	/**
+	 * Returns the wall-clock time taken by the load, in milliseconds
+	 */
+	public synchronized long getElapsedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(myElapsedNanos);
+	}
+
+	/**
+	 * Returns the bundles which could not be uploaded, even after retrying. Their resources
+	 * are not included in {@link #getResourceCount()}.
+	 */
+	public synchronized List<FailedBundle> getFailedBundles() {
+		return Collections.unmodifiableList(new ArrayList<FailedBundle>(myFailedBundles));
+	}
+
+	/**
+	 * Returns the number of entries in accepted batch bundles for which the server returned a
+	 * non-2xx status. This is always 0 for transactions, since the server rejects a transaction
+	 * as a whole if any of its entries fail.
+	 */
+	public synchronized int getFailedEntryCount() {
+		return myFailedEntryCount;
+	}
+
+	/**
+	 * Returns the mean time taken by a successful request, in milliseconds
+	 */
+	public synchronized long getMeanRequestMillis() {
+		if (myBundleCount == 0) {
+			return 0;
+		}
+		return TimeUnit.NANOSECONDS.toMillis(myRequestTotalNanos / myBundleCount);
+	}
+
+	/**
+	 * Returns the number of resources in bundles which were accepted by the server
+	 */
+	public synchronized int getResourceCount() {
+		return myResourceCount;
+	}
+
+	/**
+	 * Returns the number of resources uploaded per second of wall-clock time
+	 */
+	public synchronized double getResourcesPerSecond() {
+		if (myElapsedNanos == 0) {
+			return 0;
+		}
+		return myResourceCount / (myElapsedNanos / 1000000000.0);
+	}
+
+	/**
+	 * Returns the number of requests which failed and were retried
+	 */
+	public synchronized int getRetryCount() {
+		return myRetryCount;
+	}
+
+	/**
+	 * Returns <code>true</code> if every bundle was accepted and (for batches) every entry
+	 * in them succeeded
+	 */
+	public synchronized boolean isSuccessful() {
+		return myFailedBundles.isEmpty() && myFailedEntryCount == 0;
+	}
+
+	synchronized void setElapsedNanos(long theElapsedNanos) {
+		myElapsedNanos = theElapsedNanos;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d resources in %d bundles in %dms (%.1f resources/sec, mean request %dms, %d retries, %d failed bundles, %d failed entries)", myResourceCount, myBundleCount, getElapsedMillis(), getResourcesPerSecond(), getMeanRequestMillis(), myRetryCount, myFailedBundles.size(), myFailedEntryCount);
+	}
+
+	/**
+	 * A bundle which could not be uploaded
+	 */
+	public static class FailedBundle {
+
+		private final BaseServerResponseException myException;
+		private final List<IBaseResource> myResources;
+
+		FailedBundle(List<IBaseResource> theResources, BaseServerResponseException theException) {
+			myResources = Collections.unmodifiableList(theResources);
+			myException = theException;
+		}
+
+		/**
+		 * Returns the failure from the last attempt to upload the bundle
+		 */
+		public BaseServerResponseException getException() {
+			return myException;
+		}
+
+		/**
+		 * Returns the resources which were in the bundle
+		 */
+		public List<IBaseResource> getResources() {
+			return myResources;
+		}
+
+	}
+
+}
@@ -0,0 +1,435 @@
+package ca.uhn.fhir.rest.client;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
+import ca.uhn.fhir.model.valueset.BundleTypeEnum;
+import ca.uhn.fhir.rest.client.exceptions.FhirClientConnectionException;
+import ca.uhn.fhir.rest.client.exceptions.NonFhirResponseException;
+import ca.uhn.fhir.rest.method.HttpPostClientInvocation;
+import ca.uhn.fhir.rest.method.IClientResponseHandler;
+import ca.uhn.fhir.rest.server.EncodingEnum;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.util.CompiledTerserPath;
+
+/**
+ * Uploads a large number of resources to a server by splitting them into transaction (or batch)
+ * bundles of a bounded size and sending several of these bundles concurrently over the
+ * client's connection pool. Instances are created using {@link IGenericClient#bulkLoader()}.
+ * <p>
+ * Input is consumed lazily, and at most {@link #setMaximumInFlightRequests(int) a fixed number}
+ * of bundles are built or being sent at any one time, so resources may be supplied by an
+ * {@link Iterable} which reads them from disk as they are needed. Failed requests are retried after
+ * a delay which doubles with each attempt, but only if resending the bundle can not apply any of its
+ * entries twice:
+ * <ul>
+ * <li>If every resource has an ID (so that every entry is an update, which has the same effect if
+ * it is applied twice) the bundle is retried after any connection problem or 5xx response.</li>
+ * <li>Otherwise the bundle is only retried if the failure shows that the server did not apply it:
+ * the connection was refused, the server responded with a 429 or 503, or a transaction failed with
+ * any other 5xx response (other than a 504, which a proxy may send after the server has committed the
+ * transaction). Other connection problems such as read timeouts may happen after the server has
+ * applied the bundle, so these are not retried.</li>
+ * </ul>
+ * Bundles which still fail are reported in the returned {@link BulkLoadOutcome} and do not stop the
+ * remaining bundles from being sent.
+ * </p>
+ * <p>
+ * Note that bundles are sent in no particular order, so resources which reference each other
+ * by their placeholder IDs must be supplied as a group using {@link #loadGroups(Iterable)} in
+ * order to be placed in the same bundle.
+ * </p>
+ * <p>
+ * This class is not thread safe, but the client which created it may continue to be used by
+ * other threads while a load is running.
+ * </p>
+ * 
+ * @since 1.6
+ */
+public class BulkLoader {
+
+	/**
+	 * Default value for {@link #setMaximumBundleSize(int)}
+	 */
+	public static final int DEFAULT_MAXIMUM_BUNDLE_SIZE = 100;
+
+	/**
+	 * Default value for {@link #setMaximumInFlightRequests(int)}
+	 */
+	public static final int DEFAULT_MAXIMUM_IN_FLIGHT_REQUESTS = 4;
+
+	/**
+	 * Default value for {@link #setMaximumRetries(int)}
+	 */
+	public static final int DEFAULT_MAXIMUM_RETRIES = 3;
+
+	/**
+	 * Default value for {@link #setRetryDelayMillis(long)}
+	 */
+	public static final long DEFAULT_RETRY_DELAY_MILLIS = 1000;
+
+	private static final AtomicInteger ourLoaderCount = new AtomicInteger();
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(BulkLoader.class);
+	private static final long PROGRESS_LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+	private BundleTypeEnum myBundleType = BundleTypeEnum.TRANSACTION;
+	private final GenericClient myClient;
+	private final FhirContext myContext;
+	private int myMaximumBundleSize = DEFAULT_MAXIMUM_BUNDLE_SIZE;
+	private int myMaximumInFlightRequests = DEFAULT_MAXIMUM_IN_FLIGHT_REQUESTS;
+	private int myMaximumRetries = DEFAULT_MAXIMUM_RETRIES;
+	private long myRetryDelayMillis = DEFAULT_RETRY_DELAY_MILLIS;
+
+	BulkLoader(GenericClient theClient) {
+		myClient = theClient;
+		myContext = theClient.getFhirContext();
+		if (myContext.getVersion().getVersion() == FhirVersionEnum.DSTU1) {
+			throw new IllegalStateException("Bulk loading is not supported for FHIR version " + FhirVersionEnum.DSTU1);
+		}
+	}
+
+	public BundleTypeEnum getBundleType() {
+		return myBundleType;
+	}
+
+	public int getMaximumBundleSize() {
+		return myMaximumBundleSize;
+	}
+
+	public int getMaximumInFlightRequests() {
+		return myMaximumInFlightRequests;
+	}
+
+	public int getMaximumRetries() {
+		return myMaximumRetries;
+	}
+
+	public long getRetryDelayMillis() {
+		return myRetryDelayMillis;
+	}
+
+	/**
+	 * Uploads the given resources, placing up to {@link #getMaximumBundleSize()} of them in each bundle
+	 * 
+	 * @return The outcome of the load, which includes any bundles which could not be uploaded
+	 */
+	public BulkLoadOutcome load(final Iterable<? extends IBaseResource> theResources) {
+		Validate.notNull(theResources, "theResources must not be null");
+		return loadGroups(new Iterable<List<IBaseResource>>() {
+			@Override
+			public Iterator<List<IBaseResource>> iterator() {
+				final Iterator<? extends IBaseResource> iter = theResources.iterator();
+				return new Iterator<List<IBaseResource>>() {
+					@Override
+					public boolean hasNext() {
+						return iter.hasNext();
+					}
+
+					@Override
+					public List<IBaseResource> next() {
+						return Collections.<IBaseResource> singletonList(iter.next());
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		});
+	}
+
+	/**
+	 * Uploads the given groups of resources. The resources in each group are always placed in
+	 * the same bundle, and groups are combined into bundles of up to {@link #getMaximumBundleSize()}
+	 * resources (a group which is larger than this is sent in a bundle of its own).
+	 * 
+	 * @return The outcome of the load, which includes any bundles which could not be uploaded
+	 */
+	public BulkLoadOutcome loadGroups(Iterable<? extends Collection<? extends IBaseResource>> theGroups) {
+		Validate.notNull(theGroups, "theGroups must not be null");
+
+		IRestfulClientFactory clientFactory = myContext.getRestfulClientFactory();
+		if (clientFactory.getPoolMaxPerRoute() < myMaximumInFlightRequests) {
+			ourLog.warn("Client factory allows {} connections per route but {} requests may be in flight, some requests will wait for a connection", clientFactory.getPoolMaxPerRoute(), myMaximumInFlightRequests);
+		}
+
+		final int loaderIndex = ourLoaderCount.incrementAndGet();
+		ExecutorService executor = Executors.newFixedThreadPool(myMaximumInFlightRequests, new ThreadFactory() {
+			private final AtomicInteger myThreadCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable theRunnable) {
+				Thread retVal = new Thread(theRunnable, "hapi-fhir-bulk-loader-" + loaderIndex + "-" + myThreadCount.incrementAndGet());
+				retVal.setDaemon(true);
+				return retVal;
+			}
+		});
+
+		LoadContext load = new LoadContext(executor);
+		try {
+			List<IBaseResource> nextBundle = new ArrayList<IBaseResource>();
+			for (Collection<? extends IBaseResource> nextGroup : theGroups) {
+				if (nextBundle.size() > 0 && nextBundle.size() + nextGroup.size() > myMaximumBundleSize) {
+					load.submit(nextBundle);
+					nextBundle = new ArrayList<IBaseResource>();
+				}
+				nextBundle.addAll(nextGroup);
+			}
+			if (nextBundle.size() > 0) {
+				load.submit(nextBundle);
+			}
+			load.awaitCompletion();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FhirClientConnectionException("Interrupted while waiting for bulk load to complete", e);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		BulkLoadOutcome retVal = load.myOutcome;
+		retVal.setElapsedNanos(System.nanoTime() - load.myStartNanos);
+		ourLog.info("Bulk load complete: {}", retVal);
+		return retVal;
+	}
+
+	/**
+	 * Can the given bundle be sent again after a failure which may have happened after the server
+	 * applied it? This is only the case if every entry is an update (resources without an ID are
+	 * created using a POST, and would be created again).
+	 */
+	private static boolean isIdempotent(List<IBaseResource> theResources) {
+		for (IBaseResource next : theResources) {
+			if (next.getIdElement() == null || next.getIdElement().isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Does the given failure show that the server has not applied any entries of the bundle?
+	 */
+	private boolean isNotApplied(BaseServerResponseException theException) {
+		if (theException instanceof FhirClientConnectionException) {
+			for (Throwable cause = theException.getCause(); cause != null; cause = cause.getCause()) {
+				if (cause instanceof ConnectException) {
+					return true;
+				}
+			}
+			return false;
+		}
+		int status = theException.getStatusCode();
+		if (status == 429 || status == 503) {
+			return true;
+		}
+		return myBundleType == BundleTypeEnum.TRANSACTION && status >= 500 && status != 504;
+	}
+
+	private boolean isRetryable(BaseServerResponseException theException, boolean theIdempotent) {
+		if (isNotApplied(theException)) {
+			return true;
+		}
+		return theIdempotent && (theException instanceof FhirClientConnectionException || theException.getStatusCode() >= 500);
+	}
+
+	/**
+	 * Sets the type of bundle to upload, which must be {@link BundleTypeEnum#TRANSACTION} (the default)
+	 * or {@link BundleTypeEnum#BATCH}
+	 */
+	public BulkLoader setBundleType(BundleTypeEnum theBundleType) {
+		Validate.isTrue(theBundleType == BundleTypeEnum.TRANSACTION || theBundleType == BundleTypeEnum.BATCH, "theBundleType must be TRANSACTION or BATCH");
+		myBundleType = theBundleType;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of resources to place in each bundle. Defaults to {@link #DEFAULT_MAXIMUM_BUNDLE_SIZE}.
+	 */
+	public BulkLoader setMaximumBundleSize(int theMaximumBundleSize) {
+		Validate.isTrue(theMaximumBundleSize > 0, "theMaximumBundleSize must be greater than 0");
+		myMaximumBundleSize = theMaximumBundleSize;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of bundles which may be sent concurrently. Defaults to
+	 * {@link #DEFAULT_MAXIMUM_IN_FLIGHT_REQUESTS}. This should not be greater than
+	 * the {@link IRestfulClientFactory#setPoolMaxPerRoute(int) connection pool size}.
+	 */
+	public BulkLoader setMaximumInFlightRequests(int theMaximumInFlightRequests) {
+		Validate.isTrue(theMaximumInFlightRequests > 0, "theMaximumInFlightRequests must be greater than 0");
+		myMaximumInFlightRequests = theMaximumInFlightRequests;
+		return this;
+	}
+
+	/**
+	 * Sets the number of times a failed bundle is retried before giving up on it. Defaults to {@link #DEFAULT_MAXIMUM_RETRIES}.
+	 * Bundles containing resources without an ID are only retried if the failure shows that the server has not
+	 * applied them (see the class documentation), since some of their entries may otherwise already have been created.
+	 */
+	public BulkLoader setMaximumRetries(int theMaximumRetries) {
+		Validate.isTrue(theMaximumRetries >= 0, "theMaximumRetries must not be negative");
+		myMaximumRetries = theMaximumRetries;
+		return this;
+	}
+
+	/**
+	 * Sets the delay before the first retry of a failed bundle. The delay is doubled for
+	 * each subsequent retry. Defaults to {@link #DEFAULT_RETRY_DELAY_MILLIS}.
+	 */
+	public BulkLoader setRetryDelayMillis(long theRetryDelayMillis) {
+		Validate.isTrue(theRetryDelayMillis >= 0, "theRetryDelayMillis must not be negative");
+		myRetryDelayMillis = theRetryDelayMillis;
+		return this;
+	}
+
+	private class LoadContext {
+
+		private final ExecutorService myExecutor;
+		private final Semaphore myInFlight = new Semaphore(myMaximumInFlightRequests);
+		private final AtomicLong myLastProgressLogNanos;
+		private final BulkLoadOutcome myOutcome = new BulkLoadOutcome();
+		private final CompiledTerserPath myResponseStatusPath = myContext.newTerser().compilePath("Bundle.entry.response.status");
+		private final long myStartNanos;
+
+		LoadContext(ExecutorService theExecutor) {
+			myExecutor = theExecutor;
+			myStartNanos = System.nanoTime();
+			myLastProgressLogNanos = new AtomicLong(myStartNanos);
+		}
+
+		void awaitCompletion() throws InterruptedException {
+			myInFlight.acquire(myMaximumInFlightRequests);
+			myInFlight.release(myMaximumInFlightRequests);
+		}
+
+		private int countFailedEntries(IBaseBundle theResponse) {
+			if (myBundleType != BundleTypeEnum.BATCH) {
+				return 0;
+			}
+			int retVal = 0;
+			for (IPrimitiveType<?> nextStatus : myContext.newTerser().getValues(theResponse, myResponseStatusPath, IPrimitiveType.class)) {
+				String status = nextStatus.getValueAsString();
+				if (status == null || !status.startsWith("2")) {
+					retVal++;
+				}
+			}
+			return retVal;
+		}
+
+		private void logProgress() {
+			long now = System.nanoTime();
+			long last = myLastProgressLogNanos.get();
+			if (now - last >= PROGRESS_LOG_INTERVAL_NANOS && myLastProgressLogNanos.compareAndSet(last, now)) {
+				myOutcome.setElapsedNanos(now - myStartNanos);
+				ourLog.info("Bulk load in progress: {}", myOutcome);
+			}
+		}
+
+		private void send(List<IBaseResource> theResources) throws InterruptedException {
+			boolean idempotent = isIdempotent(theResources);
+			for (int attempt = 0;; attempt++) {
+				long start = System.nanoTime();
+				try {
+					HttpPostClientInvocation invocation = new HttpPostClientInvocation(myContext, theResources, myBundleType);
+					IBaseBundle response = myClient.invokeClient(myContext, new ResponseBundleHandler(), invocation, myClient.isLogRequestAndResponse());
+					myOutcome.addBundle(theResources.size(), countFailedEntries(response), System.nanoTime() - start);
+					logProgress();
+					return;
+				} catch (BaseServerResponseException e) {
+					if (attempt >= myMaximumRetries || !isRetryable(e, idempotent)) {
+						ourLog.error("Failed to upload bundle of {} resources: {}", theResources.size(), e.getMessage());
+						myOutcome.addFailedBundle(theResources, e);
+						return;
+					}
+					long delay = myRetryDelayMillis << attempt;
+					ourLog.warn("Failed to upload bundle of {} resources ({}), retrying in {}ms", new Object[] { theResources.size(), e.getMessage(), delay });
+					myOutcome.addRetry();
+					Thread.sleep(delay);
+				}
+			}
+		}
+
+		void submit(final List<IBaseResource> theResources) throws InterruptedException {
+			myInFlight.acquire();
+			try {
+				myExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							send(theResources);
+						} catch (InterruptedException e) {
+							myOutcome.addFailedBundle(theResources, new FhirClientConnectionException("Interrupted while uploading bundle", e));
+						} catch (RuntimeException e) {
+							ourLog.error("Failed to upload bundle of " + theResources.size() + " resources", e);
+							myOutcome.addFailedBundle(theResources, new FhirClientConnectionException(e));
+						} finally {
+							myInFlight.release();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				myInFlight.release();
+				throw e;
+			}
+		}
+
+	}
+
+	private class ResponseBundleHandler implements IClientResponseHandler<IBaseBundle> {
+
+		@Override
+		public IBaseBundle invokeClient(String theResponseMimeType, Reader theResponseReader, int theResponseStatusCode, Map<String, List<String>> theHeaders) throws IOException, BaseServerResponseException {
+			EncodingEnum respType = EncodingEnum.forContentType(theResponseMimeType);
+			if (respType == null) {
+				throw NonFhirResponseException.newInstance(theResponseStatusCode, theResponseMimeType, theResponseReader);
+			}
+			return (IBaseBundle) respType.newParser(myContext).parseResource(theResponseReader);
+		}
+
+	}
+
+}
@@ -172,6 +172,11 @@ public class GenericClient extends BaseClient implements IGenericClient {
 		myContext = theContext;
 	}
 
+	@Override
+	public BulkLoader bulkLoader() {
+		return new BulkLoader(this);
+	}
+
 	@Override
 	public IBaseConformance conformance() {
 		if (myContext.getVersion().getVersion().equals(FhirVersionEnum.DSTU2_HL7ORG)) {
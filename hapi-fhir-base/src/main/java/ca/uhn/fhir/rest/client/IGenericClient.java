@@ -53,6 +53,14 @@ import ca.uhn.fhir.rest.gclient.IValidate;
 
 public interface IGenericClient extends IRestfulClient {
 
+	/**
+	 * Creates a new {@link BulkLoader} which uploads large numbers of resources to the server
+	 * using concurrent transaction or batch requests
+	 * 
+	 * @since 1.6
+	 */
+	BulkLoader bulkLoader();
+
 	/**
 	 * Retrieves and returns the server conformance statement
 	 * 
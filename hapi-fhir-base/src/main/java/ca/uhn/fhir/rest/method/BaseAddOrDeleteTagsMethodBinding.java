@@ -24,8 +24,11 @@ import java.io.IOException;
 import java.io.Reader;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.hl7.fhir.instance.model.api.IBaseResource;
 
@@ -50,6 +53,8 @@ import ca.uhn.fhir.rest.server.interceptor.IServerInterceptor;
 
 abstract class BaseAddOrDeleteTagsMethodBinding extends BaseMethodBinding<Void> {
 
+	private static final Set<String> DISPATCH_OPERATIONS = toDispatchOperations(Constants.PARAM_TAGS);
+	private static final Set<RequestTypeEnum> DISPATCH_REQUEST_TYPES = Collections.unmodifiableSet(EnumSet.of(RequestTypeEnum.POST));
 	private Class<? extends IBaseResource> myType;
 	private Integer myIdParamIndex;
 	private Integer myVersionIdParamIndex;
@@ -181,6 +186,16 @@ abstract class BaseAddOrDeleteTagsMethodBinding extends BaseMethodBinding<Void>
 		return theRequest.getResponse().returnResponse(null, Constants.STATUS_HTTP_200_OK, false, null, null);
 	}
 
+	@Override
+	public Set<String> getDispatchOperations() {
+		return DISPATCH_OPERATIONS;
+	}
+
+	@Override
+	public Set<RequestTypeEnum> getDispatchRequestTypes() {
+		return DISPATCH_REQUEST_TYPES;
+	}
+
 	@Override
 	public boolean incomingServerRequestMatchesMethod(RequestDetails theRequest) {
 		if (theRequest.getRequestType() != RequestTypeEnum.POST) {
@@ -27,7 +27,9 @@ import java.io.Reader;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -61,9 +63,11 @@ import ca.uhn.fhir.rest.annotation.Transaction;
 import ca.uhn.fhir.rest.annotation.Update;
 import ca.uhn.fhir.rest.annotation.Validate;
 import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
 import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
 import ca.uhn.fhir.rest.client.BaseHttpClientInvocation;
 import ca.uhn.fhir.rest.client.exceptions.NonFhirResponseException;
+import ca.uhn.fhir.rest.param.ResourceParameter;
 import ca.uhn.fhir.rest.server.BundleProviders;
 import ca.uhn.fhir.rest.server.Constants;
 import ca.uhn.fhir.rest.server.EncodingEnum;
@@ -92,6 +96,7 @@ public abstract class BaseMethodBinding<T> implements IClientResponseHandler<T>
 	private Method myMethod;
 	private List<IParameter> myParameters;
 	private Object myProvider;
+	private boolean myRequestContentsBuffered;
 	private boolean mySupportsConditional;
 	private boolean mySupportsConditionalMultiple;
 
@@ -114,6 +119,19 @@ public abstract class BaseMethodBinding<T> implements IClientResponseHandler<T>
 			}
 		}
 
+		/*
+		 * Raw body parameters are read in addition to any parsed resource (including the one parsed for
+		 * interceptors), so the body needs to be buffered instead of streamed to the parser
+		 */
+		for (IParameter next : myParameters) {
+			if (next instanceof ResourceParameter) {
+				ResourceParameter.Mode mode = ((ResourceParameter) next).getMode();
+				if (mode == ResourceParameter.Mode.BODY || mode == ResourceParameter.Mode.BODY_BYTE_ARRAY) {
+					myRequestContentsBuffered = true;
+				}
+			}
+		}
+
 	}
 
 	protected IParser createAppropriateParserForParsingResponse(String theResponseMimeType, Reader theResponseReader, int theResponseStatusCode) {
@@ -149,7 +167,19 @@ public abstract class BaseMethodBinding<T> implements IClientResponseHandler<T>
 		return parser;
 	}
 
+	/**
+	 * Buffers the request body if this method reads it more than once. This must be called before anything
+	 * streams the body (e.g. to parse it for interceptors).
+	 */
+	protected void bufferRequestContentsIfRequired(RequestDetails theRequest) {
+		if (myRequestContentsBuffered) {
+			theRequest.loadRequestContents();
+		}
+	}
+
 	protected Object[] createParametersForServerRequest(RequestDetails theRequest) {
+		bufferRequestContentsIfRequired(theRequest);
+
 		Object[] params = new Object[getParameters().size()];
 		for (int i = 0; i < getParameters().size(); i++) {
 			IParameter param = getParameters().get(i);
@@ -169,6 +199,44 @@ public abstract class BaseMethodBinding<T> implements IClientResponseHandler<T>
 		return myContext;
 	}
 
+	/**
+	 * Returns the operations (e.g. <code>_history</code> or <code>$everything</code>) which an incoming request
+	 * must have in order for {@link #incomingServerRequestMatchesMethod(RequestDetails)} to match it. A
+	 * <code>null</code> element in the returned set represents a request with no (or a blank) operation.
+	 * <p>
+	 * This is used to build the server's method dispatch table, so that methods which can not possibly
+	 * match a request are never tested against it. The default implementation returns <code>null</code>, meaning
+	 * that the method may match any operation. Subclasses which override
+	 * {@link #incomingServerRequestMatchesMethod(RequestDetails)} must make sure that they never match
+	 * a request which is not covered by this method.
+	 * </p>
+	 */
+	public Set<String> getDispatchOperations() {
+		return null;
+	}
+
+	/**
+	 * Returns the names of any parameters which must be present (with or without a qualifier) in an
+	 * incoming request in order for {@link #incomingServerRequestMatchesMethod(RequestDetails)} to match
+	 * it. The default implementation returns an empty collection.
+	 * 
+	 * @see #getDispatchOperations()
+	 */
+	public Collection<String> getDispatchRequiredParameterNames() {
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Returns the request types which an incoming request must have in order for
+	 * {@link #incomingServerRequestMatchesMethod(RequestDetails)} to match it, or <code>null</code>
+	 * if the method may match any request type. The default implementation returns <code>null</code>.
+	 * 
+	 * @see #getDispatchOperations()
+	 */
+	public Set<RequestTypeEnum> getDispatchRequestTypes() {
+		return null;
+	}
+
 	public Set<String> getIncludes() {
 		Set<String> retVal = new TreeSet<String>();
 		for (IParameter next : myParameters) {
@@ -247,6 +315,13 @@ public abstract class BaseMethodBinding<T> implements IClientResponseHandler<T>
 
 	public abstract boolean incomingServerRequestMatchesMethod(RequestDetails theRequest);
 
+	/**
+	 * Creates a set for {@link #getDispatchOperations()}, which may contain <code>null</code>
+	 */
+	protected static Set<String> toDispatchOperations(String... theOperations) {
+		return Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(theOperations)));
+	}
+
 	public abstract BaseHttpClientInvocation invokeClient(Object[] theArgs) throws InternalErrorException;
 
 	public abstract Object invokeServer(IRestfulServer<?> theServer, RequestDetails theRequest) throws BaseServerResponseException, IOException;
@@ -131,6 +131,16 @@ abstract class BaseOutcomeReturningMethodBinding extends BaseMethodBinding<Metho
 		}
 	}
 
+	@Override
+	public Set<String> getDispatchOperations() {
+		return toDispatchOperations(getMatchingOperation());
+	}
+
+	@Override
+	public Set<RequestTypeEnum> getDispatchRequestTypes() {
+		return provideAllowableRequestTypes();
+	}
+
 	@Override
 	public boolean incomingServerRequestMatchesMethod(RequestDetails theRequest) {
 		Set<RequestTypeEnum> allowableRequestTypes = provideAllowableRequestTypes();
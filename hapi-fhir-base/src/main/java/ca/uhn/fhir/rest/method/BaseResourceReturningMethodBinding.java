@@ -286,13 +286,7 @@ public abstract class BaseResourceReturningMethodBinding extends BaseMethodBindi
 
 	public ResourceOrDstu1Bundle doInvokeServer(IRestfulServer<?> theServer, RequestDetails theRequest) {
 		// Method params
-		Object[] params = new Object[getParameters().size()];
-		for (int i = 0; i < getParameters().size(); i++) {
-			IParameter param = getParameters().get(i);
-			if (param != null) {
-				params[i] = param.translateQueryParametersIntoServerArgument(theRequest, this);
-			}
-		}
+		Object[] params = createParametersForServerRequest(theRequest);
 
 		Object resultObj = invokeServer(theServer, theRequest, params);
 
@@ -376,7 +370,20 @@ public abstract class BaseResourceReturningMethodBinding extends BaseMethodBindi
 				EncodingEnum linkEncoding = theRequest.getParameters().containsKey(Constants.PARAM_FORMAT) ? responseEncoding : null;
 
 				boolean prettyPrint = RestfulServerUtils.prettyPrintResponse(theServer, theRequest);
-				bundleFactory.initializeBundleFromBundleProvider(theServer, result, linkEncoding, theRequest.getFhirServerBase(), linkSelf, prettyPrint, start, count, null, getResponseBundleType(), includes);
+
+				Set<SummaryEnum> summaryMode = RestfulServerUtils.determineSummaryMode(theRequest);
+				if (summaryMode.contains(SummaryEnum.COUNT) && getResponseBundleType() != null) {
+					/*
+					 * Only the total will be encoded, so there is no need to load any resources (or to store the
+					 * results for paging)
+					 */
+					bundleFactory.initializeBundleFromResourceList(null, Collections.<IBaseResource> emptyList(), theRequest.getFhirServerBase(), linkSelf, result.size(), getResponseBundleType());
+				} else {
+					// If the results are stored for paging, the bundle factory stores the complete results rather than the view
+					IBundleProvider view = RestfulServerUtils.createSummaryView(result, theRequest);
+					bundleFactory.initializeBundleFromBundleProvider(theServer, view, linkEncoding, theRequest.getFhirServerBase(), linkSelf, prettyPrint, start, count, null, getResponseBundleType(), includes);
+				}
+
 				Bundle bundle = bundleFactory.getDstu1Bundle();
 				if (bundle != null) {
 					responseObject = new ResourceOrDstu1Bundle(bundle);
@@ -23,8 +23,11 @@ package ca.uhn.fhir.rest.method;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.hl7.fhir.instance.model.api.IBaseResource;
 
@@ -43,6 +46,8 @@ import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 
 public class DynamicSearchMethodBinding extends BaseResourceReturningMethodBinding {
 
+	private static final Set<String> DISPATCH_OPERATIONS = toDispatchOperations(null, Constants.PARAM_SEARCH);
+	private static final Set<RequestTypeEnum> DISPATCH_REQUEST_TYPES = Collections.unmodifiableSet(EnumSet.of(RequestTypeEnum.GET, RequestTypeEnum.POST));
 	private IDynamicSearchResourceProvider myProvider;
 	private List<RuntimeSearchParam> mySearchParameters;
 	private HashSet<String> myParamNames;
@@ -102,6 +107,16 @@ public class DynamicSearchMethodBinding extends BaseResourceReturningMethodBindi
 
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(DynamicSearchMethodBinding.class);
 
+	@Override
+	public Set<String> getDispatchOperations() {
+		return DISPATCH_OPERATIONS;
+	}
+
+	@Override
+	public Set<RequestTypeEnum> getDispatchRequestTypes() {
+		return DISPATCH_REQUEST_TYPES;
+	}
+
 	@Override
 	public boolean incomingServerRequestMatchesMethod(RequestDetails theRequest) {
 		if (!theRequest.getResourceName().equals(getResourceName())) {
@@ -24,8 +24,11 @@ import java.io.IOException;
 import java.io.Reader;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.hl7.fhir.instance.model.api.IBaseResource;
 
@@ -49,6 +52,8 @@ import ca.uhn.fhir.rest.server.interceptor.IServerInterceptor;
 
 public class GetTagsMethodBinding extends BaseMethodBinding<TagList> {
 
+	private static final Set<String> DISPATCH_OPERATIONS = toDispatchOperations(Constants.PARAM_TAGS);
+	private static final Set<RequestTypeEnum> DISPATCH_REQUEST_TYPES = Collections.unmodifiableSet(EnumSet.of(RequestTypeEnum.GET));
 	private Integer myIdParamIndex;
 	private String myResourceName;
 	private Class<? extends IBaseResource> myType;
@@ -86,6 +91,16 @@ public class GetTagsMethodBinding extends BaseMethodBinding<TagList> {
 		return RestOperationTypeEnum.GET_TAGS;
 	}
 
+	@Override
+	public Set<String> getDispatchOperations() {
+		return DISPATCH_OPERATIONS;
+	}
+
+	@Override
+	public Set<RequestTypeEnum> getDispatchRequestTypes() {
+		return DISPATCH_REQUEST_TYPES;
+	}
+
 	@Override
 	public boolean incomingServerRequestMatchesMethod(RequestDetails theRequest) {
 		if (theRequest.getRequestType() != RequestTypeEnum.GET) {
@@ -26,6 +26,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
 import org.hl7.fhir.instance.model.api.IBaseResource;
@@ -49,6 +50,7 @@ import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 
 public class HistoryMethodBinding extends BaseResourceReturningMethodBinding {
 
+	private static final Set<String> DISPATCH_OPERATIONS = toDispatchOperations(Constants.PARAM_HISTORY);
 	private final Integer myIdParamIndex;
 	private String myResourceName;
 	private final RestOperationTypeEnum myResourceOperationType;
@@ -103,6 +105,11 @@ public class HistoryMethodBinding extends BaseResourceReturningMethodBinding {
 	}
 
 	// ObjectUtils.equals is replaced by a JDK7 method..
+	@Override
+	public Set<String> getDispatchOperations() {
+		return DISPATCH_OPERATIONS;
+	}
+
 	@Override
 	public boolean incomingServerRequestMatchesMethod(RequestDetails theRequest) {
 		if (!Constants.PARAM_HISTORY.equals(theRequest.getOperation())) {
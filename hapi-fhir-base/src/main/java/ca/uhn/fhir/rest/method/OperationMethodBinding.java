@@ -28,9 +28,11 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.hl7.fhir.instance.model.api.IBase;
 import org.hl7.fhir.instance.model.api.IBaseDatatype;
@@ -62,6 +64,7 @@ import ca.uhn.fhir.util.FhirTerser;
 
 public class OperationMethodBinding extends BaseResourceReturningMethodBinding {
 
+	private static final Set<RequestTypeEnum> DISPATCH_REQUEST_TYPES = Collections.unmodifiableSet(EnumSet.of(RequestTypeEnum.GET, RequestTypeEnum.POST));
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(OperationMethodBinding.class);
 	private boolean myCanOperateAtInstanceLevel;
 	private boolean myCanOperateAtServerLevel;
@@ -158,6 +161,8 @@ public class OperationMethodBinding extends BaseResourceReturningMethodBinding {
 						throw new ConfigurationException("Invalid value for @OperationParam.type(): " + next.type().getName());
 					}
 					type.setType(theContext.getElementDefinition(next.type()).getName());
+				} else if (isNotBlank(next.typeName())) {
+					type.setType(next.typeName());
 				}
 				myReturnParams.add(type);
 			}
@@ -206,6 +211,16 @@ public class OperationMethodBinding extends BaseResourceReturningMethodBinding {
 		return myReturnType;
 	}
 
+	@Override
+	public Set<String> getDispatchOperations() {
+		return toDispatchOperations(myName);
+	}
+
+	@Override
+	public Set<RequestTypeEnum> getDispatchRequestTypes() {
+		return DISPATCH_REQUEST_TYPES;
+	}
+
 	@Override
 	public boolean incomingServerRequestMatchesMethod(RequestDetails theRequest) {
 		if (getResourceName() == null) {
@@ -290,6 +305,7 @@ public class OperationMethodBinding extends BaseResourceReturningMethodBinding {
 	@Override
 	public Object invokeServer(IRestfulServer<?> theServer, RequestDetails theRequest) throws BaseServerResponseException, IOException {
 		if (theRequest.getRequestType() == RequestTypeEnum.POST) {
+			bufferRequestContentsIfRequired(theRequest);
 			IBaseResource requestContents = ResourceParameter.loadResourceFromRequest(theRequest, this, null);
 			theRequest.getUserData().put(OperationParameter.REQUEST_CONTENTS_USERDATA_KEY, requestContents);
 		}
@@ -23,6 +23,9 @@ package ca.uhn.fhir.rest.method;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
 import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -56,6 +59,8 @@ public class PageMethodBinding extends BaseResourceReturningMethodBinding {
 		super(null, theMethod, theContext, null);
 	}
 
+	private static final Collection<String> DISPATCH_REQUIRED_PARAMS = Collections.singletonList(Constants.PARAM_PAGINGACTION);
+	private static final Set<RequestTypeEnum> DISPATCH_REQUEST_TYPES = Collections.unmodifiableSet(EnumSet.of(RequestTypeEnum.GET));
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(PageMethodBinding.class);
 
 	public IBaseResource provider() {
@@ -136,7 +141,9 @@ public class PageMethodBinding extends BaseResourceReturningMethodBinding {
 			bundleType = BundleTypeEnum.VALUESET_BINDER.fromCodeString(bundleTypeValues[0]);
 		}
 
-		bundleFactory.initializeBundleFromBundleProvider(theServer, resultList, responseEncoding, theRequest.getFhirServerBase(), linkSelf, prettyPrint, start, count, thePagingAction, bundleType, includes);
+		// The paging provider already holds the results, so the view used to load this page is never stored
+		IBundleProvider view = RestfulServerUtils.createSummaryView(resultList, theRequest);
+		bundleFactory.initializeBundleFromBundleProvider(theServer, view, responseEncoding, theRequest.getFhirServerBase(), linkSelf, prettyPrint, start, count, thePagingAction, bundleType, includes);
 
 		Bundle bundle = bundleFactory.getDstu1Bundle();
 		if (bundle != null) {
@@ -176,6 +183,16 @@ public class PageMethodBinding extends BaseResourceReturningMethodBinding {
 		return RestOperationTypeEnum.GET_PAGE;
 	}
 
+	@Override
+	public Collection<String> getDispatchRequiredParameterNames() {
+		return DISPATCH_REQUIRED_PARAMS;
+	}
+
+	@Override
+	public Set<RequestTypeEnum> getDispatchRequestTypes() {
+		return DISPATCH_REQUEST_TYPES;
+	}
+
 	@Override
 	public boolean incomingServerRequestMatchesMethod(RequestDetails theRequest) {
 		String[] pageId = theRequest.getParameters().get(Constants.PARAM_PAGINGACTION);
@@ -1,5 +1,6 @@
 package ca.uhn.fhir.rest.method;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
@@ -52,6 +53,7 @@ public abstract class RequestDetails {
 	private String myOperation;
 	private Map<String, String[]> myParameters;
 	private byte[] myRequestContents;
+	private boolean myRequestContentsStreamed;
 	private String myRequestPath;
 	private RequestTypeEnum myRequestType;
 	private String myResourceName;
@@ -63,6 +65,18 @@ public abstract class RequestDetails {
 	private Map<String, List<String>> myUnqualifiedToQualifiedNames;
 	private Map<Object, Object> myUserData;
 	protected abstract byte[] getByteStreamRequestContents();
+
+	/**
+	 * Returns a stream containing the (uncompressed) body of the request, without buffering it. This
+	 * will be called at most once per request. The default implementation wraps
+	 * {@link #getByteStreamRequestContents()}, so subclasses should override this method if they are
+	 * able to stream the request body.
+	 * 
+	 * @since 1.6
+	 */
+	protected InputStream getInputStreamRequestContents() {
+		return new ByteArrayInputStream(getByteStreamRequestContents());
+	}
 	
 	/**
 	 * Return the charset as defined by the header contenttype. Return null if it is not set.
@@ -211,8 +225,46 @@ public abstract class RequestDetails {
 		return myRespondGzip;
 	}
 
+	/**
+	 * Returns a stream containing the (uncompressed) body of the request. If the body has already
+	 * been buffered by a call to {@link #loadRequestContents()}, the stream reads from the buffered
+	 * copy. Otherwise the body is streamed directly from the client without being held in memory,
+	 * in which case this method may only be called once, and {@link #loadRequestContents()} may not
+	 * be called afterwards.
+	 * 
+	 * @throws IllegalStateException
+	 *            If the request body has already been streamed
+	 * @since 1.6
+	 */
+	public final InputStream getRequestContentsStream() {
+		if (myRequestContents != null) {
+			return new ByteArrayInputStream(myRequestContents);
+		}
+		if (myRequestContentsStreamed) {
+			throw new IllegalStateException("The request body has already been read");
+		}
+		myRequestContentsStreamed = true;
+		return getInputStreamRequestContents();
+	}
+
+	/**
+	 * Returns the (uncompressed) body of the request, buffering it in memory so that it may
+	 * be read again by later processing.
+	 * <p>
+	 * Note that the server streams request bodies directly to the parser unless they have already
+	 * been buffered, so interceptors which need the request body must call this method before the
+	 * request is handled by a resource provider method (e.g. in
+	 * {@link IServerInterceptor#incomingRequestPostProcessed(RequestDetails, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse) incomingRequestPostProcessed}).
+	 * </p>
+	 * 
+	 * @throws IllegalStateException
+	 *            If the request body has already been streamed without being buffered
+	 */
 	public final byte[] loadRequestContents() {
 		if (myRequestContents == null) {
+			if (myRequestContentsStreamed) {
+				throw new IllegalStateException("The request body has already been streamed and was not buffered. Call loadRequestContents() before the request is handled if the body is needed.");
+			}
 			myRequestContents = getByteStreamRequestContents();
 		}
 		return myRequestContents;
@@ -25,6 +25,7 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -53,6 +54,8 @@ import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 
 public class SearchMethodBinding extends BaseResourceReturningMethodBinding {
+	private static final Set<String> DISPATCH_OPERATIONS = toDispatchOperations(null, Constants.PARAM_SEARCH);
+	private static final Set<RequestTypeEnum> DISPATCH_REQUEST_TYPES = Collections.unmodifiableSet(EnumSet.of(RequestTypeEnum.GET, RequestTypeEnum.POST));
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(SearchMethodBinding.class);
 
 	private String myCompartmentName;
@@ -138,6 +141,27 @@ public class SearchMethodBinding extends BaseResourceReturningMethodBinding {
 //		}
 	}
 
+	@Override
+	public Set<String> getDispatchOperations() {
+		return DISPATCH_OPERATIONS;
+	}
+
+	@Override
+	public List<String> getDispatchRequiredParameterNames() {
+		List<String> retVal = new ArrayList<String>();
+		for (IParameter next : getParameters()) {
+			if (next instanceof BaseQueryParameter && ((BaseQueryParameter) next).isRequired()) {
+				retVal.add(((BaseQueryParameter) next).getName());
+			}
+		}
+		return retVal;
+	}
+
+	@Override
+	public Set<RequestTypeEnum> getDispatchRequestTypes() {
+		return DISPATCH_REQUEST_TYPES;
+	}
+
 	@Override
 	public boolean incomingServerRequestMatchesMethod(RequestDetails theRequest) {
 		if (theRequest.getId() != null && myIdParamIndex == null) {
@@ -21,10 +21,10 @@ package ca.uhn.fhir.rest.param;
  */
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.StringReader;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.nio.charset.Charset;
@@ -52,6 +52,8 @@ import ca.uhn.fhir.rest.method.RequestDetails;
 import ca.uhn.fhir.rest.server.Constants;
 import ca.uhn.fhir.rest.server.EncodingEnum;
 import ca.uhn.fhir.rest.server.IResourceProvider;
+import ca.uhn.fhir.rest.server.PerformancePhaseEnum;
+import ca.uhn.fhir.rest.server.RequestPerformance;
 import ca.uhn.fhir.rest.server.RestfulServerUtils;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
@@ -105,8 +107,7 @@ public class ResourceParameter implements IParameter {
 			try {
 				return IOUtils.toString(createRequestReader(theRequest));
 			} catch (IOException e) {
-				// Shouldn't happen since we're reading from a byte array
-				throw new InternalErrorException("Failed to load request", e);
+				throw new InvalidRequestException("Could not load request resource: " + e.getMessage());
 			}
 		case BODY_BYTE_ARRAY:
 			return theRequest.loadRequestContents();
@@ -119,8 +120,13 @@ public class ResourceParameter implements IParameter {
 		// }
 	}
 
+	/**
+	 * Creates a reader for the request body. Unless the body has already been buffered (see
+	 * {@link RequestDetails#loadRequestContents()}), it is streamed from the client so the returned
+	 * reader may only be created once per request.
+	 */
 	public static Reader createRequestReader(RequestDetails theRequest, Charset charset) {
-		Reader requestReader = new InputStreamReader(new ByteArrayInputStream(theRequest.loadRequestContents()), charset);
+		Reader requestReader = new InputStreamReader(theRequest.getRequestContentsStream(), charset);
 		return requestReader;
 	}
 
@@ -162,15 +168,14 @@ public class ResourceParameter implements IParameter {
 				try {
 					body = IOUtils.toString(requestReader);
 				} catch (IOException e) {
-					// This shouldn't happen since we're reading from a byte array..
-					throw new InternalErrorException(e);
+					throw new InvalidRequestException("Could not load request resource: " + e.getMessage());
 				}
 				encoding = MethodUtil.detectEncodingNoDefault(body);
 				if (encoding == null) {
 					String msg = ctx.getLocalizer().getMessage(ResourceParameter.class, "noContentTypeInRequest", restOperationType);
 					throw new InvalidRequestException(msg);
 				} else {
-					requestReader = new InputStreamReader(new ByteArrayInputStream(theRequest.loadRequestContents()), charset);
+					requestReader = new StringReader(body);
 				}
 			} else {
 				String msg = ctx.getLocalizer().getMessage(ResourceParameter.class, "invalidContentTypeInRequest", ctValue, restOperationType);
@@ -181,6 +186,7 @@ public class ResourceParameter implements IParameter {
 		IParser parser = encoding.newParser(ctx);
 
 		T retVal;
+		long parseStart = RequestPerformance.startTimer();
 		try {
 			if (theResourceType != null) {
 				retVal = parser.parseResource(theResourceType, requestReader);
@@ -190,6 +196,8 @@ public class ResourceParameter implements IParameter {
 		} catch (DataFormatException e) {
 			String msg = ctx.getLocalizer().getMessage(ResourceParameter.class, "failedToParseRequest", encoding.name(), e.getMessage());
 			throw new InvalidRequestException(msg);
+		} finally {
+			RequestPerformance.stopTimer(PerformancePhaseEnum.PARSE, parseStart);
 		}
 		
 		if (theRequest.getServer().getFhirContext().getVersion().getVersion().equals(FhirVersionEnum.DSTU1)) {
@@ -42,6 +42,8 @@ import ca.uhn.fhir.rest.method.BaseMethodBinding;
 import ca.uhn.fhir.rest.method.IParameter;
 import ca.uhn.fhir.rest.method.RequestDetails;
 import ca.uhn.fhir.rest.server.EncodingEnum;
+import ca.uhn.fhir.rest.server.PerformancePhaseEnum;
+import ca.uhn.fhir.rest.server.RequestPerformance;
 import ca.uhn.fhir.rest.server.RestfulServerUtils;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
@@ -108,24 +110,29 @@ public class TransactionParameter implements IParameter {
 		Reader reader;
 		reader = ResourceParameter.createRequestReader(theRequest);
 
-		switch (myParamStyle) {
-			case DSTU1_BUNDLE: {
-				Bundle bundle;
-				bundle = parser.parseBundle(reader);
-				return bundle;
-			}
-			case RESOURCE_LIST: {
-				Bundle bundle = parser.parseBundle(reader);
-				ArrayList<IResource> resourceList = new ArrayList<IResource>();
-				for (BundleEntry next : bundle.getEntries()) {
-					if (next.getResource() != null) {
-						resourceList.add(next.getResource());
+		long parseStart = RequestPerformance.startTimer();
+		try {
+			switch (myParamStyle) {
+				case DSTU1_BUNDLE: {
+					Bundle bundle;
+					bundle = parser.parseBundle(reader);
+					return bundle;
+				}
+				case RESOURCE_LIST: {
+					Bundle bundle = parser.parseBundle(reader);
+					ArrayList<IResource> resourceList = new ArrayList<IResource>();
+					for (BundleEntry next : bundle.getEntries()) {
+						if (next.getResource() != null) {
+							resourceList.add(next.getResource());
+						}
 					}
+					return resourceList;
 				}
-				return resourceList;
+				case RESOURCE_BUNDLE:
+					return parser.parseResource(myResourceBundleType, reader);
 			}
-			case RESOURCE_BUNDLE:
-				return parser.parseResource(myResourceBundleType, reader);
+		} finally {
+			RequestPerformance.stopTimer(PerformancePhaseEnum.PARSE, parseStart);
 		}
 
 		throw new IllegalStateException("Unknown type: " + myParamStyle); // should not happen
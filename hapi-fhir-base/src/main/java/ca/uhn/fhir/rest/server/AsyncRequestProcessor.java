@@ -0,0 +1,440 @@
+package ca.uhn.fhir.rest.server;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+
+/**
+ * Hands the processing of a request off to the executor configured using
+ * {@link RestfulServer#setAsyncExecutor(Executor)}, releasing the container thread
+ * while the request is processed.
+ * <p>
+ * This is kept out of {@link RestfulServer} itself because it is the only place where the
+ * server uses Servlet-API 3.0+ classes, so that the server can still be deployed to older
+ * containers as long as asynchronous processing is not enabled.
+ * </p>
+ * <p>
+ * If a request times out, the client is sent a 503 and the request is completed right away. The worker
+ * processing the request is not interrupted, but anything it writes to the response afterwards is
+ * discarded, since by then the container may have recycled the response for another request.
+ * </p>
+ */
+class AsyncRequestProcessor {
+
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(AsyncRequestProcessor.class);
+
+	private final Executor myExecutor;
+	private final RestfulServer myServer;
+	private final long myTimeout;
+
+	AsyncRequestProcessor(RestfulServer theServer, Executor theExecutor, long theTimeout) {
+		myServer = theServer;
+		myExecutor = theExecutor;
+		myTimeout = theTimeout;
+	}
+
+	/**
+	 * Returns <code>false</code> if the container can not process this request asynchronously (e.g. because
+	 * the servlet or a filter in front of it has not been marked as supporting it), in which case the
+	 * caller should process the request on the current thread
+	 */
+	boolean isAsyncSupported(HttpServletRequest theRequest) {
+		return theRequest.isAsyncSupported() && !theRequest.isAsyncStarted();
+	}
+
+	void process(final RequestTypeEnum theRequestType, final HttpServletRequest theRequest, HttpServletResponse theResponse) {
+		final AsyncContext asyncContext = theRequest.startAsync();
+		final TimeoutGuardedResponse response = new TimeoutGuardedResponse(theResponse);
+		asyncContext.setTimeout(myTimeout);
+		asyncContext.addListener(new AsyncListener() {
+			@Override
+			public void onComplete(AsyncEvent theEvent) throws IOException {
+				// nothing
+			}
+
+			@Override
+			public void onError(AsyncEvent theEvent) throws IOException {
+				ourLog.warn("Error during asynchronous processing of request " + theRequest.getRequestURI(), theEvent.getThrowable());
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent theEvent) throws IOException {
+				// nothing
+			}
+
+			@Override
+			public void onTimeout(AsyncEvent theEvent) throws IOException {
+				ourLog.warn("Asynchronous processing of request {} timed out after {}ms", theRequest.getRequestURI(), myTimeout);
+				response.timeOut();
+				asyncContext.complete();
+			}
+		});
+
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					myServer.handleRequestOnCurrentThread(theRequestType, theRequest, response);
+				} catch (Throwable e) {
+					if (response.isTimedOut()) {
+						ourLog.debug("Failure after asynchronous request " + theRequest.getRequestURI() + " timed out", e);
+						return;
+					}
+					ourLog.error("Failure during asynchronous processing of request " + theRequest.getRequestURI(), e);
+					if (!response.isCommitted()) {
+						try {
+							response.sendError(Constants.STATUS_HTTP_500_INTERNAL_ERROR);
+						} catch (IOException e1) {
+							ourLog.debug("Failed to send error response", e1);
+						}
+					}
+				} finally {
+					if (!response.isTimedOut()) {
+						try {
+							asyncContext.complete();
+						} catch (IllegalStateException e) {
+							// The request timed out after we checked
+							ourLog.debug("Could not complete asynchronous request", e);
+						}
+					}
+				}
+			}
+		};
+
+		try {
+			myExecutor.execute(task);
+		} catch (RejectedExecutionException e) {
+			ourLog.warn("Asynchronous executor rejected request {}, processing it on the container thread instead", theRequest.getRequestURI());
+			task.run();
+		}
+	}
+
+	/**
+	 * Wraps the response passed to the worker so that once the request has timed out, nothing the worker
+	 * does can reach the underlying response. All changes to the response are made while holding the
+	 * wrapper's lock so that the error sent on timeout never interleaves with output from the worker.
+	 */
+	private static class TimeoutGuardedResponse extends HttpServletResponseWrapper {
+
+		private ServletOutputStream myOutputStream;
+		private boolean myTimedOut;
+		private PrintWriter myWriter;
+
+		TimeoutGuardedResponse(HttpServletResponse theResponse) {
+			super(theResponse);
+		}
+
+		@Override
+		public synchronized void addCookie(Cookie theCookie) {
+			if (!myTimedOut) {
+				super.addCookie(theCookie);
+			}
+		}
+
+		@Override
+		public synchronized void addDateHeader(String theName, long theDate) {
+			if (!myTimedOut) {
+				super.addDateHeader(theName, theDate);
+			}
+		}
+
+		@Override
+		public synchronized void addHeader(String theName, String theValue) {
+			if (!myTimedOut) {
+				super.addHeader(theName, theValue);
+			}
+		}
+
+		@Override
+		public synchronized void addIntHeader(String theName, int theValue) {
+			if (!myTimedOut) {
+				super.addIntHeader(theName, theValue);
+			}
+		}
+
+		private void checkNotTimedOut() throws IOException {
+			if (myTimedOut) {
+				throw new IOException("Request has timed out");
+			}
+		}
+
+		@Override
+		public synchronized void flushBuffer() throws IOException {
+			checkNotTimedOut();
+			super.flushBuffer();
+		}
+
+		@Override
+		public synchronized ServletOutputStream getOutputStream() throws IOException {
+			checkNotTimedOut();
+			if (myOutputStream == null) {
+				myOutputStream = new GuardedOutputStream(super.getOutputStream());
+			}
+			return myOutputStream;
+		}
+
+		@Override
+		public synchronized PrintWriter getWriter() throws IOException {
+			checkNotTimedOut();
+			if (myWriter == null) {
+				myWriter = new PrintWriter(new GuardedWriter(super.getWriter()));
+			}
+			return myWriter;
+		}
+
+		@Override
+		public synchronized boolean isCommitted() {
+			return myTimedOut || super.isCommitted();
+		}
+
+		synchronized boolean isTimedOut() {
+			return myTimedOut;
+		}
+
+		@Override
+		public synchronized void reset() {
+			if (!myTimedOut) {
+				super.reset();
+			}
+		}
+
+		@Override
+		public synchronized void resetBuffer() {
+			if (!myTimedOut) {
+				super.resetBuffer();
+			}
+		}
+
+		@Override
+		public synchronized void sendError(int theStatusCode) throws IOException {
+			checkNotTimedOut();
+			super.sendError(theStatusCode);
+		}
+
+		@Override
+		public synchronized void sendError(int theStatusCode, String theMessage) throws IOException {
+			checkNotTimedOut();
+			super.sendError(theStatusCode, theMessage);
+		}
+
+		@Override
+		public synchronized void sendRedirect(String theLocation) throws IOException {
+			checkNotTimedOut();
+			super.sendRedirect(theLocation);
+		}
+
+		@Override
+		public synchronized void setBufferSize(int theSize) {
+			if (!myTimedOut) {
+				super.setBufferSize(theSize);
+			}
+		}
+
+		@Override
+		public synchronized void setCharacterEncoding(String theCharset) {
+			if (!myTimedOut) {
+				super.setCharacterEncoding(theCharset);
+			}
+		}
+
+		@Override
+		public synchronized void setContentLength(int theLength) {
+			if (!myTimedOut) {
+				super.setContentLength(theLength);
+			}
+		}
+
+		@Override
+		public synchronized void setContentLengthLong(long theLength) {
+			if (!myTimedOut) {
+				super.setContentLengthLong(theLength);
+			}
+		}
+
+		@Override
+		public synchronized void setContentType(String theType) {
+			if (!myTimedOut) {
+				super.setContentType(theType);
+			}
+		}
+
+		@Override
+		public synchronized void setDateHeader(String theName, long theDate) {
+			if (!myTimedOut) {
+				super.setDateHeader(theName, theDate);
+			}
+		}
+
+		@Override
+		public synchronized void setHeader(String theName, String theValue) {
+			if (!myTimedOut) {
+				super.setHeader(theName, theValue);
+			}
+		}
+
+		@Override
+		public synchronized void setIntHeader(String theName, int theValue) {
+			if (!myTimedOut) {
+				super.setIntHeader(theName, theValue);
+			}
+		}
+
+		@Override
+		public synchronized void setLocale(Locale theLocale) {
+			if (!myTimedOut) {
+				super.setLocale(theLocale);
+			}
+		}
+
+		@Override
+		public synchronized void setStatus(int theStatusCode) {
+			if (!myTimedOut) {
+				super.setStatus(theStatusCode);
+			}
+		}
+
+		/**
+		 * Called by the container thread when the request times out: sends the client an error if the
+		 * worker has not started the response yet, and stops anything else reaching the response
+		 */
+		synchronized void timeOut() {
+			if (myTimedOut) {
+				return;
+			}
+			if (!super.isCommitted()) {
+				try {
+					super.reset();
+					super.sendError(Constants.STATUS_HTTP_503_SERVICE_UNAVAILABLE);
+				} catch (Exception e) {
+					ourLog.debug("Failed to send timeout response", e);
+				}
+			}
+			myTimedOut = true;
+		}
+
+		private class GuardedOutputStream extends ServletOutputStream {
+
+			private final ServletOutputStream myWrap;
+
+			GuardedOutputStream(ServletOutputStream theWrap) {
+				myWrap = theWrap;
+			}
+
+			@Override
+			public void close() throws IOException {
+				synchronized (TimeoutGuardedResponse.this) {
+					if (!myTimedOut) {
+						myWrap.close();
+					}
+				}
+			}
+
+			@Override
+			public void flush() throws IOException {
+				synchronized (TimeoutGuardedResponse.this) {
+					checkNotTimedOut();
+					myWrap.flush();
+				}
+			}
+
+			@Override
+			public boolean isReady() {
+				return myWrap.isReady();
+			}
+
+			@Override
+			public void setWriteListener(WriteListener theWriteListener) {
+				myWrap.setWriteListener(theWriteListener);
+			}
+
+			@Override
+			public void write(byte[] theBytes, int theOffset, int theLength) throws IOException {
+				synchronized (TimeoutGuardedResponse.this) {
+					checkNotTimedOut();
+					myWrap.write(theBytes, theOffset, theLength);
+				}
+			}
+
+			@Override
+			public void write(int theByte) throws IOException {
+				synchronized (TimeoutGuardedResponse.this) {
+					checkNotTimedOut();
+					myWrap.write(theByte);
+				}
+			}
+
+		}
+
+		private class GuardedWriter extends Writer {
+
+			private final Writer myWrap;
+
+			GuardedWriter(Writer theWrap) {
+				myWrap = theWrap;
+			}
+
+			@Override
+			public void close() throws IOException {
+				synchronized (TimeoutGuardedResponse.this) {
+					if (!myTimedOut) {
+						myWrap.close();
+					}
+				}
+			}
+
+			@Override
+			public void flush() throws IOException {
+				synchronized (TimeoutGuardedResponse.this) {
+					checkNotTimedOut();
+					myWrap.flush();
+				}
+			}
+
+			@Override
+			public void write(char[] theChars, int theOffset, int theLength) throws IOException {
+				synchronized (TimeoutGuardedResponse.this) {
+					checkNotTimedOut();
+					myWrap.write(theChars, theOffset, theLength);
+				}
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,384 @@
+package ca.uhn.fhir.rest.server;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * In-memory paging provider which is safe to use on busy servers. Compared with
+ * {@link FifoMemoryPagingProvider}:
+ * <ul>
+ * <li>Stored result lists are split across a number of independently locked shards, so that concurrent
+ * searches and page requests rarely contend with each other</li>
+ * <li>In addition to a maximum number of result lists, the total estimated weight of the stored
+ * lists is bounded (see {@link #estimateWeight(IBundleProvider)}), so that a small number of very large
+ * searches can not exhaust the heap</li>
+ * <li>Result lists which have not been accessed for a configurable period are expired</li>
+ * <li>Counts of stored lists, hits, misses, evictions and expiries are available for monitoring</li>
+ * </ul>
+ * <p>
+ * Within each shard, result lists are evicted in least-recently-accessed order, so a client which is
+ * actively paging through a result list keeps it alive. Limits are applied per shard (each shard is
+ * allowed an equal share of the configured maximums), so the provider may begin evicting slightly before
+ * the configured totals are reached.
+ * </p>
+ * 
+ * @since 1.6
+ */
+public class ConcurrentMemoryPagingProvider implements IPagingProvider {
+
+	/**
+	 * Default value for the concurrency level (number of shards)
+	 */
+	public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+	/**
+	 * Default value for {@link #setExpireAfterAccessMillis(long)} (30 minutes)
+	 */
+	public static final long DEFAULT_EXPIRE_AFTER_ACCESS_MILLIS = 30 * 60 * 1000L;
+
+	/**
+	 * Default value for {@link #setMaximumWeight(long)}
+	 */
+	public static final long DEFAULT_MAXIMUM_WEIGHT = 100000;
+
+	/**
+	 * {@link UUID#randomUUID()} uses a single shared random number generator, which would
+	 * otherwise be the one remaining point of contention between threads storing result lists
+	 */
+	private static final ThreadLocal<SecureRandom> ourRandom = new ThreadLocal<SecureRandom>() {
+		@Override
+		protected SecureRandom initialValue() {
+			return new SecureRandom();
+		}
+	};
+
+	private int myDefaultPageSize = 10;
+	private final AtomicLong myEvictionCount = new AtomicLong();
+	private volatile long myExpireAfterAccessMillis = DEFAULT_EXPIRE_AFTER_ACCESS_MILLIS;
+	private final AtomicLong myExpiryCount = new AtomicLong();
+	private final AtomicLong myHitCount = new AtomicLong();
+	private int myMaximumPageSize = 50;
+	private final int myMaximumSize;
+	private volatile long myMaximumWeight = DEFAULT_MAXIMUM_WEIGHT;
+	private final AtomicLong myMissCount = new AtomicLong();
+	private final Shard[] myShards;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param theMaximumSize
+	 *           The maximum number of result lists to store
+	 */
+	public ConcurrentMemoryPagingProvider(int theMaximumSize) {
+		this(theMaximumSize, DEFAULT_CONCURRENCY_LEVEL);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param theMaximumSize
+	 *           The maximum number of result lists to store
+	 * @param theConcurrencyLevel
+	 *           The number of independently locked shards to split the stored result lists across. This will
+	 *           be reduced if it is larger than <code>theMaximumSize</code>.
+	 */
+	public ConcurrentMemoryPagingProvider(int theMaximumSize, int theConcurrencyLevel) {
+		Validate.isTrue(theMaximumSize > 0, "theMaximumSize must be greater than 0");
+		Validate.isTrue(theConcurrencyLevel > 0, "theConcurrencyLevel must be greater than 0");
+
+		myMaximumSize = theMaximumSize;
+		myShards = new Shard[Math.min(theConcurrencyLevel, theMaximumSize)];
+		for (int i = 0; i < myShards.length; i++) {
+			myShards[i] = new Shard();
+		}
+	}
+
+	/**
+	 * Removes all stored result lists
+	 */
+	public void clear() {
+		for (Shard next : myShards) {
+			next.clear();
+		}
+	}
+
+	/**
+	 * Returns the estimated weight of a result list, which is used to bound the total amount of memory
+	 * held by this provider (see {@link #setMaximumWeight(long)}). The default implementation returns the
+	 * number of resources for a {@link SimpleBundleProvider} (which holds all of its resources in memory),
+	 * and <code>1</code> for any other provider, since other providers generally load their resources
+	 * on demand and their size may be expensive to calculate. Subclasses may override this method to
+	 * provide better estimates for the providers returned by their resource providers.
+	 */
+	protected long estimateWeight(IBundleProvider theList) {
+		if (theList instanceof SimpleBundleProvider) {
+			return Math.max(1, theList.size());
+		}
+		return 1;
+	}
+
+	@Override
+	public int getDefaultPageSize() {
+		return myDefaultPageSize;
+	}
+
+	/**
+	 * Returns the number of result lists which have been evicted in order to make room for newer ones
+	 */
+	public long getEvictionCount() {
+		return myEvictionCount.get();
+	}
+
+	/**
+	 * Returns the time after which result lists which have not been accessed are discarded
+	 */
+	public long getExpireAfterAccessMillis() {
+		return myExpireAfterAccessMillis;
+	}
+
+	/**
+	 * Returns the number of result lists which have been discarded because they had not been
+	 * accessed within the {@link #getExpireAfterAccessMillis() expiry time}
+	 */
+	public long getExpiryCount() {
+		return myExpiryCount.get();
+	}
+
+	/**
+	 * Returns the number of times that a requested result list was found
+	 */
+	public long getHitCount() {
+		return myHitCount.get();
+	}
+
+	@Override
+	public int getMaximumPageSize() {
+		return myMaximumPageSize;
+	}
+
+	/**
+	 * Returns the maximum number of result lists which will be stored
+	 */
+	public int getMaximumSize() {
+		return myMaximumSize;
+	}
+
+	/**
+	 * Returns the maximum total estimated weight of the stored result lists
+	 */
+	public long getMaximumWeight() {
+		return myMaximumWeight;
+	}
+
+	/**
+	 * Returns the number of times that a requested result list was not found (because it never existed,
+	 * or because it had been evicted or had expired)
+	 */
+	public long getMissCount() {
+		return myMissCount.get();
+	}
+
+	/**
+	 * Returns the number of result lists currently stored
+	 */
+	public int getSize() {
+		int retVal = 0;
+		for (Shard next : myShards) {
+			retVal += next.getSize();
+		}
+		return retVal;
+	}
+
+	/**
+	 * Returns the total estimated weight of the result lists currently stored
+	 */
+	public long getWeight() {
+		long retVal = 0;
+		for (Shard next : myShards) {
+			retVal += next.getWeight();
+		}
+		return retVal;
+	}
+
+	@Override
+	public IBundleProvider retrieveResultList(String theId) {
+		IBundleProvider retVal = shardFor(theId).get(theId, System.currentTimeMillis());
+		if (retVal != null) {
+			myHitCount.incrementAndGet();
+		} else {
+			myMissCount.incrementAndGet();
+		}
+		return retVal;
+	}
+
+	public ConcurrentMemoryPagingProvider setDefaultPageSize(int theDefaultPageSize) {
+		Validate.isTrue(theDefaultPageSize > 0, "size must be greater than 0");
+		myDefaultPageSize = theDefaultPageSize;
+		return this;
+	}
+
+	/**
+	 * Sets the time after which result lists which have not been accessed are discarded. Defaults to
+	 * {@link #DEFAULT_EXPIRE_AFTER_ACCESS_MILLIS}.
+	 */
+	public ConcurrentMemoryPagingProvider setExpireAfterAccessMillis(long theExpireAfterAccessMillis) {
+		Validate.isTrue(theExpireAfterAccessMillis > 0, "theExpireAfterAccessMillis must be greater than 0");
+		myExpireAfterAccessMillis = theExpireAfterAccessMillis;
+		return this;
+	}
+
+	public ConcurrentMemoryPagingProvider setMaximumPageSize(int theMaximumPageSize) {
+		Validate.isTrue(theMaximumPageSize > 0, "size must be greater than 0");
+		myMaximumPageSize = theMaximumPageSize;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum total estimated weight (see {@link #estimateWeight(IBundleProvider)}) of the stored
+	 * result lists. Defaults to {@link #DEFAULT_MAXIMUM_WEIGHT}. Note that a single result list which is
+	 * heavier than this limit will still be stored (since clients could otherwise not page through it),
+	 * but will cause all other result lists in its shard to be evicted.
+	 */
+	public ConcurrentMemoryPagingProvider setMaximumWeight(long theMaximumWeight) {
+		Validate.isTrue(theMaximumWeight > 0, "theMaximumWeight must be greater than 0");
+		myMaximumWeight = theMaximumWeight;
+		return this;
+	}
+
+	private Shard shardFor(String theId) {
+		return myShards[(theId.hashCode() & 0x7fffffff) % myShards.length];
+	}
+
+	@Override
+	public String storeResultList(IBundleProvider theList) {
+		String key = newId();
+		long weight = estimateWeight(theList);
+		shardFor(key).put(key, theList, weight, System.currentTimeMillis());
+		return key;
+	}
+
+	/**
+	 * Returns a random (version 4) UUID
+	 */
+	private static String newId() {
+		SecureRandom random = ourRandom.get();
+		long mostSigBits = (random.nextLong() & ~0xF000L) | 0x4000L;
+		long leastSigBits = (random.nextLong() & ~(0xC000000000000000L)) | 0x8000000000000000L;
+		return new UUID(mostSigBits, leastSigBits).toString();
+	}
+
+	private class Shard {
+
+		private final LinkedHashMap<String, StoredList> myLists = new LinkedHashMap<String, StoredList>(16, 0.75f, true);
+		private long myWeight;
+
+		synchronized void clear() {
+			myLists.clear();
+			myWeight = 0;
+		}
+
+		synchronized IBundleProvider get(String theId, long theNow) {
+			StoredList retVal = myLists.get(theId);
+			if (retVal == null) {
+				return null;
+			}
+			if (theNow - retVal.myLastAccessed > myExpireAfterAccessMillis) {
+				myLists.remove(theId);
+				myWeight -= retVal.myWeight;
+				myExpiryCount.incrementAndGet();
+				return null;
+			}
+			retVal.myLastAccessed = theNow;
+			return retVal.myList;
+		}
+
+		synchronized int getSize() {
+			return myLists.size();
+		}
+
+		synchronized long getWeight() {
+			return myWeight;
+		}
+
+		synchronized void put(String theId, IBundleProvider theList, long theWeight, long theNow) {
+			myLists.put(theId, new StoredList(theList, theWeight, theNow));
+			myWeight += theWeight;
+
+			int maximumSize = share(myMaximumSize);
+			long maximumWeight = share(myMaximumWeight);
+			long expireAfterAccess = myExpireAfterAccessMillis;
+
+			/*
+			 * Entries are in least-recently-accessed order, and the entry we just added
+			 * is last so it is never evicted here
+			 */
+			Iterator<Entry<String, StoredList>> iter = myLists.entrySet().iterator();
+			while (myLists.size() > 1) {
+				StoredList eldest = iter.next().getValue();
+				if (theNow - eldest.myLastAccessed > expireAfterAccess) {
+					myExpiryCount.incrementAndGet();
+				} else if (myLists.size() > maximumSize || myWeight > maximumWeight) {
+					myEvictionCount.incrementAndGet();
+				} else {
+					break;
+				}
+				iter.remove();
+				myWeight -= eldest.myWeight;
+			}
+		}
+
+		private int share(int theTotal) {
+			return (int) share((long) theTotal);
+		}
+
+		private long share(long theTotal) {
+			long retVal = theTotal / myShards.length;
+			if (theTotal % myShards.length != 0) {
+				retVal++;
+			}
+			return Math.max(1, retVal);
+		}
+
+	}
+
+	private static class StoredList {
+
+		private long myLastAccessed;
+		private final IBundleProvider myList;
+		private final long myWeight;
+
+		StoredList(IBundleProvider theList, long theWeight, long theNow) {
+			myList = theList;
+			myWeight = theWeight;
+			myLastAccessed = theNow;
+		}
+
+	}
+
+}
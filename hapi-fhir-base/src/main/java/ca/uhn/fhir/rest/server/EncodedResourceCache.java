@@ -0,0 +1,236 @@
+package ca.uhn.fhir.rest.server;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+import org.hl7.fhir.instance.model.api.IIdType;
+
+/**
+ * Cache of the encoded (serialized) form of specific resource versions, which can be
+ * supplied to {@link RestfulServer#setEncodedResourceCache(EncodedResourceCache)} in order to avoid
+ * re-encoding the same resource version every time it is read.
+ * <p>
+ * Only the encoding of the response is cached. The resource provider is still invoked for every
+ * read and vread, so e.g. the JPA server still loads the resource from the database and parses it
+ * on every request. Search, history and operation responses are never served from this cache.
+ * </p>
+ * <p>
+ * Entries are keyed by the resource type, ID and version ID as well as the encoding options
+ * of the response, so this cache must only be used with servers where a given version ID
+ * always refers to the same resource content (which is true of servers backed by the
+ * HAPI JPA module). If the content of a version is ever modified without a new version ID
+ * being assigned (e.g. by a <code>$meta-add</code> operation), {@link #invalidate(IIdType)}
+ * must be called.
+ * </p>
+ * <p>
+ * This class is thread safe. Entries are evicted in least-recently-used order once the total
+ * size of the cached content exceeds {@link #getMaximumSizeInBytes()}.
+ * </p>
+ * 
+ * @since 1.6
+ */
+public class EncodedResourceCache {
+
+	/**
+	 * Default value for {@link #setMaximumEntrySizeInBytes(int)}
+	 */
+	public static final int DEFAULT_MAXIMUM_ENTRY_SIZE_IN_BYTES = 256 * 1024;
+
+	/**
+	 * Default value for {@link #setMaximumSizeInBytes(long)}
+	 */
+	public static final long DEFAULT_MAXIMUM_SIZE_IN_BYTES = 32 * 1024 * 1024;
+
+	private final LinkedHashMap<String, byte[]> myEntries = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+	private final AtomicLong myHitCount = new AtomicLong();
+	private int myMaximumEntrySizeInBytes = DEFAULT_MAXIMUM_ENTRY_SIZE_IN_BYTES;
+	private long myMaximumSizeInBytes = DEFAULT_MAXIMUM_SIZE_IN_BYTES;
+	private final AtomicLong myMissCount = new AtomicLong();
+	private long mySizeInBytes;
+
+	/**
+	 * Removes all entries from the cache
+	 */
+	public synchronized void clear() {
+		myEntries.clear();
+		mySizeInBytes = 0;
+	}
+
+	/**
+	 * Returns the cached encoded form of the given resource version, or <code>null</code> if it
+	 * is not in the cache
+	 * 
+	 * @param theVersionedId
+	 *           The resource ID, which must have a resource type and a version
+	 * @param theEncoding
+	 *           The encoding
+	 * @param thePrettyPrint
+	 *           Was the resource encoded with pretty printing enabled
+	 * @param theServerBase
+	 *           The server base URL which was supplied to the parser (may be <code>null</code>)
+	 */
+	public byte[] get(IIdType theVersionedId, EncodingEnum theEncoding, boolean thePrettyPrint, String theServerBase) {
+		byte[] retVal;
+		synchronized (this) {
+			retVal = myEntries.get(createKey(theVersionedId, theEncoding, thePrettyPrint, theServerBase));
+		}
+		if (retVal != null) {
+			myHitCount.incrementAndGet();
+		} else {
+			myMissCount.incrementAndGet();
+		}
+		return retVal;
+	}
+
+	/**
+	 * Returns the number of calls to {@link #get(IIdType, EncodingEnum, boolean, String)} which found an entry
+	 */
+	public long getHitCount() {
+		return myHitCount.get();
+	}
+
+	/**
+	 * Returns the maximum size of an individual encoded resource which will be cached. Larger resources are
+	 * always encoded on demand. Default is {@link #DEFAULT_MAXIMUM_ENTRY_SIZE_IN_BYTES}
+	 */
+	public int getMaximumEntrySizeInBytes() {
+		return myMaximumEntrySizeInBytes;
+	}
+
+	/**
+	 * Returns the maximum total size of all entries in the cache. Default is {@link #DEFAULT_MAXIMUM_SIZE_IN_BYTES}
+	 */
+	public long getMaximumSizeInBytes() {
+		return myMaximumSizeInBytes;
+	}
+
+	/**
+	 * Returns the number of calls to {@link #get(IIdType, EncodingEnum, boolean, String)} which did not find an entry
+	 */
+	public long getMissCount() {
+		return myMissCount.get();
+	}
+
+	/**
+	 * Returns the number of entries currently in the cache
+	 */
+	public synchronized int getSize() {
+		return myEntries.size();
+	}
+
+	/**
+	 * Returns the total size of all entries currently in the cache
+	 */
+	public synchronized long getSizeInBytes() {
+		return mySizeInBytes;
+	}
+
+	/**
+	 * Removes all cached versions (in all encodings) of the given resource. This should be called if the content
+	 * of a resource version is modified without a new version ID being assigned.
+	 * 
+	 * @param theResourceId
+	 *           The resource ID. Any version in the ID is ignored and all versions are removed.
+	 */
+	public synchronized void invalidate(IIdType theResourceId) {
+		Validate.notNull(theResourceId, "theResourceId must not be null");
+		String prefix = theResourceId.toUnqualifiedVersionless().getValue() + '/' + Constants.PARAM_HISTORY + '/';
+		for (Iterator<Entry<String, byte[]>> iter = myEntries.entrySet().iterator(); iter.hasNext();) {
+			Entry<String, byte[]> next = iter.next();
+			if (next.getKey().startsWith(prefix)) {
+				mySizeInBytes -= next.getValue().length;
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * Stores the encoded form of a resource version
+	 * 
+	 * @param theVersionedId
+	 *           The resource ID, which must have a resource type and a version
+	 * @param theEncoding
+	 *           The encoding
+	 * @param thePrettyPrint
+	 *           Was the resource encoded with pretty printing enabled
+	 * @param theServerBase
+	 *           The server base URL which was supplied to the parser (may be <code>null</code>)
+	 * @param theEncoded
+	 *           The encoded resource. The array must not be modified after being passed to the cache.
+	 */
+	public void put(IIdType theVersionedId, EncodingEnum theEncoding, boolean thePrettyPrint, String theServerBase, byte[] theEncoded) {
+		if (theEncoded.length > myMaximumEntrySizeInBytes) {
+			return;
+		}
+		String key = createKey(theVersionedId, theEncoding, thePrettyPrint, theServerBase);
+		synchronized (this) {
+			byte[] previous = myEntries.put(key, theEncoded);
+			if (previous != null) {
+				mySizeInBytes -= previous.length;
+			}
+			mySizeInBytes += theEncoded.length;
+			evictIfNeeded();
+		}
+	}
+
+	/**
+	 * Sets the maximum size of an individual encoded resource which will be cached. Larger resources are
+	 * always encoded on demand. Default is {@link #DEFAULT_MAXIMUM_ENTRY_SIZE_IN_BYTES}
+	 */
+	public EncodedResourceCache setMaximumEntrySizeInBytes(int theMaximumEntrySizeInBytes) {
+		Validate.isTrue(theMaximumEntrySizeInBytes > 0, "theMaximumEntrySizeInBytes must be greater than 0");
+		myMaximumEntrySizeInBytes = theMaximumEntrySizeInBytes;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum total size of all entries in the cache. Default is {@link #DEFAULT_MAXIMUM_SIZE_IN_BYTES}
+	 */
+	public synchronized EncodedResourceCache setMaximumSizeInBytes(long theMaximumSizeInBytes) {
+		Validate.isTrue(theMaximumSizeInBytes > 0, "theMaximumSizeInBytes must be greater than 0");
+		myMaximumSizeInBytes = theMaximumSizeInBytes;
+		evictIfNeeded();
+		return this;
+	}
+
+	private void evictIfNeeded() {
+		for (Iterator<byte[]> iter = myEntries.values().iterator(); mySizeInBytes > myMaximumSizeInBytes && iter.hasNext();) {
+			mySizeInBytes -= iter.next().length;
+			iter.remove();
+		}
+	}
+
+	private static String createKey(IIdType theVersionedId, EncodingEnum theEncoding, boolean thePrettyPrint, String theServerBase) {
+		Validate.isTrue(theVersionedId.hasResourceType() && theVersionedId.hasVersionIdPart(), "ID must have a resource type and version: ", theVersionedId);
+		StringBuilder b = new StringBuilder();
+		b.append(theVersionedId.toUnqualified().getValue());
+		b.append('|').append(theEncoding.name());
+		b.append('|').append(thePrettyPrint);
+		b.append('|').append(theServerBase);
+		return b.toString();
+	}
+
+}
@@ -25,6 +25,12 @@ import java.util.UUID;
 
 import org.apache.commons.lang3.Validate;
 
+/**
+ * Simple paging provider which stores a fixed number of result lists in memory, discarding the
+ * oldest list when a new one is stored. All access is synchronized, and the size of the stored
+ * lists is not bounded, so {@link ConcurrentMemoryPagingProvider} is generally a better choice
+ * for production servers.
+ */
 public class FifoMemoryPagingProvider implements IPagingProvider {
 
 	private LinkedHashMap<String, IBundleProvider> myBundleProviders;
@@ -21,6 +21,7 @@ package ca.uhn.fhir.rest.server;
  */
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.util.Date;
@@ -48,8 +49,18 @@ public interface IRestfulResponse {
 	 */
 	Object returnResponse(ParseAction<?> outcome, int operationStatus, boolean allowPrefer, MethodOutcome response, String resourceName) throws IOException;
 
+	/**
+	 * Returns a stream which the UTF-8 encoded response body may be written to directly, or <code>null</code>
+	 * if this response only supports character based output (in which case
+	 * {@link #getResponseWriter(int, String, String, boolean)} should be used instead). Once the body has been
+	 * written, {@link #sendOutputStreamResponse(int, String, OutputStream)} must be called.
+	 */
+	OutputStream getResponseOutputStream(int theStatusCode, String theContentType, boolean theRespondGzip) throws IOException;
+
 	Writer getResponseWriter(int statusCode, String contentType, String charset, boolean respondGzip) throws UnsupportedEncodingException, IOException;
 
+	Object sendOutputStreamResponse(int theStatus, String theContentType, OutputStream theOutputStream) throws IOException;
+
 	Object sendWriterResponse(int status, String contentType, String charset, Writer writer) throws IOException;
 
 	void addHeader(String headerKey, String headerValue);
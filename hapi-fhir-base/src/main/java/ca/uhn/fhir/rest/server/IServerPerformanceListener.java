@@ -0,0 +1,50 @@
+package ca.uhn.fhir.rest.server;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.rest.method.RequestDetails;
+
+/**
+ * Listener which is notified with the timings collected for each request processed by a {@link RestfulServer}.
+ * Register listeners using {@link RestfulServer#registerPerformanceListener(IServerPerformanceListener)}. If
+ * no listeners are registered, timings are not collected at all.
+ * <p>
+ * Listeners are invoked on the thread which processed the request, after the response has been written, so
+ * implementations should return quickly and must be thread safe. See {@link ServerPerformanceStatistics}
+ * for an implementation which aggregates timings across requests.
+ * </p>
+ * 
+ * @since 1.6
+ */
+public interface IServerPerformanceListener {
+
+	/**
+	 * Invoked once per request, after processing has completed (successfully or not)
+	 * 
+	 * @param theRequestDetails
+	 *           The request details. Note that for requests which failed before the request
+	 *           was parsed, some details (such as the operation type) may be <code>null</code>.
+	 * @param thePerformance
+	 *           The timings collected while processing the request
+	 */
+	void requestCompleted(RequestDetails theRequestDetails, RequestPerformance thePerformance);
+
+}
@@ -0,0 +1,62 @@
+package ca.uhn.fhir.rest.server;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.List;
+import java.util.Set;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import ca.uhn.fhir.rest.api.SummaryEnum;
+
+/**
+ * A bundle provider which is able to load a reduced form of its resources when the client
+ * has asked for only part of each resource to be returned, using the <code>_summary</code>
+ * or <code>_elements</code> parameters. Loading a resource is often much more expensive than
+ * encoding it (e.g. because it must be read from a database and parsed), so implementations
+ * may use this to avoid building elements which will not be encoded anyway.
+ * <p>
+ * The server still filters the response according to the client's request, so implementations
+ * are free to return more than was asked for (including complete resources).
+ * </p>
+ * 
+ * @since 1.6
+ */
+public interface ISummaryAwareBundleProvider extends IBundleProvider {
+
+	/**
+	 * Load the given collection of resources by index, in the same way as {@link #getResources(int, int)}, but
+	 * only the elements which will be included in the response need to be populated.
+	 * 
+	 * @param theFromIndex The low index (inclusive) to return
+	 * @param theToIndex The high index (exclusive) to return
+	 * @param theSummaryMode The summary mode requested by the client (will not be <code>null</code>, and will contain
+	 *           {@link SummaryEnum#FALSE} if no summary was requested)
+	 * @param theElements The element names requested by the client using the <code>_elements</code> parameter, or
+	 *           <code>null</code> if all elements were requested. Note that element names are not qualified with the
+	 *           resource type, and that the <code>_elements</code> parameter applies only to resources of the type being
+	 *           searched for (not to any resources which were included using <code>_include</code>).
+	 * @return A list of resources. The size of this list must be at least <code>theToIndex - theFromIndex</code>.
+	 */
+	List<IBaseResource> getResources(int theFromIndex, int theToIndex, Set<SummaryEnum> theSummaryMode, Set<String> theElements);
+
+}
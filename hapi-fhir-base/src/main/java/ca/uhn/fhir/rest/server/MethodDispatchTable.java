@@ -0,0 +1,162 @@
+package ca.uhn.fhir.rest.server;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+import ca.uhn.fhir.rest.method.BaseMethodBinding;
+import ca.uhn.fhir.rest.method.RequestDetails;
+
+/**
+ * Precompiled lookup structure used by {@link ResourceBinding} to find the method which
+ * should handle an incoming request. Methods are grouped by the request type and operation
+ * which they can handle (see {@link BaseMethodBinding#getDispatchRequestTypes()} and
+ * {@link BaseMethodBinding#getDispatchOperations()}) and methods which require parameters
+ * that are missing from the request are skipped. The remaining candidates are tested
+ * using {@link BaseMethodBinding#incomingServerRequestMatchesMethod(RequestDetails)} in
+ * the order in which they were registered, so the result is always the same as a linear
+ * scan over all methods.
+ * <p>
+ * Instances are immutable and thread safe
+ * </p>
+ */
+class MethodDispatchTable {
+
+	private final Map<RequestTypeEnum, Map<String, Candidates>> myRequestTypeToOperationToCandidates = new EnumMap<RequestTypeEnum, Map<String, Candidates>>(RequestTypeEnum.class);
+	private final Map<RequestTypeEnum, Candidates> myRequestTypeToOtherOperationCandidates = new EnumMap<RequestTypeEnum, Candidates>(RequestTypeEnum.class);
+
+	MethodDispatchTable(List<BaseMethodBinding<?>> theMethods) {
+		Set<String> operations = new HashSet<String>();
+		operations.add(null);
+		for (BaseMethodBinding<?> next : theMethods) {
+			Set<String> nextOperations = next.getDispatchOperations();
+			if (nextOperations != null) {
+				operations.addAll(nextOperations);
+			}
+		}
+
+		for (RequestTypeEnum nextRequestType : RequestTypeEnum.values()) {
+			Map<String, Candidates> operationToCandidates = new HashMap<String, Candidates>();
+			for (String nextOperation : operations) {
+				List<BaseMethodBinding<?>> candidates = new ArrayList<BaseMethodBinding<?>>();
+				for (BaseMethodBinding<?> nextMethod : theMethods) {
+					Set<RequestTypeEnum> requestTypes = nextMethod.getDispatchRequestTypes();
+					if (requestTypes != null && !requestTypes.contains(nextRequestType)) {
+						continue;
+					}
+					Set<String> methodOperations = nextMethod.getDispatchOperations();
+					if (methodOperations != null && !methodOperations.contains(nextOperation)) {
+						continue;
+					}
+					candidates.add(nextMethod);
+				}
+				operationToCandidates.put(nextOperation, new Candidates(candidates));
+			}
+			myRequestTypeToOperationToCandidates.put(nextRequestType, operationToCandidates);
+
+			List<BaseMethodBinding<?>> otherCandidates = new ArrayList<BaseMethodBinding<?>>();
+			for (BaseMethodBinding<?> nextMethod : theMethods) {
+				Set<RequestTypeEnum> requestTypes = nextMethod.getDispatchRequestTypes();
+				if (requestTypes != null && !requestTypes.contains(nextRequestType)) {
+					continue;
+				}
+				if (nextMethod.getDispatchOperations() == null) {
+					otherCandidates.add(nextMethod);
+				}
+			}
+			myRequestTypeToOtherOperationCandidates.put(nextRequestType, new Candidates(otherCandidates));
+		}
+	}
+
+	/**
+	 * Returns the first method which matches the given request, or <code>null</code>
+	 */
+	BaseMethodBinding<?> getMethod(RequestDetails theRequest) {
+		RequestTypeEnum requestType = theRequest.getRequestType();
+		String operation = theRequest.getOperation();
+		if (isBlank(operation)) {
+			operation = null;
+		}
+
+		Candidates candidates = myRequestTypeToOperationToCandidates.get(requestType).get(operation);
+		if (candidates == null) {
+			candidates = myRequestTypeToOtherOperationCandidates.get(requestType);
+		}
+		return candidates.getMethod(theRequest);
+	}
+
+	private static class Candidates {
+		private final BaseMethodBinding<?>[] myMethods;
+		private final String[][] myRequiredParameterNames;
+
+		Candidates(List<BaseMethodBinding<?>> theMethods) {
+			myMethods = theMethods.toArray(new BaseMethodBinding<?>[theMethods.size()]);
+			myRequiredParameterNames = new String[myMethods.length][];
+			for (int i = 0; i < myMethods.length; i++) {
+				Collection<String> required = myMethods[i].getDispatchRequiredParameterNames();
+				if (required != null && !required.isEmpty()) {
+					myRequiredParameterNames[i] = required.toArray(new String[required.size()]);
+				}
+			}
+		}
+
+		BaseMethodBinding<?> getMethod(RequestDetails theRequest) {
+			Map<String, String[]> parameters = theRequest.getParameters();
+			Map<String, List<String>> unqualifiedParameters = theRequest.getUnqualifiedToQualifiedNames();
+			if (unqualifiedParameters == null) {
+				unqualifiedParameters = Collections.emptyMap();
+			}
+
+			for (int i = 0; i < myMethods.length; i++) {
+				if (!hasRequiredParameters(myRequiredParameterNames[i], parameters, unqualifiedParameters)) {
+					continue;
+				}
+				if (myMethods[i].incomingServerRequestMatchesMethod(theRequest)) {
+					return myMethods[i];
+				}
+			}
+			return null;
+		}
+
+		private static boolean hasRequiredParameters(String[] theRequiredParameterNames, Map<String, String[]> theParameters, Map<String, List<String>> theUnqualifiedParameters) {
+			if (theRequiredParameterNames != null) {
+				for (String next : theRequiredParameterNames) {
+					if (!theParameters.containsKey(next) && !theUnqualifiedParameters.containsKey(next)) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,63 @@
+package ca.uhn.fhir.rest.server;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * The phases of request processing which are timed by {@link RequestPerformance}
+ * 
+ * @since 1.6
+ */
+public enum PerformancePhaseEnum {
+
+	/**
+	 * Determining which method binding will handle the request
+	 */
+	DISPATCH,
+
+	/**
+	 * Parsing resources found in the request body
+	 */
+	PARSE,
+
+	/**
+	 * Authorization decisions made by the {@link ca.uhn.fhir.rest.server.interceptor.auth.AuthorizationInterceptor}
+	 */
+	AUTHORIZE,
+
+	/**
+	 * Database queries performed by the persistence layer (e.g. searches and reads of
+	 * the resource table), not including the time taken to turn the results into resources
+	 */
+	QUERY,
+
+	/**
+	 * Loading resources from their stored form (e.g. parsing the resource text held in
+	 * the database)
+	 */
+	LOAD,
+
+	/**
+	 * Encoding the response resource or bundle and writing it to the client. These two
+	 * steps are not timed separately since the response is written as it is encoded.
+	 */
+	ENCODE
+
+}
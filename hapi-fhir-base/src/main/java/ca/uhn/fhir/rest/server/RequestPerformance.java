@@ -0,0 +1,152 @@
+package ca.uhn.fhir.rest.server;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Timings collected while a single request is processed by a {@link RestfulServer}. An instance
+ * is bound to the processing thread for the duration of the request only if at least one
+ * {@link IServerPerformanceListener} is registered, so code which records timings should use
+ * {@link #startTimer()} and {@link #stopTimer(PerformancePhaseEnum, long)}, which do nothing
+ * other than a thread-local lookup when timings are not being collected.
+ * <p>
+ * Phases are not exclusive of each other (for example, resources may be loaded while a
+ * response is being encoded if the bundle provider loads them lazily), so the sum of the
+ * phase times may exceed the {@link #getTotalTimeNanos() total time} of the request.
+ * </p>
+ * <p>
+ * Instances are not thread safe, and are only ever updated by the thread processing the request.
+ * </p>
+ * 
+ * @since 1.6
+ */
+public class RequestPerformance {
+
+	private static final ThreadLocal<RequestPerformance> ourCurrent = new ThreadLocal<RequestPerformance>();
+	private static final PerformancePhaseEnum[] PHASES = PerformancePhaseEnum.values();
+
+	private final int[] myPhaseCounts = new int[PHASES.length];
+	private final long[] myPhaseTimeNanos = new long[PHASES.length];
+	private RequestPerformance myPrevious;
+	private int mySqlStatementCount;
+	private final long myStartNanos;
+	private long myTotalTimeNanos = -1;
+
+	RequestPerformance() {
+		myStartNanos = System.nanoTime();
+	}
+
+	/**
+	 * Adds time spent in the given phase. This method may be called more than once
+	 * for the same phase, in which case the times are summed.
+	 */
+	public void addPhaseTime(PerformancePhaseEnum thePhase, long theNanos) {
+		myPhaseTimeNanos[thePhase.ordinal()] += theNanos;
+		myPhaseCounts[thePhase.ordinal()]++;
+	}
+
+	void bind() {
+		myPrevious = ourCurrent.get();
+		ourCurrent.set(this);
+	}
+
+	/**
+	 * Returns the number of times that time was added to the given phase
+	 */
+	public int getPhaseCount(PerformancePhaseEnum thePhase) {
+		return myPhaseCounts[thePhase.ordinal()];
+	}
+
+	/**
+	 * Returns the total time spent in the given phase, in nanoseconds
+	 */
+	public long getPhaseTimeNanos(PerformancePhaseEnum thePhase) {
+		return myPhaseTimeNanos[thePhase.ordinal()];
+	}
+
+	/**
+	 * Returns the number of SQL statements executed while processing this request. Note that
+	 * this is only populated if the persistence layer reports statements using
+	 * {@link #incrementSqlStatementCount()}.
+	 */
+	public int getSqlStatementCount() {
+		return mySqlStatementCount;
+	}
+
+	/**
+	 * Returns the total time taken to process the request, in nanoseconds, or the time elapsed so far
+	 * if the request is still being processed
+	 */
+	public long getTotalTimeNanos() {
+		if (myTotalTimeNanos == -1) {
+			return System.nanoTime() - myStartNanos;
+		}
+		return myTotalTimeNanos;
+	}
+
+	public void incrementSqlStatementCount() {
+		mySqlStatementCount++;
+	}
+
+	void unbind() {
+		myTotalTimeNanos = System.nanoTime() - myStartNanos;
+		if (myPrevious != null) {
+			ourCurrent.set(myPrevious);
+			myPrevious = null;
+		} else {
+			ourCurrent.remove();
+		}
+	}
+
+	/**
+	 * Returns the timings for the request currently being processed by the calling thread, or
+	 * <code>null</code> if timings are not being collected
+	 */
+	public static RequestPerformance getCurrent() {
+		return ourCurrent.get();
+	}
+
+	/**
+	 * Returns the current value of {@link System#nanoTime()} if timings are being collected for the
+	 * request being processed by the calling thread, or <code>0</code> otherwise. Pass the returned
+	 * value to {@link #stopTimer(PerformancePhaseEnum, long)} once the phase is complete.
+	 */
+	public static long startTimer() {
+		if (ourCurrent.get() == null) {
+			return 0;
+		}
+		return System.nanoTime();
+	}
+
+	/**
+	 * Adds the time elapsed since the given start time (as returned by {@link #startTimer()}) to the given
+	 * phase of the request being processed by the calling thread. Does nothing if timings are not being collected.
+	 */
+	public static void stopTimer(PerformancePhaseEnum thePhase, long theStartNanos) {
+		if (theStartNanos == 0) {
+			return;
+		}
+		RequestPerformance current = ourCurrent.get();
+		if (current != null) {
+			current.addPhaseTime(thePhase, System.nanoTime() - theStartNanos);
+		}
+	}
+
+}
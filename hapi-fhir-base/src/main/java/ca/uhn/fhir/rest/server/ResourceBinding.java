@@ -21,6 +21,7 @@ package ca.uhn.fhir.rest.server;
  */
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import ca.uhn.fhir.rest.method.BaseMethodBinding;
@@ -35,13 +36,14 @@ public class ResourceBinding {
 
 	private String resourceName;
 	private List<BaseMethodBinding<?>> methods = new ArrayList<BaseMethodBinding<?>>();
+	private volatile MethodDispatchTable myDispatchTable;
 
 	public ResourceBinding() {
 	}
 
 	public ResourceBinding(String resourceName, List<BaseMethodBinding<?>> methods) {
 		this.resourceName = resourceName;
-		this.methods = methods;
+		setMethods(methods);
 	}
 
 	public BaseMethodBinding<?> getMethod(RequestDetails theRequest) {
@@ -51,6 +53,40 @@ public class ResourceBinding {
 		}
 
 		ourLog.debug("Looking for a handler for {}", theRequest);
+		if (theRequest.getRequestType() == null) {
+			return getMethodUsingLinearScan(theRequest);
+		}
+
+		BaseMethodBinding<?> retVal = compileDispatchTable().getMethod(theRequest);
+		if (retVal != null) {
+			ourLog.debug("Handler {} matches", retVal);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Returns the dispatch table for the current methods, building it if needed. The methods can
+	 * only be changed using {@link #addMethod(BaseMethodBinding)} and {@link #setMethods(List)},
+	 * which discard the table.
+	 */
+	MethodDispatchTable compileDispatchTable() {
+		MethodDispatchTable retVal = myDispatchTable;
+		if (retVal == null) {
+			synchronized (this) {
+				retVal = myDispatchTable;
+				if (retVal == null) {
+					retVal = new MethodDispatchTable(methods);
+					myDispatchTable = retVal;
+				}
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Tests every method in order, without using the dispatch table
+	 */
+	BaseMethodBinding<?> getMethodUsingLinearScan(RequestDetails theRequest) {
 		for (BaseMethodBinding<?> rm : methods) {
 			if (rm.incomingServerRequestMatchesMethod(theRequest)) {
 				ourLog.debug("Handler {} matches", rm);
@@ -70,16 +106,25 @@ public class ResourceBinding {
 		this.resourceName = resourceName;
 	}
 
+	/**
+	 * Returns an unmodifiable view of the methods. Use {@link #addMethod(BaseMethodBinding)} or
+	 * {@link #setMethods(List)} to change them.
+	 */
 	public List<BaseMethodBinding<?>> getMethodBindings() {
-		return methods;
+		return methods != null ? Collections.unmodifiableList(methods) : null;
 	}
 
-	public void setMethods(List<BaseMethodBinding<?>> methods) {
-		this.methods = methods;
+	/**
+	 * Sets the methods. The list is copied, so later changes to it have no effect.
+	 */
+	public synchronized void setMethods(List<BaseMethodBinding<?>> methods) {
+		this.methods = methods != null ? new ArrayList<BaseMethodBinding<?>>(methods) : null;
+		myDispatchTable = null;
 	}
 
-	public void addMethod(BaseMethodBinding<?> method) {
+	public synchronized void addMethod(BaseMethodBinding<?> method) {
 		this.methods.add(method);
+		myDispatchTable = null;
 	}
 
 	@Override
@@ -21,6 +21,7 @@ package ca.uhn.fhir.rest.server;
  */
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Date;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -57,6 +58,15 @@ public abstract class RestfulResponse<T extends RequestDetails> implements IRest
 		return theHeaders;
 	}
 
+	/**
+	 * Byte oriented output is not supported by default, subclasses may override
+	 * this method if the underlying container provides access to a raw output stream
+	 */
+	@Override
+	public OutputStream getResponseOutputStream(int theStatusCode, String theContentType, boolean theRespondGzip) throws IOException {
+		return null;
+	}
+
 	/**
 	 * Get the requestDetails
 	 * @return the requestDetails
@@ -75,6 +85,17 @@ public abstract class RestfulResponse<T extends RequestDetails> implements IRest
 		myOperationResourceLastUpdated = theOperationResourceLastUpdated;
 	}
 
+	/**
+	 * Completes a response whose body was written to the stream returned by
+	 * {@link #getResponseOutputStream(int, String, boolean)}. The status and content type have already
+	 * been applied when the stream was created, so this closes the stream and returns <code>null</code>.
+	 */
+	@Override
+	public Object sendOutputStreamResponse(int theStatus, String theContentType, OutputStream theOutputStream) throws IOException {
+		theOutputStream.close();
+		return null;
+	}
+
 	/**
 	 * Set the requestDetails
 	 * @param requestDetails the requestDetails to set
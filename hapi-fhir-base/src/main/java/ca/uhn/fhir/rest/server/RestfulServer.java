@@ -37,6 +37,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.jar.Manifest;
@@ -89,6 +91,13 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 	 */
 	public static final ETagSupportEnum DEFAULT_ETAG_SUPPORT = ETagSupportEnum.ENABLED;
 
+	/**
+	 * Default setting for {@link #setAsyncTimeout(long) the asynchronous processing timeout}: <code>0</code>,
+	 * meaning that asynchronously processed requests never time out (as is the case for requests which
+	 * are processed on the container thread)
+	 */
+	public static final long DEFAULT_ASYNC_TIMEOUT = 0;
+
 	private static final ExceptionHandlingInterceptor DEFAULT_EXCEPTION_HANDLER = new ExceptionHandlingInterceptor();
 
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(RestfulServer.class);
@@ -98,15 +107,19 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 	 * context, in order to avoid a dependency on Servlet-API 3.0+
 	 */
 	public static final String SERVLET_CONTEXT_ATTRIBUTE = "ca.uhn.fhir.rest.server.RestfulServer.servlet_context";
+	private Executor myAsyncExecutor;
+	private long myAsyncTimeout = DEFAULT_ASYNC_TIMEOUT;
 	private BundleInclusionRule myBundleInclusionRule = BundleInclusionRule.BASED_ON_INCLUDES;
 	private boolean myDefaultPrettyPrint = false;
 	private EncodingEnum myDefaultResponseEncoding = EncodingEnum.XML;
+	private EncodedResourceCache myEncodedResourceCache;
 	private ETagSupportEnum myETagSupport = DEFAULT_ETAG_SUPPORT;
 	private FhirContext myFhirContext;
 	private boolean myIgnoreServerParsedRequestParameters = true;
 	private String myImplementationDescription;
 	private final List<IServerInterceptor> myInterceptors = new ArrayList<IServerInterceptor>();
 	private IPagingProvider myPagingProvider;
+	private final List<IServerPerformanceListener> myPerformanceListeners = new CopyOnWriteArrayList<IServerPerformanceListener>();
 	private final List<Object> myPlainProviders = new ArrayList<Object>();
 	private Lock myProviderRegistrationMutex = new ReentrantLock();
 	private Map<String, ResourceBinding> myResourceNameToBinding = new HashMap<String, ResourceBinding>();
@@ -323,6 +336,17 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 		}
 	}
 
+	/**
+	 * Builds the method dispatch tables up front, so that this isn't done
+	 * while handling the first requests
+	 */
+	private void compileDispatchTables() {
+		myServerBinding.compileDispatchTable();
+		for (ResourceBinding next : myResourceNameToBinding.values()) {
+			next.compileDispatchTable();
+		}
+	}
+
 	private int findResourceMethods(Object theProvider, Class<?> clazz) throws ConfigurationException {
 		int count = 0;
 
@@ -395,6 +419,26 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 		return myFhirContext.getAddProfileTagWhenEncoding();
 	}
 
+	/**
+	 * Returns the executor used to process requests asynchronously, or <code>null</code> if
+	 * requests are processed on the container thread (which is the default)
+	 *
+	 * @see #setAsyncExecutor(Executor)
+	 */
+	public Executor getAsyncExecutor() {
+		return myAsyncExecutor;
+	}
+
+	/**
+	 * Returns the timeout in milliseconds applied to asynchronously processed requests, or <code>0</code>
+	 * if they never time out
+	 *
+	 * @see #setAsyncTimeout(long)
+	 */
+	public long getAsyncTimeout() {
+		return myAsyncTimeout;
+	}
+
 	@Override
 	public BundleInclusionRule getBundleInclusionRule() {
 		return myBundleInclusionRule;
@@ -410,6 +454,17 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 		return myDefaultResponseEncoding;
 	}
 
+	/**
+	 * Returns the cache used to avoid re-encoding resource versions which have already been
+	 * returned by a read or vread, or <code>null</code> if none is configured (which is the default)
+	 * 
+	 * @see #setEncodedResourceCache(EncodedResourceCache)
+	 * @since 1.6
+	 */
+	public EncodedResourceCache getEncodedResourceCache() {
+		return myEncodedResourceCache;
+	}
+
 	@Override
 	public ETagSupportEnum getETagSupport() {
 		return myETagSupport;
@@ -445,6 +500,16 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 		return myPagingProvider;
 	}
 
+	/**
+	 * Returns a list of all registered performance listeners
+	 * 
+	 * @see #registerPerformanceListener(IServerPerformanceListener)
+	 * @since 1.6
+	 */
+	public List<IServerPerformanceListener> getPerformanceListeners() {
+		return Collections.unmodifiableList(myPerformanceListeners);
+	}
+
 	/**
 	 * Provides the non-resource specific providers which implement method calls on this server
 	 *
@@ -546,13 +611,53 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 	}
 
 	protected void handleRequest(RequestTypeEnum theRequestType, HttpServletRequest theRequest, HttpServletResponse theResponse) throws ServletException, IOException {
-		String fhirServerBase = null;
+		Executor asyncExecutor = myAsyncExecutor;
+		if (asyncExecutor != null) {
+			AsyncRequestProcessor processor = new AsyncRequestProcessor(this, asyncExecutor, myAsyncTimeout);
+			if (processor.isAsyncSupported(theRequest)) {
+				processor.process(theRequestType, theRequest, theResponse);
+				return;
+			}
+			ourLog.debug("Container does not support asynchronous processing of this request, processing it on the container thread");
+		}
+
+		handleRequestOnCurrentThread(theRequestType, theRequest, theResponse);
+	}
+
+	/**
+	 * Processes the request on the calling thread. This is called by {@link #handleRequest(RequestTypeEnum, HttpServletRequest, HttpServletResponse)}
+	 * either directly, or on an executor thread if asynchronous processing is enabled.
+	 */
+	void handleRequestOnCurrentThread(RequestTypeEnum theRequestType, HttpServletRequest theRequest, HttpServletResponse theResponse) throws ServletException, IOException {
 		ServletRequestDetails requestDetails = new ServletRequestDetails();
 		requestDetails.setServer(this);
 		requestDetails.setRequestType(theRequestType);
 		requestDetails.setServletRequest(theRequest);
 		requestDetails.setServletResponse(theResponse);
 
+		if (myPerformanceListeners.isEmpty()) {
+			handleRequestOnCurrentThread(requestDetails, theRequestType, theRequest, theResponse);
+			return;
+		}
+
+		RequestPerformance performance = new RequestPerformance();
+		performance.bind();
+		try {
+			handleRequestOnCurrentThread(requestDetails, theRequestType, theRequest, theResponse);
+		} finally {
+			performance.unbind();
+			for (IServerPerformanceListener next : myPerformanceListeners) {
+				try {
+					next.requestCompleted(requestDetails, performance);
+				} catch (RuntimeException e) {
+					ourLog.error("Performance listener " + next + " failed", e);
+				}
+			}
+		}
+	}
+
+	private void handleRequestOnCurrentThread(ServletRequestDetails requestDetails, RequestTypeEnum theRequestType, HttpServletRequest theRequest, HttpServletResponse theResponse) throws ServletException, IOException {
+		String fhirServerBase = null;
 		theRequest.setAttribute(SERVLET_CONTEXT_ATTRIBUTE, getServletContext());
 
 		try {
@@ -660,7 +765,9 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 			// return;
 			// }
 
+			long dispatchStart = RequestPerformance.startTimer();
 			BaseMethodBinding<?> resourceMethod = determineResourceMethod(requestDetails, requestPath);
+			RequestPerformance.stopTimer(PerformancePhaseEnum.DISPATCH, dispatchStart);
 
 			requestDetails.setRestOperationType(resourceMethod.getRestOperationType());
 
@@ -819,7 +926,9 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 				 * an alternate implementation, but this isn't currently possible..
 				 */
 				findResourceMethods(new PageProvider());
-				
+
+				compileDispatchTables();
+
 			} catch (Exception ex) {
 				ourLog.error("An error occurred while loading request handlers!", ex);
 				throw new ServletException("Failed to initialize FHIR Restful server", ex);
@@ -1017,6 +1126,18 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 		myInterceptors.add(theInterceptor);
 	}
 
+	/**
+	 * Registers a listener which will be notified with the timings collected for each request. Timings
+	 * are only collected while at least one listener is registered.
+	 * 
+	 * @see ServerPerformanceStatistics
+	 * @since 1.6
+	 */
+	public void registerPerformanceListener(IServerPerformanceListener theListener) {
+		Validate.notNull(theListener, "Listener can not be null");
+		myPerformanceListeners.add(theListener);
+	}
+
 	/**
 	 * Register a single provider. This could be a Resource Provider or a "plain" provider not associated with any
 	 * resource.
@@ -1107,6 +1228,9 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 					findResourceMethods(provider);
 				}
 			}
+
+			compileDispatchTables();
+
 			if (!inInit) {
 				ourLog.trace("Invoking provider initialize methods");
 				if (!newResourceProviders.isEmpty()) {
@@ -1206,6 +1330,49 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 		myFhirContext.setAddProfileTagWhenEncoding(theAddProfileTag);
 	}
 
+	/**
+	 * Enables asynchronous request processing using the given executor. When set, each request is
+	 * detached from the servlet container thread using the Servlet 3.0 <code>AsyncContext</code> API
+	 * and processed entirely (interceptors, provider invocation and response encoding, in the
+	 * same order as usual) on a thread supplied by this executor, which frees the container's thread pool
+	 * to accept further connections while slow requests (e.g. long running database queries) are
+	 * in progress.
+	 * <p>
+	 * The servlet (and any filters in front of it) must be declared with <code>async-supported</code>
+	 * set to <code>true</code>, otherwise requests continue to be processed on the container thread. Any executor
+	 * may be used, including a thread pool sized for the server's backend or (on JVMs which support them)
+	 * an executor which creates a virtual thread per task. If the executor rejects a task, the
+	 * request is processed on the container thread. The server does not shut down the executor
+	 * when it is destroyed.
+	 * </p>
+	 * <p>
+	 * The default is <code>null</code>, meaning that requests are processed synchronously on the
+	 * container thread. Note that servers using this setting require a Servlet 3.0+ container.
+	 * </p>
+	 *
+	 * @param theAsyncExecutor
+	 *           The executor, or <code>null</code> to disable asynchronous processing
+	 * @since 1.6
+	 */
+	public void setAsyncExecutor(Executor theAsyncExecutor) {
+		myAsyncExecutor = theAsyncExecutor;
+	}
+
+	/**
+	 * Sets the timeout in milliseconds applied to requests which are processed asynchronously (see
+	 * {@link #setAsyncExecutor(Executor)}). If a request takes longer than this the container
+	 * ends the request, so this should be longer than the slowest expected request. The default is
+	 * {@link #DEFAULT_ASYNC_TIMEOUT}, meaning that requests never time out.
+	 *
+	 * @param theAsyncTimeout
+	 *           The timeout in milliseconds, or <code>0</code> for no timeout
+	 * @since 1.6
+	 */
+	public void setAsyncTimeout(long theAsyncTimeout) {
+		Validate.isTrue(theAsyncTimeout >= 0, "theAsyncTimeout must not be negative");
+		myAsyncTimeout = theAsyncTimeout;
+	}
+
 	/**
 	 * Set how bundle factory should decide whether referenced resources should be included in bundles
 	 *
@@ -1245,6 +1412,23 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 		myDefaultResponseEncoding = theDefaultResponseEncoding;
 	}
 
+	/**
+	 * Sets a cache which will be used to store the encoded form of resources returned by read and vread
+	 * operations, keyed by their version ID, so that subsequent reads of the same version in the same
+	 * encoding are written directly from the cache instead of being encoded again. The cache is
+	 * not used if the client requests a <code>_summary</code> or <code>_elements</code> view of the resource.
+	 * <p>
+	 * This should only be enabled if the resource providers never return different content for the same
+	 * resource version ID (see {@link EncodedResourceCache} for details). Default is <code>null</code>
+	 * (disabled).
+	 * </p>
+	 * 
+	 * @since 1.6
+	 */
+	public void setEncodedResourceCache(EncodedResourceCache theEncodedResourceCache) {
+		myEncodedResourceCache = theEncodedResourceCache;
+	}
+
 	/**
 	 * Sets (enables/disables) the server support for ETags. Must not be <code>null</code>. Default is
 	 * {@link #DEFAULT_ETAG_SUPPORT}
@@ -1451,6 +1635,16 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 		myInterceptors.remove(theInterceptor);
 	}
 
+	/**
+	 * Removes a listener which was registered using {@link #registerPerformanceListener(IServerPerformanceListener)}
+	 * 
+	 * @since 1.6
+	 */
+	public void unregisterPerformanceListener(IServerPerformanceListener theListener) {
+		Validate.notNull(theListener, "Listener can not be null");
+		myPerformanceListeners.remove(theListener);
+	}
+
 	/**
 	 * Unregister one provider (either a Resource provider or a plain provider)
 	 * 
@@ -23,6 +23,7 @@ import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.URLEncoder;
@@ -42,6 +43,7 @@ import java.util.regex.Pattern;
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
 import org.hl7.fhir.instance.model.api.IAnyResource;
 import org.hl7.fhir.instance.model.api.IBaseBinary;
 import org.hl7.fhir.instance.model.api.IBaseResource;
@@ -60,6 +62,7 @@ import ca.uhn.fhir.model.primitive.InstantDt;
 import ca.uhn.fhir.model.valueset.BundleTypeEnum;
 import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.rest.api.PreferReturnEnum;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
 import ca.uhn.fhir.rest.api.SummaryEnum;
 import ca.uhn.fhir.rest.method.ElementsParameter;
 import ca.uhn.fhir.rest.method.RequestDetails;
@@ -398,6 +401,48 @@ public class RestfulServerUtils {
 		return retVal;
 	}
 
+	/**
+	 * If the client has asked for a <code>_summary</code> or <code>_elements</code> view of the results, and the given
+	 * bundle provider is able to load a reduced form of its resources (see {@link ISummaryAwareBundleProvider}), returns
+	 * a bundle provider which loads resources using that view. Otherwise returns the given bundle provider.
+	 * <p>
+	 * Since the view only applies to the current request, the returned provider must not be stored for paging
+	 * directly. Use {@link #storeResultList(IPagingProvider, IBundleProvider)}, which stores the original provider.
+	 * </p>
+	 * 
+	 * @since 1.6
+	 */
+	public static IBundleProvider createSummaryView(IBundleProvider theResult, RequestDetails theRequest) {
+		if (!(theResult instanceof ISummaryAwareBundleProvider)) {
+			return theResult;
+		}
+
+		Set<SummaryEnum> summaryMode = determineSummaryMode(theRequest);
+		Set<String> elements = ElementsParameter.getElementsValueOrNull(theRequest);
+		if (elements == null && summaryMode.equals(Collections.singleton(SummaryEnum.FALSE))) {
+			return theResult;
+		}
+
+		return new SummaryViewBundleProvider((ISummaryAwareBundleProvider) theResult, summaryMode, elements);
+	}
+
+	/**
+	 * Stores the given results with the paging provider, returning the search ID. If the results are a view created
+	 * using {@link #createSummaryView(IBundleProvider, RequestDetails)}, the complete results are stored instead, since
+	 * the view only applies to the current request.
+	 * 
+	 * @since 1.6
+	 */
+	public static String storeResultList(IPagingProvider thePagingProvider, IBundleProvider theResult) {
+		IBundleProvider result = theResult;
+		if (result instanceof SummaryViewBundleProvider) {
+			result = ((SummaryViewBundleProvider) result).myResult;
+		}
+		String retVal = thePagingProvider.storeResultList(result);
+		Validate.notNull(retVal, "Paging provider returned null searchId");
+		return retVal;
+	}
+
 	public static Integer extractCountParameter(RequestDetails theRequest) {
 		return RestfulServerUtils.tryToExtractNamedParameter(theRequest, Constants.PARAM_COUNT);
 	}
@@ -536,19 +581,35 @@ public class RestfulServerUtils {
 
 		String contentType = responseEncoding.getBundleContentType();
 
-		String charset = Constants.CHARSET_NAME_UTF8;
-		Writer writer = theRequestDetails.getResponse().getResponseWriter(status, contentType, charset, respondGzip);
+		IParser parser = RestfulServerUtils.getNewParser(theServer.getFhirContext(), theRequestDetails);
+		if (theSummaryMode.contains(SummaryEnum.TEXT)) {
+			parser.setEncodeElements(TEXT_ENCODE_ELEMENTS);
+		}
 
+		long encodeStart = RequestPerformance.startTimer();
 		try {
-			IParser parser = RestfulServerUtils.getNewParser(theServer.getFhirContext(), theRequestDetails);
-			if (theSummaryMode.contains(SummaryEnum.TEXT)) {
-				parser.setEncodeElements(TEXT_ENCODE_ELEMENTS);
+			IRestfulResponse restUtil = theRequestDetails.getResponse();
+			OutputStream outputStream = restUtil.getResponseOutputStream(status, contentType, respondGzip);
+			if (outputStream != null) {
+				try {
+					parser.encodeBundleToOutputStream(bundle, outputStream);
+				} catch (Exception e) {
+					//always send a response, even if the parsing went wrong
+				}
+				return restUtil.sendOutputStreamResponse(status, contentType, outputStream);
+			}
+
+			String charset = Constants.CHARSET_NAME_UTF8;
+			Writer writer = restUtil.getResponseWriter(status, contentType, charset, respondGzip);
+			try {
+				parser.encodeBundleToWriter(bundle, writer);
+			} catch (Exception e) {
+				//always send a response, even if the parsing went wrong
 			}
-			parser.encodeBundleToWriter(bundle, writer);
-		} catch (Exception e) {
-			//always send a response, even if the parsing went wrong
+			return restUtil.sendWriterResponse(status, contentType, charset, writer);
+		} finally {
+			RequestPerformance.stopTimer(PerformancePhaseEnum.ENCODE, encodeStart);
 		}
-		return theRequestDetails.getResponse().sendWriterResponse(status, contentType, charset, writer);
 	}
 
 	public static Object streamResponseAsResource(IRestfulServerDefaults theServer, IBaseResource theResource, Set<SummaryEnum> theSummaryMode, int stausCode, boolean theAddContentLocationHeader, boolean respondGzip, RequestDetails theRequestDetails) throws IOException {
@@ -654,19 +715,89 @@ public class RestfulServerUtils {
 		} else {
 			contentType = responseEncoding.getResourceContentType();
 		}
-		String charset = Constants.CHARSET_NAME_UTF8;
 
-		Writer writer = restUtil.getResponseWriter(stausCode, contentType, charset, respondGzip);
-		if (theResource == null) {
-			// No response is being returned
-		} else if (encodingDomainResourceAsText && theResource instanceof IResource) {
-			writer.append(((IResource) theResource).getText().getDiv().getValueAsString());
-		} else {
-			IParser parser = getNewParser(theServer.getFhirContext(), theRequestDetails);
-			parser.encodeResourceToWriter(theResource, writer);
+		long encodeStart = RequestPerformance.startTimer();
+		try {
+			byte[] encoded = null;
+			if (theResource != null && !encodingDomainResourceAsText) {
+				EncodedResourceCache cache = getEncodedResourceCacheIfApplicable(theServer, theRequestDetails, fullId);
+				if (cache != null) {
+					boolean prettyPrint = prettyPrintResponse(theServer, theRequestDetails);
+					encoded = cache.get(fullId, responseEncoding, prettyPrint, serverBase);
+					if (encoded == null) {
+						IParser parser = getNewParser(theServer.getFhirContext(), theRequestDetails);
+						encoded = parser.encodeResourceToString(theResource).getBytes(Constants.CHARSET_UTF8);
+						cache.put(fullId, responseEncoding, prettyPrint, serverBase, encoded);
+					}
+				}
+
+				OutputStream outputStream = restUtil.getResponseOutputStream(stausCode, contentType, respondGzip);
+				if (outputStream != null) {
+					if (encoded != null) {
+						outputStream.write(encoded);
+					} else {
+						IParser parser = getNewParser(theServer.getFhirContext(), theRequestDetails);
+						parser.encodeResourceToOutputStream(theResource, outputStream);
+					}
+					return restUtil.sendOutputStreamResponse(stausCode, contentType, outputStream);
+				}
+			}
+
+			String charset = Constants.CHARSET_NAME_UTF8;
+
+			Writer writer = restUtil.getResponseWriter(stausCode, contentType, charset, respondGzip);
+			if (theResource == null) {
+				// No response is being returned
+			} else if (encodingDomainResourceAsText && theResource instanceof IResource) {
+				writer.append(((IResource) theResource).getText().getDiv().getValueAsString());
+			} else if (encoded != null) {
+				writer.append(new String(encoded, Constants.CHARSET_UTF8));
+			} else {
+				IParser parser = getNewParser(theServer.getFhirContext(), theRequestDetails);
+				parser.encodeResourceToWriter(theResource, writer);
+			}
+
+			return restUtil.sendWriterResponse(stausCode, contentType, charset, writer);
+		} finally {
+			RequestPerformance.stopTimer(PerformancePhaseEnum.ENCODE, encodeStart);
 		}
+	}
 
-		return restUtil.sendWriterResponse(stausCode, contentType, charset, writer);
+	/**
+	 * Returns the server's {@link EncodedResourceCache} if the resource being returned by this request
+	 * may be served from (and stored in) it, or <code>null</code> otherwise. Only reads and vreads of a
+	 * specific resource version with no <code>_summary</code> or <code>_elements</code> view applied are
+	 * cacheable.
+	 */
+	private static EncodedResourceCache getEncodedResourceCacheIfApplicable(IRestfulServerDefaults theServer, RequestDetails theRequestDetails, IIdType theFullId) {
+		if (!(theServer instanceof RestfulServer)) {
+			return null;
+		}
+		EncodedResourceCache retVal = ((RestfulServer) theServer).getEncodedResourceCache();
+		if (retVal == null || theFullId == null || !theFullId.hasResourceType() || !theFullId.hasVersionIdPart()) {
+			return null;
+		}
+		RestOperationTypeEnum operationType = theRequestDetails.getRestOperationType();
+		if (operationType != RestOperationTypeEnum.READ && operationType != RestOperationTypeEnum.VREAD) {
+			return null;
+		}
+		if (!isCompleteResourceView(theRequestDetails)) {
+			return null;
+		}
+		return retVal;
+	}
+
+	/**
+	 * Returns <code>true</code> if the request does not ask for a <code>_summary</code> (other than
+	 * <code>_summary=false</code>) or <code>_elements</code> view, i.e. if resources in the response
+	 * are encoded in full. Only such responses may be stored in an {@link EncodedResourceCache}.
+	 */
+	public static boolean isCompleteResourceView(RequestDetails theRequestDetails) {
+		Set<SummaryEnum> summaryMode = determineSummaryMode(theRequestDetails);
+		if (summaryMode != null && !summaryMode.equals(Collections.singleton(SummaryEnum.FALSE))) {
+			return false;
+		}
+		return ElementsParameter.getElementsValueOrNull(theRequestDetails) == null;
 	}
 
 	public static IIdType fullyQualifyResourceIdOrReturnNull(IRestfulServerDefaults theServer, IBaseResource theResource, String theServerBase, IIdType theResourceId) {
@@ -725,6 +856,40 @@ public class RestfulServerUtils {
 		}
 	}
 
+	private static class SummaryViewBundleProvider implements IBundleProvider {
+
+		private final Set<String> myElements;
+		private final ISummaryAwareBundleProvider myResult;
+		private final Set<SummaryEnum> mySummaryMode;
+
+		public SummaryViewBundleProvider(ISummaryAwareBundleProvider theResult, Set<SummaryEnum> theSummaryMode, Set<String> theElements) {
+			myResult = theResult;
+			mySummaryMode = theSummaryMode;
+			myElements = theElements;
+		}
+
+		@Override
+		public InstantDt getPublished() {
+			return myResult.getPublished();
+		}
+
+		@Override
+		public List<IBaseResource> getResources(int theFromIndex, int theToIndex) {
+			return myResult.getResources(theFromIndex, theToIndex, mySummaryMode, myElements);
+		}
+
+		@Override
+		public Integer preferredPageSize() {
+			return myResult.preferredPageSize();
+		}
+
+		@Override
+		public int size() {
+			return myResult.size();
+		}
+
+	}
+
 	private static enum NarrativeModeEnum {
 		NORMAL, ONLY, SUPPRESS;
 
@@ -0,0 +1,156 @@
+package ca.uhn.fhir.rest.server;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import ca.uhn.fhir.rest.method.RequestDetails;
+
+/**
+ * Performance listener which aggregates the timings of all requests processed by a server
+ * since it was created (or since {@link #reset()} was last called). This class is thread safe,
+ * and a single instance is normally registered with a server using
+ * {@link RestfulServer#registerPerformanceListener(IServerPerformanceListener)}. The
+ * JPA server exposes these statistics using the <code>$perf-stats</code> operation.
+ * 
+ * @since 1.6
+ */
+public class ServerPerformanceStatistics implements IServerPerformanceListener {
+
+	private static final PerformancePhaseEnum[] PHASES = PerformancePhaseEnum.values();
+
+	private final AtomicLongArray myPhaseMaxTimeNanos = new AtomicLongArray(PHASES.length);
+	private final AtomicLongArray myPhaseRequestCount = new AtomicLongArray(PHASES.length);
+	private final AtomicLongArray myPhaseTotalTimeNanos = new AtomicLongArray(PHASES.length);
+	private final AtomicLong myRequestCount = new AtomicLong();
+	private final AtomicLong myRequestMaxTimeNanos = new AtomicLong();
+	private final AtomicLong myRequestTotalTimeNanos = new AtomicLong();
+	private final AtomicLong mySqlStatementMaxCount = new AtomicLong();
+	private final AtomicLong mySqlStatementTotalCount = new AtomicLong();
+
+	/**
+	 * Returns the longest time spent in the given phase by a single request, in nanoseconds
+	 */
+	public long getPhaseMaxTimeNanos(PerformancePhaseEnum thePhase) {
+		return myPhaseMaxTimeNanos.get(thePhase.ordinal());
+	}
+
+	/**
+	 * Returns the number of requests which spent any time in the given phase
+	 */
+	public long getPhaseRequestCount(PerformancePhaseEnum thePhase) {
+		return myPhaseRequestCount.get(thePhase.ordinal());
+	}
+
+	/**
+	 * Returns the total time spent in the given phase across all requests, in nanoseconds
+	 */
+	public long getPhaseTotalTimeNanos(PerformancePhaseEnum thePhase) {
+		return myPhaseTotalTimeNanos.get(thePhase.ordinal());
+	}
+
+	/**
+	 * Returns the number of requests which have completed
+	 */
+	public long getRequestCount() {
+		return myRequestCount.get();
+	}
+
+	/**
+	 * Returns the longest time taken by a single request, in nanoseconds
+	 */
+	public long getRequestMaxTimeNanos() {
+		return myRequestMaxTimeNanos.get();
+	}
+
+	/**
+	 * Returns the total time taken by all requests, in nanoseconds
+	 */
+	public long getRequestTotalTimeNanos() {
+		return myRequestTotalTimeNanos.get();
+	}
+
+	/**
+	 * Returns the largest number of SQL statements executed by a single request
+	 */
+	public long getSqlStatementMaxCount() {
+		return mySqlStatementMaxCount.get();
+	}
+
+	/**
+	 * Returns the total number of SQL statements executed by all requests
+	 */
+	public long getSqlStatementTotalCount() {
+		return mySqlStatementTotalCount.get();
+	}
+
+	@Override
+	public void requestCompleted(RequestDetails theRequestDetails, RequestPerformance thePerformance) {
+		long totalTime = thePerformance.getTotalTimeNanos();
+		myRequestCount.incrementAndGet();
+		myRequestTotalTimeNanos.addAndGet(totalTime);
+		updateMax(myRequestMaxTimeNanos, totalTime);
+
+		int sqlCount = thePerformance.getSqlStatementCount();
+		mySqlStatementTotalCount.addAndGet(sqlCount);
+		updateMax(mySqlStatementMaxCount, sqlCount);
+
+		for (PerformancePhaseEnum next : PHASES) {
+			if (thePerformance.getPhaseCount(next) == 0) {
+				continue;
+			}
+			int index = next.ordinal();
+			long phaseTime = thePerformance.getPhaseTimeNanos(next);
+			myPhaseRequestCount.incrementAndGet(index);
+			myPhaseTotalTimeNanos.addAndGet(index, phaseTime);
+			long currentMax;
+			do {
+				currentMax = myPhaseMaxTimeNanos.get(index);
+			} while (phaseTime > currentMax && !myPhaseMaxTimeNanos.compareAndSet(index, currentMax, phaseTime));
+		}
+	}
+
+	/**
+	 * Discards all statistics collected so far. Note that statistics for requests which complete while
+	 * this method is executing may be partially retained.
+	 */
+	public void reset() {
+		myRequestCount.set(0);
+		myRequestTotalTimeNanos.set(0);
+		myRequestMaxTimeNanos.set(0);
+		mySqlStatementTotalCount.set(0);
+		mySqlStatementMaxCount.set(0);
+		for (int i = 0; i < PHASES.length; i++) {
+			myPhaseRequestCount.set(i, 0);
+			myPhaseTotalTimeNanos.set(i, 0);
+			myPhaseMaxTimeNanos.set(i, 0);
+		}
+	}
+
+	private static void updateMax(AtomicLong theMax, long theValue) {
+		long currentMax;
+		do {
+			currentMax = theMax.get();
+		} while (theValue > currentMax && !theMax.compareAndSet(currentMax, theValue));
+	}
+
+}
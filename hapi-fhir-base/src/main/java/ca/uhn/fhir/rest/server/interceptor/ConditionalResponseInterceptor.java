@@ -0,0 +1,617 @@
+package ca.uhn.fhir.rest.server.interceptor;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.Validate;
+import org.hl7.fhir.instance.model.api.IBaseBinary;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.SummaryEnum;
+import ca.uhn.fhir.rest.method.RequestDetails;
+import ca.uhn.fhir.rest.server.Constants;
+import ca.uhn.fhir.rest.server.EncodedResourceCache;
+import ca.uhn.fhir.rest.server.EncodingEnum;
+import ca.uhn.fhir.rest.server.IRestfulServerDefaults;
+import ca.uhn.fhir.rest.server.RestfulServer;
+import ca.uhn.fhir.rest.server.RestfulServerUtils;
+import ca.uhn.fhir.rest.server.exceptions.AuthenticationException;
+import ca.uhn.fhir.rest.server.exceptions.NotModifiedException;
+import ca.uhn.fhir.rest.server.interceptor.auth.AuthorizationInterceptor;
+import ca.uhn.fhir.util.BundleUtil;
+import ca.uhn.fhir.util.DateUtils;
+
+/**
+ * Server interceptor which adds support for HTTP conditional requests (<code>If-None-Match</code> and
+ * <code>If-Modified-Since</code>) to responses which the server does not otherwise validate, such as
+ * searches, history, <code>$everything</code> and other operations returning a Bundle.
+ * <p>
+ * Bundle responses are given a strong <code>ETag</code> derived from the search ID and offset
+ * of the page being returned (for pages of search results stored by the server's paging provider), the version of every resource in the
+ * bundle, and the request parameters which affect how the response is encoded. If a client repeats a request
+ * with an <code>If-None-Match</code> header containing this ETag, the server replies with
+ * <code>304 Not Modified</code> instead of encoding the response again. Bundles containing any resource
+ * without a version ID are not given an ETag. Single resource responses are validated against
+ * <code>If-None-Match</code> using their version ID, and against <code>If-Modified-Since</code> using their
+ * last updated date.
+ * </p>
+ * <p>
+ * This interceptor can also (optionally, see {@link #setCacheImmutableResponses(boolean)}) keep an
+ * in-memory cache of the encoded bytes of responses which can never change: version specific reads (vread)
+ * and the server conformance statement (<code>metadata</code>). Cached responses are written directly to the
+ * client without invoking the provider or encoding the response. Because of this, the cache is never used on
+ * servers which have an {@link AuthorizationInterceptor} registered. The encoded resources of vread responses
+ * are kept in the server's {@link RestfulServer#setEncodedResourceCache(EncodedResourceCache) encoded resource cache}
+ * if it has one (so that they are shared with plain reads, and invalidated along with them), or in a cache
+ * private to this interceptor otherwise.
+ * </p>
+ * <p>
+ * Counters for cache hits, misses and not-modified responses are available, e.g. for
+ * exposing through JMX or a metrics library.
+ * </p>
+ *
+ * @since 1.6
+ */
+public class ConditionalResponseInterceptor extends InterceptorAdapter {
+
+	/**
+	 * Default value for {@link #setMaximumCachedResponses(int)}
+	 */
+	public static final int DEFAULT_MAXIMUM_CACHED_RESPONSES = 1000;
+
+	/**
+	 * Default value for {@link #setMaximumCachedResponseSize(int)}
+	 */
+	public static final int DEFAULT_MAXIMUM_CACHED_RESPONSE_SIZE = 1024 * 1024;
+
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(ConditionalResponseInterceptor.class);
+
+	private final Map<String, CachedResponse> myCache;
+	private final AtomicLong myCacheHitCount = new AtomicLong();
+	private boolean myCacheImmutableResponses;
+	private final AtomicLong myCacheMissCount = new AtomicLong();
+	private final EncodedResourceCache myEncodedResourceCache = new EncodedResourceCache().setMaximumEntrySizeInBytes(DEFAULT_MAXIMUM_CACHED_RESPONSE_SIZE);
+	private int myMaximumCachedResponses = DEFAULT_MAXIMUM_CACHED_RESPONSES;
+	private int myMaximumCachedResponseSize = DEFAULT_MAXIMUM_CACHED_RESPONSE_SIZE;
+	private final AtomicLong myNotModifiedCount = new AtomicLong();
+	private final AtomicBoolean myWarnedAboutAuthorization = new AtomicBoolean();
+
+	/**
+	 * Constructor
+	 */
+	public ConditionalResponseInterceptor() {
+		myCache = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Entry<String, CachedResponse> theEldest) {
+				return size() > myMaximumCachedResponses;
+			}
+		};
+	}
+
+	/**
+	 * Removes all entries from the encoded response cache. This should be called if
+	 * the server's conformance statement changes, e.g. because providers have been registered
+	 * or unregistered.
+	 */
+	public void clearCache() {
+		synchronized (myCache) {
+			myCache.clear();
+		}
+		myEncodedResourceCache.clear();
+	}
+
+	private String createCacheKey(RequestDetails theRequestDetails) {
+		StringBuilder b = new StringBuilder();
+		b.append(theRequestDetails.getFhirServerBase());
+		b.append('/');
+		b.append(theRequestDetails.getRequestPath());
+		Map<String, String[]> parameters = theRequestDetails.getParameters();
+		for (String nextName : new TreeSet<String>(parameters.keySet())) {
+			for (String nextValue : parameters.get(nextName)) {
+				b.append('&').append(nextName).append('=').append(nextValue);
+			}
+		}
+		b.append('|').append(RestfulServerUtils.determineResponseEncodingWithDefault(theRequestDetails).name());
+		b.append('|').append(RestfulServerUtils.prettyPrintResponse(theRequestDetails.getServer(), theRequestDetails));
+		return b.toString();
+	}
+
+	/**
+	 * Computes a strong ETag for a bundle, or returns <code>null</code> if one can not be determined
+	 * because one or more resources in the bundle does not have a version
+	 */
+	private String createBundleETag(RequestDetails theRequestDetails, IBaseBundle theBundle, String theSearchId) {
+		FhirContext ctx = theRequestDetails.getServer().getFhirContext();
+
+		StringBuilder b = new StringBuilder();
+		if (theSearchId != null) {
+			b.append(theSearchId).append('|');
+			b.append(defaultIfNull(RestfulServerUtils.tryToExtractNamedParameter(theRequestDetails, Constants.PARAM_PAGINGOFFSET))).append('|');
+		}
+		b.append(defaultIfNull(ctx.newTerser().getSingleValueOrNull(theBundle, "total", IPrimitiveType.class))).append('|');
+
+		for (IBaseResource next : BundleUtil.toListOfResources(ctx, theBundle)) {
+			IIdType id = next.getIdElement();
+			if (id == null || !id.hasIdPart() || !id.hasVersionIdPart()) {
+				return null;
+			}
+			b.append(ctx.getResourceDefinition(next).getName()).append('/');
+			b.append(id.getIdPart()).append('/');
+			b.append(id.getVersionIdPart()).append('|');
+		}
+
+		b.append(createCacheKey(theRequestDetails));
+
+		return '"' + DigestUtils.sha256Hex(b.toString()) + '"';
+	}
+
+	private static String defaultIfNull(Object theValue) {
+		if (theValue instanceof IPrimitiveType) {
+			return ((IPrimitiveType<?>) theValue).getValueAsString();
+		}
+		return theValue != null ? theValue.toString() : "";
+	}
+
+	/**
+	 * Returns the search ID if the request is for a page of search results which have been stored
+	 * by the server's paging provider, or <code>null</code> otherwise
+	 */
+	private static String extractSearchId(RequestDetails theRequestDetails) {
+		String[] searchId = theRequestDetails.getParameters().get(Constants.PARAM_PAGINGACTION);
+		if (searchId != null && searchId.length > 0 && isNotBlank(searchId[0])) {
+			return searchId[0];
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the number of requests which were served from the encoded response cache
+	 */
+	public long getCacheHitCount() {
+		return myCacheHitCount.get();
+	}
+
+	/**
+	 * Returns the number of cacheable requests (see {@link #setCacheImmutableResponses(boolean)}) which
+	 * were not found in the encoded response cache
+	 */
+	public long getCacheMissCount() {
+		return myCacheMissCount.get();
+	}
+
+	/**
+	 * Returns the number of responses currently held in the encoded response cache
+	 */
+	public int getCacheSize() {
+		synchronized (myCache) {
+			return myCache.size();
+		}
+	}
+
+	/**
+	 * Returns the maximum number of responses which will be held in the encoded response cache
+	 */
+	public int getMaximumCachedResponses() {
+		return myMaximumCachedResponses;
+	}
+
+	/**
+	 * Returns the maximum size in bytes of an encoded response which will be cached
+	 */
+	public int getMaximumCachedResponseSize() {
+		return myMaximumCachedResponseSize;
+	}
+
+	/**
+	 * Returns the number of requests which received a <code>304 Not Modified</code> response
+	 * because of this interceptor
+	 */
+	public long getNotModifiedCount() {
+		return myNotModifiedCount.get();
+	}
+
+	@Override
+	public boolean incomingRequestPostProcessed(RequestDetails theRequestDetails, HttpServletRequest theRequest, HttpServletResponse theResponse) throws AuthenticationException {
+		if (!myCacheImmutableResponses || !isCacheable(theRequestDetails)) {
+			return true;
+		}
+
+		CachedResponse cached;
+		synchronized (myCache) {
+			cached = myCache.get(createCacheKey(theRequestDetails));
+		}
+
+		if (cached != null && cached.myETag != null && ifNoneMatchMatches(theRequestDetails, cached.myETag)) {
+			myCacheHitCount.incrementAndGet();
+			theResponse.addHeader(Constants.HEADER_ETAG, cached.myETag);
+			throwNotModified();
+		}
+
+		byte[] bytes = null;
+		if (cached != null) {
+			bytes = cached.myBytes;
+			if (bytes == null) {
+				// The encoded resource may have been evicted or invalidated
+				bytes = getEncodedResourceCache(theRequestDetails).get(createVersionedId(theRequestDetails), RestfulServerUtils.determineResponseEncodingWithDefault(theRequestDetails), RestfulServerUtils.prettyPrintResponse(theRequestDetails.getServer(), theRequestDetails), theRequestDetails.getFhirServerBase());
+			}
+		}
+		if (bytes == null) {
+			myCacheMissCount.incrementAndGet();
+			return true;
+		}
+		myCacheHitCount.incrementAndGet();
+
+		ourLog.trace("Serving response for {} from cache", theRequestDetails.getRequestPath());
+		writeCachedResponse(theRequestDetails, theResponse, cached, bytes);
+		return false;
+	}
+
+	private static IIdType createVersionedId(RequestDetails theRequestDetails) {
+		return theRequestDetails.getId().withResourceType(theRequestDetails.getResourceName());
+	}
+
+	/**
+	 * Returns the cache which holds the encoded resources of vread responses
+	 */
+	private EncodedResourceCache getEncodedResourceCache(RequestDetails theRequestDetails) {
+		EncodedResourceCache retVal = getServerEncodedResourceCache(theRequestDetails);
+		if (retVal == null) {
+			retVal = myEncodedResourceCache;
+		}
+		return retVal;
+	}
+
+	private static EncodedResourceCache getServerEncodedResourceCache(RequestDetails theRequestDetails) {
+		IRestfulServerDefaults server = theRequestDetails.getServer();
+		if (server instanceof RestfulServer) {
+			return ((RestfulServer) server).getEncodedResourceCache();
+		}
+		return null;
+	}
+
+	/**
+	 * Cached responses are served without invoking the hooks which an {@link AuthorizationInterceptor} uses
+	 * to check them, so the cache is not used at all if the server has one
+	 */
+	private boolean hasAuthorizationInterceptor(RequestDetails theRequestDetails) {
+		List<IServerInterceptor> interceptors = theRequestDetails.getServer().getInterceptors();
+		if (interceptors != null) {
+			for (IServerInterceptor next : interceptors) {
+				if (next instanceof AuthorizationInterceptor) {
+					if (myWarnedAboutAuthorization.compareAndSet(false, true)) {
+						ourLog.warn("Not caching immutable responses because the server has an AuthorizationInterceptor");
+					}
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean ifNoneMatchMatches(RequestDetails theRequestDetails, String theETag) {
+		String ifNoneMatch = theRequestDetails.getHeader(Constants.HEADER_IF_NONE_MATCH_LC);
+		if (isBlank(ifNoneMatch)) {
+			return false;
+		}
+		String eTag = stripWeakPrefix(theETag);
+		for (String next : ifNoneMatch.split(",")) {
+			next = next.trim();
+			if ("*".equals(next) || eTag.equals(stripWeakPrefix(next))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isCacheable(RequestDetails theRequestDetails) {
+		if (theRequestDetails.getRequestType() != RequestTypeEnum.GET || hasAuthorizationInterceptor(theRequestDetails)) {
+			return false;
+		}
+		RestOperationTypeEnum operationType = theRequestDetails.getRestOperationType();
+		if (operationType == RestOperationTypeEnum.VREAD) {
+			if (theRequestDetails.getId() == null || !theRequestDetails.getId().hasVersionIdPart() || "Binary".equals(theRequestDetails.getResourceName())) {
+				return false;
+			}
+			// The encoded resource cache only holds resources encoded in full
+			if (!RestfulServerUtils.isCompleteResourceView(theRequestDetails)) {
+				return false;
+			}
+		} else if (operationType != RestOperationTypeEnum.METADATA) {
+			return false;
+		}
+
+		// Don't cache responses which a ResponseHighlighterInterceptor might render as HTML
+		for (String nextAccept : theRequestDetails.getHeaders(Constants.HEADER_ACCEPT)) {
+			if (nextAccept.contains(Constants.CT_HTML)) {
+				return false;
+			}
+		}
+		return !RestfulServerUtils.determineSummaryMode(theRequestDetails).contains(SummaryEnum.TEXT);
+	}
+
+	/**
+	 * Should responses which can never change (version specific reads and the server conformance
+	 * statement) be kept in an in-memory cache of encoded responses, and served directly from that
+	 * cache? Default is <code>false</code>
+	 *
+	 * @see #setCacheImmutableResponses(boolean)
+	 */
+	public boolean isCacheImmutableResponses() {
+		return myCacheImmutableResponses;
+	}
+
+	private static Date lastModifiedOrNull(IBaseResource theResource) {
+		IPrimitiveType<Date> lastUpdated = RestfulServerUtils.extractLastUpdatedFromResource(theResource);
+		if (lastUpdated == null || lastUpdated.isEmpty()) {
+			return null;
+		}
+		return lastUpdated.getValue();
+	}
+
+	@Override
+	public boolean outgoingResponse(RequestDetails theRequestDetails, IBaseResource theResponseObject, HttpServletRequest theServletRequest, HttpServletResponse theServletResponse) throws AuthenticationException {
+		if (theRequestDetails.getRequestType() != RequestTypeEnum.GET || theResponseObject == null) {
+			return true;
+		}
+
+		String eTag = null;
+		Date lastModified = null;
+		if (theResponseObject instanceof IBaseBundle) {
+			IBaseBundle bundle = (IBaseBundle) theResponseObject;
+			FhirContext ctx = theRequestDetails.getServer().getFhirContext();
+			String searchId = extractSearchId(theRequestDetails);
+			eTag = createBundleETag(theRequestDetails, bundle, searchId);
+			if (eTag != null) {
+				theRequestDetails.getResponse().addHeader(Constants.HEADER_ETAG, eTag);
+			}
+
+			/*
+			 * A page of stored search results always contains the same resources, so it
+			 * has only been modified if one of those resources has. Other bundles could have
+			 * gained or lost entries so If-Modified-Since isn't applied to them.
+			 */
+			if (searchId != null) {
+				lastModified = newestLastModifiedOrNull(BundleUtil.toListOfResources(ctx, bundle));
+			}
+		} else {
+			IIdType id = theResponseObject.getIdElement();
+			if (id != null && id.hasVersionIdPart()) {
+				eTag = "W/\"" + id.getVersionIdPart() + '"';
+			}
+			lastModified = lastModifiedOrNull(theResponseObject);
+		}
+
+		if (isNotBlank(theRequestDetails.getHeader(Constants.HEADER_IF_NONE_MATCH_LC))) {
+			// If-None-Match takes precedence over If-Modified-Since (RFC 7232 section 6)
+			if (eTag != null && ifNoneMatchMatches(theRequestDetails, eTag)) {
+				theServletResponse.addHeader(Constants.HEADER_ETAG, eTag);
+				throwNotModified();
+			}
+		} else if (lastModified != null) {
+			String ifModifiedSince = theRequestDetails.getHeader(Constants.HEADER_IF_MODIFIED_SINCE_LC);
+			if (isNotBlank(ifModifiedSince)) {
+				Date since = DateUtils.parseDate(ifModifiedSince);
+				// HTTP dates have a precision of one second
+				if (since != null && (lastModified.getTime() / 1000) <= (since.getTime() / 1000)) {
+					throwNotModified();
+				}
+			}
+		}
+
+		if (myCacheImmutableResponses && !(theResponseObject instanceof IBaseBinary) && isCacheable(theRequestDetails)) {
+			if (theRequestDetails.getRestOperationType() == RestOperationTypeEnum.VREAD && getServerEncodedResourceCache(theRequestDetails) != null) {
+				// The server stores the encoded resource in its own cache as it writes the response
+				storeInCache(theRequestDetails, theResponseObject, null, eTag, lastModified);
+			} else {
+				IParser parser = RestfulServerUtils.getNewParser(theRequestDetails.getServer().getFhirContext(), theRequestDetails);
+				byte[] bytes = parser.encodeResourceToString(theResponseObject).getBytes(Constants.CHARSET_UTF8);
+				if (bytes.length > myMaximumCachedResponseSize) {
+					ourLog.debug("Not caching response for {} because it is {} bytes", theRequestDetails.getRequestPath(), bytes.length);
+				} else {
+					storeInCache(theRequestDetails, theResponseObject, bytes, eTag, lastModified);
+				}
+			}
+		}
+
+		return true;
+	}
+
+	private static Date newestLastModifiedOrNull(List<IBaseResource> theResources) {
+		Date retVal = null;
+		for (IBaseResource next : theResources) {
+			Date lastModified = lastModifiedOrNull(next);
+			if (lastModified == null) {
+				return null;
+			}
+			if (retVal == null || lastModified.after(retVal)) {
+				retVal = lastModified;
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Should responses which can never change (version specific reads and the server conformance
+	 * statement) be kept in an in-memory cache of encoded responses, and served directly from that
+	 * cache? Default is <code>false</code>
+	 * <p>
+	 * Note that responses served from the cache do not invoke the resource provider, and do not
+	 * invoke the {@link IServerInterceptor#incomingRequestPreHandled(RestOperationTypeEnum, ca.uhn.fhir.rest.server.interceptor.IServerInterceptor.ActionRequestDetails) incomingRequestPreHandled}
+	 * or {@link IServerInterceptor#outgoingResponse(RequestDetails, IBaseResource, HttpServletRequest, HttpServletResponse) outgoingResponse}
+	 * methods of any interceptor. Interceptors which examine requests in
+	 * {@link IServerInterceptor#incomingRequestPostProcessed(RequestDetails, HttpServletRequest, HttpServletResponse) incomingRequestPostProcessed}
+	 * (or earlier) are still invoked as long as they are registered before this interceptor. Responses which are
+	 * not yet in the cache are processed and written by the server as usual.
+	 * </p>
+	 * <p>
+	 * Since an {@link AuthorizationInterceptor} checks requests in those methods, the cache is not used on
+	 * servers which have one registered, even if this setting is enabled. Do not enable this setting on servers
+	 * which restrict access to resources in some other way that relies on those methods either.
+	 * </p>
+	 */
+	public ConditionalResponseInterceptor setCacheImmutableResponses(boolean theCacheImmutableResponses) {
+		myCacheImmutableResponses = theCacheImmutableResponses;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of responses which will be held in the encoded response cache. When the
+	 * cache is full, the least recently used response is discarded. Default is {@link #DEFAULT_MAXIMUM_CACHED_RESPONSES}
+	 */
+	public ConditionalResponseInterceptor setMaximumCachedResponses(int theMaximumCachedResponses) {
+		Validate.isTrue(theMaximumCachedResponses > 0, "theMaximumCachedResponses must be greater than 0");
+		myMaximumCachedResponses = theMaximumCachedResponses;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum size in bytes of an encoded response which will be cached. Larger responses are
+	 * not cached. Default is {@link #DEFAULT_MAXIMUM_CACHED_RESPONSE_SIZE}
+	 */
+	public ConditionalResponseInterceptor setMaximumCachedResponseSize(int theMaximumCachedResponseSize) {
+		Validate.isTrue(theMaximumCachedResponseSize > 0, "theMaximumCachedResponseSize must be greater than 0");
+		myMaximumCachedResponseSize = theMaximumCachedResponseSize;
+		myEncodedResourceCache.setMaximumEntrySizeInBytes(theMaximumCachedResponseSize);
+		return this;
+	}
+
+	/**
+	 * Stores an encoded response in the cache. The encoded resource of a vread is stored in the
+	 * encoded resource cache rather than in the returned entry (if <code>theBytes</code> is <code>null</code>
+	 * the server is expected to store it there itself).
+	 */
+	private void storeInCache(RequestDetails theRequestDetails, IBaseResource theResource, byte[] theBytes, String theETag, Date theLastModified) {
+		EncodingEnum encoding = RestfulServerUtils.determineResponseEncodingWithDefault(theRequestDetails);
+		byte[] bytes = theBytes;
+		if (bytes != null && theRequestDetails.getRestOperationType() == RestOperationTypeEnum.VREAD) {
+			boolean prettyPrint = RestfulServerUtils.prettyPrintResponse(theRequestDetails.getServer(), theRequestDetails);
+			getEncodedResourceCache(theRequestDetails).put(createVersionedId(theRequestDetails), encoding, prettyPrint, theRequestDetails.getFhirServerBase(), theBytes);
+			bytes = null;
+		}
+
+		List<String> headers = new ArrayList<String>();
+		if (theETag != null) {
+			headers.add(Constants.HEADER_ETAG);
+			headers.add(theETag);
+		}
+		if (theLastModified != null) {
+			headers.add(Constants.HEADER_LAST_MODIFIED);
+			headers.add(DateUtils.formatDate(theLastModified));
+		}
+		if (theResource.getIdElement() != null && !theResource.getIdElement().isEmpty()) {
+			IIdType fullId = RestfulServerUtils.fullyQualifyResourceIdOrReturnNull(theRequestDetails.getServer(), theResource, theRequestDetails.getFhirServerBase(), theResource.getIdElement());
+			if (fullId != null) {
+				headers.add(Constants.HEADER_LOCATION);
+				headers.add(fullId.getValue());
+				headers.add(Constants.HEADER_CONTENT_LOCATION);
+				headers.add(fullId.getValue());
+			}
+		}
+
+		CachedResponse cached = new CachedResponse(encoding.getResourceContentType(), bytes, theETag, headers.toArray(new String[headers.size()]));
+		synchronized (myCache) {
+			myCache.put(createCacheKey(theRequestDetails), cached);
+		}
+	}
+
+	private static String stripWeakPrefix(String theETag) {
+		if (theETag.startsWith("W/")) {
+			return theETag.substring(2);
+		}
+		return theETag;
+	}
+
+	private void throwNotModified() {
+		myNotModifiedCount.incrementAndGet();
+		throw new NotModifiedException("Not Modified");
+	}
+
+	private static void writeCachedResponse(RequestDetails theRequestDetails, HttpServletResponse theResponse, CachedResponse theCached, byte[] theBytes) {
+		try {
+			IRestfulServerDefaults server = theRequestDetails.getServer();
+			if (server instanceof RestfulServer) {
+				((RestfulServer) server).addHeadersToResponse(theResponse);
+			}
+			for (int i = 0; i < theCached.myHeaders.length; i += 2) {
+				theResponse.setHeader(theCached.myHeaders[i], theCached.myHeaders[i + 1]);
+			}
+			theResponse.setStatus(Constants.STATUS_HTTP_200_OK);
+			theResponse.setCharacterEncoding(Constants.CHARSET_NAME_UTF8);
+			theResponse.setContentType(theCached.myContentType);
+			OutputStream outputStream;
+			if (theRequestDetails.isRespondGzip()) {
+				theResponse.addHeader(Constants.HEADER_CONTENT_ENCODING, Constants.ENCODING_GZIP);
+				outputStream = new GZIPOutputStream(theResponse.getOutputStream());
+			} else {
+				theResponse.setContentLength(theBytes.length);
+				outputStream = theResponse.getOutputStream();
+			}
+			outputStream.write(theBytes);
+			outputStream.close();
+		} catch (IOException e) {
+			ourLog.debug("Failed to write cached response", e);
+		}
+	}
+
+	private static class CachedResponse {
+		/** The encoded response, or <code>null</code> if it is held in an {@link EncodedResourceCache} */
+		private final byte[] myBytes;
+		private final String myContentType;
+		private final String myETag;
+		private final String[] myHeaders;
+
+		CachedResponse(String theContentType, byte[] theBytes, String theETag, String[] theHeaders) {
+			myContentType = theContentType;
+			myBytes = theBytes;
+			myETag = theETag;
+			myHeaders = theHeaders;
+		}
+	}
+
+}
@@ -148,6 +148,14 @@ public class LoggingInterceptor extends InterceptorAdapter {
 	@Override
 	public boolean incomingRequestPostProcessed(final RequestDetails theRequestDetails, final HttpServletRequest theRequest, HttpServletResponse theResponse) throws AuthenticationException {
 
+		/*
+		 * Request bodies are streamed to the parser without being buffered, so if the error
+		 * message needs the body it must be buffered now while it is still available
+		 */
+		if (myLogExceptions && myErrorMessageFormat.contains("${requestBodyFhir}")) {
+			theRequestDetails.loadRequestContents();
+		}
+
 		// Perform any string substitutions from the message format
 		StrLookup<?> lookup = new MyLookup(theRequest, theRequestDetails);
 		StrSubstitutor subs = new StrSubstitutor(lookup, "${", "}", '\\');
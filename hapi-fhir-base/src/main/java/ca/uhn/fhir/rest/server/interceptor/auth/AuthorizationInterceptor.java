@@ -24,7 +24,11 @@ import static org.apache.commons.lang3.StringUtils.defaultString;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -38,6 +42,8 @@ import ca.uhn.fhir.model.api.Bundle;
 import ca.uhn.fhir.model.api.TagList;
 import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
 import ca.uhn.fhir.rest.method.RequestDetails;
+import ca.uhn.fhir.rest.server.PerformancePhaseEnum;
+import ca.uhn.fhir.rest.server.RequestPerformance;
 import ca.uhn.fhir.rest.server.exceptions.AuthenticationException;
 import ca.uhn.fhir.rest.server.exceptions.ForbiddenOperationException;
 import ca.uhn.fhir.rest.server.interceptor.IServerOperationInterceptor;
@@ -57,15 +63,39 @@ import ca.uhn.fhir.util.CoverageIgnore;
  */
 public class AuthorizationInterceptor extends InterceptorAdapter implements IServerOperationInterceptor, IRuleApplier {
 
+	/**
+	 * Default value for {@link #setMaximumCachedRuleLists(int)}
+	 * 
+	 * @since 1.6
+	 */
+	public static final int DEFAULT_MAXIMUM_CACHED_RULE_LISTS = 1000;
+
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(AuthorizationInterceptor.class);
 	
+	private final AtomicLong myDecisionCount = new AtomicLong();
+	private final AtomicLong myDecisionTimeNanos = new AtomicLong();
 	private PolicyEnum myDefaultPolicy = PolicyEnum.DENY;
+	private int myMaximumCachedRuleLists = DEFAULT_MAXIMUM_CACHED_RULE_LISTS;
+	/**
+	 * Key for the per-request state stored in {@link RequestDetails#getUserData()}. This is an instance field
+	 * so that more than one authorization interceptor can be registered against the same server.
+	 */
+	private final Object myRequestStateKey = new Object();
+	private final Map<Object, CompiledRuleList> myRuleListCache;
 
 	/**
 	 * Constructor
 	 */
 	public AuthorizationInterceptor() {
 		super();
+		myRuleListCache = new LinkedHashMap<Object, CompiledRuleList>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Entry<Object, CompiledRuleList> theEldest) {
+				return size() > myMaximumCachedRuleLists;
+			}
+		};
 	}
 	
 	/**
@@ -90,8 +120,9 @@ public class AuthorizationInterceptor extends InterceptorAdapter implements ISer
 
 	@Override
 	public Verdict applyRulesAndReturnDecision(RestOperationTypeEnum theOperation, RequestDetails theRequestDetails, IBaseResource theInputResource, IBaseResource theOutputResource) {
-		List<IAuthRule> rules = buildRuleList(theRequestDetails);
-		ourLog.trace("Applying {} rules to render an auth decision for operation {}", rules.size(), theOperation);
+		CompiledRuleList ruleList = getRuleList(theRequestDetails);
+		List<IAuthRule> rules = ruleList.getCandidates(theOperation, theInputResource, theOutputResource);
+		ourLog.trace("Applying {} of {} rules to render an auth decision for operation {}", new Object[] { rules.size(), ruleList.getRules().size(), theOperation });
 
 		Verdict verdict = null;
 		for (IAuthRule nextRule : rules) {
@@ -118,6 +149,11 @@ public class AuthorizationInterceptor extends InterceptorAdapter implements ISer
 	 * out who the current user is and then using a {@link RuleBuilder} to create
 	 * an appropriate rule chain. 
 	 * </p>
+	 * <p>
+	 * This method is called at most once per request (the resulting rule list is used both to
+	 * authorize the incoming request and to check the response), and may be called even less often if
+	 * {@link #getRuleListCacheKey(RequestDetails)} has been overridden.
+	 * </p>
 	 * 
 	 * @param theRequestDetails The individual request currently being applied
 	 */
@@ -125,6 +161,17 @@ public class AuthorizationInterceptor extends InterceptorAdapter implements ISer
 		return new ArrayList<IAuthRule>();
 	}
 
+	/**
+	 * Removes all rule lists from the cache (see {@link #getRuleListCacheKey(RequestDetails)})
+	 * 
+	 * @since 1.6
+	 */
+	public void clearRuleListCache() {
+		synchronized (myRuleListCache) {
+			myRuleListCache.clear();
+		}
+	}
+
 	
 	private OperationExamineDirection determineOperationDirection(RestOperationTypeEnum theOperation) {
 		switch (theOperation) {
@@ -179,6 +226,37 @@ public class AuthorizationInterceptor extends InterceptorAdapter implements ISer
 
 	}
 
+	/**
+	 * Returns the number of times that this interceptor has evaluated its rules in order to authorize
+	 * part of a request (an incoming request, an outgoing response, or a write performed by the server)
+	 * 
+	 * @since 1.6
+	 */
+	public long getDecisionCount() {
+		return myDecisionCount.get();
+	}
+
+	/**
+	 * Returns the total time in nanoseconds spent by this interceptor evaluating its rules across all
+	 * requests (including the time taken to build rule lists)
+	 * 
+	 * @since 1.6
+	 */
+	public long getDecisionTimeNanos() {
+		return myDecisionTimeNanos.get();
+	}
+
+	/**
+	 * Returns the time in nanoseconds spent by this interceptor evaluating its rules for the
+	 * given request so far
+	 * 
+	 * @since 1.6
+	 */
+	public long getDecisionTimeNanos(RequestDetails theRequestDetails) {
+		RequestState state = (RequestState) theRequestDetails.getUserData().get(myRequestStateKey);
+		return state != null ? state.myDecisionTimeNanos : 0;
+	}
+
 	/**
 	 * The default policy if no rules have been found to apply. Default value for this setting is {@link PolicyEnum#DENY}
 	 */
@@ -186,6 +264,83 @@ public class AuthorizationInterceptor extends InterceptorAdapter implements ISer
 		return myDefaultPolicy;
 	}
 
+	/**
+	 * Returns the maximum number of rule lists which will be cached (see {@link #getRuleListCacheKey(RequestDetails)}).
+	 * Default is {@link #DEFAULT_MAXIMUM_CACHED_RULE_LISTS}
+	 * 
+	 * @since 1.6
+	 */
+	public int getMaximumCachedRuleLists() {
+		return myMaximumCachedRuleLists;
+	}
+
+	private RequestState getRequestState(RequestDetails theRequestDetails) {
+		RequestState retVal = (RequestState) theRequestDetails.getUserData().get(myRequestStateKey);
+		if (retVal == null) {
+			retVal = new RequestState();
+			theRequestDetails.getUserData().put(myRequestStateKey, retVal);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Subclasses may override this method in order to allow the rule list returned by
+	 * {@link #buildRuleList(RequestDetails)} to be reused across requests.
+	 * <p>
+	 * If this method returns a non-null key (typically the identity of the authenticated user, or the
+	 * access token which was supplied with the request) then the rule list which was built for the first
+	 * request with that key will be reused for any subsequent requests which return an equal key. Cached
+	 * rule lists are kept until they are removed using {@link #invalidateRuleListCache(Object)}
+	 * or {@link #clearRuleListCache()}, or until the cache grows beyond {@link #getMaximumCachedRuleLists()} entries.
+	 * Keys must therefore uniquely identify everything which is used by <code>buildRuleList</code> to build the rules.
+	 * </p>
+	 * <p>
+	 * The default implementation returns <code>null</code>, meaning that the rule list is built once for each request.
+	 * </p>
+	 * 
+	 * @param theRequestDetails The individual request currently being applied
+	 * @since 1.6
+	 */
+	protected Object getRuleListCacheKey(RequestDetails theRequestDetails) {
+		return null;
+	}
+
+	/**
+	 * Returns the rule list for the given request, which is built at most once per request (and at most once
+	 * per cache key if {@link #getRuleListCacheKey(RequestDetails)} has been overridden)
+	 */
+	private CompiledRuleList getRuleList(RequestDetails theRequestDetails) {
+		RequestState state = null;
+		Object cacheKey = null;
+		if (theRequestDetails != null) {
+			state = getRequestState(theRequestDetails);
+			if (state.myRuleList != null) {
+				return state.myRuleList;
+			}
+			cacheKey = getRuleListCacheKey(theRequestDetails);
+		}
+
+		CompiledRuleList retVal = null;
+		if (cacheKey != null) {
+			synchronized (myRuleListCache) {
+				retVal = myRuleListCache.get(cacheKey);
+			}
+		}
+		if (retVal == null) {
+			retVal = new CompiledRuleList(buildRuleList(theRequestDetails));
+			if (cacheKey != null) {
+				synchronized (myRuleListCache) {
+					myRuleListCache.put(cacheKey, retVal);
+				}
+			}
+		}
+
+		if (state != null) {
+			state.myRuleList = retVal;
+		}
+		return retVal;
+	}
+
 	/**
 	 * Handle an access control verdict of {@link PolicyEnum#DENY}.
 	 * <p>
@@ -204,7 +359,12 @@ public class AuthorizationInterceptor extends InterceptorAdapter implements ISer
 	}
 	
 	private void handleUserOperation(RequestDetails theRequest, IBaseResource theResource, RestOperationTypeEnum operation) {
-		applyRulesAndFailIfDeny(operation, theRequest, theResource, null);
+		long start = System.nanoTime();
+		try {
+			applyRulesAndFailIfDeny(operation, theRequest, theResource, null);
+		} finally {
+			recordDecisionTime(theRequest, start);
+		}
 	}
 	
 	@Override
@@ -219,7 +379,25 @@ public class AuthorizationInterceptor extends InterceptorAdapter implements ISer
 		}
 
 		RequestDetails requestDetails = theProcessedRequest.getRequestDetails();
-		applyRulesAndFailIfDeny(theOperation, requestDetails, theProcessedRequest.getResource(), null);
+		long start = System.nanoTime();
+		try {
+			applyRulesAndFailIfDeny(theOperation, requestDetails, theProcessedRequest.getResource(), null);
+		} finally {
+			recordDecisionTime(requestDetails, start);
+		}
+	}
+
+	/**
+	 * Removes the rule list with the given key from the cache (see {@link #getRuleListCacheKey(RequestDetails)}).
+	 * This should be called whenever the rules which apply to a given key change, e.g. because a user's
+	 * permissions have been modified.
+	 * 
+	 * @since 1.6
+	 */
+	public void invalidateRuleListCache(Object theCacheKey) {
+		synchronized (myRuleListCache) {
+			myRuleListCache.remove(theCacheKey);
+		}
 	}
 	
 	@Override
@@ -245,8 +423,8 @@ public class AuthorizationInterceptor extends InterceptorAdapter implements ISer
 			break;
 		}
 
+		long start = System.nanoTime();
 		FhirContext fhirContext = theRequestDetails.getServer().getFhirContext();
-		List<IAuthRule> rules = buildRuleList(theRequestDetails);
 		
 		List<IBaseResource> resources = Collections.emptyList();
 		
@@ -271,8 +449,12 @@ public class AuthorizationInterceptor extends InterceptorAdapter implements ISer
 		}
 		}
 		
-		for (IBaseResource nextResponse : resources) {
-			applyRulesAndFailIfDeny(theRequestDetails.getRestOperationType(), theRequestDetails, null, nextResponse);
+		try {
+			for (IBaseResource nextResponse : resources) {
+				applyRulesAndFailIfDeny(theRequestDetails.getRestOperationType(), theRequestDetails, null, nextResponse);
+			}
+		} finally {
+			recordDecisionTime(theRequestDetails, start);
 		}
 
 		return true;
@@ -290,6 +472,19 @@ public class AuthorizationInterceptor extends InterceptorAdapter implements ISer
 		throw failForDstu1();
 	}
 
+	private void recordDecisionTime(RequestDetails theRequestDetails, long theStartNanos) {
+		long elapsed = System.nanoTime() - theStartNanos;
+		myDecisionCount.incrementAndGet();
+		myDecisionTimeNanos.addAndGet(elapsed);
+		if (theRequestDetails != null) {
+			getRequestState(theRequestDetails).myDecisionTimeNanos += elapsed;
+		}
+		RequestPerformance performance = RequestPerformance.getCurrent();
+		if (performance != null) {
+			performance.addPhaseTime(PerformancePhaseEnum.AUTHORIZE, elapsed);
+		}
+	}
+
 	@Override
 	public void resourceCreated(RequestDetails theRequest, IBaseResource theResource) {
 		handleUserOperation(theRequest, theResource, RestOperationTypeEnum.CREATE);
@@ -315,6 +510,17 @@ public class AuthorizationInterceptor extends InterceptorAdapter implements ISer
 		myDefaultPolicy = theDefaultPolicy;
 	}
 
+	/**
+	 * Sets the maximum number of rule lists which will be cached (see {@link #getRuleListCacheKey(RequestDetails)}).
+	 * Default is {@link #DEFAULT_MAXIMUM_CACHED_RULE_LISTS}
+	 * 
+	 * @since 1.6
+	 */
+	public void setMaximumCachedRuleLists(int theMaximumCachedRuleLists) {
+		Validate.isTrue(theMaximumCachedRuleLists > 0, "theMaximumCachedRuleLists must be greater than 0");
+		myMaximumCachedRuleLists = theMaximumCachedRuleLists;
+	}
+
 	private List<IBaseResource> toListOfResources(FhirContext fhirContext, IBaseBundle responseBundle) {
 		List<IBaseResource> retVal = BundleUtil.toListOfResources(fhirContext, responseBundle);
 		for (int i = 0; i < retVal.size(); i++) {
@@ -332,6 +538,11 @@ public class AuthorizationInterceptor extends InterceptorAdapter implements ISer
 		return new UnsupportedOperationException("Use of this interceptor on DSTU1 servers is not supportd");
 	}
 
+	private static class RequestState {
+		private long myDecisionTimeNanos;
+		private CompiledRuleList myRuleList;
+	}
+
 	private enum OperationExamineDirection {
 		IN,
 		NONE,
@@ -0,0 +1,111 @@
+package ca.uhn.fhir.rest.server.interceptor.auth;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+
+/**
+ * A rule list returned by {@link AuthorizationInterceptor#buildRuleList(ca.uhn.fhir.rest.method.RequestDetails)},
+ * indexed by the operation and the types of the resources being examined so that only the rules
+ * which can possibly return a verdict are evaluated. The relative order of the rules is preserved,
+ * so the first rule to return a verdict is the same one that would be found by walking the full list.
+ * <p>
+ * This class is thread safe, and instances may be shared across requests.
+ * </p>
+ */
+class CompiledRuleList {
+
+	private final ConcurrentHashMap<CandidateKey, List<IAuthRule>> myCandidates = new ConcurrentHashMap<CandidateKey, List<IAuthRule>>();
+	private final List<IAuthRule> myRules;
+
+	CompiledRuleList(List<IAuthRule> theRules) {
+		myRules = Collections.unmodifiableList(new ArrayList<IAuthRule>(theRules));
+	}
+
+	/**
+	 * Returns the rules which may return a verdict for the given operation and resources, in the
+	 * order they were supplied
+	 */
+	List<IAuthRule> getCandidates(RestOperationTypeEnum theOperation, IBaseResource theInputResource, IBaseResource theOutputResource) {
+		Class<?> inputType = theInputResource != null ? theInputResource.getClass() : null;
+		Class<?> outputType = theOutputResource != null ? theOutputResource.getClass() : null;
+		CandidateKey key = new CandidateKey(theOperation, inputType, outputType);
+
+		List<IAuthRule> retVal = myCandidates.get(key);
+		if (retVal == null) {
+			retVal = new ArrayList<IAuthRule>();
+			for (IAuthRule next : myRules) {
+				if (!(next instanceof Rule) || ((Rule) next).mayApply(theOperation, inputType, outputType)) {
+					retVal.add(next);
+				}
+			}
+			myCandidates.put(key, retVal);
+		}
+		return retVal;
+	}
+
+	List<IAuthRule> getRules() {
+		return myRules;
+	}
+
+	private static class CandidateKey {
+
+		private final int myHashCode;
+		private final Class<?> myInputType;
+		private final RestOperationTypeEnum myOperation;
+		private final Class<?> myOutputType;
+
+		CandidateKey(RestOperationTypeEnum theOperation, Class<?> theInputType, Class<?> theOutputType) {
+			myOperation = theOperation;
+			myInputType = theInputType;
+			myOutputType = theOutputType;
+
+			int hashCode = 17;
+			hashCode = 31 * hashCode + (theOperation != null ? theOperation.hashCode() : 0);
+			hashCode = 31 * hashCode + (theInputType != null ? theInputType.hashCode() : 0);
+			hashCode = 31 * hashCode + (theOutputType != null ? theOutputType.hashCode() : 0);
+			myHashCode = hashCode;
+		}
+
+		@Override
+		public boolean equals(Object theObj) {
+			if (!(theObj instanceof CandidateKey)) {
+				return false;
+			}
+			CandidateKey other = (CandidateKey) theObj;
+			return myOperation == other.myOperation && myInputType == other.myInputType && myOutputType == other.myOutputType;
+		}
+
+		@Override
+		public int hashCode() {
+			return myHashCode;
+		}
+
+	}
+
+}
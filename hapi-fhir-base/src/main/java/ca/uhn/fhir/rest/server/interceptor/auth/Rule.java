@@ -20,17 +20,22 @@ package ca.uhn.fhir.rest.server.interceptor.auth;
  * #L%
  */
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang3.Validate;
 import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.instance.model.api.IBaseReference;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IIdType;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.context.RuntimeSearchParam;
 import ca.uhn.fhir.rest.api.RequestTypeEnum;
 import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
 import ca.uhn.fhir.rest.method.RequestDetails;
@@ -38,6 +43,7 @@ import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.interceptor.auth.AuthorizationInterceptor.Verdict;
 import ca.uhn.fhir.util.BundleUtil;
 import ca.uhn.fhir.util.BundleUtil.BundleEntryParts;
+import ca.uhn.fhir.util.CompiledTerserPath;
 import ca.uhn.fhir.util.FhirTerser;
 
 class Rule implements IAuthRule {
@@ -46,6 +52,8 @@ class Rule implements IAuthRule {
 	private Set<?> myAppliesToTypes;
 	private String myClassifierCompartmentName;
 	private Collection<? extends IIdType> myClassifierCompartmentOwners;
+	private Set<String> myClassifierCompartmentOwnerRefs;
+	private final ConcurrentHashMap<RuntimeResourceDefinition, List<CompiledTerserPath>> myCompartmentPaths = new ConcurrentHashMap<RuntimeResourceDefinition, List<CompiledTerserPath>>();
 	private ClassifierTypeEnum myClassifierType;
 	private PolicyEnum myMode;
 	private String myName;
@@ -180,15 +188,7 @@ class Rule implements IAuthRule {
 		case ANY_ID:
 			break;
 		case IN_COMPARTMENT:
-			FhirTerser t = ctx.newTerser();
-			boolean foundMatch = false;
-			for (IIdType next : myClassifierCompartmentOwners) {
-				if (t.isSourceInCompartmentForTarget(myClassifierCompartmentName, appliesTo, next)) {
-					foundMatch = true;
-					break;
-				}
-			}
-			if (!foundMatch) {
+			if (!isInCompartment(ctx, appliesTo)) {
 				return null;
 			}
 			break;
@@ -199,6 +199,103 @@ class Rule implements IAuthRule {
 		return new Verdict(myMode, this);
 	}
 
+	/**
+	 * Returns the compiled paths of the search parameters which place a resource of the given type
+	 * into the rule's compartment
+	 */
+	private List<CompiledTerserPath> getCompartmentPaths(FhirContext theContext, RuntimeResourceDefinition theSourceDef) {
+		List<CompiledTerserPath> retVal = myCompartmentPaths.get(theSourceDef);
+		if (retVal == null) {
+			retVal = new ArrayList<CompiledTerserPath>();
+			FhirTerser t = theContext.newTerser();
+			for (RuntimeSearchParam nextParam : theSourceDef.getSearchParamsForCompartmentName(myClassifierCompartmentName)) {
+				for (String nextPath : nextParam.getPathsSplit()) {
+					retVal.add(t.compilePath(nextPath));
+				}
+			}
+			myCompartmentPaths.put(theSourceDef, retVal);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Equivalent to calling {@link FhirTerser#isSourceInCompartmentForTarget(String, IBaseResource, IIdType)}
+	 * for each compartment owner, but walks the resource only once
+	 */
+	private boolean isInCompartment(FhirContext theContext, IBaseResource theSource) {
+		Set<String> ownerRefs = myClassifierCompartmentOwnerRefs;
+		if (ownerRefs == null) {
+			ownerRefs = new HashSet<String>();
+			for (IIdType next : myClassifierCompartmentOwners) {
+				ownerRefs.add(next.toUnqualifiedVersionless().getValue());
+			}
+			myClassifierCompartmentOwnerRefs = ownerRefs;
+		}
+
+		RuntimeResourceDefinition sourceDef = theContext.getResourceDefinition(theSource);
+		if (theSource.getIdElement().hasIdPart()) {
+			if (ownerRefs.contains(sourceDef.getName() + '/' + theSource.getIdElement().getIdPart())) {
+				return true;
+			}
+		}
+
+		FhirTerser t = theContext.newTerser();
+		for (CompiledTerserPath nextPath : getCompartmentPaths(theContext, sourceDef)) {
+			for (IBaseReference nextValue : t.getValues(theSource, nextPath, IBaseReference.class)) {
+				String nextRef = nextValue.getReferenceElement().toUnqualifiedVersionless().getValue();
+				if (ownerRefs.contains(nextRef)) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns <code>false</code> if this rule can not return a verdict for the given operation and resource
+	 * types, based only on the operation and resource type restrictions of the rule. Any other criteria
+	 * (such as compartment membership) are checked when the rule is applied.
+	 * 
+	 * @see CompiledRuleList
+	 */
+	boolean mayApply(RestOperationTypeEnum theOperation, Class<?> theInputType, Class<?> theOutputType) {
+		Class<?> appliesTo;
+		switch (myOp) {
+		case READ:
+			if (theOutputType == null) {
+				return false;
+			}
+			appliesTo = theOutputType;
+			break;
+		case WRITE:
+			if (theInputType == null) {
+				return false;
+			}
+			appliesTo = theInputType;
+			break;
+		case DELETE:
+			if (theOperation != RestOperationTypeEnum.DELETE) {
+				return false;
+			}
+			if (theInputType == null) {
+				return true;
+			}
+			appliesTo = theInputType;
+			break;
+		case METADATA:
+			return theOperation == RestOperationTypeEnum.METADATA;
+		default:
+			// Transaction rules examine the bundle contents, and allow/deny all rules always apply
+			return true;
+		}
+
+		if (myAppliesTo == AppliesTypeEnum.TYPES) {
+			return myAppliesToTypes.contains(appliesTo);
+		}
+		return true;
+	}
+
 	private boolean requestAppliesToTransaction(FhirContext theContext, RuleOpEnum theOp, IBaseResource theInputResource) {
 		if (!"Bundle".equals(theContext.getResourceDefinition(theInputResource).getName())) {
 			return false;
@@ -235,10 +332,12 @@ class Rule implements IAuthRule {
 
 	public void setClassifierCompartmentName(String theClassifierCompartmentName) {
 		myClassifierCompartmentName = theClassifierCompartmentName;
+		myCompartmentPaths.clear();
 	}
 
 	public void setClassifierCompartmentOwners(Collection<? extends IIdType> theInCompartmentOwners) {
 		myClassifierCompartmentOwners = theInCompartmentOwners;
+		myClassifierCompartmentOwnerRefs = null;
 	}
 
 	public void setClassifierType(ClassifierTypeEnum theClassifierType) {
@@ -191,6 +191,8 @@ public class RuleBuilder implements IAuthRuleBuilder {
 					for (IIdType next : theOwners) {
 						validateOwner(next);
 					}
+					myInCompartmentName = theCompartmentName;
+					myInCompartmentOwners = theOwners;
 					myClassifierType = ClassifierTypeEnum.IN_COMPARTMENT;
 					return finished();
 				}
@@ -208,7 +210,7 @@ public class RuleBuilder implements IAuthRuleBuilder {
 
 				private void validateOwner(IIdType theOwner) {
 					Validate.notBlank(theOwner.getIdPart(), "owner.getIdPart() must not be null or empty");
-					Validate.notBlank(theOwner.getIdPart(), "owner.getResourceType() must not be null or empty");
+					Validate.notBlank(theOwner.getResourceType(), "owner.getResourceType() must not be null or empty");
 				}
 
 				@Override
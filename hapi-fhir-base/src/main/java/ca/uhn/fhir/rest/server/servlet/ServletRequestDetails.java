@@ -20,10 +20,11 @@ package ca.uhn.fhir.rest.server.servlet;
  * #L%
  */
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
+import static org.apache.commons.lang3.StringUtils.trim;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.io.Reader;
 import java.nio.charset.Charset;
 import java.util.Collections;
@@ -33,6 +34,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -68,6 +70,22 @@ public class ServletRequestDetails extends RequestDetails {
 
 	@Override
 	protected byte[] getByteStreamRequestContents() {
+		try {
+			requestContents = IOUtils.toByteArray(getInputStreamRequestContents());
+			return requestContents;
+		} catch (IOException e) {
+			ourLog.error("Could not load request resource", e);
+			throw new InvalidRequestException(String.format("Could not load request resource: %s", e.getMessage()));
+		}
+	}
+
+	/**
+	 * Returns the request body stream, wrapped in a decompressing stream if the request
+	 * has a <code>Content-Encoding</code> of <code>gzip</code> or <code>deflate</code> and the server is
+	 * configured to {@link RestfulServer#isUncompressIncomingContents() uncompress incoming contents}
+	 */
+	@Override
+	protected InputStream getInputStreamRequestContents() {
 		/*
 		 * This is weird, but this class is used both in clients and in servers, and we want to avoid needing to depend on
 		 * servlet-api in clients since there is no point. So we dynamically load a class that does the servlet processing
@@ -97,20 +115,19 @@ public class ServletRequestDetails extends RequestDetails {
 
 		try {
 			InputStream inputStream = reader.getInputStream(this);
-			requestContents = IOUtils.toByteArray(inputStream);
-			
+
 			if (myServer.isUncompressIncomingContents()) {
-				String contentEncoding = myServletRequest.getHeader(Constants.HEADER_CONTENT_ENCODING);
-				if ("gzip".equals(contentEncoding)) {
+				String contentEncoding = trim(myServletRequest.getHeader(Constants.HEADER_CONTENT_ENCODING));
+				if (Constants.ENCODING_GZIP.equalsIgnoreCase(contentEncoding)) {
 					ourLog.debug("Uncompressing (GZip) incoming content");
-					if (requestContents.length > 0) {
-						GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(requestContents));
-						requestContents = IOUtils.toByteArray(gis);
-					}
+					inputStream = wrapUnlessEmpty(inputStream, true);
+				} else if (Constants.ENCODING_DEFLATE.equalsIgnoreCase(contentEncoding)) {
+					ourLog.debug("Uncompressing (Deflate) incoming content");
+					inputStream = wrapUnlessEmpty(inputStream, false);
 				}
 			}
-			
-			return requestContents;
+
+			return inputStream;
 		} catch (IOException e) {
 			ourLog.error("Could not load request resource", e);
 			throw new InvalidRequestException(String.format("Could not load request resource: %s", e.getMessage()));
@@ -133,6 +150,24 @@ public class ServletRequestDetails extends RequestDetails {
 		return getServletRequest().getInputStream();
 	}
 
+	/**
+	 * Wraps the given stream in a decompressing stream, unless it is empty (since clients
+	 * sometimes send a <code>Content-Encoding</code> header on requests with no body, and the
+	 * decompressing streams fail if there is no compression header to read)
+	 */
+	private static InputStream wrapUnlessEmpty(InputStream theInputStream, boolean theGzip) throws IOException {
+		PushbackInputStream pushbackStream = new PushbackInputStream(theInputStream);
+		int firstByte = pushbackStream.read();
+		if (firstByte == -1) {
+			return pushbackStream;
+		}
+		pushbackStream.unread(firstByte);
+		if (theGzip) {
+			return new GZIPInputStream(pushbackStream);
+		}
+		return new InflaterInputStream(pushbackStream);
+	}
+
 	@Override
 	public Reader getReader() throws IOException {
 		return getServletRequest().getReader();
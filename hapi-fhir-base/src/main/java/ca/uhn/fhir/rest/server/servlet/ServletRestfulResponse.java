@@ -21,6 +21,7 @@ package ca.uhn.fhir.rest.server.servlet;
  */
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
@@ -39,6 +40,8 @@ import ca.uhn.fhir.rest.server.RestfulResponse;
 
 public class ServletRestfulResponse extends RestfulResponse<ServletRequestDetails> {
 
+	private static final int GZIP_BUFFER_SIZE = 8192;
+
 	public ServletRestfulResponse(ServletRequestDetails servletRequestDetails) {
 		super(servletRequestDetails);
 	}
@@ -60,6 +63,21 @@ public class ServletRestfulResponse extends RestfulResponse<ServletRequestDetail
 		}
 	}
 
+	@Override
+	public OutputStream getResponseOutputStream(int theStatusCode, String theContentType, boolean theRespondGzip) throws IOException {
+		addHeaders();
+		HttpServletResponse theHttpResponse = getRequestDetails().getServletResponse();
+		theHttpResponse.setCharacterEncoding(Constants.CHARSET_NAME_UTF8);
+		theHttpResponse.setStatus(theStatusCode);
+		theHttpResponse.setContentType(theContentType);
+		if (theRespondGzip) {
+			theHttpResponse.addHeader(Constants.HEADER_CONTENT_ENCODING, Constants.ENCODING_GZIP);
+			return new GZIPOutputStream(theHttpResponse.getOutputStream(), GZIP_BUFFER_SIZE);
+		} else {
+			return theHttpResponse.getOutputStream();
+		}
+	}
+
 	@Override
 	public Writer getResponseWriter(int statusCode, String contentType, String charset, boolean theRespondGzip) throws UnsupportedEncodingException, IOException {
 		addHeaders();
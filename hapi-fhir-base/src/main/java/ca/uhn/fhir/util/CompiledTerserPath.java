@@ -0,0 +1,184 @@
+package ca.uhn.fhir.util;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.Validate;
+import org.hl7.fhir.instance.model.api.IBase;
+
+import ca.uhn.fhir.context.BaseRuntimeChildDefinition;
+import ca.uhn.fhir.context.BaseRuntimeElementCompositeDefinition;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeChildChoiceDefinition;
+
+/**
+ * A dotted element path (e.g. <code>Patient.name.family</code>) which has been split
+ * into its parts once, and which remembers the child definition each part resolved to
+ * the last time it was evaluated. Evaluating a compiled path therefore involves no
+ * string manipulation, and in the common case (the same path is always evaluated against
+ * the same resource type) no map lookups beyond determining the type of each element.
+ * <p>
+ * Instances are obtained using {@link FhirTerser#compilePath(String)}, and are cached
+ * per {@link FhirContext}.
+ * </p>
+ * <p>
+ * Thread safety: Instances of this class are thread safe
+ * </p>
+ */
+public class CompiledTerserPath {
+
+	private final FhirContext myContext;
+	private final String myPath;
+	private final Step[] mySteps;
+
+	/**
+	 * Constructor. Note that most code should use {@link FhirTerser#compilePath(String)} instead of
+	 * calling this constructor, as that method returns cached instances.
+	 */
+	public CompiledTerserPath(FhirContext theContext, String thePath) {
+		Validate.notNull(theContext, "theContext must not be null");
+		Validate.notBlank(thePath, "thePath must not be blank");
+		myContext = theContext;
+		myPath = thePath;
+
+		String[] parts = thePath.split("\\.");
+		mySteps = new Step[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			mySteps[i] = new Step(parts[i]);
+		}
+	}
+
+	/**
+	 * Returns the path which was compiled
+	 */
+	public String getPath() {
+		return myPath;
+	}
+
+	/**
+	 * Returns the number of parts in the path, including the leading resource name
+	 */
+	int getPartCount() {
+		return mySteps.length;
+	}
+
+	/**
+	 * Adds all values matching this path to <code>theValues</code>
+	 *
+	 * @param theCurrentDef
+	 *           The definition of <code>theCurrentObj</code>
+	 * @param theCurrentObj
+	 *           The element to start from
+	 * @param theFirstPart
+	 *           The index of the first part to evaluate (the leading resource name is skipped when evaluating against a resource)
+	 */
+	<T> void getValues(BaseRuntimeElementCompositeDefinition<?> theCurrentDef, Object theCurrentObj, int theFirstPart, Class<T> theWantedClass, List<T> theValues) {
+		getValues(theCurrentDef, theCurrentObj, theFirstPart, theWantedClass, theValues, false);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> boolean getValues(BaseRuntimeElementCompositeDefinition<?> theCurrentDef, Object theCurrentObj, int thePart, Class<T> theWantedClass, List<T> theValues, boolean theFirstOnly) {
+		Step step = mySteps[thePart];
+		BaseRuntimeChildDefinition nextDef = step.resolve(theCurrentDef);
+		List<? extends IBase> values = nextDef.getAccessor().getValues(theCurrentObj);
+
+		if (thePart == mySteps.length - 1) {
+			boolean choice = nextDef instanceof RuntimeChildChoiceDefinition && !step.myChoiceWildcard;
+			for (IBase next : values) {
+				if (next == null) {
+					continue;
+				}
+				if (choice && !step.myName.equals(nextDef.getChildNameByDatatype(next.getClass()))) {
+					continue;
+				}
+				if (theWantedClass == null || theWantedClass.isAssignableFrom(next.getClass())) {
+					theValues.add((T) next);
+					if (theFirstOnly) {
+						return true;
+					}
+				}
+			}
+		} else {
+			for (IBase nextElement : values) {
+				if (nextElement == null) {
+					continue;
+				}
+				BaseRuntimeElementCompositeDefinition<?> nextChildDef = (BaseRuntimeElementCompositeDefinition<?>) myContext.getElementDefinition(nextElement.getClass());
+				if (getValues(nextChildDef, nextElement, thePart + 1, theWantedClass, theValues, theFirstOnly)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Like {@link #getValues(BaseRuntimeElementCompositeDefinition, Object, int, Class, List)} but stops
+	 * as soon as one value has been found
+	 */
+	<T> T getFirstValueOrNull(BaseRuntimeElementCompositeDefinition<?> theCurrentDef, Object theCurrentObj, int theFirstPart, Class<T> theWantedClass) {
+		List<T> values = new ArrayList<T>(1);
+		getValues(theCurrentDef, theCurrentObj, theFirstPart, theWantedClass, values, true);
+		return values.isEmpty() ? null : values.get(0);
+	}
+
+	@Override
+	public String toString() {
+		return myPath;
+	}
+
+	private static class Step {
+		private final boolean myChoiceWildcard;
+		private volatile Resolution myLastResolution;
+		private final String myName;
+
+		Step(String theName) {
+			myName = theName;
+			myChoiceWildcard = theName.endsWith("[x]");
+		}
+
+		BaseRuntimeChildDefinition resolve(BaseRuntimeElementCompositeDefinition<?> theDefinition) {
+			Resolution last = myLastResolution;
+			if (last != null && last.myDefinition == theDefinition) {
+				return last.myChild;
+			}
+			BaseRuntimeChildDefinition retVal = theDefinition.getChildByNameOrThrowDataFormatException(myName);
+			myLastResolution = new Resolution(theDefinition, retVal);
+			return retVal;
+		}
+	}
+
+	/**
+	 * Immutable so that it can be safely published through a volatile field
+	 */
+	private static class Resolution {
+		private final BaseRuntimeChildDefinition myChild;
+		private final BaseRuntimeElementCompositeDefinition<?> myDefinition;
+
+		Resolution(BaseRuntimeElementCompositeDefinition<?> theDefinition, BaseRuntimeChildDefinition theChild) {
+			myDefinition = theDefinition;
+			myChild = theChild;
+		}
+	}
+
+}
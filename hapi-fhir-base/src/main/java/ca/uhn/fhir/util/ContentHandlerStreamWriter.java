@@ -0,0 +1,399 @@
+package ca.uhn.fhir.util;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.apache.commons.lang3.StringUtils.defaultString;
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.lang3.Validate;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.NamespaceSupport;
+
+/**
+ * {@link XMLStreamWriter} which passes everything written to it to a SAX {@link ContentHandler}
+ * as events, instead of serializing it. This allows a resource to be passed from the XML encoder to
+ * something which consumes SAX events (such as a schema validator or an XSLT transformer) without
+ * writing it to a string and parsing it again.
+ * <p>
+ * Namespaces are reported to the handler as prefix mappings (not as attributes), and comments and
+ * DTDs are dropped. Instances are not thread safe, and can be used for one document only.
+ * </p>
+ *
+ * @since 1.6
+ */
+public class ContentHandlerStreamWriter implements XMLStreamWriter {
+
+	private final List<OpenElement> myElements = new ArrayList<OpenElement>();
+	private final ContentHandler myHandler;
+	private final NamespaceSupport myNamespaces = new NamespaceSupport();
+	private OpenElement myPending;
+	private NamespaceContext myRootContext;
+
+	/**
+	 * Constructor
+	 *
+	 * @param theHandler
+	 *           The handler which will receive the events
+	 */
+	public ContentHandlerStreamWriter(ContentHandler theHandler) {
+		Validate.notNull(theHandler, "theHandler must not be null");
+		myHandler = theHandler;
+	}
+
+	@Override
+	public void close() throws XMLStreamException {
+		// nothing
+	}
+
+	private void declare(String thePrefix, String theUri) throws XMLStreamException {
+		if (myPending == null) {
+			throw new XMLStreamException("Namespace declared outside of a start tag: " + theUri);
+		}
+		myNamespaces.declarePrefix(thePrefix, theUri);
+		myPending.myDeclaredPrefixes.add(thePrefix);
+	}
+
+	@Override
+	public void flush() throws XMLStreamException {
+		// nothing
+	}
+
+	private void flushPending() throws XMLStreamException {
+		OpenElement pending = myPending;
+		if (pending == null) {
+			return;
+		}
+		myPending = null;
+
+		if (pending.myNamespaceUri == null) {
+			pending.myNamespaceUri = defaultString(lookupNamespaceUri(pending.myPrefix));
+		}
+		try {
+			for (String next : pending.myDeclaredPrefixes) {
+				myHandler.startPrefixMapping(next, myNamespaces.getURI(next));
+			}
+			myHandler.startElement(pending.myNamespaceUri, pending.myLocalName, pending.getQName(), pending.myAttributes);
+		} catch (SAXException e) {
+			throw new XMLStreamException(e);
+		}
+		myElements.add(pending);
+
+		if (pending.myEmpty) {
+			writeEndElement();
+		}
+	}
+
+	@Override
+	public NamespaceContext getNamespaceContext() {
+		return new NamespaceContext() {
+			@Override
+			public String getNamespaceURI(String thePrefix) {
+				return lookupNamespaceUri(thePrefix);
+			}
+
+			@Override
+			public String getPrefix(String theNamespaceURI) {
+				return lookupPrefix(theNamespaceURI);
+			}
+
+			@Override
+			public Iterator<String> getPrefixes(String theNamespaceURI) {
+				List<String> retVal = new ArrayList<String>();
+				for (Enumeration<?> prefixes = myNamespaces.getPrefixes(theNamespaceURI); prefixes.hasMoreElements();) {
+					retVal.add((String) prefixes.nextElement());
+				}
+				if (myRootContext != null) {
+					for (Iterator<?> prefixes = myRootContext.getPrefixes(theNamespaceURI); prefixes.hasNext();) {
+						String next = (String) prefixes.next();
+						if (!retVal.contains(next) && myNamespaces.getURI(next) == null) {
+							retVal.add(next);
+						}
+					}
+				}
+				return retVal.iterator();
+			}
+		};
+	}
+
+	@Override
+	public String getPrefix(String theUri) throws XMLStreamException {
+		return lookupPrefix(theUri);
+	}
+
+	@Override
+	public Object getProperty(String theName) throws IllegalArgumentException {
+		throw new IllegalArgumentException("Unknown property: " + theName);
+	}
+
+	@Override
+	public void setDefaultNamespace(String theUri) throws XMLStreamException {
+		myNamespaces.declarePrefix("", theUri);
+	}
+
+	/**
+	 * Sets a context which is used to resolve any prefixes and namespace URIs which have not
+	 * been bound using {@link #setPrefix(String, String)}, {@link #setDefaultNamespace(String)}
+	 * or {@link #writeNamespace(String, String)}. Bindings from this context are not reported to
+	 * the handler as prefix mappings. This may only be called before the first element is written.
+	 */
+	@Override
+	public void setNamespaceContext(NamespaceContext theContext) throws XMLStreamException {
+		if (myPending != null || !myElements.isEmpty()) {
+			throw new XMLStreamException("Namespace context can only be set before the first element is written");
+		}
+		myRootContext = theContext;
+	}
+
+	@Override
+	public void setPrefix(String thePrefix, String theUri) throws XMLStreamException {
+		myNamespaces.declarePrefix(thePrefix, theUri);
+	}
+
+	private String lookupNamespaceUri(String thePrefix) {
+		String retVal = myNamespaces.getURI(thePrefix);
+		if (retVal == null && myRootContext != null) {
+			retVal = myRootContext.getNamespaceURI(thePrefix);
+			if (XMLConstants.NULL_NS_URI.equals(retVal)) {
+				retVal = null;
+			}
+		}
+		return retVal;
+	}
+
+	private String lookupPrefix(String theNamespaceUri) {
+		String retVal = myNamespaces.getPrefix(theNamespaceUri);
+		if (retVal == null && myRootContext != null) {
+			retVal = myRootContext.getPrefix(theNamespaceUri);
+		}
+		return retVal;
+	}
+
+	private void startElement(String thePrefix, String theLocalName, String theNamespaceUri, boolean theEmpty) throws XMLStreamException {
+		flushPending();
+		myNamespaces.pushContext();
+		myPending = new OpenElement(defaultString(thePrefix), theLocalName, theNamespaceUri, theEmpty);
+	}
+
+	@Override
+	public void writeAttribute(String theLocalName, String theValue) throws XMLStreamException {
+		writeAttribute("", "", theLocalName, theValue);
+	}
+
+	@Override
+	public void writeAttribute(String thePrefix, String theNamespaceURI, String theLocalName, String theValue) throws XMLStreamException {
+		if (myPending == null) {
+			throw new XMLStreamException("Attribute written outside of a start tag: " + theLocalName);
+		}
+		String qName = isBlank(thePrefix) ? theLocalName : thePrefix + ':' + theLocalName;
+		myPending.myAttributes.addAttribute(defaultString(theNamespaceURI), theLocalName, qName, "CDATA", theValue);
+	}
+
+	@Override
+	public void writeAttribute(String theNamespaceURI, String theLocalName, String theValue) throws XMLStreamException {
+		String prefix = XMLConstants.XML_NS_URI.equals(theNamespaceURI) ? XMLConstants.XML_NS_PREFIX : lookupPrefix(theNamespaceURI);
+		writeAttribute(prefix, theNamespaceURI, theLocalName, theValue);
+	}
+
+	@Override
+	public void writeCData(String theData) throws XMLStreamException {
+		writeCharacters(theData);
+	}
+
+	@Override
+	public void writeCharacters(char[] theText, int theStart, int theLen) throws XMLStreamException {
+		flushPending();
+		try {
+			myHandler.characters(theText, theStart, theLen);
+		} catch (SAXException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+
+	@Override
+	public void writeCharacters(String theText) throws XMLStreamException {
+		writeCharacters(theText.toCharArray(), 0, theText.length());
+	}
+
+	@Override
+	public void writeComment(String theData) throws XMLStreamException {
+		flushPending();
+	}
+
+	@Override
+	public void writeDefaultNamespace(String theNamespaceURI) throws XMLStreamException {
+		declare("", theNamespaceURI);
+	}
+
+	@Override
+	public void writeDTD(String theDtd) throws XMLStreamException {
+		// nothing
+	}
+
+	@Override
+	public void writeEmptyElement(String theLocalName) throws XMLStreamException {
+		startElement(null, theLocalName, null, true);
+	}
+
+	@Override
+	public void writeEmptyElement(String thePrefix, String theLocalName, String theNamespaceURI) throws XMLStreamException {
+		startElement(thePrefix, theLocalName, theNamespaceURI, true);
+	}
+
+	@Override
+	public void writeEmptyElement(String theNamespaceURI, String theLocalName) throws XMLStreamException {
+		startElement(lookupPrefix(theNamespaceURI), theLocalName, theNamespaceURI, true);
+	}
+
+	@Override
+	public void writeEndDocument() throws XMLStreamException {
+		flushPending();
+		while (!myElements.isEmpty()) {
+			writeEndElement();
+		}
+		try {
+			myHandler.endDocument();
+		} catch (SAXException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+
+	@Override
+	public void writeEndElement() throws XMLStreamException {
+		flushPending();
+		if (myElements.isEmpty()) {
+			throw new XMLStreamException("No element is open");
+		}
+		OpenElement element = myElements.remove(myElements.size() - 1);
+		try {
+			myHandler.endElement(element.myNamespaceUri, element.myLocalName, element.getQName());
+			for (String next : element.myDeclaredPrefixes) {
+				myHandler.endPrefixMapping(next);
+			}
+		} catch (SAXException e) {
+			throw new XMLStreamException(e);
+		}
+		myNamespaces.popContext();
+	}
+
+	/**
+	 * Entities can not be resolved here, so they are reported to the handler as skipped
+	 */
+	@Override
+	public void writeEntityRef(String theName) throws XMLStreamException {
+		flushPending();
+		try {
+			myHandler.skippedEntity(theName);
+		} catch (SAXException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+
+	@Override
+	public void writeNamespace(String thePrefix, String theNamespaceURI) throws XMLStreamException {
+		if (isBlank(thePrefix) || XMLConstants.XMLNS_ATTRIBUTE.equals(thePrefix)) {
+			declare("", theNamespaceURI);
+		} else {
+			declare(thePrefix, theNamespaceURI);
+		}
+	}
+
+	@Override
+	public void writeProcessingInstruction(String theTarget) throws XMLStreamException {
+		writeProcessingInstruction(theTarget, "");
+	}
+
+	@Override
+	public void writeProcessingInstruction(String theTarget, String theData) throws XMLStreamException {
+		flushPending();
+		try {
+			myHandler.processingInstruction(theTarget, theData);
+		} catch (SAXException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+
+	@Override
+	public void writeStartDocument() throws XMLStreamException {
+		try {
+			myHandler.startDocument();
+		} catch (SAXException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+
+	@Override
+	public void writeStartDocument(String theVersion) throws XMLStreamException {
+		writeStartDocument();
+	}
+
+	@Override
+	public void writeStartDocument(String theEncoding, String theVersion) throws XMLStreamException {
+		writeStartDocument();
+	}
+
+	@Override
+	public void writeStartElement(String theLocalName) throws XMLStreamException {
+		startElement(null, theLocalName, null, false);
+	}
+
+	@Override
+	public void writeStartElement(String thePrefix, String theLocalName, String theNamespaceURI) throws XMLStreamException {
+		startElement(thePrefix, theLocalName, theNamespaceURI, false);
+	}
+
+	@Override
+	public void writeStartElement(String theNamespaceURI, String theLocalName) throws XMLStreamException {
+		startElement(lookupPrefix(theNamespaceURI), theLocalName, theNamespaceURI, false);
+	}
+
+	private static class OpenElement {
+		private final AttributesImpl myAttributes = new AttributesImpl();
+		private final List<String> myDeclaredPrefixes = new ArrayList<String>(1);
+		private final boolean myEmpty;
+		private final String myLocalName;
+		private String myNamespaceUri;
+		private final String myPrefix;
+
+		OpenElement(String thePrefix, String theLocalName, String theNamespaceUri, boolean theEmpty) {
+			myPrefix = thePrefix;
+			myLocalName = theLocalName;
+			myNamespaceUri = theNamespaceUri;
+			myEmpty = theEmpty;
+		}
+
+		String getQName() {
+			return myPrefix.length() == 0 ? myLocalName : myPrefix + ':' + myLocalName;
+		}
+	}
+
+}
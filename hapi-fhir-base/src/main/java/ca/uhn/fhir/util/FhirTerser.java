@@ -22,6 +22,7 @@ import static org.apache.commons.lang3.StringUtils.defaultString;
  * #L%
  */
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -46,7 +47,6 @@ import ca.uhn.fhir.context.BaseRuntimeElementDefinition;
 import ca.uhn.fhir.context.BaseRuntimeElementDefinition.ChildTypeEnum;
 import ca.uhn.fhir.context.ConfigurationException;
 import ca.uhn.fhir.context.FhirContext;
-import ca.uhn.fhir.context.RuntimeChildChoiceDefinition;
 import ca.uhn.fhir.context.RuntimeChildDirectResource;
 import ca.uhn.fhir.context.RuntimeExtensionDtDefinition;
 import ca.uhn.fhir.context.RuntimeResourceDefinition;
@@ -68,16 +68,6 @@ public class FhirTerser {
 		myContext = theContext;
 	}
 
-	private List<String> addNameToList(List<String> theCurrentList, BaseRuntimeChildDefinition theChildDefinition) {
-		if (theChildDefinition == null)
-			return null;
-		if (theCurrentList == null || theCurrentList.isEmpty())
-			return new ArrayList<String>(Arrays.asList(theChildDefinition.getElementName()));
-		List<String> newList = new ArrayList<String>(theCurrentList);
-		newList.add(theChildDefinition.getElementName());
-		return newList;
-	}
-	
 	private void addUndeclaredExtensions(IBase theElement, BaseRuntimeElementDefinition<?> theDefinition, BaseRuntimeChildDefinition theChildDefinition, IModelVisitor theCallback) {
 		if (theElement instanceof ISupportsUndeclaredExtensions) {
 			ISupportsUndeclaredExtensions containingElement = (ISupportsUndeclaredExtensions) theElement;
@@ -183,34 +173,194 @@ public class FhirTerser {
 	 * @return Returns a list of all matching elements
 	 */
 	public <T extends IBase> List<T> getAllPopulatedChildElementsOfType(IBaseResource theResource, final Class<T> theType) {
-		final ArrayList<T> retVal = new ArrayList<T>();
+		ArrayList<T> retVal = new ArrayList<T>();
+		findPopulatedChildElementsOfType(theResource, theType, retVal, Integer.MAX_VALUE);
+		return retVal;
+	}
+
+	/**
+	 * Returns the first child element (including the resource itself) which is <b>non-empty</b> and is either
+	 * of the exact type specified, or is a subclass of that type, or <code>null</code> if none is found. The
+	 * search stops as soon as a match is found.
+	 * <p>
+	 * The scope and order of the search is the same as for {@link #getAllPopulatedChildElementsOfType(IBaseResource, Class)}
+	 * </p>
+	 *
+	 * @param theResource
+	 *           The resource instance to search. Must not be null.
+	 * @param theType
+	 *           The type to search for. Must not be null.
+	 */
+	public <T extends IBase> T getFirstPopulatedChildElementOfType(IBaseResource theResource, Class<T> theType) {
+		ArrayList<T> retVal = new ArrayList<T>(1);
+		findPopulatedChildElementsOfType(theResource, theType, retVal, 1);
+		return retVal.isEmpty() ? null : retVal.get(0);
+	}
+
+	private <T extends IBase> void findPopulatedChildElementsOfType(IBaseResource theResource, Class<T> theType, List<T> theResults, int theLimit) {
+		Validate.notNull(theResource, "theResource must not be null");
+		Validate.notNull(theType, "theType must not be null");
+
 		BaseRuntimeElementCompositeDefinition<?> def = myContext.getResourceDefinition(theResource);
-		visit(new IdentityHashMap<Object, Object>(), theResource, null, null, def, new IModelVisitor() {
-			@SuppressWarnings("unchecked")
-			@Override
-			public void acceptElement(IBase theElement, List<String> thePathToElement, BaseRuntimeChildDefinition theChildDefinition, BaseRuntimeElementDefinition<?> theDefinition) {
-				if (theElement == null || theElement.isEmpty()) {
-					return;
+		if (addIfPopulatedAndOfType(theResource, theType, theResults) && theResults.size() >= theLimit) {
+			return;
+		}
+		visitForType(new IdentityHashMap<Object, Object>(), theResource, def, theType, theResults, theLimit);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends IBase> boolean addIfPopulatedAndOfType(IBase theElement, Class<T> theType, List<T> theResults) {
+		if (theElement == null || !theType.isAssignableFrom(theElement.getClass()) || theElement.isEmpty()) {
+			return false;
+		}
+		theResults.add((T) theElement);
+		return true;
+	}
+
+	/**
+	 * This is a specialized form of {@link #visit(IBaseResource, IModelVisitor)}
+	 * which finds the same elements as a visitor that collects all populated elements of a given type, but which
+	 * does not track paths, skips any subtree which the model definitions show can not contain an element of
+	 * the given type, and stops once <code>theLimit</code> results have been found.
+	 * 
+	 * @return Returns <code>false</code> if the limit has been reached and the traversal should stop
+	 */
+	private <T extends IBase> boolean visitForType(IdentityHashMap<Object, Object> theStack, IBase theElement, BaseRuntimeElementDefinition<?> theDefinition, Class<T> theType, List<T> theResults, int theLimit) {
+		if (theStack.put(theElement, theElement) != null) {
+			return true;
+		}
+
+		if (theElement instanceof IBaseHasModifierExtensions) {
+			if (!addModifierExtensionValuesOfType(theElement, theType, theResults, theLimit)) {
+				return false;
+			}
+		}
+
+		BaseRuntimeElementDefinition<?> def = theDefinition;
+		if (def.getChildType() == ChildTypeEnum.CONTAINED_RESOURCE_LIST) {
+			def = myContext.getElementDefinition(theElement.getClass());
+		}
+
+		switch (def.getChildType()) {
+		case ID_DATATYPE:
+		case PRIMITIVE_XHTML_HL7ORG:
+		case PRIMITIVE_XHTML:
+		case PRIMITIVE_DATATYPE:
+			// These are primitive types
+			break;
+		case RESOURCE:
+		case RESOURCE_BLOCK:
+		case COMPOSITE_DATATYPE: {
+			BaseRuntimeElementCompositeDefinition<?> childDef = (BaseRuntimeElementCompositeDefinition<?>) def;
+			if (!childDef.mayContainChildOfType(theType)) {
+				break;
+			}
+			for (BaseRuntimeChildDefinition nextChild : childDef.getChildrenAndExtension()) {
+				List<? extends IBase> values = nextChild.getAccessor().getValues(theElement);
+				if (values == null) {
+					continue;
 				}
+				for (IBase nextValue : values) {
+					if (nextValue == null) {
+						continue;
+					}
 
-				if (theType.isAssignableFrom(theElement.getClass())) {
-					retVal.add((T) theElement);
+					/*
+					 * Note that we don't check nextValue.isEmpty() here unless the value is of
+					 * the type being searched for, since isEmpty() itself walks the whole subtree.
+					 * An empty element can not contain any populated elements, so descending
+					 * into one just finds nothing.
+					 */
+					if (addIfPopulatedAndOfType(nextValue, theType, theResults) && theResults.size() >= theLimit) {
+						return false;
+					}
+
+					if (nextChild instanceof RuntimeChildDirectResource) {
+						// Don't descend into embedded resources
+						continue;
+					}
+
+					BaseRuntimeElementDefinition<?> childElementDef = nextChild.getChildElementDefinitionByDatatype(nextValue.getClass());
+					if (childElementDef == null) {
+						childElementDef = myContext.getElementDefinition(nextValue.getClass());
+					}
+					if (canSkipSubtree(nextValue, childElementDef, theType)) {
+						continue;
+					}
+					if (!visitForType(theStack, nextValue, childElementDef, theType, theResults, theLimit)) {
+						return false;
+					}
 				}
 			}
+			break;
+		}
+		case CONTAINED_RESOURCES: {
+			BaseContainedDt value = (BaseContainedDt) theElement;
+			for (IResource next : value.getContainedResources()) {
+				if (addIfPopulatedAndOfType(next, theType, theResults) && theResults.size() >= theLimit) {
+					return false;
+				}
+				if (!visitForType(theStack, next, myContext.getResourceDefinition(next), theType, theResults, theLimit)) {
+					return false;
+				}
+			}
+			break;
+		}
+		case CONTAINED_RESOURCE_LIST:
+		case EXTENSION_DECLARED:
+		case UNDECL_EXT: {
+			throw new IllegalStateException("state should not happen: " + def.getChildType());
+		}
+		}
 
-			@Override
-			public void acceptUndeclaredExtension(ISupportsUndeclaredExtensions theContainingElement, List<String> thePathToElement, BaseRuntimeChildDefinition theChildDefinition,
-					BaseRuntimeElementDefinition<?> theDefinition, ExtensionDt theNextExt) {
-				// nothing
+		theStack.remove(theElement);
+		return true;
+	}
+
+	/**
+	 * Can the contents of the given element be skipped because they could not include
+	 * an element of the given type
+	 */
+	private static boolean canSkipSubtree(IBase theElement, BaseRuntimeElementDefinition<?> theDefinition, Class<?> theType) {
+		if (theElement instanceof IBaseHasModifierExtensions) {
+			return false;
+		}
+		switch (theDefinition.getChildType()) {
+		case ID_DATATYPE:
+		case PRIMITIVE_XHTML_HL7ORG:
+		case PRIMITIVE_XHTML:
+		case PRIMITIVE_DATATYPE:
+			return true;
+		case RESOURCE:
+		case RESOURCE_BLOCK:
+		case COMPOSITE_DATATYPE:
+			return !((BaseRuntimeElementCompositeDefinition<?>) theDefinition).mayContainChildOfType(theType);
+		default:
+			return false;
+		}
+	}
+
+	private <T extends IBase> boolean addModifierExtensionValuesOfType(IBase theElement, Class<T> theType, List<T> theResults, int theLimit) {
+		for (IBaseExtension<?, ?> nextExt : ((IBaseHasModifierExtensions) theElement).getModifierExtension()) {
+			if (nextExt == null) {
+				continue;
 			}
-		});
-		return retVal;
+			if (addIfPopulatedAndOfType(nextExt.getValue(), theType, theResults) && theResults.size() >= theLimit) {
+				return false;
+			}
+			if (nextExt instanceof IBaseHasModifierExtensions) {
+				if (!addModifierExtensionValuesOfType(nextExt, theType, theResults, theLimit)) {
+					return false;
+				}
+			}
+		}
+		return true;
 	}
 
 	public List<ResourceReferenceInfo> getAllResourceReferences(final IBaseResource theResource) {
 		final ArrayList<ResourceReferenceInfo> retVal = new ArrayList<ResourceReferenceInfo>();
 		BaseRuntimeElementCompositeDefinition<?> def = myContext.getResourceDefinition(theResource);
-		visit(new IdentityHashMap<Object, Object>(),theResource, null, null, def, new IModelVisitor() {
+		visit(new IdentityHashMap<Object, Object>(), theResource, new PathStack(), null, def, new IModelVisitor() {
 			@Override
 			public void acceptElement(IBase theElement, List<String> thePathToElement, BaseRuntimeChildDefinition theChildDefinition, BaseRuntimeElementDefinition<?> theDefinition) {
 				if (theElement == null || theElement.isEmpty()) {
@@ -255,6 +405,16 @@ public class FhirTerser {
 
 	}
 
+	/**
+	 * Returns a compiled form of the given path (e.g. <code>Patient.name.family</code>) which may be passed
+	 * to {@link #getValues(IBaseResource, CompiledTerserPath, Class)}. Compiled paths are cached by the
+	 * {@link FhirContext}, and the methods in this class which accept a path as a string use this cache
+	 * internally as well.
+	 */
+	public CompiledTerserPath compilePath(String thePath) {
+		return myContext.getCompiledTerserPath(thePath);
+	}
+
 	public Object getSingleValueOrNull(IBase theTarget, String thePath) {
 		Class<Object> wantedType = Object.class;
 
@@ -271,60 +431,7 @@ public class FhirTerser {
 		}
 
 		BaseRuntimeElementCompositeDefinition<?> currentDef = (BaseRuntimeElementCompositeDefinition<?>) def;
-		Object currentObj = theTarget;
-
-		List<String> parts = Arrays.asList(thePath.split("\\."));
-		List<T> retVal = getValues(currentDef, currentObj, parts, theWantedType);
-		if (retVal.isEmpty()) {
-			return null;
-		} else {
-			return retVal.get(0);
-		}
-	}
-
-	@SuppressWarnings("unchecked")
-	private <T> List<T> getValues(BaseRuntimeElementCompositeDefinition<?> theCurrentDef, Object theCurrentObj, List<String> theSubList, Class<T> theWantedClass) {
-		String name = theSubList.get(0);
-				
-		BaseRuntimeChildDefinition nextDef = theCurrentDef.getChildByNameOrThrowDataFormatException(name);
-		List<? extends IBase> values = nextDef.getAccessor().getValues(theCurrentObj);
-		List<T> retVal = new ArrayList<T>();
-
-		if (theSubList.size() == 1) {
-			if (nextDef instanceof RuntimeChildChoiceDefinition) {
-				for (IBase next : values) {
-					if (next != null) {
-						if (name.endsWith("[x]")) {
-							if (theWantedClass == null || theWantedClass.isAssignableFrom(next.getClass())) {
-								retVal.add((T) next);
-							}
-						} else {
-							String childName = nextDef.getChildNameByDatatype(next.getClass());
-							if (theSubList.get(0).equals(childName)) {
-								if (theWantedClass == null || theWantedClass.isAssignableFrom(next.getClass())) {
-									retVal.add((T) next);
-								}
-							}
-						}
-					}
-				}
-			} else {
-				for (IBase next : values) {
-					if (next != null) {
-						if (theWantedClass == null || theWantedClass.isAssignableFrom(next.getClass())) {
-							retVal.add((T) next);
-						}
-					}
-				}
-			}
-		} else {
-			for (IBase nextElement : values) {
-				BaseRuntimeElementCompositeDefinition<?> nextChildDef = (BaseRuntimeElementCompositeDefinition<?>) myContext.getElementDefinition(nextElement.getClass());
-				List<T> foundValues = getValues(nextChildDef, nextElement, theSubList.subList(1, theSubList.size()), theWantedClass);
-				retVal.addAll(foundValues);
-			}
-		}
-		return retVal;
+		return compilePath(thePath).getFirstValueOrNull(currentDef, theTarget, 0, theWantedType);
 	}
 
 	public List<Object> getValues(IBaseResource theResource, String thePath) {
@@ -335,17 +442,22 @@ public class FhirTerser {
 	}
 
 	public <T> List<T> getValues(IBaseResource theResource, String thePath, Class<T> theWantedClass) {
-		RuntimeResourceDefinition def = myContext.getResourceDefinition(theResource);
+		return getValues(theResource, compilePath(thePath), theWantedClass);
+	}
 
-		BaseRuntimeElementCompositeDefinition<?> currentDef = def;
-		Object currentObj = theResource;
+	/**
+	 * Returns all values in the given resource which match a path compiled using {@link #compilePath(String)}
+	 */
+	public <T> List<T> getValues(IBaseResource theResource, CompiledTerserPath thePath, Class<T> theWantedClass) {
+		RuntimeResourceDefinition def = myContext.getResourceDefinition(theResource);
 
-		List<String> parts = Arrays.asList(thePath.split("\\."));
-		List<String> subList = parts.subList(1, parts.size());
-		if (subList.size() < 1) {
-			throw new ConfigurationException("Invalid path: " + thePath);
+		if (thePath.getPartCount() < 2) {
+			throw new ConfigurationException("Invalid path: " + thePath.getPath());
 		}
-		return getValues(currentDef, currentObj, subList, theWantedClass);
+
+		List<T> retVal = new ArrayList<T>();
+		thePath.getValues(def, theResource, 1, theWantedClass, retVal);
+		return retVal;
 	}
 
 	/**
@@ -519,7 +631,7 @@ public class FhirTerser {
 	 */
 	public void visit(IBaseResource theResource, IModelVisitor theVisitor) {
 		BaseRuntimeElementCompositeDefinition<?> def = myContext.getResourceDefinition(theResource);
-		visit(new IdentityHashMap<Object, Object>(), theResource, null, null, def, theVisitor);
+		visit(new IdentityHashMap<Object, Object>(), theResource, new PathStack(), null, def, theVisitor);
 	}
 
 	/**
@@ -542,14 +654,26 @@ public class FhirTerser {
 		visit(theResource, null, def, theVisitor, new ArrayList<IBase>(), new ArrayList<BaseRuntimeChildDefinition>(), new ArrayList<BaseRuntimeElementDefinition<?>>());
 	}
 
-	private void visit(IdentityHashMap<Object, Object> theStack, IBase theElement, List<String> thePathToElement, BaseRuntimeChildDefinition theChildDefinition,
+	private void visit(IdentityHashMap<Object, Object> theStack, IBase theElement, PathStack thePath, BaseRuntimeChildDefinition theChildDefinition,
 			BaseRuntimeElementDefinition<?> theDefinition, IModelVisitor theCallback) {
-		List<String> pathToElement = addNameToList(thePathToElement, theChildDefinition);
-
 		if (theStack.put(theElement, theElement) != null) {
 			return;
 		}
-		
+
+		/*
+		 * The root resource and contained resources are passed a null path, and
+		 * the paths of their children start again from the resource
+		 */
+		List<String> pathToElement;
+		int previousPathStart = -1;
+		if (theChildDefinition != null) {
+			thePath.push(theChildDefinition.getElementName());
+			pathToElement = thePath;
+		} else {
+			previousPathStart = thePath.startNewPath();
+			pathToElement = null;
+		}
+
 		theCallback.acceptElement(theElement, pathToElement, theChildDefinition, theDefinition);
 		addUndeclaredExtensions(theElement, theDefinition, theChildDefinition, theCallback);
 
@@ -598,7 +722,7 @@ public class FhirTerser {
 							// Don't descend into embedded resources
 							theCallback.acceptElement(nextValue, null, nextChild, childElementDef);
 						} else {
-							visit(theStack, nextValue, pathToElement, nextChild, childElementDef, theCallback);
+							visit(theStack, nextValue, thePath, nextChild, childElementDef, theCallback);
 						}
 					}
 				}
@@ -609,7 +733,7 @@ public class FhirTerser {
 			BaseContainedDt value = (BaseContainedDt) theElement;
 			for (IResource next : value.getContainedResources()) {
 				def = myContext.getResourceDefinition(next);
-				visit(theStack, next, pathToElement, null, def, theCallback);
+				visit(theStack, next, thePath, null, def, theCallback);
 			}
 			break;
 		}
@@ -619,9 +743,63 @@ public class FhirTerser {
 			throw new IllegalStateException("state should not happen: " + def.getChildType());
 		}
 		}
-		
+
+		if (theChildDefinition != null) {
+			thePath.pop();
+		} else {
+			thePath.restorePathStart(previousPathStart);
+		}
 		theStack.remove(theElement);
-		
+	}
+
+	/**
+	 * The path passed to {@link IModelVisitor#acceptElement(IBase, List, BaseRuntimeChildDefinition, BaseRuntimeElementDefinition)}.
+	 * A single instance is reused for an entire traversal instead of creating a new list for every element, so the
+	 * contents seen by a visitor change as the traversal proceeds.
+	 */
+	private static class PathStack extends AbstractList<String> {
+		private String[] myNames = new String[16];
+		private int mySize;
+		private int myStart;
+
+		@Override
+		public String get(int theIndex) {
+			if (theIndex < 0 || theIndex >= size()) {
+				throw new IndexOutOfBoundsException("Index: " + theIndex + ", Size: " + size());
+			}
+			return myNames[myStart + theIndex];
+		}
+
+		void pop() {
+			myNames[--mySize] = null;
+		}
+
+		void push(String theName) {
+			if (mySize == myNames.length) {
+				myNames = Arrays.copyOf(myNames, mySize * 2);
+			}
+			myNames[mySize++] = theName;
+		}
+
+		void restorePathStart(int theStart) {
+			myStart = theStart;
+		}
+
+		@Override
+		public int size() {
+			return mySize - myStart;
+		}
+
+		/**
+		 * Makes the path appear empty until {@link #restorePathStart(int)} is called
+		 *
+		 * @return The previous start, which must be passed to {@link #restorePathStart(int)}
+		 */
+		int startNewPath() {
+			int retVal = myStart;
+			myStart = mySize;
+			return retVal;
+		}
 	}
 
 }
@@ -38,6 +38,9 @@ public interface IModelVisitor {
 	/**
 	 * 
 	 * @param theElement
+	 * @param thePathToElement The names of the elements leading to this element, or <code>null</code> if this is a root
+	 *           or contained resource. Note that this list is reused for the entire traversal, so it must be copied if it is
+	 *           needed after this method returns.
 	 * @param theChildDefinition May be null if this is a root element
 	 * @param theDefinition
 	 */
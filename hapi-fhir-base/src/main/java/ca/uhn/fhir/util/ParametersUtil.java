@@ -20,6 +20,7 @@ package ca.uhn.fhir.util;
  * #L%
  */
 
+import java.math.BigDecimal;
 import java.util.Collection;
 
 import org.hl7.fhir.instance.model.api.IBase;
@@ -32,6 +33,8 @@ import ca.uhn.fhir.context.BaseRuntimeChildDefinition;
 import ca.uhn.fhir.context.BaseRuntimeElementCompositeDefinition;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.model.primitive.CodeDt;
+import ca.uhn.fhir.model.primitive.DecimalDt;
 import ca.uhn.fhir.model.primitive.StringDt;
 
 /**
@@ -64,7 +67,7 @@ public class ParametersUtil {
 		}
 	}
 
-	private static IBase createParameterRepetition(FhirContext theContext, IBaseResource theTargetResource, BaseRuntimeChildDefinition paramChild, BaseRuntimeElementCompositeDefinition<?> paramChildElem, String theName) {
+	private static IBase createParameterRepetition(FhirContext theContext, IBase theTargetResource, BaseRuntimeChildDefinition paramChild, BaseRuntimeElementCompositeDefinition<?> paramChildElem, String theName) {
 		IBase parameter = paramChildElem.newInstance();
 		paramChild.getMutator().addValue(theTargetResource, parameter);
 		IPrimitiveType<?> value;
@@ -73,6 +76,58 @@ public class ParametersUtil {
 		return parameter;
 	}
 
+	/**
+	 * Adds a parameter with no value (e.g. one which will hold parts) to a Parameters resource
+	 * 
+	 * @return Returns the new parameter
+	 * @since 1.6
+	 */
+	public static IBase addParameter(FhirContext theContext, IBaseParameters theParameters, String theName) {
+		RuntimeResourceDefinition def = theContext.getResourceDefinition(theParameters);
+		BaseRuntimeChildDefinition paramChild = def.getChildByName("parameter");
+		BaseRuntimeElementCompositeDefinition<?> paramChildElem = (BaseRuntimeElementCompositeDefinition<?>) paramChild.getChildByName("parameter");
+		return createParameterRepetition(theContext, theParameters, paramChild, paramChildElem, theName);
+	}
+
+	/**
+	 * Adds a part with the given value to a parameter which was created using
+	 * {@link #addParameter(FhirContext, IBaseParameters, String)}
+	 * 
+	 * @since 1.6
+	 */
+	public static void addPart(FhirContext theContext, IBase theParameter, String theName, IBaseDatatype theValue) {
+		RuntimeResourceDefinition def = theContext.getResourceDefinition("Parameters");
+		BaseRuntimeElementCompositeDefinition<?> paramChildElem = (BaseRuntimeElementCompositeDefinition<?>) def.getChildByName("parameter").getChildByName("parameter");
+		BaseRuntimeChildDefinition partChild = paramChildElem.getChildByName("part");
+		BaseRuntimeElementCompositeDefinition<?> partChildElem = (BaseRuntimeElementCompositeDefinition<?>) partChild.getChildByName("part");
+		IBase part = createParameterRepetition(theContext, theParameter, partChild, partChildElem, theName);
+		partChildElem.getChildByName("value[x]").getMutator().addValue(part, theValue);
+	}
+
+	/**
+	 * Creates a <code>code</code> datatype for the given context's FHIR version
+	 * 
+	 * @since 1.6
+	 */
+	public static IPrimitiveType<?> createCode(FhirContext theContext, String theValue) {
+		if (theContext.getVersion().getVersion().isRi()) {
+			return (IPrimitiveType<?>) theContext.getElementDefinition("code").newInstance(theValue);
+		}
+		return new CodeDt(theValue);
+	}
+
+	/**
+	 * Creates a <code>decimal</code> datatype for the given context's FHIR version
+	 * 
+	 * @since 1.6
+	 */
+	public static IPrimitiveType<?> createDecimal(FhirContext theContext, BigDecimal theValue) {
+		if (theContext.getVersion().getVersion().isRi()) {
+			return (IPrimitiveType<?>) theContext.getElementDefinition("decimal").newInstance(theValue);
+		}
+		return new DecimalDt(theValue);
+	}
+
 	public static IPrimitiveType<?> createString(FhirContext theContext, String theValue) {
 		IPrimitiveType<?> value;
 		if (theContext.getVersion().getVersion().isRi()) {
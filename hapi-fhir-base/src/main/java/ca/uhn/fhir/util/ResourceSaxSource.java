@@ -0,0 +1,195 @@
+package ca.uhn.fhir.util;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.sax.SAXSource;
+
+import org.apache.commons.lang3.Validate;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.parser.XmlParser;
+
+/**
+ * {@link SAXSource} which supplies a resource as the events produced by the XML encoder, so that
+ * the resource can be passed to a schema validator or an XSLT transformer without being
+ * serialized and parsed again. Since there is no text, errors reported by the consumer will not
+ * have a line or column number.
+ * <p>
+ * Each instance can be read once, by one thread.
+ * </p>
+ *
+ * @since 1.6
+ */
+public class ResourceSaxSource extends SAXSource {
+
+	/**
+	 * Constructor
+	 *
+	 * @param theContext
+	 *           The context to use to encode the resource
+	 * @param theResource
+	 *           The resource
+	 */
+	public ResourceSaxSource(FhirContext theContext, IBaseResource theResource) {
+		super(new EncodingXmlReader((XmlParser) theContext.newXmlParser(), theResource), new InputSource());
+		Validate.notNull(theResource, "theResource must not be null");
+	}
+
+	private static class EncodingXmlReader implements XMLReader {
+		private static final String FEATURE_NAMESPACE_PREFIXES = "http://xml.org/sax/features/namespace-prefixes";
+		private static final String FEATURE_NAMESPACES = "http://xml.org/sax/features/namespaces";
+
+		private ContentHandler myContentHandler;
+		private DTDHandler myDtdHandler;
+		private EntityResolver myEntityResolver;
+		private ErrorHandler myErrorHandler;
+		private final XmlParser myParser;
+		private final IBaseResource myResource;
+
+		EncodingXmlReader(XmlParser theParser, IBaseResource theResource) {
+			myParser = theParser;
+			myResource = theResource;
+		}
+
+		@Override
+		public ContentHandler getContentHandler() {
+			return myContentHandler;
+		}
+
+		@Override
+		public DTDHandler getDTDHandler() {
+			return myDtdHandler;
+		}
+
+		@Override
+		public EntityResolver getEntityResolver() {
+			return myEntityResolver;
+		}
+
+		@Override
+		public ErrorHandler getErrorHandler() {
+			return myErrorHandler;
+		}
+
+		/**
+		 * Namespaces are always reported as prefix mappings and never as attributes
+		 */
+		@Override
+		public boolean getFeature(String theName) throws SAXNotRecognizedException, SAXNotSupportedException {
+			if (FEATURE_NAMESPACES.equals(theName)) {
+				return true;
+			}
+			if (FEATURE_NAMESPACE_PREFIXES.equals(theName)) {
+				return false;
+			}
+			throw new SAXNotRecognizedException(theName);
+		}
+
+		@Override
+		public Object getProperty(String theName) throws SAXNotRecognizedException, SAXNotSupportedException {
+			throw new SAXNotRecognizedException(theName);
+		}
+
+		@Override
+		public void parse(InputSource theInput) throws SAXException {
+			Validate.validState(myContentHandler != null, "No content handler has been set");
+			ContentHandlerStreamWriter writer = new ContentHandlerStreamWriter(myContentHandler);
+			try {
+				writer.writeStartDocument();
+				myParser.encodeResourceToXmlStreamWriter(myResource, writer);
+				writer.writeEndDocument();
+			} catch (XMLStreamException e) {
+				throw toSaxException(e);
+			} catch (DataFormatException e) {
+				throw toSaxException(e);
+			}
+		}
+
+		@Override
+		public void parse(String theSystemId) throws SAXException {
+			parse(new InputSource(theSystemId));
+		}
+
+		@Override
+		public void setContentHandler(ContentHandler theHandler) {
+			myContentHandler = theHandler;
+		}
+
+		@Override
+		public void setDTDHandler(DTDHandler theHandler) {
+			myDtdHandler = theHandler;
+		}
+
+		@Override
+		public void setEntityResolver(EntityResolver theResolver) {
+			myEntityResolver = theResolver;
+		}
+
+		@Override
+		public void setErrorHandler(ErrorHandler theHandler) {
+			myErrorHandler = theHandler;
+		}
+
+		@Override
+		public void setFeature(String theName, boolean theValue) throws SAXNotRecognizedException, SAXNotSupportedException {
+			if (getFeature(theName) != theValue) {
+				throw new SAXNotSupportedException(theName);
+			}
+		}
+
+		@Override
+		public void setProperty(String theName, Object theValue) throws SAXNotRecognizedException, SAXNotSupportedException {
+			throw new SAXNotRecognizedException(theName);
+		}
+
+		/**
+		 * Errors raised by the consumer of the events reach the encoder wrapped in an
+		 * {@link XMLStreamException}, so they are unwrapped to be passed back
+		 */
+		private static SAXException toSaxException(Exception theException) {
+			Throwable cause = theException;
+			while (cause != null) {
+				if (cause instanceof SAXException) {
+					return (SAXException) cause;
+				}
+				if (cause instanceof XMLStreamException && ((XMLStreamException) cause).getNestedException() != null) {
+					cause = ((XMLStreamException) cause).getNestedException();
+				} else {
+					cause = cause.getCause();
+				}
+			}
+			return new SAXException(theException);
+		}
+	}
+
+}
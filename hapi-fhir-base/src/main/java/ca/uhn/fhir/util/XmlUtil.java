@@ -47,6 +47,7 @@ import org.codehaus.stax2.io.EscapingWriterFactory;
 import com.ctc.wstx.api.WstxInputProperties;
 import com.ctc.wstx.stax.WstxOutputFactory;
 
+import ca.uhn.fhir.rest.server.Constants;
 import ca.uhn.fhir.util.jar.DependencyLogFactory;
 import ca.uhn.fhir.util.jar.IDependencyLog;
 
@@ -1532,6 +1533,16 @@ public class XmlUtil {
 		return retVal;
 	}
 
+	/**
+	 * Creates a stream writer which encodes directly to UTF-8 bytes on the given stream. Note that
+	 * closing the returned writer will not close the underlying stream.
+	 */
+	public static XMLStreamWriter createXmlStreamWriter(OutputStream theOutputStream) throws FactoryConfigurationError, XMLStreamException {
+		XMLOutputFactory outputFactory = getOrCreateOutputFactory();
+		XMLStreamWriter retVal = outputFactory.createXMLStreamWriter(theOutputStream, Constants.CHARSET_NAME_UTF8);
+		return retVal;
+	}
+
 	public static XMLEventWriter createXmlFragmentWriter(Writer theWriter) throws FactoryConfigurationError, XMLStreamException {
 		XMLOutputFactory outputFactory = getOrCreateFragmentOutputFactory();
 		XMLEventWriter retVal = outputFactory.createXMLEventWriter(theWriter);
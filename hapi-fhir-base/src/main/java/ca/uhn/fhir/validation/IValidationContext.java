@@ -33,6 +33,16 @@ public interface IValidationContext<T> {
 
 	EncodingEnum getResourceAsStringEncoding();
 
+	/**
+	 * Returns <code>true</code> if the resource was supplied as text, in which case the text is what
+	 * should be validated. Returns <code>false</code> if the resource was supplied as an object, in
+	 * which case {@link #getResourceAsString()} encodes it on demand and validators which are able to
+	 * validate the {@link #getResource() object} directly may skip the encoding.
+	 * 
+	 * @since 1.6
+	 */
+	boolean isResourceSuppliedAsText();
+
 	void addValidationMessage(SingleValidationMessage theMessage);
 
 	ValidationResult toResult();
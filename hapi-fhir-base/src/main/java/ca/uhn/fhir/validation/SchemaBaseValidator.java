@@ -26,10 +26,11 @@ import java.io.InputStreamReader;
 import java.io.StringReader;
 import java.nio.charset.Charset;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.xml.XMLConstants;
 import javax.xml.transform.Source;
@@ -53,6 +54,7 @@ import ca.uhn.fhir.context.FhirVersionEnum;
 import ca.uhn.fhir.model.api.Bundle;
 import ca.uhn.fhir.rest.server.EncodingEnum;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.util.ResourceSaxSource;
 
 public class SchemaBaseValidator implements IValidatorModule {
 	public static final String RESOURCES_JAR_NOTE = "Note that as of HAPI FHIR 1.2, DSTU2 validation files are kept in a separate JAR (hapi-fhir-validation-resources-XXX.jar) which must be added to your classpath. See the HAPI FHIR download page for more information.";
@@ -73,7 +75,7 @@ public class SchemaBaseValidator implements IValidatorModule {
 		SCHEMA_NAMES = Collections.unmodifiableSet(sn);
 	}
 
-	private Map<String, Schema> myKeyToSchema = new HashMap<String, Schema>();
+	private final ConcurrentHashMap<String, PooledSchema> myKeyToSchema = new ConcurrentHashMap<String, PooledSchema>();
 	private FhirContext myCtx;
 
 	public SchemaBaseValidator(FhirContext theContext) {
@@ -81,31 +83,24 @@ public class SchemaBaseValidator implements IValidatorModule {
 	}
 
 	private void doValidate(IValidationContext<?> theContext, String schemaName) {
-		Schema schema = loadSchema("dstu", schemaName);
+		PooledSchema schema = loadSchema("dstu", schemaName);
+
+		/*
+		 * If the resource was supplied as XML we validate the original text so that errors
+		 * have line numbers, otherwise the encoder feeds the validator directly
+		 */
+		Source source;
+		if (theContext.getResourceAsStringEncoding() == EncodingEnum.XML) {
+			source = new StreamSource(new StringReader(theContext.getResourceAsString()));
+		} else {
+			source = new ResourceSaxSource(theContext.getFhirContext(), (IBaseResource) theContext.getResource());
+		}
 
+		Validator validator = null;
 		try {
-			Validator validator = schema.newValidator();
-			MyErrorHandler handler = new MyErrorHandler(theContext);
-			validator.setErrorHandler(handler);
-			String encodedResource;
-			if (theContext.getResourceAsStringEncoding() == EncodingEnum.XML) {
-				encodedResource = theContext.getResourceAsString();
-			} else {
-				encodedResource = theContext.getFhirContext().newXmlParser().encodeResourceToString((IBaseResource) theContext.getResource());
-			}
-
-			try {
-			/*
-			 * See https://github.com/jamesagnew/hapi-fhir/issues/339
-			 * https://www.owasp.org/index.php/XML_External_Entity_(XXE)_Processing
-			 */
-				validator.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
-				validator.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
-			}catch (SAXNotRecognizedException ex){
-				ourLog.warn("Jaxp 1.5 Support not found.",ex);
-			}
-
-			validator.validate(new StreamSource(new StringReader(encodedResource)));
+			validator = schema.borrowValidator();
+			validator.setErrorHandler(new MyErrorHandler(theContext));
+			validator.validate(source);
 		} catch (SAXParseException e) {
 			SingleValidationMessage message = new SingleValidationMessage();
 			message.setLocationLine(e.getLineNumber());
@@ -119,16 +114,30 @@ public class SchemaBaseValidator implements IValidatorModule {
 		} catch (IOException e) {
 			// Catch all
 			throw new ConfigurationException("Could not load/parse schema file", e);
+		} finally {
+			if (validator != null) {
+				/*
+				 * Clear the error handler and anything else left over from this validation
+				 * before the next thread picks the validator up
+				 */
+				validator.reset();
+				schema.returnValidator(validator);
+			}
 		}
 	}
 
-	private Schema loadSchema(String theVersion, String theSchemaName) {
+	private PooledSchema loadSchema(String theVersion, String theSchemaName) {
 		String key = theVersion + "-" + theSchemaName;
 
+		PooledSchema retVal = myKeyToSchema.get(key);
+		if (retVal != null) {
+			return retVal;
+		}
+
 		synchronized (myKeyToSchema) {
-			Schema schema = myKeyToSchema.get(key);
-			if (schema != null) {
-				return schema;
+			retVal = myKeyToSchema.get(key);
+			if (retVal != null) {
+				return retVal;
 			}
 
 			Source baseSource = loadXml(null, theSchemaName);
@@ -136,6 +145,7 @@ public class SchemaBaseValidator implements IValidatorModule {
 			SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
 			schemaFactory.setResourceResolver(new MyResourceResolver());
 
+			Schema schema;
 			try {
 				try {
 				/*
@@ -150,8 +160,9 @@ public class SchemaBaseValidator implements IValidatorModule {
 			} catch (SAXException e) {
 				throw new ConfigurationException("Could not load/parse schema file: " + theSchemaName, e);
 			}
-			myKeyToSchema.put(key, schema);
-			return schema;
+			retVal = new PooledSchema(schema);
+			myKeyToSchema.put(key, retVal);
+			return retVal;
 		}
 	}
 
@@ -217,6 +228,48 @@ public class SchemaBaseValidator implements IValidatorModule {
 
 	}
 
+	/**
+	 * A compiled schema along with the validators created from it. A {@link Validator} can only
+	 * be used by one thread at a time, so each validation borrows one from the pool and returns it
+	 * afterward. The pool only grows to the number of threads validating at once.
+	 */
+	private static class PooledSchema {
+		private final Schema mySchema;
+		private final Queue<Validator> myValidators = new ConcurrentLinkedQueue<Validator>();
+
+		PooledSchema(Schema theSchema) {
+			mySchema = theSchema;
+		}
+
+		Validator borrowValidator() throws SAXException {
+			Validator retVal = myValidators.poll();
+			if (retVal == null) {
+				retVal = mySchema.newValidator();
+			}
+
+			/*
+			 * See https://github.com/jamesagnew/hapi-fhir/issues/339
+			 * https://www.owasp.org/index.php/XML_External_Entity_(XXE)_Processing
+			 * 
+			 * Validator#reset() restores the validator's original settings, so this is set
+			 * again every time a validator is borrowed. Secure processing is used rather than
+			 * setting the ACCESS_EXTERNAL_DTD and ACCESS_EXTERNAL_SCHEMA properties directly
+			 * (it blocks both on Java 8+), because on Java 8 a validator fails with a
+			 * NullPointerException when used after those properties were set and reset.
+			 */
+			try {
+				retVal.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+			} catch (SAXNotRecognizedException ex) {
+				ourLog.warn("Jaxp 1.5 Support not found.", ex);
+			}
+			return retVal;
+		}
+
+		void returnValidator(Validator theValidator) {
+			myValidators.add(theValidator);
+		}
+	}
+
 	private final class MyResourceResolver implements LSResourceResolver {
 		private MyResourceResolver() {
 		}
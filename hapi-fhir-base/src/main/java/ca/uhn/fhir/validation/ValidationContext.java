@@ -66,6 +66,11 @@ public class ValidationContext<T> extends BaseValidationContext<T> implements IV
 		return myResourceAsStringEncoding;
 	}
 
+	@Override
+	public boolean isResourceSuppliedAsText() {
+		return false;
+	}
+
 	public static IValidationContext<Bundle> forBundle(final FhirContext theContext, final Bundle theBundle) {
 		return new ValidationContext<Bundle>(theContext, theBundle, new IEncoder() {
 			@Override
@@ -122,6 +127,11 @@ public class ValidationContext<T> extends BaseValidationContext<T> implements IV
 				return EncodingEnum.XML;
 			}
 
+			@Override
+			public boolean isResourceSuppliedAsText() {
+				return false;
+			}
+
 			@Override
 			public ValidationResult toResult() {
 				return theContext.toResult();
@@ -167,6 +177,11 @@ public class ValidationContext<T> extends BaseValidationContext<T> implements IV
 				return myEncoding;
 			}
 
+			@Override
+			public boolean isResourceSuppliedAsText() {
+				return true;
+			}
+
 		};
 	}
 }
@@ -22,10 +22,10 @@ package ca.uhn.fhir.validation.schematron;
 
 import java.io.InputStream;
 import java.io.StringReader;
-import java.util.HashMap;
 import java.util.Locale;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
 
 import org.apache.commons.io.IOUtils;
@@ -43,6 +43,7 @@ import ca.uhn.fhir.model.api.Bundle;
 import ca.uhn.fhir.model.api.BundleEntry;
 import ca.uhn.fhir.rest.server.EncodingEnum;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.util.ResourceSaxSource;
 import ca.uhn.fhir.validation.FhirValidator;
 import ca.uhn.fhir.validation.IValidationContext;
 import ca.uhn.fhir.validation.IValidatorModule;
@@ -57,7 +58,7 @@ import ca.uhn.fhir.validation.ValidationContext;
  */
 public class SchematronBaseValidator implements IValidatorModule {
 
-	private Map<Class<? extends IBaseResource>, ISchematronResource> myClassToSchematron = new HashMap<Class<? extends IBaseResource>, ISchematronResource>();
+	private final ConcurrentHashMap<Class<? extends IBaseResource>, ISchematronResource> myClassToSchematron = new ConcurrentHashMap<Class<? extends IBaseResource>, ISchematronResource>();
 	private FhirContext myCtx;
 
 	public SchematronBaseValidator(FhirContext theContext) {
@@ -68,13 +69,12 @@ public class SchematronBaseValidator implements IValidatorModule {
 	public void validateResource(IValidationContext<IBaseResource> theCtx) {
 
 		ISchematronResource sch = getSchematron(theCtx);
-		String resourceAsString;
+		Source source;
 		if (theCtx.getResourceAsStringEncoding() == EncodingEnum.XML) {
-			resourceAsString = theCtx.getResourceAsString();
+			source = new StreamSource(new StringReader(theCtx.getResourceAsString()));
 		} else {
-			resourceAsString = theCtx.getFhirContext().newXmlParser().encodeResourceToString(theCtx.getResource());
+			source = new ResourceSaxSource(theCtx.getFhirContext(), theCtx.getResource());
 		}
-		StreamSource source = new StreamSource(new StringReader(resourceAsString));
 
 		SchematronOutputType results = SchematronHelper.applySchematron(sch, source);
 		if (results == null) {
@@ -126,8 +126,17 @@ public class SchematronBaseValidator implements IValidatorModule {
 	}
 
 	private ISchematronResource getSchematronAndCache(IValidationContext<IBaseResource> theCtx, Class<? extends IBaseResource> theClass) {
+		ISchematronResource retVal = myClassToSchematron.get(theClass);
+		if (retVal != null) {
+			return retVal;
+		}
+
+		/*
+		 * The compiled stylesheet is shared by all threads, so we only lock while
+		 * compiling a schematron which hasn't been loaded yet
+		 */
 		synchronized (myClassToSchematron) {
-			ISchematronResource retVal = myClassToSchematron.get(theClass);
+			retVal = myClassToSchematron.get(theClass);
 			if (retVal != null) {
 				return retVal;
 			}
@@ -0,0 +1,112 @@
+package ca.uhn.fhir.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+public class ContentHandlerStreamWriterTest {
+
+	private static final String NS_A = "http://example.com/a";
+	private static final String NS_B = "http://example.com/b";
+
+	@Test
+	public void testGetPrefixes() throws Exception {
+		ContentHandlerStreamWriter writer = new ContentHandlerStreamWriter(new DefaultHandler());
+		writer.setNamespaceContext(new RootContext());
+		writer.writeStartElement("a", "root", NS_A);
+		writer.writeNamespace("a", NS_A);
+		writer.writeNamespace("a2", NS_A);
+
+		List<String> prefixes = new ArrayList<String>();
+		for (Iterator<String> iter = writer.getNamespaceContext().getPrefixes(NS_A); iter.hasNext();) {
+			prefixes.add(iter.next());
+		}
+		assertTrue(prefixes.toString(), prefixes.containsAll(Arrays.asList("a", "a2")));
+		assertEquals(2, prefixes.size());
+
+		assertTrue(writer.getNamespaceContext().getPrefixes(NS_B).hasNext());
+		assertEquals("b", writer.getNamespaceContext().getPrefixes(NS_B).next());
+	}
+
+	@Test
+	public void testSetNamespaceContext() throws Exception {
+		RecordingHandler handler = new RecordingHandler();
+		ContentHandlerStreamWriter writer = new ContentHandlerStreamWriter(handler);
+		writer.setNamespaceContext(new RootContext());
+
+		assertEquals("b", writer.getPrefix(NS_B));
+		assertEquals(NS_B, writer.getNamespaceContext().getNamespaceURI("b"));
+
+		writer.writeStartElement(NS_B, "root");
+		writer.setPrefix("b", NS_A);
+		writer.writeEmptyElement("b", "child", null);
+		writer.writeEndElement();
+		writer.writeEndDocument();
+
+		assertEquals(Arrays.asList("{" + NS_B + "}b:root", "{" + NS_A + "}b:child"), handler.myElements);
+		assertFalse(handler.myPrefixMappings);
+	}
+
+	@Test
+	public void testSetNamespaceContextAfterStart() throws Exception {
+		ContentHandlerStreamWriter writer = new ContentHandlerStreamWriter(new DefaultHandler());
+		writer.writeStartElement("root");
+		try {
+			writer.setNamespaceContext(new RootContext());
+			fail();
+		} catch (XMLStreamException e) {
+			assertEquals("Namespace context can only be set before the first element is written", e.getMessage());
+		}
+	}
+
+	private static class RecordingHandler extends DefaultHandler {
+		private List<String> myElements = new ArrayList<String>();
+		private boolean myPrefixMappings;
+
+		@Override
+		public void startElement(String theUri, String theLocalName, String theQName, Attributes theAttributes) {
+			myElements.add("{" + theUri + "}" + theQName);
+		}
+
+		@Override
+		public void startPrefixMapping(String thePrefix, String theUri) {
+			myPrefixMappings = true;
+		}
+	}
+
+	private static class RootContext implements NamespaceContext {
+
+		@Override
+		public String getNamespaceURI(String thePrefix) {
+			return "b".equals(thePrefix) ? NS_B : null;
+		}
+
+		@Override
+		public String getPrefix(String theNamespaceURI) {
+			return NS_B.equals(theNamespaceURI) ? "b" : null;
+		}
+
+		@Override
+		public Iterator<String> getPrefixes(String theNamespaceURI) {
+			List<String> retVal = new ArrayList<String>();
+			if (NS_B.equals(theNamespaceURI)) {
+				retVal.add("b");
+			}
+			return retVal.iterator();
+		}
+	}
+
+}
@@ -62,10 +62,12 @@ import ca.uhn.fhir.model.dstu2.valueset.HTTPVerbEnum;
 import ca.uhn.fhir.model.primitive.IdDt;
 import ca.uhn.fhir.model.valueset.BundleTypeEnum;
 import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.rest.client.BulkLoadOutcome;
+import ca.uhn.fhir.rest.client.BulkLoadOutcome.FailedBundle;
+import ca.uhn.fhir.rest.client.BulkLoader;
 import ca.uhn.fhir.rest.client.IGenericClient;
 import ca.uhn.fhir.rest.client.apache.GZipContentInterceptor;
 import ca.uhn.fhir.rest.server.IVersionSpecificBundleFactory;
-import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
 import ca.uhn.fhir.util.BundleUtil;
 import ca.uhn.fhir.util.ResourceReferenceInfo;
 import ca.uhn.fhir.validation.FhirValidator;
@@ -104,6 +106,10 @@ public class ExampleDataUploader extends BaseCommand {
 		opt.setRequired(false);
 		options.addOption(opt);
 
+		opt = new Option("p", "parallel", true, "Sets the number of bundles to upload concurrently (default is " + BulkLoader.DEFAULT_MAXIMUM_IN_FLIGHT_REQUESTS + ")");
+		opt.setRequired(false);
+		options.addOption(opt);
+
 		opt = new Option("c", "cache", false,
 				"Cache the downloaded examples-json.zip file in the ~/.hapi-fhir-cli/cache directory. Use this file for 12 hours if it exists, instead of fetching it from the internet.");
 		opt.setRequired(false);
@@ -138,6 +144,19 @@ public class ExampleDataUploader extends BaseCommand {
 			}
 		}
 
+		int parallelUploads = BulkLoader.DEFAULT_MAXIMUM_IN_FLIGHT_REQUESTS;
+		String parallelString = theCommandLine.getOptionValue('p');
+		if (isNotBlank(parallelString)) {
+			try {
+				parallelUploads = Integer.parseInt(parallelString);
+			} catch (NumberFormatException e) {
+				throw new ParseException("Invalid number for parallel (-p) option, must be a number: " + parallelString);
+			}
+			if (parallelUploads < 1) {
+				throw new ParseException("Invalid number for parallel (-p) option, must be at least 1: " + parallelString);
+			}
+		}
+
 		String specUrl;
 
 		switch (ctx.getVersion().getVersion()) {
@@ -176,12 +195,12 @@ public class ExampleDataUploader extends BaseCommand {
 				for (File inputFile : inputFiles) {
 					IBaseBundle bundle = getBundleFromFile(limit, inputFile, ctx);
 					processBundle(ctx, bundle);
-					sendBundleToTarget(targetServer, ctx, bundle);
+					sendBundleToTarget(targetServer, ctx, bundle, parallelUploads);
 				}
 			} else {
 				IBaseBundle bundle = getBundleFromFile(limit, suppliedFile, ctx);
 				processBundle(ctx, bundle);
-				sendBundleToTarget(targetServer, ctx, bundle);
+				sendBundleToTarget(targetServer, ctx, bundle, parallelUploads);
 			}
 
 		} else {
@@ -222,7 +241,7 @@ public class ExampleDataUploader extends BaseCommand {
 			IBaseBundle bundle = getBundleFromFile(limit, inputFile, ctx);
 			processBundle(ctx, bundle);
 
-			sendBundleToTarget(targetServer, ctx, bundle);
+			sendBundleToTarget(targetServer, ctx, bundle, parallelUploads);
 
 		}
 
@@ -239,7 +258,7 @@ public class ExampleDataUploader extends BaseCommand {
 		}
 	}
 
-	private void sendBundleToTarget(String targetServer, FhirContext ctx, IBaseBundle bundle) throws Exception, IOException {
+	private void sendBundleToTarget(String targetServer, FhirContext ctx, IBaseBundle bundle, int theParallelUploads) throws Exception, IOException {
 		List<IBaseResource> resources = BundleUtil.toListOfResources(ctx, bundle);
 		
 		for (Iterator<IBaseResource> iter = resources.iterator(); iter.hasNext(); ) {
@@ -255,6 +274,7 @@ public class ExampleDataUploader extends BaseCommand {
 		}
 		
 		
+		List<List<IBaseResource>> groups = new ArrayList<List<IBaseResource>>();
 		List<IBaseResource> subResourceList = new ArrayList<IBaseResource>();
 		while (resources.size() > 0) {
 
@@ -295,48 +315,45 @@ public class ExampleDataUploader extends BaseCommand {
 				continue;
 			}
 			
-			ourLog.info("About to upload {} examples in a transaction, {} remaining", subResourceList.size(), resources.size());
-			if (true) {
-				subResourceList.clear();
-				continue;
+			ourLog.debug("Grouped {} examples, {} remaining", subResourceList.size(), resources.size());
+			groups.add(subResourceList);
+			subResourceList = new ArrayList<IBaseResource>();
+		}
+
+		if (targetServer.startsWith("file://")) {
+			List<IBaseResource> allResources = new ArrayList<IBaseResource>();
+			for (List<IBaseResource> nextGroup : groups) {
+				allResources.addAll(nextGroup);
 			}
-			
+
 			IVersionSpecificBundleFactory bundleFactory = ctx.newBundleFactory();
-			bundleFactory.initializeBundleFromResourceList(null, subResourceList, null, null, 0, BundleTypeEnum.TRANSACTION);
-			IBaseResource subBundle = bundleFactory.getResourceBundle();
+			bundleFactory.initializeBundleFromResourceList(null, allResources, null, null, 0, BundleTypeEnum.TRANSACTION);
+			IBaseResource bundle = bundleFactory.getResourceBundle();
 
-			String encoded = ctx.newXmlParser().setPrettyPrint(true).encodeResourceToString(subBundle);
+			String encoded = ctx.newXmlParser().setPrettyPrint(true).encodeResourceToString(bundle);
 			ourLog.info("Final bundle: {}", FileUtils.byteCountToDisplaySize(encoded.length()));
 
-			if (targetServer.startsWith("file://")) {
-				String path = targetServer.substring("file://".length());
-				ourLog.info("Writing bundle to: {}", path);
-				File file = new File(path);
-				if (file.exists()) {
-					throw new Exception("File already exists: " + file.getAbsolutePath());
-				}
-				FileWriter w = new FileWriter(file, false);
-				w.append(encoded);
-				w.close();
-			} else {
-				ourLog.info("Uploading bundle to server: " + targetServer);
-
-				IGenericClient fhirClient = newClient(ctx, targetServer);
-				fhirClient.registerInterceptor(new GZipContentInterceptor());
+			String path = targetServer.substring("file://".length());
+			ourLog.info("Writing bundle to: {}", path);
+			File file = new File(path);
+			if (file.exists()) {
+				throw new Exception("File already exists: " + file.getAbsolutePath());
+			}
+			FileWriter w = new FileWriter(file, false);
+			w.append(encoded);
+			w.close();
+		} else {
+			ourLog.info("Uploading {} groups of examples to server: {}", groups.size(), targetServer);
 
-				long start = System.currentTimeMillis();
-				try {
-					fhirClient.transaction().withBundle(encoded).execute();
-				} catch (BaseServerResponseException e) {
-					ourLog.error("Failed to upload", e);
-					ourLog.error("Failing bundle: {}", encoded);
-				}
-				long delay = System.currentTimeMillis() - start;
+			IGenericClient fhirClient = newClient(ctx, targetServer);
+			fhirClient.registerInterceptor(new GZipContentInterceptor());
 
-				ourLog.info("Finished uploading bundle to server (took {} ms)", delay);
+			BulkLoadOutcome outcome = fhirClient.bulkLoader().setMaximumInFlightRequests(theParallelUploads).loadGroups(groups);
+			for (FailedBundle next : outcome.getFailedBundles()) {
+				ourLog.error("Failed to upload bundle of {} examples: {}", next.getResources().size(), next.getException().getMessage());
 			}
 
-			subResourceList.clear();
+			ourLog.info("Finished uploading examples to server: {}", outcome);
 		}
 
 	}
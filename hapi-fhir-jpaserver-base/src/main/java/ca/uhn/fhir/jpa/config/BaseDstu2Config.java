@@ -20,6 +20,7 @@ package ca.uhn.fhir.jpa.config;
  * #L%
  */
 
+import org.hl7.fhir.instance.hapi.validation.CachingValidationSupport;
 import org.springframework.beans.factory.annotation.Autowire;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -51,6 +52,15 @@ public class BaseDstu2Config extends BaseConfig {
 		return fhirContextDstu2();
 	}
 
+	/**
+	 * The database lookups made by the validator. Results are remembered, and are flushed
+	 * whenever a StructureDefinition or ValueSet is written.
+	 */
+	@Bean(name = "myCachingValidationSupportDstu2")
+	public CachingValidationSupport cachingValidationSupportDstu2() {
+		return new CachingValidationSupport(jpaValidationSupportDstu2());
+	}
+
 	@Bean(name = "myJpaValidationSupportDstu2", autowire = Autowire.BY_NAME)
 	public ca.uhn.fhir.jpa.dao.IJpaValidationSupportDstu2 jpaValidationSupportDstu2() {
 		ca.uhn.fhir.jpa.dao.JpaValidationSupportDstu2 retVal = new ca.uhn.fhir.jpa.dao.JpaValidationSupportDstu2();
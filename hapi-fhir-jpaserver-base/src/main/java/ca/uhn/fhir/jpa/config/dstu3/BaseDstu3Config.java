@@ -1,5 +1,6 @@
 package ca.uhn.fhir.jpa.config.dstu3;
 
+import org.hl7.fhir.dstu3.hapi.validation.CachingValidationSupport;
 import org.hl7.fhir.dstu3.hapi.validation.FhirInstanceValidator;
 import org.hl7.fhir.dstu3.hapi.validation.HapiWorkerContext;
 import org.hl7.fhir.dstu3.hapi.validation.IValidationSupport;
@@ -76,10 +77,20 @@ public class BaseDstu3Config extends BaseConfig {
 	public IValidatorModule instanceValidatorDstu3() {
 		FhirInstanceValidator val = new FhirInstanceValidator();
 		val.setBestPracticeWarningLevel(BestPracticeWarningLevel.Warning);
-		val.setValidationSupport(validationSupportChainDstu3());
+		val.setValidationSupport(cachingValidationSupportDstu3());
 		return val;
 	}
 
+	/**
+	 * The validation support used by the validator. Lookups against the database are
+	 * remembered, and are flushed whenever a StructureDefinition, ValueSet or CodeSystem
+	 * is written.
+	 */
+	@Bean(name = "myCachingValidationSupportDstu3")
+	public CachingValidationSupport cachingValidationSupportDstu3() {
+		return new CachingValidationSupport(validationSupportChainDstu3());
+	}
+
 	@Bean(name = "myJpaValidationSupportDstu3", autowire = Autowire.BY_NAME)
 	public ca.uhn.fhir.jpa.dao.dstu3.IJpaValidationSupportDstu3 jpaValidationSupportDstu3() {
 		ca.uhn.fhir.jpa.dao.dstu3.JpaValidationSupportDstu3 retVal = new ca.uhn.fhir.jpa.dao.dstu3.JpaValidationSupportDstu3();
@@ -140,6 +140,8 @@ import ca.uhn.fhir.rest.param.UriAndListParam;
 import ca.uhn.fhir.rest.param.UriParam;
 import ca.uhn.fhir.rest.server.Constants;
 import ca.uhn.fhir.rest.server.IBundleProvider;
+import ca.uhn.fhir.rest.server.PerformancePhaseEnum;
+import ca.uhn.fhir.rest.server.RequestPerformance;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.exceptions.PreconditionFailedException;
@@ -1005,39 +1007,56 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 
 	@Override
 	public <R extends IBaseResource> R toResource(Class<R> theResourceType, BaseHasResource theEntity, boolean theForHistoryOperation) {
-		String resourceText = null;
-		switch (theEntity.getEncoding()) {
-		case JSON:
-			try {
-				resourceText = new String(theEntity.getResource(), "UTF-8");
-			} catch (UnsupportedEncodingException e) {
-				throw new Error("Should not happen", e);
-			}
-			break;
-		case JSONC:
-			resourceText = GZipUtil.decompress(theEntity.getResource());
-			break;
-		}
+		return toResource(theResourceType, theEntity, theForHistoryOperation, null);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <R extends IBaseResource> R toResource(Class<R> theResourceType, BaseHasResource theEntity, boolean theForHistoryOperation, Set<String> theParseOnlyPaths) {
+		long loadStart = RequestPerformance.startTimer();
 
-		IParser parser = theEntity.getEncoding().newParser(getContext(theEntity.getFhirVersion()));
 		R retVal;
-		try {
-			retVal = parser.parseResource(theResourceType, resourceText);
-		} catch (Exception e) {
-			StringBuilder b = new StringBuilder();
-			b.append("Failed to parse database resource[");
-			b.append(theResourceType);
-			b.append("/");
-			b.append(theEntity.getIdDt().getIdPart());
-			b.append(" (pid ");
-			b.append(theEntity.getId());
-			b.append(", version ");
-			b.append(myContext.getVersion().getVersion());
-			b.append("): ");
-			b.append(e.getMessage());
-			String msg = b.toString();
-			ourLog.error(msg, e);
-			throw new DataFormatException(msg, e);
+		if (isMetadataOnly(theEntity.getResourceType(), theParseOnlyPaths)) {
+			/*
+			 * The ID and metadata come from the resource table, so there is no
+			 * need to decode the stored resource at all
+			 */
+			retVal = (R) myContext.getResourceDefinition(theResourceType).newInstance();
+		} else {
+			String resourceText = null;
+			switch (theEntity.getEncoding()) {
+			case JSON:
+				try {
+					resourceText = new String(theEntity.getResource(), "UTF-8");
+				} catch (UnsupportedEncodingException e) {
+					throw new Error("Should not happen", e);
+				}
+				break;
+			case JSONC:
+				resourceText = GZipUtil.decompress(theEntity.getResource());
+				break;
+			}
+
+			IParser parser = theEntity.getEncoding().newParser(getContext(theEntity.getFhirVersion()));
+			parser.setParseOnlyPaths(theParseOnlyPaths);
+			try {
+				retVal = parser.parseResource(theResourceType, resourceText);
+			} catch (Exception e) {
+				StringBuilder b = new StringBuilder();
+				b.append("Failed to parse database resource[");
+				b.append(theResourceType);
+				b.append("/");
+				b.append(theEntity.getIdDt().getIdPart());
+				b.append(" (pid ");
+				b.append(theEntity.getId());
+				b.append(", version ");
+				b.append(myContext.getVersion().getVersion());
+				b.append("): ");
+				b.append(e.getMessage());
+				String msg = b.toString();
+				ourLog.error(msg, e);
+				throw new DataFormatException(msg, e);
+			}
 		}
 
 		if (retVal instanceof IResource) {
@@ -1047,6 +1066,29 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 			IAnyResource res = (IAnyResource) retVal;
 			retVal = populateResourceMetadataRi(theResourceType, theEntity, theForHistoryOperation, res);
 		}
+
+		RequestPerformance.stopTimer(PerformancePhaseEnum.LOAD, loadStart);
+		return retVal;
+	}
+
+	/**
+	 * Returns <code>true</code> if the given parse-only paths select nothing from a resource
+	 * of the given type other than its ID and metadata
+	 */
+	private static boolean isMetadataOnly(String theResourceType, Set<String> theParseOnlyPaths) {
+		if (theParseOnlyPaths == null) {
+			return false;
+		}
+		boolean retVal = false;
+		for (String next : theParseOnlyPaths) {
+			if (next.startsWith(theResourceType + ".") || next.startsWith("*.")) {
+				String element = next.substring(next.indexOf('.') + 1);
+				if (!"id".equals(element) && !"meta".equals(element)) {
+					return false;
+				}
+				retVal = true;
+			}
+		}
 		return retVal;
 	}
 
@@ -1078,7 +1120,7 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 	@SuppressWarnings("unchecked")
 	protected ResourceTable updateEntity(final IBaseResource theResource, ResourceTable theEntity, boolean theUpdateHistory, Date theDeletedTimestampOrNull, boolean thePerformIndexing,
 			boolean theUpdateVersion, Date theUpdateTime, RequestDetails theRequestDetails) {
-		ourLog.info("Starting entity update");
+		ourLog.trace("Starting entity update");
 
 		/*
 		 * This should be the very first thing..
@@ -1095,7 +1137,9 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 		}
 
 		if (theEntity.getPublished() == null) {
-			ourLog.info("Entity has published time: {}", new InstantDt(theUpdateTime));
+			if (ourLog.isDebugEnabled()) {
+				ourLog.debug("Entity has published time: {}", new InstantDt(theUpdateTime));
+			}
 
 			theEntity.setPublished(theUpdateTime);
 		}
@@ -1175,7 +1219,7 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 				coordsParams = extractSearchParamCoords(theEntity, theResource);
 
 				// ourLog.info("Indexing resource: {}", entity.getId());
-				ourLog.info("Storing date indexes: {}", dateParams);
+				ourLog.trace("Storing date indexes: {}", dateParams);
 
 				tokenParams = new HashSet<ResourceIndexedSearchParamToken>();
 				for (BaseResourceIndexedSearchParam next : extractSearchParamTokens(theEntity, theResource)) {
@@ -1312,7 +1356,9 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 		if (theUpdateVersion) {
 			final ResourceHistoryTable historyEntry = theEntity.toHistory(null);
 
-			ourLog.info("Saving history entry {}", historyEntry.getIdDt());
+			if (ourLog.isDebugEnabled()) {
+				ourLog.debug("Saving history entry {}", historyEntry.getIdDt());
+			}
 			myResourceHistoryTableDao.save(historyEntry);
 		}
 
@@ -1444,12 +1490,15 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 		}
 
 		String resName = getContext().getResourceDefinition(theResource).getName();
-		validateChildReferences(theResource, resName);
+		validateChildReferences(theResource, new StringBuilder(resName));
 
 	}
 
-	private void validateChildReferences(IBase theElement, String thePath) {
-		if (theElement == null) {
+	/**
+	 * @param thePath The path to the element. This is appended to while visiting children, but is restored before this method returns.
+	 */
+	private void validateChildReferences(IBase theElement, StringBuilder thePath) {
+		if (theElement == null || theElement instanceof IPrimitiveType) {
 			return;
 		}
 		BaseRuntimeElementDefinition<?> def = myContext.getElementDefinition(theElement.getClass());
@@ -1465,10 +1514,11 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 				continue;
 			}
 
-			String newPath = thePath + "." + nextChildDef.getElementName();
+			int pathLength = thePath.length();
+			thePath.append('.').append(nextChildDef.getElementName());
 
 			for (IBase nextChild : values) {
-				validateChildReferences(nextChild, newPath);
+				validateChildReferences(nextChild, thePath);
 			}
 
 			if (nextChildDef instanceof RuntimeChildResourceDefinition) {
@@ -1484,6 +1534,7 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 				}
 
 				if (allowAny) {
+					thePath.setLength(pathLength);
 					continue;
 				}
 
@@ -1493,13 +1544,15 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 						if (!nextRef.getReferenceElement().getValue().contains("?")) {
 							if (!validTypes.contains(nextRef.getReferenceElement().getResourceType())) {
 								throw new UnprocessableEntityException(
-										"Invalid reference found at path '" + newPath + "'. Resource type '" + nextRef.getReferenceElement().getResourceType() + "' is not valid for this path");
+										"Invalid reference found at path '" + thePath + "'. Resource type '" + nextRef.getReferenceElement().getResourceType() + "' is not valid for this path");
 							}
 						}
 					}
 				}
 
 			}
+
+			thePath.setLength(pathLength);
 		}
 	}
 
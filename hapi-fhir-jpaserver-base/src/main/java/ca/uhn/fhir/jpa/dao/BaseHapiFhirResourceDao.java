@@ -20,6 +20,7 @@ package ca.uhn.fhir.jpa.dao;
  * #L%
  */
 
+import static ca.uhn.fhir.jpa.util.TransactionUtil.flushNowAndAfterCompletion;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.util.ArrayList;
@@ -77,7 +78,10 @@ import ca.uhn.fhir.model.primitive.IdDt;
 import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
 import ca.uhn.fhir.rest.method.RequestDetails;
 import ca.uhn.fhir.rest.method.RestSearchParameterTypeEnum;
+import ca.uhn.fhir.rest.server.EncodedResourceCache;
 import ca.uhn.fhir.rest.server.IBundleProvider;
+import ca.uhn.fhir.rest.server.PerformancePhaseEnum;
+import ca.uhn.fhir.rest.server.RequestPerformance;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.exceptions.PreconditionFailedException;
@@ -144,6 +148,8 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 		myEntityManager.persist(newEntity);
 		myEntityManager.merge(entity);
 
+		invalidateEncodedResourceCache(theId);
+
 		ourLog.info("Processed addTag {}/{} on {} in {}ms", new Object[] { theScheme, theTerm, theId, w.getMillisAndRestart() });
 	}
 
@@ -544,6 +550,23 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 	// };
 	// }
 
+	/**
+	 * Tags and profiles are modified in place by the tag and meta operations (without creating a new version)
+	 * so any previously encoded copies of the resource are no longer valid
+	 */
+	private void invalidateEncodedResourceCache(IIdType theResourceId) {
+		final EncodedResourceCache cache = getConfig().getEncodedResourceCache();
+		if (cache != null) {
+			final IIdType resourceId = theResourceId.withResourceType(getResourceName());
+			flushNowAndAfterCompletion(new Runnable() {
+				@Override
+				public void run() {
+					cache.invalidate(resourceId);
+				}
+			});
+		}
+	}
+
 	@Override
 	public <MT extends IBaseMetaType> MT metaAddOperation(IIdType theResourceId, MT theMetaAdd, RequestDetails theRequestDetails) {
 		// Notify interceptors
@@ -567,6 +590,8 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 			doMetaAdd(theMetaAdd, history);
 		}
 
+		invalidateEncodedResourceCache(theResourceId);
+
 		ourLog.info("Processed metaAddOperation on {} in {}ms", new Object[] { theResourceId, w.getMillisAndRestart() });
 
 		@SuppressWarnings("unchecked")
@@ -597,6 +622,8 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 			doMetaDelete(theMetaDel, history);
 		}
 
+		invalidateEncodedResourceCache(theResourceId);
+
 		myEntityManager.flush();
 
 		ourLog.info("Processed metaDeleteOperation on {} in {}ms", new Object[] { theResourceId.getValue(), w.getMillisAndRestart() });
@@ -724,7 +751,7 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 			throw new ResourceGoneException("Resource was deleted at " + deleted.getValueAsString());
 		}
 
-		ourLog.info("Processed read on {} in {}ms", theId.getValue(), w.getMillisAndRestart());
+		ourLog.debug("Processed read on {} in {}ms", theId.getValue(), w.getMillisAndRestart());
 		return retVal;
 	}
 
@@ -739,6 +766,7 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 
 	@Override
 	public BaseHasResource readEntity(IIdType theId, boolean theCheckForForcedId) {
+		long queryStart = RequestPerformance.startTimer();
 		validateResourceTypeAndThrowIllegalArgumentException(theId);
 
 		Long pid = translateForcedIdToPid(getResourceName(), theId.getIdPart());
@@ -777,6 +805,8 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 		if (theCheckForForcedId) {
 			validateGivenIdIsAppropriateToRetrieveResource(theId, entity);
 		}
+
+		RequestPerformance.stopTimer(PerformancePhaseEnum.QUERY, queryStart);
 		return entity;
 	}
 
@@ -823,6 +853,8 @@ public abstract class BaseHapiFhirResourceDao<T extends IBaseResource> extends B
 
 		myEntityManager.merge(entity);
 
+		invalidateEncodedResourceCache(theId);
+
 		ourLog.info("Processed remove tag {}/{} on {} in {}ms", new Object[] { theScheme, theTerm, theId.getValue(), w.getMillisAndRestart() });
 	}
 
@@ -22,6 +22,7 @@ package ca.uhn.fhir.jpa.dao;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import org.hl7.fhir.instance.model.api.IBaseResource;
@@ -41,6 +42,7 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 
 	@Autowired
 	private FhirContext myContext;
+	private final ConcurrentHashMap<String, String[]> mySplitPaths = new ConcurrentHashMap<String, String[]>();
 	
 	public BaseSearchParamExtractor() {
 		super();
@@ -52,10 +54,9 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 
 	protected List<Object> extractValues(String thePaths, IBaseResource theResource) {
 		List<Object> values = new ArrayList<Object>();
-		String[] nextPathsSplit = SPLIT.split(thePaths);
+		String[] nextPathsSplit = splitPaths(thePaths);
 		FhirTerser t = myContext.newTerser();
-		for (String nextPath : nextPathsSplit) {
-			String nextPathTrimmed = nextPath.trim();
+		for (String nextPathTrimmed : nextPathsSplit) {
 			try {
 				values.addAll(t.getValues(theResource, nextPathTrimmed));
 			} catch (Exception e) {
@@ -66,6 +67,23 @@ public abstract class BaseSearchParamExtractor implements ISearchParamExtractor
 		return values;
 	}
 	
+	/**
+	 * Splits a search parameter path expression into its individual (trimmed) paths. The
+	 * set of expressions is small and fixed, so the result is cached to avoid running the
+	 * regex for every search parameter of every resource that is indexed.
+	 */
+	private String[] splitPaths(String thePaths) {
+		String[] retVal = mySplitPaths.get(thePaths);
+		if (retVal == null) {
+			retVal = SPLIT.split(thePaths);
+			for (int i = 0; i < retVal.length; i++) {
+				retVal[i] = retVal[i].trim();
+			}
+			mySplitPaths.put(thePaths, retVal);
+		}
+		return retVal;
+	}
+
 	protected FhirContext getContext() {
 		return myContext;
 	}
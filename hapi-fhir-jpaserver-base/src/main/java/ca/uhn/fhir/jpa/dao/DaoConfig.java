@@ -32,6 +32,7 @@ import org.apache.commons.lang3.time.DateUtils;
  */
 
 import ca.uhn.fhir.jpa.entity.ResourceEncodingEnum;
+import ca.uhn.fhir.rest.server.EncodedResourceCache;
 import ca.uhn.fhir.rest.server.RestfulServer;
 import ca.uhn.fhir.rest.server.interceptor.IServerInterceptor;
 
@@ -48,6 +49,7 @@ public class DaoConfig {
 	private boolean myAllowInlineMatchUrlReferences = false; 
 
 	private boolean myAllowMultipleDelete;
+	private EncodedResourceCache myEncodedResourceCache;
 	// ***
 	// update setter javadoc if default changes
 	// ***
@@ -79,6 +81,15 @@ public class DaoConfig {
 	private Long mySubscriptionPurgeInactiveAfterMillis;
 	private Set<String> myTreatBaseUrlsAsLocal = new HashSet<String>();
 	
+	/**
+	 * See {@link #setEncodedResourceCache(EncodedResourceCache)}
+	 * 
+	 * @since 1.6
+	 */
+	public EncodedResourceCache getEncodedResourceCache() {
+		return myEncodedResourceCache;
+	}
+
 	/**
 	 * Sets the number of milliseconds that search results for a given client search 
 	 * should be preserved before being purged from the database.
@@ -251,6 +262,22 @@ public class DaoConfig {
 		myAllowMultipleDelete = theAllowMultipleDelete;
 	}
 
+	/**
+	 * Sets the {@link EncodedResourceCache} which has been supplied to the
+	 * {@link RestfulServer#setEncodedResourceCache(EncodedResourceCache) RestfulServer} which
+	 * serves this JPA module, if any. The DAOs will invalidate entries in this cache when operations
+	 * such as <code>$meta-add</code> modify the content of an existing resource version.
+	 * <p>
+	 * Because every change to a resource's content otherwise creates a new version, this
+	 * allows the server to serve repeated reads of the same version without encoding the resource again.
+	 * </p>
+	 * 
+	 * @since 1.6
+	 */
+	public void setEncodedResourceCache(EncodedResourceCache theEncodedResourceCache) {
+		myEncodedResourceCache = theEncodedResourceCache;
+	}
+
 	/**
 	 * Sets the number of milliseconds that search results for a given client search 
 	 * should be preserved before being purged from the database.
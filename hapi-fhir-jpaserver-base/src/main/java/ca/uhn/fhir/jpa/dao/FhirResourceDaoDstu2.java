@@ -1,5 +1,6 @@
 package ca.uhn.fhir.jpa.dao;
 
+import static ca.uhn.fhir.jpa.util.TransactionUtil.flushNowAndAfterCompletion;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.util.ArrayList;
@@ -24,12 +25,16 @@ import java.util.ArrayList;
  * #L%
  */
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+import org.hl7.fhir.instance.hapi.validation.CachingValidationSupport;
 import org.hl7.fhir.instance.hapi.validation.DefaultProfileValidationSupport;
 import org.hl7.fhir.instance.hapi.validation.FhirInstanceValidator;
-import org.hl7.fhir.instance.hapi.validation.IValidationSupport;
 import org.hl7.fhir.instance.hapi.validation.ValidationSupportChain;
 import org.hl7.fhir.instance.model.api.IBaseOperationOutcome;
 import org.hl7.fhir.instance.model.api.IBaseResource;
@@ -66,9 +71,11 @@ import ca.uhn.fhir.validation.ValidationResult;
 
 public class FhirResourceDaoDstu2<T extends IResource> extends BaseHapiFhirResourceDao<T> {
 
+	private static final Set<String> VALIDATION_SUPPORT_RESOURCE_NAMES = new HashSet<String>(Arrays.asList("StructureDefinition", "ValueSet"));
+
 	@Autowired()
-	@Qualifier("myJpaValidationSupportDstu2")
-	private IValidationSupport myJpaValidationSupport;
+	@Qualifier("myCachingValidationSupportDstu2")
+	private CachingValidationSupport myJpaValidationSupport;
 
 	
 	@Override
@@ -98,6 +105,23 @@ public class FhirResourceDaoDstu2<T extends IResource> extends BaseHapiFhirResou
 		return oo;
 	}
 
+	@Override
+	protected ResourceTable updateEntity(IBaseResource theResource, ResourceTable theEntity, boolean theUpdateHistory, Date theDeletedTimestampOrNull, boolean thePerformIndexing,
+			boolean theUpdateVersion, Date theUpdateTime, RequestDetails theRequestDetails) {
+		ResourceTable retVal = super.updateEntity(theResource, theEntity, theUpdateHistory, theDeletedTimestampOrNull, thePerformIndexing, theUpdateVersion, theUpdateTime, theRequestDetails);
+
+		if (VALIDATION_SUPPORT_RESOURCE_NAMES.contains(getResourceName())) {
+			flushNowAndAfterCompletion(new Runnable() {
+				@Override
+				public void run() {
+					myJpaValidationSupport.flush();
+				}
+			});
+		}
+
+		return retVal;
+	}
+
 	@Override
 	public MethodOutcome validate(T theResource, IIdType theId, String theRawResource, EncodingEnum theEncoding, ValidationModeEnum theMode, String theProfile, RequestDetails theRequestDetails) {
 		ActionRequestDetails requestDetails = new ActionRequestDetails(theId, null, theResource, getContext(), theRequestDetails);
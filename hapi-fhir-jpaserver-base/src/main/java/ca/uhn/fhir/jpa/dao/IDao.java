@@ -10,6 +10,7 @@ import ca.uhn.fhir.jpa.entity.BaseHasResource;
 import ca.uhn.fhir.jpa.search.PersistedJpaBundleProvider;
 import ca.uhn.fhir.model.api.IResource;
 import ca.uhn.fhir.model.api.ResourceMetadataKeyEnum.ResourceMetadataKeySupportingAnyResource;
+import ca.uhn.fhir.parser.IParser;
 
 /*
  * #%L
@@ -70,4 +71,13 @@ public interface IDao {
 	IBaseResource toResource(BaseHasResource theEntity, boolean theForHistoryOperation);
 
 	<R extends IBaseResource> R toResource(Class<R> theResourceType, BaseHasResource theEntity, boolean theForHistoryOperation);
+
+	/**
+	 * Converts an entity into a resource, populating only the given paths (see {@link IParser#setParseOnlyPaths(Set)})
+	 * from the stored resource body. If the only paths for the resource's type are its <code>id</code> and
+	 * <code>meta</code>, the stored body is not decoded at all.
+	 * 
+	 * @param theParseOnlyPaths The paths to populate, or <code>null</code> to populate the complete resource
+	 */
+	<R extends IBaseResource> R toResource(Class<R> theResourceType, BaseHasResource theEntity, boolean theForHistoryOperation, Set<String> theParseOnlyPaths);
 }
@@ -115,6 +115,7 @@ import ca.uhn.fhir.model.primitive.IdDt;
 import ca.uhn.fhir.model.primitive.InstantDt;
 import ca.uhn.fhir.model.valueset.BundleEntrySearchModeEnum;
 import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.rest.api.SortOrderEnum;
 import ca.uhn.fhir.rest.api.SortSpec;
 import ca.uhn.fhir.rest.method.RestSearchParameterTypeEnum;
@@ -133,6 +134,8 @@ import ca.uhn.fhir.rest.param.UriParam;
 import ca.uhn.fhir.rest.param.UriParamQualifierEnum;
 import ca.uhn.fhir.rest.server.Constants;
 import ca.uhn.fhir.rest.server.IBundleProvider;
+import ca.uhn.fhir.rest.server.PerformancePhaseEnum;
+import ca.uhn.fhir.rest.server.RequestPerformance;
 import ca.uhn.fhir.rest.server.SimpleBundleProvider;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
@@ -485,7 +488,7 @@ public class SearchBuilder {
 
 		cq.where(builder.and(toArray(predicates)));
 
-		ourLog.info("Adding :missing qualifier for parameter '{}'", theParamName);
+		ourLog.debug("Adding :missing qualifier for parameter '{}'", theParamName);
 
 		TypedQuery<Long> q = myEntityManager.createQuery(cq);
 		doSetPids(q.getResultList());
@@ -1022,7 +1025,7 @@ public class SearchBuilder {
 					 * 
 					 * If we ever need to make this more efficient, lucene could certainly be used as an optimization.
 					 */
-					ourLog.info("Searching for candidate URI:above parameters for Resource[{}] param[{}]", myResourceName, theParamName);
+					ourLog.debug("Searching for candidate URI:above parameters for Resource[{}] param[{}]", myResourceName, theParamName);
 					Collection<String> candidates = myResourceIndexedSearchParamUriDao.findAllByResourceTypeAndParamName(myResourceName, theParamName);
 					List<String> toFind = new ArrayList<String>();
 					for (String next : candidates) {
@@ -1698,6 +1701,7 @@ public class SearchBuilder {
 		mySearchEntity.setTotalCount(-1);
 		mySearchEntity.setPreferredPageSize(myParams.getCount());
 		mySearchEntity.setSearchType(myParams.getEverythingMode() != null ? SearchTypeEnum.EVERYTHING : SearchTypeEnum.SEARCH);
+		mySearchEntity.setResourceType(myResourceName);
 		mySearchEntity.setLastUpdated(myParams.getLastUpdated());
 
 		for (Include next : myParams.getIncludes()) {
@@ -1716,6 +1720,15 @@ public class SearchBuilder {
 	}
 
 	public IBundleProvider search(final SearchParameterMap theParams) {
+		long queryStart = RequestPerformance.startTimer();
+		try {
+			return doSearch(theParams);
+		} finally {
+			RequestPerformance.stopTimer(PerformancePhaseEnum.QUERY, queryStart);
+		}
+	}
+
+	private IBundleProvider doSearch(final SearchParameterMap theParams) {
 		myParams = theParams;
 		StopWatch w = new StopWatch();
 
@@ -1822,7 +1835,7 @@ public class SearchBuilder {
 		// Handle sorting if any was provided
 		processSort(theParams);
 
-		ourLog.info(" {} on {} in {}ms", new Object[] { myResourceName, theParams, w.getMillisAndRestart() });
+		ourLog.debug(" {} on {} in {}ms", new Object[] { myResourceName, theParams, w.getMillisAndRestart() });
 		return doReturnProvider();
 	}
 
@@ -2053,7 +2066,9 @@ public class SearchBuilder {
 		List<Predicate> lastUpdatedPredicates = new ArrayList<Predicate>();
 		if (theLastUpdated != null) {
 			if (theLastUpdated.getLowerBoundAsInstant() != null) {
-				ourLog.info("LastUpdated lower bound: {}", new InstantDt(theLastUpdated.getLowerBoundAsInstant()));
+				if (ourLog.isDebugEnabled()) {
+					ourLog.debug("LastUpdated lower bound: {}", new InstantDt(theLastUpdated.getLowerBoundAsInstant()));
+				}
 				Predicate predicateLower = builder.greaterThanOrEqualTo(from.<Date> get("myUpdated"), theLastUpdated.getLowerBoundAsInstant());
 				lastUpdatedPredicates.add(predicateLower);
 			}
@@ -2086,6 +2101,16 @@ public class SearchBuilder {
 	}
 
 	public static void loadResourcesByPid(Collection<Long> theIncludePids, List<IBaseResource> theResourceListToPopulate, Set<Long> theRevIncludedPids, boolean theForHistoryOperation, EntityManager entityManager, FhirContext context, IDao theDao) {
+		loadResourcesByPid(theIncludePids, theResourceListToPopulate, theRevIncludedPids, theForHistoryOperation, entityManager, context, theDao, null);
+	}
+
+	/**
+	 * @param theParseOnlyPaths
+	 *           If not <code>null</code>, the paths (see {@link IParser#setParseOnlyPaths(Set)}) to populate in
+	 *           resources which matched the search. Included resources are always populated completely.
+	 */
+	public static void loadResourcesByPid(Collection<Long> theIncludePids, List<IBaseResource> theResourceListToPopulate, Set<Long> theRevIncludedPids, boolean theForHistoryOperation, EntityManager entityManager, FhirContext context, IDao theDao,
+			Set<String> theParseOnlyPaths) {
 		if (theIncludePids.isEmpty()) {
 			return;
 		}
@@ -2102,9 +2127,14 @@ public class SearchBuilder {
 		cq.where(from.get("myId").in(theIncludePids));
 		TypedQuery<ResourceTable> q = entityManager.createQuery(cq);
 
-		for (ResourceTable next : q.getResultList()) {
+		long queryStart = RequestPerformance.startTimer();
+		List<ResourceTable> resultList = q.getResultList();
+		RequestPerformance.stopTimer(PerformancePhaseEnum.QUERY, queryStart);
+
+		for (ResourceTable next : resultList) {
 			Class<? extends IBaseResource> resourceType = context.getResourceDefinition(next.getResourceType()).getImplementingClass();
-			IBaseResource resource = (IBaseResource) theDao.toResource(resourceType, next, theForHistoryOperation);
+			Set<String> parseOnlyPaths = theRevIncludedPids.contains(next.getId()) ? null : theParseOnlyPaths;
+			IBaseResource resource = theDao.toResource(resourceType, next, theForHistoryOperation, parseOnlyPaths);
 			Integer index = position.get(next.getId());
 			if (index == null) {
 				ourLog.warn("Got back unexpected resource PID {}", next.getId());
@@ -2297,11 +2327,13 @@ public class SearchBuilder {
 					// Load includes
 					pidsSubList = new ArrayList<Long>(pidsSubList);
 
+					long queryStart = RequestPerformance.startTimer();
 					Set<Long> revIncludedPids = new HashSet<Long>();
 					if (myParams.getEverythingMode() == null) {
 						revIncludedPids.addAll(loadReverseIncludes(myContext, myEntityManager, pidsSubList, myParams.getRevIncludes(), true, myParams.getLastUpdated()));
 					}
 					revIncludedPids.addAll(loadReverseIncludes(myContext, myEntityManager, pidsSubList, myParams.getIncludes(), false, myParams.getLastUpdated()));
+					RequestPerformance.stopTimer(PerformancePhaseEnum.QUERY, queryStart);
 
 					// Execute the query and make sure we return distinct results
 					List<IBaseResource> resources = new ArrayList<IBaseResource>();
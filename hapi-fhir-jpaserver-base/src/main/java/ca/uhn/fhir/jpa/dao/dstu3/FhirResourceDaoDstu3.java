@@ -20,13 +20,20 @@ package ca.uhn.fhir.jpa.dao.dstu3;
  * #L%
  */
 
+import static ca.uhn.fhir.jpa.util.TransactionUtil.flushNowAndAfterCompletion;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.hl7.fhir.dstu3.exceptions.FHIRException;
+import org.hl7.fhir.dstu3.hapi.validation.CachingValidationSupport;
+import org.hl7.fhir.dstu3.hapi.validation.FhirInstanceValidator;
 import org.hl7.fhir.dstu3.model.IdType;
 import org.hl7.fhir.dstu3.model.OperationOutcome;
 import org.hl7.fhir.dstu3.model.OperationOutcome.IssueSeverity;
@@ -65,6 +72,11 @@ import ca.uhn.fhir.validation.ValidationResult;
 public class FhirResourceDaoDstu3<T extends IAnyResource> extends BaseHapiFhirResourceDao<T> {
 
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(FhirResourceDaoDstu3.class);
+	private static final Set<String> VALIDATION_SUPPORT_RESOURCE_NAMES = new HashSet<String>(Arrays.asList("StructureDefinition", "ValueSet", "CodeSystem", "Questionnaire"));
+
+	@Autowired
+	@Qualifier("myCachingValidationSupportDstu3")
+	private CachingValidationSupport myCachingValidationSupport;
 
 	@Autowired()
 	@Qualifier("myInstanceValidatorDstu3")
@@ -84,6 +96,17 @@ public class FhirResourceDaoDstu3<T extends IAnyResource> extends BaseHapiFhirRe
 		return oo;
 	}
 
+	/**
+	 * Discards the resources the validator has looked up, so that a change to a resource it uses
+	 * (or a new resource it previously failed to find) is seen by the next validation
+	 */
+	private void flushValidationCaches() {
+		myCachingValidationSupport.flush();
+		if (myInstanceValidator instanceof FhirInstanceValidator) {
+			((FhirInstanceValidator) myInstanceValidator).flushCaches();
+		}
+	}
+
 	@Override
 	protected List<Object> getIncludeValues(FhirTerser theTerser, Include theInclude, IBaseResource theResource, RuntimeResourceDefinition theResourceDef) {
 		List<Object> values;
@@ -102,6 +125,23 @@ public class FhirResourceDaoDstu3<T extends IAnyResource> extends BaseHapiFhirRe
 		return values;
 	}
 
+	@Override
+	protected ResourceTable updateEntity(IBaseResource theResource, ResourceTable theEntity, boolean theUpdateHistory, Date theDeletedTimestampOrNull, boolean thePerformIndexing,
+			boolean theUpdateVersion, Date theUpdateTime, RequestDetails theRequestDetails) {
+		ResourceTable retVal = super.updateEntity(theResource, theEntity, theUpdateHistory, theDeletedTimestampOrNull, thePerformIndexing, theUpdateVersion, theUpdateTime, theRequestDetails);
+
+		if (VALIDATION_SUPPORT_RESOURCE_NAMES.contains(getResourceName())) {
+			flushNowAndAfterCompletion(new Runnable() {
+				@Override
+				public void run() {
+					flushValidationCaches();
+				}
+			});
+		}
+
+		return retVal;
+	}
+
 	@Override
 	public MethodOutcome validate(T theResource, IIdType theId, String theRawResource, EncodingEnum theEncoding, ValidationModeEnum theMode, String theProfile, RequestDetails theRequestDetails) {
 		ActionRequestDetails requestDetails = new ActionRequestDetails(theId, null, theResource, getContext(), theRequestDetails);
@@ -28,8 +28,12 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.measure.unit.NonSI;
 import javax.measure.unit.Unit;
@@ -62,6 +66,7 @@ import org.hl7.fhir.dstu3.model.SimpleQuantity;
 import org.hl7.fhir.dstu3.model.StringType;
 import org.hl7.fhir.dstu3.model.Timing;
 import org.hl7.fhir.dstu3.model.UriType;
+import org.hl7.fhir.dstu3.utils.CompiledExpression;
 import org.hl7.fhir.dstu3.utils.FHIRPathEngine;
 import org.hl7.fhir.dstu3.utils.IWorkerContext;
 import org.hl7.fhir.instance.model.api.IBase;
@@ -95,6 +100,9 @@ public class SearchParamExtractorDstu3 extends BaseSearchParamExtractor implemen
 
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(SearchParamExtractorDstu3.class);
 
+	private final ConcurrentMap<String, CompiledExpression> myCompiledPaths = new ConcurrentHashMap<String, CompiledExpression>();
+	private final Queue<FHIRPathEngine> myFhirPathEngines = new ConcurrentLinkedQueue<FHIRPathEngine>();
+
 	@Autowired
 	private org.hl7.fhir.dstu3.hapi.validation.IValidationSupport myValidationSupport;
 
@@ -698,21 +706,40 @@ public class SearchParamExtractorDstu3 extends BaseSearchParamExtractor implemen
 	 */
 	@Override
 	protected List<Object> extractValues(String thePaths, IBaseResource theResource) {
-		IWorkerContext worker = new org.hl7.fhir.dstu3.hapi.validation.HapiWorkerContext(getContext(), myValidationSupport);
-		FHIRPathEngine fp = new FHIRPathEngine(worker);
+		FHIRPathEngine fp = myFhirPathEngines.poll();
+		if (fp == null) {
+			IWorkerContext worker = new org.hl7.fhir.dstu3.hapi.validation.HapiWorkerContext(getContext(), myValidationSupport);
+			fp = new FHIRPathEngine(worker);
+		}
 
 		List<Object> values = new ArrayList<Object>();
 		try {
 			String[] nextPathsSplit = SPLIT.split(thePaths);
 			for (String nextPath : nextPathsSplit) {
-				values.addAll(fp.evaluate((Base) theResource, nextPath));
+				values.addAll(fp.evaluate((Base) theResource, compilePath(fp, nextPath)));
 			}
 		} catch (FHIRException e) {
 			throw new InternalErrorException(e);
+		} finally {
+			myFhirPathEngines.add(fp);
 		}
+
 		return values;
 	}
 
+	/**
+	 * Search parameter paths are parsed once and then shared, since the same few paths
+	 * are evaluated for every resource which is stored
+	 */
+	private CompiledExpression compilePath(FHIRPathEngine theEngine, String thePath) throws FHIRException {
+		CompiledExpression retVal = myCompiledPaths.get(thePath);
+		if (retVal == null) {
+			retVal = theEngine.compile(thePath);
+			myCompiledPaths.put(thePath, retVal);
+		}
+		return retVal;
+	}
+
 	@Override
 	public List<PathAndRef> extractResourceLinks(IBaseResource theResource, RuntimeSearchParam theNextSpDef) {
 		ArrayList<PathAndRef> retVal = new ArrayList<PathAndRef>();
@@ -730,9 +757,15 @@ public class SearchParamExtractorDstu3 extends BaseSearchParamExtractor implemen
 		return retVal;
 	}
 
+	@VisibleForTesting
+	int getPooledFhirPathEngineCountForTesting() {
+		return myFhirPathEngines.size();
+	}
+
 	@VisibleForTesting
 	void setValidationSupportForTesting(org.hl7.fhir.dstu3.hapi.validation.IValidationSupport theValidationSupport) {
 		myValidationSupport = theValidationSupport;
+		myFhirPathEngines.clear();
 	}
 
 	private static <T extends Enum<?>> String extractSystem(Enumeration<T> theBoundCode) {
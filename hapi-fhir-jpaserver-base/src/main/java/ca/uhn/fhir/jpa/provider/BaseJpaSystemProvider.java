@@ -35,15 +35,37 @@ import ca.uhn.fhir.rest.annotation.Since;
 import ca.uhn.fhir.rest.method.RequestDetails;
 import ca.uhn.fhir.rest.param.DateRangeParam;
 import ca.uhn.fhir.rest.server.IBundleProvider;
+import ca.uhn.fhir.rest.server.ServerPerformanceStatistics;
 
 public class BaseJpaSystemProvider<T, MT> extends BaseJpaProvider {
 
 	private IFhirSystemDao<T, MT> myDao;
+	private ServerPerformanceStatistics myPerformanceStatistics;
 
 	public BaseJpaSystemProvider() {
 		// nothing
 	}
 
+	/**
+	 * Returns the statistics reported by the <code>$perf-stats</code> operation, or <code>null</code>
+	 * if none have been configured (in which case the operation fails)
+	 * 
+	 * @since 1.6
+	 */
+	public ServerPerformanceStatistics getPerformanceStatistics() {
+		return myPerformanceStatistics;
+	}
+
+	/**
+	 * Sets the statistics reported by the <code>$perf-stats</code> operation. The same instance should be
+	 * registered with the server using {@link ca.uhn.fhir.rest.server.RestfulServer#registerPerformanceListener(ca.uhn.fhir.rest.server.IServerPerformanceListener)}
+	 * 
+	 * @since 1.6
+	 */
+	public void setPerformanceStatistics(ServerPerformanceStatistics thePerformanceStatistics) {
+		myPerformanceStatistics = thePerformanceStatistics;
+	}
+
 	@Required
 	public void setDao(IFhirSystemDao<T, MT> theDao) {
 		myDao = theDao;
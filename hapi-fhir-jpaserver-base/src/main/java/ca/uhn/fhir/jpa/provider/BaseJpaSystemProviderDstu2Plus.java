@@ -0,0 +1,88 @@
+package ca.uhn.fhir.jpa.provider;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.math.BigDecimal;
+
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseParameters;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.annotation.Operation;
+import ca.uhn.fhir.rest.annotation.OperationParam;
+import ca.uhn.fhir.rest.server.PerformancePhaseEnum;
+import ca.uhn.fhir.rest.server.ServerPerformanceStatistics;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.util.ParametersUtil;
+
+/**
+ * Base class for the system providers of FHIR versions which support operations (DSTU2 and later)
+ */
+public abstract class BaseJpaSystemProviderDstu2Plus<T, MT> extends BaseJpaSystemProvider<T, MT> {
+
+	/**
+	 * Returns the request timings collected by the {@link ServerPerformanceStatistics} configured
+	 * using {@link #setPerformanceStatistics(ServerPerformanceStatistics)}. Times are in milliseconds.
+	 * Counts are returned as decimals, since they may exceed the range of a FHIR integer.
+	 */
+	//@formatter:off
+	@Operation(name="$perf-stats", idempotent=true, returnParameters= {
+		@OperationParam(name="requestCount", typeName="decimal", min=1, max=1),
+		@OperationParam(name="requestTotalTime", typeName="decimal", min=1, max=1),
+		@OperationParam(name="requestMaxTime", typeName="decimal", min=1, max=1),
+		@OperationParam(name="sqlStatementCount", typeName="decimal", min=1, max=1),
+		@OperationParam(name="sqlStatementMaxCount", typeName="decimal", min=1, max=1),
+		@OperationParam(name="phase", min=0, max=OperationParam.MAX_UNLIMITED)
+	})
+	//@formatter:on
+	public IBaseParameters perfStats() {
+		ServerPerformanceStatistics stats = getPerformanceStatistics();
+		if (stats == null) {
+			throw new InvalidRequestException("Performance statistics are not enabled on this server");
+		}
+
+		FhirContext ctx = getDao().getContext();
+		IBaseParameters retVal = ParametersUtil.newInstance(ctx);
+		ParametersUtil.addParameterToParameters(ctx, retVal, ParametersUtil.createDecimal(ctx, BigDecimal.valueOf(stats.getRequestCount())), "requestCount");
+		ParametersUtil.addParameterToParameters(ctx, retVal, ParametersUtil.createDecimal(ctx, toMillis(stats.getRequestTotalTimeNanos())), "requestTotalTime");
+		ParametersUtil.addParameterToParameters(ctx, retVal, ParametersUtil.createDecimal(ctx, toMillis(stats.getRequestMaxTimeNanos())), "requestMaxTime");
+		ParametersUtil.addParameterToParameters(ctx, retVal, ParametersUtil.createDecimal(ctx, BigDecimal.valueOf(stats.getSqlStatementTotalCount())), "sqlStatementCount");
+		ParametersUtil.addParameterToParameters(ctx, retVal, ParametersUtil.createDecimal(ctx, BigDecimal.valueOf(stats.getSqlStatementMaxCount())), "sqlStatementMaxCount");
+		for (PerformancePhaseEnum next : PerformancePhaseEnum.values()) {
+			IBase phase = ParametersUtil.addParameter(ctx, retVal, "phase");
+			ParametersUtil.addPart(ctx, phase, "name", ParametersUtil.createCode(ctx, next.name().toLowerCase()));
+			ParametersUtil.addPart(ctx, phase, "requestCount", ParametersUtil.createDecimal(ctx, BigDecimal.valueOf(stats.getPhaseRequestCount(next))));
+			ParametersUtil.addPart(ctx, phase, "totalTime", ParametersUtil.createDecimal(ctx, toMillis(stats.getPhaseTotalTimeNanos(next))));
+			ParametersUtil.addPart(ctx, phase, "maxTime", ParametersUtil.createDecimal(ctx, toMillis(stats.getPhaseMaxTimeNanos(next))));
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Converts a time in nanoseconds into a number of milliseconds
+	 */
+	private static BigDecimal toMillis(long theNanos) {
+		return BigDecimal.valueOf(theNanos, 6);
+	}
+
+}
@@ -50,7 +50,7 @@ import ca.uhn.fhir.rest.method.RequestDetails;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
 
-public class JpaSystemProviderDstu2 extends BaseJpaSystemProvider<Bundle, MetaDt> {
+public class JpaSystemProviderDstu2 extends BaseJpaSystemProviderDstu2Plus<Bundle, MetaDt> {
 
 	@Autowired()
 	@Qualifier("mySystemDaoDstu2")
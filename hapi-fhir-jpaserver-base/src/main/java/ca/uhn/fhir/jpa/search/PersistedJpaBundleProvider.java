@@ -20,6 +20,8 @@ package ca.uhn.fhir.jpa.search;
  * #L%
  */
 
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -44,7 +46,10 @@ import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallback;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import ca.uhn.fhir.context.BaseRuntimeChildDefinition;
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.context.RuntimeSearchParam;
 import ca.uhn.fhir.jpa.dao.IDao;
 import ca.uhn.fhir.jpa.dao.SearchBuilder;
 import ca.uhn.fhir.jpa.dao.data.ISearchDao;
@@ -55,9 +60,12 @@ import ca.uhn.fhir.jpa.entity.Search;
 import ca.uhn.fhir.jpa.entity.SearchResult;
 import ca.uhn.fhir.jpa.entity.SearchTypeEnum;
 import ca.uhn.fhir.model.primitive.InstantDt;
-import ca.uhn.fhir.rest.server.IBundleProvider;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.api.SummaryEnum;
+import ca.uhn.fhir.rest.method.RestSearchParameterTypeEnum;
+import ca.uhn.fhir.rest.server.ISummaryAwareBundleProvider;
 
-public final class PersistedJpaBundleProvider implements IBundleProvider {
+public final class PersistedJpaBundleProvider implements ISummaryAwareBundleProvider {
 
 	private FhirContext myContext;
 	private IDao myDao;
@@ -122,7 +130,7 @@ public final class PersistedJpaBundleProvider implements IBundleProvider {
 		return retVal;
 	}
 
-	protected List<IBaseResource> doSearchOrEverythingInTransaction(final int theFromIndex, final int theToIndex) {
+	protected List<IBaseResource> doSearchOrEverythingInTransaction(final int theFromIndex, final int theToIndex, Set<String> theParseOnlyPaths) {
 
 		Pageable page = toPage(theFromIndex, theToIndex);
 		if (page == null) {
@@ -147,7 +155,7 @@ public final class PersistedJpaBundleProvider implements IBundleProvider {
 
 		// Execute the query and make sure we return distinct results
 		List<IBaseResource> resources = new ArrayList<IBaseResource>();
-		SearchBuilder.loadResourcesByPid(pidsSubList, resources, revIncludedPids, false, myEntityManager, myContext, myDao);
+		SearchBuilder.loadResourcesByPid(pidsSubList, resources, revIncludedPids, false, myEntityManager, myContext, myDao, theParseOnlyPaths);
 
 		return resources;
 	}
@@ -198,6 +206,22 @@ public final class PersistedJpaBundleProvider implements IBundleProvider {
 
 	@Override
 	public List<IBaseResource> getResources(final int theFromIndex, final int theToIndex) {
+		return doGetResources(theFromIndex, theToIndex, null, null);
+	}
+
+	/**
+	 * Only the parts of the resources being searched for which will be encoded are parsed (see
+	 * {@link IParser#setParseOnlyPaths(Set)}), along with the elements used by reference search parameters.
+	 * The latter are needed by interceptors which examine the returned resources, e.g. compartment rules in
+	 * <code>AuthorizationInterceptor</code>. If only the ID and/or metadata of the resources would be parsed
+	 * these are populated from the resource table without decoding the stored resources at all.
+	 */
+	@Override
+	public List<IBaseResource> getResources(int theFromIndex, int theToIndex, Set<SummaryEnum> theSummaryMode, Set<String> theElements) {
+		return doGetResources(theFromIndex, theToIndex, theSummaryMode, theElements);
+	}
+
+	private List<IBaseResource> doGetResources(final int theFromIndex, final int theToIndex, final Set<SummaryEnum> theSummaryMode, final Set<String> theElements) {
 		ensureDependenciesInjected();
 
 		TransactionTemplate template = new TransactionTemplate(myPlatformTransactionManager);
@@ -213,13 +237,88 @@ public final class PersistedJpaBundleProvider implements IBundleProvider {
 				case SEARCH:
 				case EVERYTHING:
 				default:
-					return doSearchOrEverythingInTransaction(theFromIndex, theToIndex);
+					Set<String> parseOnlyPaths = createParseOnlyPaths(theSummaryMode, theElements);
+					return doSearchOrEverythingInTransaction(theFromIndex, theToIndex, parseOnlyPaths);
 				}
 			}
 
 		});
 	}
 
+	/**
+	 * Adds the top level elements which the reference search parameters of the given resource type
+	 * point to. Interceptors see the returned resources before they are encoded (and before the view is
+	 * applied), so e.g. an <code>AuthorizationInterceptor</code> needs these to determine which
+	 * compartments a resource is in.
+	 */
+	private void addReferenceSearchParamPaths(String theResourceType, Set<String> thePaths) {
+		RuntimeResourceDefinition def = myContext.getResourceDefinition(theResourceType);
+		for (RuntimeSearchParam nextParam : def.getSearchParams()) {
+			if (nextParam.getParamType() != RestSearchParameterTypeEnum.REFERENCE) {
+				continue;
+			}
+			for (String nextPath : nextParam.getPathsSplit()) {
+				String[] parts = nextPath.split("\\.");
+				if (parts.length < 2 || !theResourceType.equals(parts[0].trim())) {
+					continue;
+				}
+				String element = parts[1].replaceAll("[^a-zA-Z].*$", "");
+				if (!element.isEmpty()) {
+					thePaths.add(theResourceType + "." + element);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the paths which must be parsed for the resources being searched for to be encoded
+	 * using the given view, or <code>null</code> if they must be parsed completely
+	 */
+	private Set<String> createParseOnlyPaths(Set<SummaryEnum> theSummaryMode, Set<String> theElements) {
+		String resourceType = mySearchEntity.getResourceType();
+		if (isBlank(resourceType)) {
+			return null;
+		}
+
+		Set<String> retVal = new HashSet<String>();
+		retVal.add(resourceType + ".meta");
+		if (theElements != null) {
+			boolean metadataOnly = true;
+			for (String next : theElements) {
+				retVal.add(resourceType + "." + next);
+				metadataOnly &= "id".equals(next) || "meta".equals(next);
+			}
+			if (!metadataOnly) {
+				// Local references in the selected elements may point to contained resources
+				retVal.add(resourceType + ".contained");
+			}
+		} else if (theSummaryMode != null && (theSummaryMode.contains(SummaryEnum.TRUE) || theSummaryMode.contains(SummaryEnum.TEXT))) {
+			RuntimeResourceDefinition def = myContext.getResourceDefinition(resourceType);
+			for (BaseRuntimeChildDefinition next : def.getChildren()) {
+				boolean encoded;
+				if (theSummaryMode.contains(SummaryEnum.TRUE)) {
+					encoded = next.isSummary();
+				} else {
+					encoded = next.getMin() > 0;
+				}
+				if (encoded) {
+					retVal.add(resourceType + "." + next.getElementName());
+				}
+			}
+			if (theSummaryMode.contains(SummaryEnum.TEXT)) {
+				retVal.add(resourceType + ".text");
+			}
+			retVal.add(resourceType + ".extension");
+			retVal.add(resourceType + ".modifierExtension");
+		} else {
+			return null;
+		}
+
+		addReferenceSearchParamPaths(resourceType, retVal);
+
+		return retVal;
+	}
+
 	public String getSearchUuid() {
 		return myUuid;
 	}
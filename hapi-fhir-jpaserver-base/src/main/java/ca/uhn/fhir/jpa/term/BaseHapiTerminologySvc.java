@@ -189,7 +189,7 @@ public abstract class BaseHapiTerminologySvc implements IHapiTerminologySvc {
 		return retVal;
 	}
 
-	private TermCodeSystemVersion findCurrentCodeSystemVersionForSystem(String theCodeSystem) {
+	protected TermCodeSystemVersion findCurrentCodeSystemVersionForSystem(String theCodeSystem) {
 		TermCodeSystem cs = getCodeSystem(theCodeSystem);
 		if (cs == null || cs.getCurrentVersion() == null) {
 			return null;
@@ -24,6 +24,7 @@ import java.util.List;
 
 import org.hl7.fhir.instance.hapi.validation.IValidationSupport;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 
 import ca.uhn.fhir.jpa.entity.TermCodeSystemVersion;
 import ca.uhn.fhir.rest.method.RequestDetails;
@@ -31,6 +32,7 @@ import ca.uhn.fhir.rest.method.RequestDetails;
 public class HapiTerminologySvcDstu2 extends BaseHapiTerminologySvc {
 
 	@Autowired
+	@Qualifier("myJpaValidationSupportDstu2")
 	private IValidationSupport myValidationSupport;
 
 
@@ -1,5 +1,6 @@
 package ca.uhn.fhir.jpa.term;
 
+import static ca.uhn.fhir.jpa.util.TransactionUtil.flushNowAndAfterCompletion;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 /*
@@ -33,6 +34,8 @@ import org.hibernate.search.jpa.FullTextEntityManager;
 import org.hibernate.search.jpa.FullTextQuery;
 import org.hibernate.search.query.dsl.BooleanJunction;
 import org.hibernate.search.query.dsl.QueryBuilder;
+import org.hl7.fhir.dstu3.hapi.validation.CodeSystemIndex;
+import org.hl7.fhir.dstu3.hapi.validation.CodeSystemIndexCache;
 import org.hl7.fhir.dstu3.hapi.validation.IValidationSupport;
 import org.hl7.fhir.dstu3.model.CodeSystem;
 import org.hl7.fhir.dstu3.model.CodeSystem.CodeSystemContentMode;
@@ -78,6 +81,8 @@ public class HapiTerminologySvcDstu3 extends BaseHapiTerminologySvc implements I
 	@Autowired
 	private ValueSetExpander myValueSetExpander;
 
+	private CodeSystemIndexCache myCodeSystemIndexCache = new CodeSystemIndexCache();
+
 	@Override
 	public List<VersionIndependentConcept> expandValueSet(String theValueSet) {
 		ValueSet source = new ValueSet();
@@ -121,8 +126,33 @@ public class HapiTerminologySvcDstu3 extends BaseHapiTerminologySvc implements I
 
 		theCodeSystemVersion.setResource(resource);
 		theCodeSystemVersion.setResourceVersionId(resource.getVersion());
-		super.storeNewCodeSystemVersion(codeSystemResourcePid, theSystem, theCodeSystemVersion);
+		storeNewCodeSystemVersion(codeSystemResourcePid, theSystem, theCodeSystemVersion);
+
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public void storeNewCodeSystemVersion(Long theCodeSystemResourcePid, final String theSystemUri, TermCodeSystemVersion theCodeSystemVersion) {
+		super.storeNewCodeSystemVersion(theCodeSystemResourcePid, theSystemUri, theCodeSystemVersion);
+
+		final CodeSystemIndexCache cache = myCodeSystemIndexCache;
+		if (cache != null) {
+			flushNowAndAfterCompletion(new Runnable() {
+				@Override
+				public void run() {
+					cache.flush(theSystemUri);
+				}
+			});
+		}
+	}
 
+	/**
+	 * Sets the cache holding the indexes used to validate codes. Default is a cache used only by
+	 * this service (i.e. one per Spring context). If set to <code>null</code>, each code is looked
+	 * up in the database.
+	 */
+	public void setCodeSystemIndexCache(CodeSystemIndexCache theCodeSystemIndexCache) {
+		myCodeSystemIndexCache = theCodeSystemIndexCache;
 	}
 
 	@Override
@@ -241,15 +271,60 @@ public class HapiTerminologySvcDstu3 extends BaseHapiTerminologySvc implements I
 	@CoverageIgnore
 	@Override
 	public CodeValidationResult validateCode(FhirContext theContext, String theCodeSystem, String theCode, String theDisplay) {
-		TermConcept code = super.findCode(theCodeSystem, theCode);
-		if (code != null) {
-			ConceptDefinitionComponent def = new ConceptDefinitionComponent();
-			def.setCode(code.getCode());
-			def.setDisplay(code.getDisplay());
-			return new CodeValidationResult(def);
+		CodeSystemIndex index = null;
+		if (myCodeSystemIndexCache != null) {
+			index = myCodeSystemIndexCache.getIndex(theCodeSystem, null, this, new ConceptLoader(theCodeSystem));
+		}
+
+		if (index != null) {
+			CodeValidationResult retVal = index.validateCode(theCode);
+			if (retVal != null) {
+				return retVal;
+			}
+		} else {
+			TermConcept code = super.findCode(theCodeSystem, theCode);
+			if (code != null) {
+				ConceptDefinitionComponent def = new ConceptDefinitionComponent();
+				def.setCode(code.getCode());
+				def.setDisplay(code.getDisplay());
+				return new CodeValidationResult(def);
+			}
 		}
 
 		return new CodeValidationResult(IssueSeverity.ERROR, "Unkonwn code {" + theCodeSystem + "}" + theCode);
 	}
 
+	/**
+	 * Loads the concepts of the current version of a code system from the database. The index is
+	 * dropped whenever a new version is stored.
+	 */
+	private class ConceptLoader implements CodeSystemIndexCache.IConceptLoader {
+		private final String mySystem;
+
+		ConceptLoader(String theSystem) {
+			mySystem = theSystem;
+		}
+
+		@Override
+		public int countConcepts() {
+			TermCodeSystemVersion csv = findCurrentCodeSystemVersionForSystem(mySystem);
+			if (csv == null) {
+				return 0;
+			}
+			Long retVal = myConceptDao.countByCodeSystemVersion(csv);
+			return retVal != null ? (int) Math.min(retVal, Integer.MAX_VALUE) : 0;
+		}
+
+		@Override
+		public CodeSystemIndex loadConcepts(int theConceptCount) {
+			CodeSystemIndex.Builder retVal = new CodeSystemIndex.Builder(mySystem, null, theConceptCount);
+			if (theConceptCount > 0) {
+				for (TermConcept next : findCodes(mySystem)) {
+					retVal.addConcept(next.getCode(), next.getDisplay());
+				}
+			}
+			return retVal.build();
+		}
+	}
+
 }
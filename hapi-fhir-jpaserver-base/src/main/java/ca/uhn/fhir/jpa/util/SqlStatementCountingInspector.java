@@ -0,0 +1,48 @@
+package ca.uhn.fhir.jpa.util;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import ca.uhn.fhir.rest.server.RequestPerformance;
+
+/**
+ * Hibernate statement inspector which counts the SQL statements executed while processing
+ * each request, so that they are reported to any {@link ca.uhn.fhir.rest.server.IServerPerformanceListener}
+ * registered with the server. Statements are not modified. To use this class, set the
+ * <code>hibernate.session_factory.statement_inspector</code> JPA property to its class name.
+ * 
+ * @since 1.6
+ */
+public class SqlStatementCountingInspector implements StatementInspector {
+
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	public String inspect(String theSql) {
+		RequestPerformance performance = RequestPerformance.getCurrent();
+		if (performance != null) {
+			performance.incrementSqlStatementCount();
+		}
+		return theSql;
+	}
+
+}
@@ -0,0 +1,55 @@
+package ca.uhn.fhir.jpa.util;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2016 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import ca.uhn.fhir.util.CoverageIgnore;
+
+public class TransactionUtil {
+
+	/**
+	 * Non instantiable
+	 */
+	@CoverageIgnore
+	private TransactionUtil() {
+		// nothing
+	}
+
+	/**
+	 * Runs the given flush right away and, if a transaction is active, once more when it completes.
+	 * Other threads can't see the changes made by the current transaction until it commits, and may
+	 * cache the previous state again before then.
+	 */
+	public static void flushNowAndAfterCompletion(final Runnable theFlush) {
+		theFlush.run();
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int theStatus) {
+					theFlush.run();
+				}
+			});
+		}
+	}
+
+}
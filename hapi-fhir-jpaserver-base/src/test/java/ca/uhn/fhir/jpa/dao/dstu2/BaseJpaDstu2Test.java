@@ -11,6 +11,7 @@ import javax.persistence.EntityManager;
 import org.apache.commons.io.IOUtils;
 import org.hibernate.search.jpa.FullTextEntityManager;
 import org.hibernate.search.jpa.Search;
+import org.hl7.fhir.instance.hapi.validation.CachingValidationSupport;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -82,6 +83,9 @@ public abstract class BaseJpaDstu2Test extends BaseJpaTest {
 	@Qualifier("myBundleDaoDstu2")
 	protected IFhirResourceDao<Bundle> myBundleDao;
 	@Autowired
+	@Qualifier("myCachingValidationSupportDstu2")
+	protected CachingValidationSupport myCachingValidationSupport;
+	@Autowired
 	@Qualifier("myConceptMapDaoDstu2")
 	protected IFhirResourceDao<ConceptMap> myConceptMapDao;
 	@Autowired
@@ -186,6 +190,7 @@ public abstract class BaseJpaDstu2Test extends BaseJpaTest {
 	public void beforePurgeDatabase() {
 		final EntityManager entityManager = this.myEntityManager;
 		purgeDatabase(entityManager, myTxManager);
+		myCachingValidationSupport.flush();
 	}
 
 	@Before
@@ -1,6 +1,9 @@
 package ca.uhn.fhir.jpa.dao.dstu2;
 
 import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
@@ -13,6 +16,7 @@ import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.Test;
 
+import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.jpa.dao.DaoConfig;
 import ca.uhn.fhir.model.api.IResource;
 import ca.uhn.fhir.model.api.ResourceMetadataKeyEnum;
@@ -264,4 +268,33 @@ public class FhirResourceDaoDstu2ValidateTest extends BaseJpaDstu2Test {
 		return retVal;
 	}
 
+	/**
+	 * Lookups which found nothing are cached, so writing a conformance resource must
+	 * flush the validator's cache or the new resource would not be seen
+	 */
+	@Test
+	public void testWritingConformanceResourcesFlushesValidationSupportCache() {
+		FhirContext riCtx = FhirContext.forDstu2Hl7Org();
+
+		String sdUrl = "http://example.com/StructureDefinition/testWritingConformanceResources";
+		assertNull(myCachingValidationSupport.fetchResource(riCtx, org.hl7.fhir.instance.model.StructureDefinition.class, sdUrl));
+		assertEquals(1, myCachingValidationSupport.getCacheSize());
+
+		StructureDefinition sd = new StructureDefinition();
+		sd.setUrl(sdUrl);
+		sd.setName("testWritingConformanceResources");
+		myStructureDefinitionDao.create(sd, mySrd);
+		assertEquals(0, myCachingValidationSupport.getCacheSize());
+		assertNotNull(myCachingValidationSupport.fetchResource(riCtx, org.hl7.fhir.instance.model.StructureDefinition.class, sdUrl));
+
+		String vsUrl = "http://example.com/ValueSet/testWritingConformanceResources";
+		assertNull(myCachingValidationSupport.fetchResource(riCtx, org.hl7.fhir.instance.model.ValueSet.class, vsUrl));
+		assertEquals(2, myCachingValidationSupport.getCacheSize());
+
+		ValueSet vs = new ValueSet();
+		vs.setUrl(vsUrl);
+		myValueSetDao.create(vs, mySrd);
+		assertEquals(0, myCachingValidationSupport.getCacheSize());
+	}
+
 }
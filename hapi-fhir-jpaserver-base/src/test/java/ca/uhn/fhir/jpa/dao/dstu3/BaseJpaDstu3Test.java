@@ -11,6 +11,8 @@ import javax.persistence.EntityManager;
 import org.apache.commons.io.IOUtils;
 import org.hibernate.search.jpa.FullTextEntityManager;
 import org.hibernate.search.jpa.Search;
+import org.hl7.fhir.dstu3.hapi.validation.CachingValidationSupport;
+import org.hl7.fhir.dstu3.hapi.validation.FhirInstanceValidator;
 import org.hl7.fhir.dstu3.hapi.validation.IValidationSupport;
 import org.hl7.fhir.dstu3.model.Appointment;
 import org.hl7.fhir.dstu3.model.AuditEvent;
@@ -81,6 +83,7 @@ import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.rest.method.MethodUtil;
 import ca.uhn.fhir.rest.server.interceptor.IServerInterceptor;
 import ca.uhn.fhir.util.TestUtil;
+import ca.uhn.fhir.validation.IValidatorModule;
 
 //@formatter:off
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -103,6 +106,9 @@ public abstract class BaseJpaDstu3Test extends BaseJpaTest {
 	@Qualifier("myBundleDaoDstu3")
 	protected IFhirResourceDao<Bundle> myBundleDao;
 	@Autowired
+	@Qualifier("myCachingValidationSupportDstu3")
+	protected CachingValidationSupport myCachingValidationSupport;
+	@Autowired
 	@Qualifier("myCarePlanDaoDstu3")
 	protected IFhirResourceDao<CarePlan> myCarePlanDao;
 	@Autowired
@@ -140,6 +146,9 @@ public abstract class BaseJpaDstu3Test extends BaseJpaTest {
 	@Autowired
 	@Qualifier("myImmunizationDaoDstu3")
 	protected IFhirResourceDao<Immunization> myImmunizationDao;
+	@Autowired
+	@Qualifier("myInstanceValidatorDstu3")
+	private IValidatorModule myInstanceValidator;
 	protected IServerInterceptor myInterceptor;
 	@Autowired
 	private JpaValidationSupportChainDstu3 myJpaValidationSupportChainDstu3;
@@ -241,6 +250,8 @@ public abstract class BaseJpaDstu3Test extends BaseJpaTest {
 	public void beforePurgeDatabase() {
 		final EntityManager entityManager = this.myEntityManager;
 		purgeDatabase(entityManager, myTxManager);
+		myCachingValidationSupport.flush();
+		((FhirInstanceValidator) myInstanceValidator).flushCaches();
 	}
 
 	@Before
@@ -8,14 +8,18 @@ import static org.hamcrest.Matchers.endsWith;
 import static org.hamcrest.Matchers.hasItems;
 import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -78,6 +82,7 @@ import ca.uhn.fhir.model.dstu2.composite.PeriodDt;
 import ca.uhn.fhir.model.primitive.DateTimeDt;
 import ca.uhn.fhir.rest.api.SortOrderEnum;
 import ca.uhn.fhir.rest.api.SortSpec;
+import ca.uhn.fhir.rest.api.SummaryEnum;
 import ca.uhn.fhir.rest.param.CompositeParam;
 import ca.uhn.fhir.rest.param.DateParam;
 import ca.uhn.fhir.rest.param.DateRangeParam;
@@ -97,6 +102,7 @@ import ca.uhn.fhir.rest.param.UriParam;
 import ca.uhn.fhir.rest.param.UriParamQualifierEnum;
 import ca.uhn.fhir.rest.server.Constants;
 import ca.uhn.fhir.rest.server.IBundleProvider;
+import ca.uhn.fhir.rest.server.ISummaryAwareBundleProvider;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import ca.uhn.fhir.util.TestUtil;
@@ -1653,6 +1659,71 @@ public class FhirResourceDaoDstu3SearchNoFtTest extends BaseJpaDstu3Test {
 
 	}
 
+	@Test
+	public void testSearchWithElementsParsesRequestedElements() {
+		Organization org = new Organization();
+		org.setName("ORG");
+		IIdType orgId = myOrganizationDao.create(org, mySrd).getId().toUnqualifiedVersionless();
+
+		Patient patient = new Patient();
+		patient.addName().addFamily("FAMILY");
+		patient.getMeta().addTag("urn:system", "tagcode", "TAG");
+		patient.setManagingOrganization(new Reference(orgId));
+		patient.setGender(AdministrativeGender.MALE);
+		IIdType patientId = myPatientDao.create(patient, mySrd).getId().toUnqualifiedVersionless();
+
+		SearchParameterMap params = new SearchParameterMap();
+		params.add(IAnyResource.SP_RES_ID, new StringParam(patientId.getIdPart()));
+		params.addInclude(Patient.INCLUDE_ORGANIZATION);
+		ISummaryAwareBundleProvider results = (ISummaryAwareBundleProvider) myPatientDao.search(params);
+
+		List<IBaseResource> resources = results.getResources(0, 1, Collections.singleton(SummaryEnum.FALSE), Collections.singleton("id"));
+		assertEquals(2, resources.size());
+		Patient loadedPatient = (Patient) resources.get(0);
+		assertEquals(patientId.getValue(), loadedPatient.getIdElement().toUnqualifiedVersionless().getValue());
+		assertEquals("1", loadedPatient.getIdElement().getVersionIdPart());
+		assertEquals("tagcode", loadedPatient.getMeta().getTag().get(0).getCode());
+		assertEquals(0, loadedPatient.getName().size());
+		// Elements used by reference search parameters are always parsed so that interceptors can check them
+		assertEquals(orgId.getValue(), loadedPatient.getManagingOrganization().getReference());
+
+		// _elements does not apply to included resources
+		assertEquals("ORG", ((Organization) resources.get(1)).getName());
+
+		// Other element sets parse only the requested elements
+		resources = results.getResources(0, 1, Collections.singleton(SummaryEnum.FALSE), new HashSet<String>(Arrays.asList("id", "name")));
+		loadedPatient = (Patient) resources.get(0);
+		assertEquals("FAMILY", loadedPatient.getName().get(0).getFamily().get(0).getValue());
+		assertEquals("tagcode", loadedPatient.getMeta().getTag().get(0).getCode());
+		assertNull(loadedPatient.getGender());
+		assertEquals("ORG", ((Organization) resources.get(1)).getName());
+
+		// No view parses the complete resource
+		resources = results.getResources(0, 1);
+		assertEquals(AdministrativeGender.MALE, ((Patient) resources.get(0)).getGender());
+	}
+
+	@Test
+	public void testSearchWithSummaryParsesSummaryElementsOnly() {
+		Patient patient = new Patient();
+		patient.addName().addFamily("FAMILY");
+		patient.addPhoto().setTitle("PHOTO");
+		IIdType patientId = myPatientDao.create(patient, mySrd).getId().toUnqualifiedVersionless();
+
+		SearchParameterMap params = new SearchParameterMap();
+		params.add(IAnyResource.SP_RES_ID, new StringParam(patientId.getIdPart()));
+		ISummaryAwareBundleProvider results = (ISummaryAwareBundleProvider) myPatientDao.search(params);
+
+		List<IBaseResource> resources = results.getResources(0, 1, Collections.singleton(SummaryEnum.TRUE), null);
+		Patient loadedPatient = (Patient) resources.get(0);
+		assertEquals(patientId.getValue(), loadedPatient.getIdElement().toUnqualifiedVersionless().getValue());
+		assertEquals("FAMILY", loadedPatient.getName().get(0).getFamily().get(0).getValue());
+		assertEquals(0, loadedPatient.getPhoto().size());
+
+		resources = results.getResources(0, 1, Collections.singleton(SummaryEnum.DATA), null);
+		assertEquals("PHOTO", ((Patient) resources.get(0)).getPhoto().get(0).getTitle());
+	}
+
 	@Test
 	public void testSearchWithEmptySort() {
 		SearchParameterMap criteriaUrl = new SearchParameterMap();
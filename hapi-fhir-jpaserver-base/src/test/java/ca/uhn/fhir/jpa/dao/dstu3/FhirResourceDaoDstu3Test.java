@@ -113,6 +113,8 @@ import ca.uhn.fhir.rest.param.StringParam;
 import ca.uhn.fhir.rest.param.TokenOrListParam;
 import ca.uhn.fhir.rest.param.TokenParam;
 import ca.uhn.fhir.rest.server.Constants;
+import ca.uhn.fhir.rest.server.EncodedResourceCache;
+import ca.uhn.fhir.rest.server.EncodingEnum;
 import ca.uhn.fhir.rest.server.IBundleProvider;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.exceptions.PreconditionFailedException;
@@ -153,6 +155,27 @@ public class FhirResourceDaoDstu3Test extends BaseJpaDstu3Test {
 		assertGone(id.toUnqualifiedVersionless());
 	}
 
+	@Test
+	public void testAddAndRemoveTagInvalidateEncodedResourceCache() {
+		EncodedResourceCache cache = new EncodedResourceCache();
+		myDaoConfig.setEncodedResourceCache(cache);
+		try {
+			Patient p = new Patient();
+			p.addName().addFamily("testAddAndRemoveTagInvalidateEncodedResourceCache");
+			IIdType id = myPatientDao.create(p, mySrd).getId().toUnqualified();
+
+			cache.put(id, EncodingEnum.JSON, false, null, new byte[] { 1 });
+			myPatientDao.addTag(id.toVersionless(), TagTypeEnum.TAG, "http://foo", "Cat", "Kittens");
+			assertNull(cache.get(id, EncodingEnum.JSON, false, null));
+
+			cache.put(id, EncodingEnum.JSON, false, null, new byte[] { 1 });
+			myPatientDao.removeTag(id.toVersionless(), TagTypeEnum.TAG, "http://foo", "Cat", mySrd);
+			assertNull(cache.get(id, EncodingEnum.JSON, false, null));
+		} finally {
+			myDaoConfig.setEncodedResourceCache(null);
+		}
+	}
+
 	@Test
 	public void testIndexConditionWithAllOnsetTypes() {
 		// DateTimeType.class, Age.class, Period.class, Range.class, StringType.class
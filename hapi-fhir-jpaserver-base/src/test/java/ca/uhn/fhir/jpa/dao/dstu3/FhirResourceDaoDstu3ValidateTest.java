@@ -1,6 +1,9 @@
 package ca.uhn.fhir.jpa.dao.dstu3;
 
 import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
@@ -9,12 +12,14 @@ import java.io.IOException;
 import org.apache.commons.io.IOUtils;
 import org.hl7.fhir.dstu3.model.Bundle;
 import org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.dstu3.model.CodeSystem;
 import org.hl7.fhir.dstu3.model.IdType;
 import org.hl7.fhir.dstu3.model.Observation;
 import org.hl7.fhir.dstu3.model.Observation.ObservationStatus;
 import org.hl7.fhir.dstu3.model.OperationOutcome;
 import org.hl7.fhir.dstu3.model.Organization;
 import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.Questionnaire;
 import org.hl7.fhir.dstu3.model.StructureDefinition;
 import org.hl7.fhir.dstu3.model.ValueSet;
 import org.hl7.fhir.instance.model.api.IBaseResource;
@@ -271,4 +276,49 @@ public class FhirResourceDaoDstu3ValidateTest extends BaseJpaDstu3Test {
 		}
 	}
 
+	/**
+	 * Lookups which found nothing are cached, so writing a conformance resource must
+	 * flush the validator's cache or the new resource would not be seen
+	 */
+	@Test
+	public void testWritingConformanceResourcesFlushesValidationSupportCache() {
+		String sdUrl = "http://example.com/StructureDefinition/testWritingConformanceResources";
+		assertNull(myCachingValidationSupport.fetchStructureDefinition(myFhirCtx, sdUrl));
+		assertEquals(1, myCachingValidationSupport.getCacheSize());
+
+		StructureDefinition sd = new StructureDefinition();
+		sd.setUrl(sdUrl);
+		sd.setName("testWritingConformanceResources");
+		myStructureDefinitionDao.create(sd, mySrd);
+		assertEquals(0, myCachingValidationSupport.getCacheSize());
+		assertNotNull(myCachingValidationSupport.fetchStructureDefinition(myFhirCtx, sdUrl));
+
+		String vsUrl = "http://example.com/ValueSet/testWritingConformanceResources";
+		assertNull(myCachingValidationSupport.fetchResource(myFhirCtx, ValueSet.class, vsUrl));
+		assertEquals(2, myCachingValidationSupport.getCacheSize());
+
+		ValueSet vs = new ValueSet();
+		vs.setUrl(vsUrl);
+		myValueSetDao.create(vs, mySrd);
+		assertEquals(0, myCachingValidationSupport.getCacheSize());
+
+		String csUrl = "http://example.com/CodeSystem/testWritingConformanceResources";
+		myCachingValidationSupport.fetchCodeSystem(myFhirCtx, csUrl);
+		assertEquals(1, myCachingValidationSupport.getCacheSize());
+
+		CodeSystem cs = new CodeSystem();
+		cs.setUrl(csUrl);
+		myCodeSystemDao.create(cs, mySrd);
+		assertEquals(0, myCachingValidationSupport.getCacheSize());
+
+		IIdType qId = new IdType("Questionnaire/testWritingConformanceResources");
+		assertNull(myCachingValidationSupport.fetchResource(myFhirCtx, Questionnaire.class, qId.getValue()));
+		assertEquals(1, myCachingValidationSupport.getCacheSize());
+
+		Questionnaire q = new Questionnaire();
+		q.setId(qId);
+		myQuestionnaireDao.update(q, mySrd);
+		assertEquals(0, myCachingValidationSupport.getCacheSize());
+	}
+
 }
@@ -32,6 +32,23 @@ public class SearchParamExtractorDstu3Test {
 		ourValidationSupport = new DefaultProfileValidationSupport();
 	}
 	
+	@Test
+	public void testInvalidPathReturnsEngineToPool() {
+		SearchParamExtractorDstu3 extractor = new SearchParamExtractorDstu3(ourCtx, ourValidationSupport);
+		for (int i = 0; i < 3; i++) {
+			try {
+				extractor.extractValues("Observation.code.notAFunction()", new Observation());
+				fail();
+			} catch (RuntimeException e) {
+				// good
+			}
+		}
+		assertEquals(1, extractor.getPooledFhirPathEngineCountForTesting());
+
+		extractor.extractValues("Observation.code", new Observation());
+		assertEquals(1, extractor.getPooledFhirPathEngineCountForTesting());
+	}
+
 	@Test
 	public void testParamWithOrInPath() {
 		Observation obs = new Observation();
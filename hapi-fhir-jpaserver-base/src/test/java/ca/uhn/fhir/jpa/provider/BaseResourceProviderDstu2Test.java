@@ -41,6 +41,7 @@ public abstract class BaseResourceProviderDstu2Test extends BaseJpaDstu2Test {
 	protected static IGenericClient ourClient;
 	protected static CloseableHttpClient ourHttpClient;
 	protected static int ourPort;
+	protected static RestfulServer ourRestServer;
 	private static Server ourServer;
 	protected static String ourServerBase;
 	private static GenericWebApplicationContext ourWebApplicationContext;
@@ -114,6 +115,7 @@ public abstract class BaseResourceProviderDstu2Test extends BaseJpaDstu2Test {
 			restServer.setServerConformanceProvider(confProvider);
 	
 			restServer.setPagingProvider(new FifoMemoryPagingProvider(10));
+			ourRestServer = restServer;
 	
 			Server server = new Server(ourPort);
 	
@@ -0,0 +1,120 @@
+package ca.uhn.fhir.jpa.provider;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import ca.uhn.fhir.model.dstu2.resource.Patient;
+import ca.uhn.fhir.model.primitive.IdDt;
+import ca.uhn.fhir.rest.server.Constants;
+import ca.uhn.fhir.rest.server.EncodedResourceCache;
+import ca.uhn.fhir.util.TestUtil;
+
+public class EncodedResourceCacheDstu2Test extends BaseResourceProviderDstu2Test {
+
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(EncodedResourceCacheDstu2Test.class);
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@Override
+	@After
+	public void after() {
+		super.after();
+		ourRestServer.setEncodedResourceCache(null);
+		myDaoConfig.setEncodedResourceCache(null);
+	}
+
+	private IdDt createPatient(String theFamily, int theNames, int theVersions) {
+		Patient patient = new Patient();
+		for (int i = 0; i < theNames; i++) {
+			patient.addName().addFamily(theFamily).addGiven("GIVEN" + i);
+		}
+		IdDt id = (IdDt) myPatientDao.create(patient, mySrd).getId();
+		for (int i = 1; i < theVersions; i++) {
+			patient.setId(id.toUnqualifiedVersionless());
+			patient.getNameFirstRep().getGivenFirstRep().setValue("VERSION" + i);
+			id = (IdDt) myPatientDao.update(patient, mySrd).getId();
+		}
+		return id.toUnqualifiedVersionless();
+	}
+
+	private String get(String theUrl) throws Exception {
+		CloseableHttpResponse response = ourHttpClient.execute(new HttpGet(ourServerBase + theUrl));
+		try {
+			assertEquals(200, response.getStatusLine().getStatusCode());
+			return IOUtils.toString(response.getEntity().getContent(), Constants.CHARSET_UTF8);
+		} finally {
+			response.close();
+		}
+	}
+
+	private void setCache(EncodedResourceCache theCache) {
+		ourRestServer.setEncodedResourceCache(theCache);
+		myDaoConfig.setEncodedResourceCache(theCache);
+	}
+
+	@Test
+	public void testVreadFromCacheMatchesUncached() throws Exception {
+		IdDt id = createPatient("testVreadFromCacheMatchesUncached", 5, 2);
+
+		String uncached = get("/" + id.getValue() + "/_history/1?_format=json");
+
+		EncodedResourceCache cache = new EncodedResourceCache();
+		setCache(cache);
+		assertEquals(uncached, get("/" + id.getValue() + "/_history/1?_format=json"));
+		assertEquals(uncached, get("/" + id.getValue() + "/_history/1?_format=json"));
+		assertEquals(1, cache.getHitCount());
+
+		String history = get("/" + id.getValue() + "/_history?_format=json");
+		assertThat(history, containsString("VERSION1"));
+		assertEquals(1, cache.getSize());
+	}
+
+	/**
+	 * Not a unit test - measures vread and instance history requests against the JPA server with and
+	 * without an {@link EncodedResourceCache}. Note that the cache only saves the cost of encoding the
+	 * response: every request still loads and parses the resource from the database, and history
+	 * bundles are never served from the cache.
+	 */
+	@Test
+	@Ignore
+	public void testBenchmarkVreadAndHistory() throws Exception {
+		int versions = 10;
+		int requests = 2000;
+		IdDt id = createPatient("testBenchmarkVreadAndHistory", 200, versions);
+
+		for (int pass = 0; pass < 3; pass++) {
+			for (boolean cached : new boolean[] { false, true }) {
+				setCache(cached ? new EncodedResourceCache() : null);
+
+				long start = System.nanoTime();
+				for (int i = 0; i < requests; i++) {
+					get("/" + id.getValue() + "/_history/" + ((i % versions) + 1) + "?_format=json");
+				}
+				long vreadMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+
+				start = System.nanoTime();
+				for (int i = 0; i < requests / 10; i++) {
+					get("/" + id.getValue() + "/_history?_format=json");
+				}
+				long historyMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+
+				ourLog.info("Pass {} cached={}: vread {}us/request, instance history ({} versions) {}us/request", new Object[] { pass, cached, vreadMicros / requests, versions, historyMicros / (requests / 10) });
+			}
+		}
+	}
+
+}
@@ -264,4 +264,56 @@ public class AuthorizationInterceptorResourceProviderDstu3Test extends BaseResou
 
 	}
 
+	@Test
+	public void testSearchWithElementsInCompartment() throws IOException {
+		Patient patient1 = new Patient();
+		patient1.addName().addFamily("testSearchWithElementsInCompartment1");
+		final IIdType patientId1 = ourClient.create().resource(patient1).execute().getId().toUnqualifiedVersionless();
+
+		Patient patient2 = new Patient();
+		patient2.addName().addFamily("testSearchWithElementsInCompartment2");
+		IIdType patientId2 = ourClient.create().resource(patient2).execute().getId().toUnqualifiedVersionless();
+
+		Observation obs1 = new Observation();
+		obs1.getCode().setText("testSearchWithElementsInCompartment");
+		obs1.setSubject(new Reference(patientId1));
+		ourClient.create().resource(obs1).execute();
+
+		Observation obs2 = new Observation();
+		obs2.getCode().setText("testSearchWithElementsInCompartment");
+		obs2.setSubject(new Reference(patientId2));
+		ourClient.create().resource(obs2).execute();
+
+		ourRestServer.registerInterceptor(new AuthorizationInterceptor(PolicyEnum.DENY) {
+			@Override
+			public List<IAuthRule> buildRuleList(RequestDetails theRequestDetails) {
+				//@formatter:off
+				return new RuleBuilder()
+					.allow("Rule 1").read().allResources().inCompartment("Patient", new IdDt(patientId1.getValue())).andThen()
+					.build();
+				//@formatter:on
+			}
+		});
+
+		// The subject must be parsed even though it is not encoded, or the rule can't be applied
+		HttpGet get = new HttpGet(ourServerBase + "/Observation?subject=" + patientId1.getValue() + "&_elements=code");
+		CloseableHttpResponse response = ourHttpClient.execute(get);
+		try {
+			String responseString = IOUtils.toString(response.getEntity().getContent(), Constants.CHARSET_UTF8);
+			assertEquals(responseString, 200, response.getStatusLine().getStatusCode());
+			Bundle bundle = myFhirCtx.newXmlParser().parseResource(Bundle.class, responseString);
+			assertEquals(1, bundle.getEntry().size());
+		} finally {
+			response.close();
+		}
+
+		get = new HttpGet(ourServerBase + "/Observation?code:text=testSearchWithElementsInCompartment&_elements=code");
+		response = ourHttpClient.execute(get);
+		try {
+			assertEquals(403, response.getStatusLine().getStatusCode());
+		} finally {
+			response.close();
+		}
+	}
+
 }
@@ -31,6 +31,7 @@ import org.hl7.fhir.dstu3.hapi.validation.FhirInstanceValidator;
 import org.hl7.fhir.dstu3.model.Bundle;
 import org.hl7.fhir.dstu3.model.Bundle.BundleType;
 import org.hl7.fhir.dstu3.model.Bundle.HTTPVerb;
+import org.hl7.fhir.dstu3.model.CodeType;
 import org.hl7.fhir.dstu3.model.DecimalType;
 import org.hl7.fhir.dstu3.model.Enumerations.AdministrativeGender;
 import org.hl7.fhir.dstu3.model.IdType;
@@ -39,6 +40,7 @@ import org.hl7.fhir.dstu3.model.OperationDefinition;
 import org.hl7.fhir.dstu3.model.OperationOutcome;
 import org.hl7.fhir.dstu3.model.Organization;
 import org.hl7.fhir.dstu3.model.Parameters;
+import org.hl7.fhir.dstu3.model.Parameters.ParametersParameterComponent;
 import org.hl7.fhir.dstu3.model.Patient;
 import org.hl7.fhir.dstu3.model.StringType;
 import org.hl7.fhir.instance.model.api.IIdType;
@@ -62,7 +64,9 @@ import ca.uhn.fhir.rest.client.IGenericClient;
 import ca.uhn.fhir.rest.server.Constants;
 import ca.uhn.fhir.rest.server.EncodingEnum;
 import ca.uhn.fhir.rest.server.FifoMemoryPagingProvider;
+import ca.uhn.fhir.rest.server.PerformancePhaseEnum;
 import ca.uhn.fhir.rest.server.RestfulServer;
+import ca.uhn.fhir.rest.server.ServerPerformanceStatistics;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
 import ca.uhn.fhir.rest.server.interceptor.RequestValidatingInterceptor;
@@ -240,6 +244,44 @@ public class SystemProviderDstu3Test extends BaseJpaDstu3Test {
 	@After
 	public void after() {
 		myRestServer.setUseBrowserFriendlyContentTypes(true);
+		mySystemProvider.setPerformanceStatistics(null);
+	}
+
+	@Test
+	public void testPerfStats() throws Exception {
+		ServerPerformanceStatistics stats = new ServerPerformanceStatistics();
+		myRestServer.registerPerformanceListener(stats);
+		mySystemProvider.setPerformanceStatistics(stats);
+
+		Patient p = new Patient();
+		p.addName().addFamily("testPerfStats");
+		IIdType id = myPatientDao.create(p, mySrd).getId().toUnqualifiedVersionless();
+		ourClient.read().resource(Patient.class).withId(id).execute();
+
+		Parameters output = ourClient.operation().onServer().named("$perf-stats").withNoParameters(Parameters.class).useHttpGet().execute();
+		ourLog.info(ourCtx.newXmlParser().setPrettyPrint(true).encodeResourceToString(output));
+
+		assertEquals("requestCount", output.getParameter().get(0).getName());
+		assertTrue(((DecimalType) output.getParameter().get(0).getValue()).getValue().longValue() >= 1);
+		assertEquals("requestTotalTime", output.getParameter().get(1).getName());
+		assertTrue(output.getParameter().get(1).getValue() instanceof DecimalType);
+
+		ParametersParameterComponent phase = output.getParameter().get(5);
+		assertEquals("phase", phase.getName());
+		assertEquals("name", phase.getPart().get(0).getName());
+		assertEquals(PerformancePhaseEnum.values()[0].name().toLowerCase(), ((CodeType) phase.getPart().get(0).getValue()).getValue());
+		assertEquals("requestCount", phase.getPart().get(1).getName());
+		assertTrue(phase.getPart().get(1).getValue() instanceof DecimalType);
+	}
+
+	@Test
+	public void testPerfStatsNotEnabled() throws Exception {
+		try {
+			ourClient.operation().onServer().named("$perf-stats").withNoParameters(Parameters.class).useHttpGet().execute();
+			fail();
+		} catch (InvalidRequestException e) {
+			assertThat(e.getMessage(), containsString("Performance statistics are not enabled on this server"));
+		}
 	}
 	
 	@SuppressWarnings("deprecation")
@@ -5,16 +5,26 @@ import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.greaterThan;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.hl7.fhir.dstu3.model.CodeSystem;
 import org.hl7.fhir.dstu3.model.CodeSystem.CodeSystemContentMode;
 import org.hl7.fhir.instance.model.api.IIdType;
 import org.junit.AfterClass;
 import org.junit.Test;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 
 import ca.uhn.fhir.jpa.dao.dstu3.BaseJpaDstu3Test;
 import ca.uhn.fhir.jpa.entity.ResourceTable;
@@ -70,6 +80,80 @@ public class TerminologySvcImplTest extends BaseJpaDstu3Test {
 		}
 	}
 
+	@Test
+	public void testCodeIndexIsFlushedWhenStoreRollsBack() {
+		final CodeSystem codeSystem = new CodeSystem();
+		codeSystem.setUrl(CS_URL);
+		codeSystem.setContent(CodeSystemContentMode.NOTPRESENT);
+		myCodeSystemDao.create(codeSystem, new ServletRequestDetails());
+		storeCodeSystemVersion(codeSystem, "codeA");
+
+		final IHapiTerminologySvcDstu3 termSvc = (IHapiTerminologySvcDstu3) myTermSvc;
+		assertTrue(termSvc.validateCode(myFhirCtx, CS_URL, "codeA", null).isOk());
+
+		newTxTemplate().execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus theStatus) {
+				storeCodeSystemVersion(codeSystem, "codeB");
+				// Indexes the version which is about to be rolled back
+				assertTrue(termSvc.validateCode(myFhirCtx, CS_URL, "codeB", null).isOk());
+				theStatus.setRollbackOnly();
+			}
+		});
+
+		assertTrue(termSvc.validateCode(myFhirCtx, CS_URL, "codeA", null).isOk());
+		assertFalse(termSvc.validateCode(myFhirCtx, CS_URL, "codeB", null).isOk());
+	}
+
+	@Test
+	public void testCodeIndexIsFlushedWhileValidatingConcurrently() throws Exception {
+		CodeSystem codeSystem = new CodeSystem();
+		codeSystem.setUrl(CS_URL);
+		codeSystem.setContent(CodeSystemContentMode.NOTPRESENT);
+		myCodeSystemDao.create(codeSystem, new ServletRequestDetails());
+		storeCodeSystemVersion(codeSystem, "code0");
+
+		final IHapiTerminologySvcDstu3 termSvc = (IHapiTerminologySvcDstu3) myTermSvc;
+		final AtomicBoolean stop = new AtomicBoolean();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		try {
+			for (int i = 0; i < 4; i++) {
+				futures.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						while (!stop.get()) {
+							termSvc.validateCode(myFhirCtx, CS_URL, "code0", null);
+						}
+					}
+				}));
+			}
+
+			for (int i = 1; i <= 5; i++) {
+				storeCodeSystemVersion(codeSystem, "code" + i);
+				assertTrue(termSvc.validateCode(myFhirCtx, CS_URL, "code" + i, null).isOk());
+				assertFalse(termSvc.validateCode(myFhirCtx, CS_URL, "code" + (i - 1), null).isOk());
+			}
+		} finally {
+			stop.set(true);
+			executor.shutdown();
+		}
+		for (Future<?> next : futures) {
+			next.get();
+		}
+	}
+
+	private void storeCodeSystemVersion(CodeSystem theCodeSystem, String theCode) {
+		IIdType id = myCodeSystemDao.update(theCodeSystem, new ServletRequestDetails()).getId().toUnqualified();
+		ResourceTable table = myResourceTableDao.findOne(id.getIdPartAsLong());
+
+		TermCodeSystemVersion cs = new TermCodeSystemVersion();
+		cs.setResource(table);
+		cs.setResourceVersionId(table.getVersion());
+		cs.getConcepts().add(new TermConcept(cs, theCode));
+		myTermSvc.storeNewCodeSystemVersion(table.getId(), CS_URL, cs);
+	}
+
 	@Test
 	public void testFindCodesAboveAndBelowUnknown() {
 		createCodeSystem();
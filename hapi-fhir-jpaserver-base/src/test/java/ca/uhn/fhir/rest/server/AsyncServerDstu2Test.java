@@ -0,0 +1,353 @@
+package ca.uhn.fhir.rest.server;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.api.IResource;
+import ca.uhn.fhir.model.dstu2.resource.Patient;
+import ca.uhn.fhir.model.primitive.IdDt;
+import ca.uhn.fhir.rest.annotation.IdParam;
+import ca.uhn.fhir.rest.annotation.Read;
+import ca.uhn.fhir.rest.method.RequestDetails;
+import ca.uhn.fhir.rest.server.exceptions.AuthenticationException;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import ca.uhn.fhir.rest.server.interceptor.InterceptorAdapter;
+import ca.uhn.fhir.util.PortUtil;
+import ca.uhn.fhir.util.TestUtil;
+
+public class AsyncServerDstu2Test {
+
+	private static final String WORKER_THREAD_PREFIX = "fhir-async-";
+	private static CloseableHttpClient ourClient;
+	private static FhirContext ourCtx = FhirContext.forDstu2();
+	private static ExecutorService ourExecutor;
+	private static List<String> ourInterceptorCalls = Collections.synchronizedList(new ArrayList<String>());
+	private static String ourLastThreadName;
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(AsyncServerDstu2Test.class);
+	private static int ourPort;
+	private static Server ourServer;
+	private static RestfulServer ourServlet;
+	private static long ourSleepMillis;
+
+	@Before
+	public void before() {
+		ourServlet.setAsyncExecutor(ourExecutor);
+		ourServlet.setAsyncTimeout(RestfulServer.DEFAULT_ASYNC_TIMEOUT);
+		ourInterceptorCalls.clear();
+		ourLastThreadName = null;
+		ourSleepMillis = 0;
+	}
+
+	@Test
+	public void testReadAsync() throws Exception {
+		HttpGet httpGet = new HttpGet("http://localhost:" + ourPort + "/Patient/123?_format=json");
+		HttpResponse status = ourClient.execute(httpGet);
+		String responseContent = IOUtils.toString(status.getEntity().getContent());
+		IOUtils.closeQuietly(status.getEntity().getContent());
+		ourLog.info(responseContent);
+
+		assertEquals(200, status.getStatusLine().getStatusCode());
+		assertThat(responseContent, containsString("\"family\":[\"FAMILY123\"]"));
+		assertThat(ourLastThreadName, startsWith(WORKER_THREAD_PREFIX));
+	}
+
+	@Test
+	public void testReadAsyncDisabled() throws Exception {
+		ourServlet.setAsyncExecutor(null);
+
+		HttpGet httpGet = new HttpGet("http://localhost:" + ourPort + "/Patient/123?_format=json");
+		HttpResponse status = ourClient.execute(httpGet);
+		IOUtils.closeQuietly(status.getEntity().getContent());
+
+		assertEquals(200, status.getStatusLine().getStatusCode());
+		assertThat(ourLastThreadName, not(startsWith(WORKER_THREAD_PREFIX)));
+	}
+
+	@Test
+	public void testReadAsyncException() throws Exception {
+		HttpGet httpGet = new HttpGet("http://localhost:" + ourPort + "/Patient/999?_format=json");
+		HttpResponse status = ourClient.execute(httpGet);
+		String responseContent = IOUtils.toString(status.getEntity().getContent());
+		IOUtils.closeQuietly(status.getEntity().getContent());
+		ourLog.info(responseContent);
+
+		assertEquals(404, status.getStatusLine().getStatusCode());
+		assertThat(responseContent, containsString("OperationOutcome"));
+		assertThat(responseContent, containsString("Unknown patient 999"));
+		assertEquals("[preProcessed, postProcessed, handleException]", ourInterceptorCalls.toString());
+	}
+
+	@Test
+	public void testReadAsyncInterceptorOrder() throws Exception {
+		HttpGet httpGet = new HttpGet("http://localhost:" + ourPort + "/Patient/123");
+		HttpResponse status = ourClient.execute(httpGet);
+		IOUtils.closeQuietly(status.getEntity().getContent());
+
+		assertEquals(200, status.getStatusLine().getStatusCode());
+		assertEquals("[preProcessed, postProcessed, outgoingResponse]", ourInterceptorCalls.toString());
+	}
+
+	@Test
+	public void testReadAsyncManyConcurrentRequests() throws Exception {
+		ourSleepMillis = 100;
+
+		ExecutorService clients = Executors.newFixedThreadPool(20);
+		try {
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < 40; i++) {
+				futures.add(clients.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						HttpResponse status = ourClient.execute(new HttpGet("http://localhost:" + ourPort + "/Patient/123"));
+						IOUtils.closeQuietly(status.getEntity().getContent());
+						return status.getStatusLine().getStatusCode();
+					}
+				}));
+			}
+			for (Future<Integer> next : futures) {
+				assertEquals(200, next.get().intValue());
+			}
+		} finally {
+			clients.shutdown();
+		}
+	}
+
+	@Test
+	public void testReadAsyncTimeout() throws Exception {
+		ourServlet.setAsyncTimeout(200);
+		ourSleepMillis = 1000;
+
+		HttpGet httpGet = new HttpGet("http://localhost:" + ourPort + "/Patient/123?_format=json");
+		long start = System.currentTimeMillis();
+		HttpResponse status = ourClient.execute(httpGet);
+		String responseContent = IOUtils.toString(status.getEntity().getContent());
+		IOUtils.closeQuietly(status.getEntity().getContent());
+		long delay = System.currentTimeMillis() - start;
+
+		assertEquals(503, status.getStatusLine().getStatusCode());
+		assertThat(responseContent, not(containsString("FAMILY123")));
+		assertThat(delay, lessThan(1000L));
+
+		// Let the worker finish writing into the timed out response, then make sure that
+		// none of it ends up in a later response
+		Thread.sleep(1500);
+		ourSleepMillis = 0;
+		for (int i = 0; i < 10; i++) {
+			status = ourClient.execute(new HttpGet("http://localhost:" + ourPort + "/Patient/456?_format=json"));
+			responseContent = IOUtils.toString(status.getEntity().getContent());
+			IOUtils.closeQuietly(status.getEntity().getContent());
+			assertEquals(200, status.getStatusLine().getStatusCode());
+			assertThat(responseContent, containsString("FAMILY456"));
+			assertThat(responseContent, not(containsString("FAMILY123")));
+		}
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() throws Exception {
+		ourServer.stop();
+		ourExecutor.shutdown();
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@BeforeClass
+	public static void beforeClass() throws Exception {
+		ourExecutor = createWorkerPool(20);
+
+		ourPort = PortUtil.findFreePort();
+		ourServer = new Server(ourPort);
+		ourServlet = new RestfulServer(ourCtx);
+		ourServlet.setResourceProviders(new DummyPatientResourceProvider());
+		ourServlet.registerInterceptor(new RecordingInterceptor());
+
+		ServletHandler proxyHandler = new ServletHandler();
+		ServletHolder servletHolder = new ServletHolder(ourServlet);
+		servletHolder.setAsyncSupported(true);
+		proxyHandler.addServletWithMapping(servletHolder, "/*");
+		ourServer.setHandler(proxyHandler);
+		ourServer.start();
+
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(5000, TimeUnit.MILLISECONDS);
+		connectionManager.setMaxTotal(100);
+		connectionManager.setDefaultMaxPerRoute(100);
+		HttpClientBuilder builder = HttpClientBuilder.create();
+		builder.setConnectionManager(connectionManager);
+		ourClient = builder.build();
+	}
+
+	private static ExecutorService createWorkerPool(int theThreads) {
+		final AtomicInteger count = new AtomicInteger();
+		return Executors.newFixedThreadPool(theThreads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable theRunnable) {
+				Thread retVal = new Thread(theRunnable, WORKER_THREAD_PREFIX + count.incrementAndGet());
+				retVal.setDaemon(true);
+				return retVal;
+			}
+		});
+	}
+
+	/**
+	 * Load test harness: runs a Jetty server with a small container thread pool in front of a provider
+	 * which simulates slow database queries, first processing requests on the container threads and
+	 * then asynchronously, and reports throughput along with the peak number of busy container threads.
+	 */
+	public static void main(String[] args) throws Exception {
+		int containerThreads = 16;
+		int workerThreads = 64;
+		int clientThreads = 64;
+		int requests = 640;
+		ourSleepMillis = 50;
+
+		for (boolean async : new boolean[] { false, true, false, true }) {
+			int port = PortUtil.findFreePort();
+			QueuedThreadPool containerPool = new QueuedThreadPool(containerThreads, containerThreads);
+			Server server = new Server(containerPool);
+			ServerConnector connector = new ServerConnector(server);
+			connector.setPort(port);
+			server.addConnector(connector);
+
+			RestfulServer servlet = new RestfulServer(ourCtx);
+			servlet.setResourceProviders(new DummyPatientResourceProvider());
+			ExecutorService workers = createWorkerPool(workerThreads);
+			if (async) {
+				servlet.setAsyncExecutor(workers);
+			}
+
+			ServletHandler handler = new ServletHandler();
+			ServletHolder holder = new ServletHolder(servlet);
+			holder.setAsyncSupported(true);
+			handler.addServletWithMapping(holder, "/*");
+			server.setHandler(handler);
+			server.start();
+
+			PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(5000, TimeUnit.MILLISECONDS);
+			connectionManager.setMaxTotal(clientThreads);
+			connectionManager.setDefaultMaxPerRoute(clientThreads);
+			final CloseableHttpClient client = HttpClientBuilder.create().setConnectionManager(connectionManager).build();
+			final String url = "http://localhost:" + port + "/Patient/123";
+
+			ExecutorService clients = Executors.newFixedThreadPool(clientThreads);
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			int peakBusy = 0;
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < requests; i++) {
+				futures.add(clients.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						HttpResponse status = client.execute(new HttpGet(url));
+						IOUtils.closeQuietly(status.getEntity().getContent());
+						return status.getStatusLine().getStatusCode();
+					}
+				}));
+			}
+			int failures = 0;
+			for (Future<Integer> next : futures) {
+				while (!next.isDone()) {
+					peakBusy = Math.max(peakBusy, containerPool.getBusyThreads());
+					Thread.sleep(1);
+				}
+				if (next.get() != 200) {
+					failures++;
+				}
+			}
+			long delay = System.currentTimeMillis() - start;
+
+			ourLog.info("{} - {} requests took {} ms ({} req/sec) - {} failures - peak busy container threads {}/{}", new Object[] { async ? "Async" : "Sync", requests, delay, (requests * 1000L) / Math.max(delay, 1), failures, peakBusy, containerThreads });
+
+			clients.shutdown();
+			client.close();
+			server.stop();
+			workers.shutdown();
+		}
+	}
+
+	public static class DummyPatientResourceProvider implements IResourceProvider {
+
+		@Override
+		public Class<? extends IResource> getResourceType() {
+			return Patient.class;
+		}
+
+		@Read
+		public Patient read(@IdParam IdDt theId) throws InterruptedException {
+			ourLastThreadName = Thread.currentThread().getName();
+			if (ourSleepMillis > 0) {
+				Thread.sleep(ourSleepMillis);
+			}
+			if ("999".equals(theId.getIdPart())) {
+				throw new ResourceNotFoundException("Unknown patient " + theId.getIdPart());
+			}
+			Patient retVal = new Patient();
+			retVal.setId(theId.getIdPart());
+			retVal.addName().addFamily("FAMILY" + theId.getIdPart());
+			return retVal;
+		}
+
+	}
+
+	public static class RecordingInterceptor extends InterceptorAdapter {
+
+		@Override
+		public boolean handleException(RequestDetails theRequestDetails, BaseServerResponseException theException, HttpServletRequest theServletRequest, HttpServletResponse theServletResponse) {
+			ourInterceptorCalls.add("handleException");
+			return true;
+		}
+
+		@Override
+		public boolean incomingRequestPostProcessed(RequestDetails theRequestDetails, HttpServletRequest theRequest, HttpServletResponse theResponse) throws AuthenticationException {
+			ourInterceptorCalls.add("postProcessed");
+			return true;
+		}
+
+		@Override
+		public boolean incomingRequestPreProcessed(HttpServletRequest theRequest, HttpServletResponse theResponse) {
+			ourInterceptorCalls.add("preProcessed");
+			return true;
+		}
+
+		@Override
+		public boolean outgoingResponse(RequestDetails theRequestDetails, IBaseResource theResponseObject, HttpServletRequest theServletRequest, HttpServletResponse theServletResponse) throws AuthenticationException {
+			ourInterceptorCalls.add("outgoingResponse");
+			return true;
+		}
+
+	}
+
+}
@@ -13,6 +13,7 @@ import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.FhirVersionEnum;
 import ca.uhn.fhir.jpa.dao.DaoConfig;
 import ca.uhn.fhir.jpa.dao.IFhirSystemDao;
+import ca.uhn.fhir.jpa.provider.BaseJpaSystemProvider;
 import ca.uhn.fhir.jpa.provider.JpaConformanceProviderDstu1;
 import ca.uhn.fhir.jpa.provider.JpaConformanceProviderDstu2;
 import ca.uhn.fhir.jpa.provider.JpaSystemProviderDstu1;
@@ -25,9 +26,11 @@ import ca.uhn.fhir.model.dstu2.composite.MetaDt;
 import ca.uhn.fhir.model.dstu2.resource.Bundle;
 import ca.uhn.fhir.narrative.DefaultThymeleafNarrativeGenerator;
 import ca.uhn.fhir.rest.server.ETagSupportEnum;
+import ca.uhn.fhir.rest.server.EncodedResourceCache;
 import ca.uhn.fhir.rest.server.EncodingEnum;
 import ca.uhn.fhir.rest.server.IResourceProvider;
 import ca.uhn.fhir.rest.server.RestfulServer;
+import ca.uhn.fhir.rest.server.ServerPerformanceStatistics;
 import ca.uhn.fhir.rest.server.interceptor.IServerInterceptor;
 
 public class JpaServerDemo extends RestfulServer {
@@ -75,7 +78,7 @@ public class JpaServerDemo extends RestfulServer {
 		 * The system provider implements non-resource-type methods, such as
 		 * transaction, and global history.
 		 */
-		Object systemProvider;
+		BaseJpaSystemProvider<?, ?> systemProvider;
 		if (fhirVersion == FhirVersionEnum.DSTU1) {
 			systemProvider = myAppCtx.getBean("mySystemProviderDstu1", JpaSystemProviderDstu1.class);
 		} else if (fhirVersion == FhirVersionEnum.DSTU2) {
@@ -139,6 +142,28 @@ public class JpaServerDemo extends RestfulServer {
 		 */
 		setPagingProvider(myAppCtx.getBean(DatabaseBackedPagingProvider.class));
 
+		/*
+		 * -- New in HAPI FHIR 1.6 --
+		 * The JPA server never changes the content of a resource version without
+		 * assigning a new version ID, so the encoded form of each version can be cached
+		 * and reused by later reads. The DaoConfig is given the same cache so that it
+		 * can invalidate entries when $meta-add or $meta-delete modify tags in place.
+		 */
+		EncodedResourceCache encodedResourceCache = new EncodedResourceCache();
+		setEncodedResourceCache(encodedResourceCache);
+		myAppCtx.getBean(DaoConfig.class).setEncodedResourceCache(encodedResourceCache);
+
+		/*
+		 * -- New in HAPI FHIR 1.6 --
+		 * Collect timings for each request, broken down into phases (parsing, database
+		 * queries, encoding, etc.) and report them using the $perf-stats operation. The
+		 * number of SQL statements executed by each request is also counted, since
+		 * FhirServerConfig.java configures Hibernate with a SqlStatementCountingInspector.
+		 */
+		ServerPerformanceStatistics performanceStatistics = new ServerPerformanceStatistics();
+		registerPerformanceListener(performanceStatistics);
+		systemProvider.setPerformanceStatistics(performanceStatistics);
+
 		/*
 		 * Load interceptors for the server from Spring (these are defined in FhirServerConfig.java)
 		 */
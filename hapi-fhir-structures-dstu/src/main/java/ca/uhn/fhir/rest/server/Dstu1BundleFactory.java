@@ -28,7 +28,6 @@ import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 
-import org.apache.commons.lang3.Validate;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IIdType;
 import org.hl7.fhir.instance.model.api.IPrimitiveType;
@@ -211,8 +210,7 @@ public class Dstu1BundleFactory implements IVersionSpecificBundleFactory {
 				searchId = theSearchId;
 			} else {
 				if (theResult.size() > numToReturn) {
-					searchId = pagingProvider.storeResultList(theResult);
-					Validate.notNull(searchId, "Paging provider returned null searchId");
+					searchId = RestfulServerUtils.storeResultList(pagingProvider, theResult);
 				}
 			}
 		}
@@ -29,7 +29,6 @@ import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 
-import org.apache.commons.lang3.Validate;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IIdType;
 import org.hl7.fhir.instance.model.api.IPrimitiveType;
@@ -335,8 +334,7 @@ public class Dstu2BundleFactory implements IVersionSpecificBundleFactory {
 				searchId = theSearchId;
 			} else {
 				if (theResult.size() > numToReturn) {
-					searchId = pagingProvider.storeResultList(theResult);
-					Validate.notNull(searchId, "Paging provider returned null searchId");
+					searchId = RestfulServerUtils.storeResultList(pagingProvider, theResult);
 				}
 			}
 		}
@@ -384,7 +382,7 @@ public class Dstu2BundleFactory implements IVersionSpecificBundleFactory {
 		myBundle.addLink().setRelation(Constants.LINK_SELF).setUrl(theCompleteUrl);
 		myBundle.getTypeElement().setValueAsString(theBundleType.getCode());
 
-		if (theBundleType.equals(BundleTypeEnum.TRANSACTION)) {
+		if (theBundleType.equals(BundleTypeEnum.TRANSACTION) || theBundleType.equals(BundleTypeEnum.BATCH)) {
 			for (IBaseResource nextBaseRes : theResources) {
 				IResource next = (IResource) nextBaseRes;
 				Entry nextEntry = myBundle.addEntry();
@@ -1,6 +1,17 @@
 package ca.uhn.fhir.ctx;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.AfterClass;
 import org.junit.Test;
@@ -8,6 +19,7 @@ import org.junit.Test;
 import ca.uhn.fhir.context.BaseRuntimeChildDatatypeDefinition;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.model.dstu2.resource.Observation;
 import ca.uhn.fhir.model.dstu2.resource.Patient;
 import ca.uhn.fhir.model.dstu2.valueset.AdministrativeGenderEnum;
 import ca.uhn.fhir.model.dstu2.valueset.MaritalStatusCodesEnum;
@@ -17,6 +29,7 @@ public class FhirContextDstu2Test {
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(FhirContextDstu2Test.class);
 
 	private static FhirContext ourCtx = FhirContext.forDstu2();
+	private static final List<String> RESOURCE_NAMES = Arrays.asList("Patient", "Observation", "Encounter", "Practitioner", "Organization", "DiagnosticReport", "Condition", "MedicationOrder", "Bundle", "ValueSet", "Questionnaire", "QuestionnaireResponse", "AuditEvent", "Appointment", "Location", "Device");
 
 	@AfterClass
 	public static void afterClassClearContext() {
@@ -44,4 +57,99 @@ public class FhirContextDstu2Test {
 		assertEquals(MaritalStatusCodesEnum.class, genderChild.getBoundEnumType());
 	}
 
+	@Test
+	public void testScanAllResourceTypes() {
+		FhirContext ctx = FhirContext.forDstu2();
+		int initialCount = ctx.getElementDefinitions().size();
+
+		ctx.scanAllResourceTypes();
+		int count = ctx.getElementDefinitions().size();
+		assertTrue(count > initialCount);
+
+		RuntimeResourceDefinition def = ctx.getResourceDefinition("Observation");
+		assertSame(def, ctx.getResourceDefinition(Observation.class));
+		assertEquals(count, ctx.getElementDefinitions().size());
+	}
+
+	@Test
+	public void testConcurrentLookupsOnNewContext() throws Exception {
+		final FhirContext ctx = FhirContext.forDstu2();
+		final CountDownLatch latch = new CountDownLatch(1);
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<List<RuntimeResourceDefinition>>> futures = new ArrayList<Future<List<RuntimeResourceDefinition>>>();
+			for (int i = 0; i < 8; i++) {
+				futures.add(executor.submit(new Callable<List<RuntimeResourceDefinition>>() {
+					@Override
+					public List<RuntimeResourceDefinition> call() throws Exception {
+						latch.await();
+						List<RuntimeResourceDefinition> retVal = new ArrayList<RuntimeResourceDefinition>();
+						for (String next : RESOURCE_NAMES) {
+							retVal.add(ctx.getResourceDefinition(next));
+						}
+						return retVal;
+					}
+				}));
+			}
+			latch.countDown();
+
+			for (Future<List<RuntimeResourceDefinition>> next : futures) {
+				List<RuntimeResourceDefinition> defs = next.get();
+				for (int i = 0; i < RESOURCE_NAMES.size(); i++) {
+					assertEquals(RESOURCE_NAMES.get(i), defs.get(i).getName());
+					assertSame(ctx.getResourceDefinition(RESOURCE_NAMES.get(i)), defs.get(i));
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Contention benchmark: many threads resolving many resource types against a new context,
+	 * with and without scanning all types up front
+	 */
+	public static void main(String[] args) throws Exception {
+		int threads = 32;
+		int lookups = 20000;
+		for (int round = 0; round < 3; round++) {
+			benchmark("Lazy", FhirContext.forDstu2(), false, threads, lookups);
+			benchmark("Preloaded", FhirContext.forDstu2(), true, threads, lookups);
+		}
+	}
+
+	private static void benchmark(String theName, final FhirContext theCtx, boolean thePreload, int theThreads, final int theLookups) throws Exception {
+		long start = System.currentTimeMillis();
+		if (thePreload) {
+			theCtx.scanAllResourceTypes();
+		}
+		long preload = System.currentTimeMillis() - start;
+
+		ExecutorService executor = Executors.newFixedThreadPool(theThreads);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int i = 0; i < theThreads; i++) {
+				final int offset = i;
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						for (int j = 0; j < theLookups; j++) {
+							theCtx.getResourceDefinition(RESOURCE_NAMES.get((j + offset) % RESOURCE_NAMES.size()));
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<?> next : futures) {
+				next.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		long delay = System.currentTimeMillis() - start;
+		ourLog.info("{} - Took {} ms ({} ms preloading) for {} lookups", new Object[] { theName, delay, preload, theThreads * theLookups });
+	}
+
 }
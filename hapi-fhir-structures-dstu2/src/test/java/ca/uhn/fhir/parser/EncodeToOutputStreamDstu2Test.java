@@ -0,0 +1,202 @@
+package ca.uhn.fhir.parser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.api.Bundle;
+import ca.uhn.fhir.model.api.BundleEntry;
+import ca.uhn.fhir.model.dstu2.resource.Observation;
+import ca.uhn.fhir.model.dstu2.resource.Patient;
+import ca.uhn.fhir.rest.server.Constants;
+import ca.uhn.fhir.util.TestUtil;
+
+public class EncodeToOutputStreamDstu2Test {
+	private static final FhirContext ourCtx = FhirContext.forDstu2();
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(EncodeToOutputStreamDstu2Test.class);
+
+	private static Patient createPatient(int theIndex) {
+		Patient p = new Patient();
+		p.setId("Patient/" + theIndex);
+		p.addIdentifier().setSystem("urn:system").setValue("ID" + theIndex);
+		p.addName().addFamily("FAMILY éè <&> " + theIndex).addGiven("GIVEN 中文");
+		p.getText().setDivAsString("<div>Some narrative &amp; <b>markup</b> é</div>");
+		return p;
+	}
+
+	private static Bundle createBundle(int theCount) {
+		Bundle bundle = new Bundle();
+		for (int i = 0; i < theCount; i++) {
+			BundleEntry entry = bundle.addEntry();
+			entry.setResource(createPatient(i));
+			entry.getLinkSelf().setValue("http://foo/Patient/" + i);
+		}
+		return bundle;
+	}
+
+	private static byte[] encodeBundleToBytes(IParser theParser, Bundle theBundle) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		theParser.encodeBundleToOutputStream(theBundle, bos);
+		return bos.toByteArray();
+	}
+
+	private static byte[] encodeResourceToBytes(IParser theParser, Patient thePatient) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		theParser.encodeResourceToOutputStream(thePatient, bos);
+		return bos.toByteArray();
+	}
+
+	@Test
+	public void testEncodeBundleJson() throws Exception {
+		Bundle bundle = createBundle(3);
+		IParser parser = ourCtx.newJsonParser();
+
+		byte[] bytes = encodeBundleToBytes(parser, bundle);
+		assertArrayEquals(parser.encodeBundleToString(bundle).getBytes(Constants.CHARSET_UTF8), bytes);
+	}
+
+	@Test
+	public void testEncodeBundleXml() throws Exception {
+		Bundle bundle = createBundle(3);
+		IParser parser = ourCtx.newXmlParser();
+
+		byte[] bytes = encodeBundleToBytes(parser, bundle);
+		assertArrayEquals(parser.encodeBundleToString(bundle).getBytes(Constants.CHARSET_UTF8), bytes);
+	}
+
+	@Test
+	public void testEncodeResourceJson() throws Exception {
+		Patient p = createPatient(1);
+		IParser parser = ourCtx.newJsonParser();
+
+		byte[] bytes = encodeResourceToBytes(parser, p);
+		assertArrayEquals(parser.encodeResourceToString(p).getBytes(Constants.CHARSET_UTF8), bytes);
+
+		Patient parsed = parser.parseResource(Patient.class, new String(bytes, Constants.CHARSET_UTF8));
+		assertEquals("FAMILY éè <&> 1", parsed.getNameFirstRep().getFamilyAsSingleString());
+		assertEquals("GIVEN 中文", parsed.getNameFirstRep().getGivenAsSingleString());
+	}
+
+	@Test
+	public void testEncodeResourceJsonPrettyPrint() throws Exception {
+		Patient p = createPatient(1);
+		IParser parser = ourCtx.newJsonParser().setPrettyPrint(true);
+
+		byte[] bytes = encodeResourceToBytes(parser, p);
+		assertArrayEquals(parser.encodeResourceToString(p).getBytes(Constants.CHARSET_UTF8), bytes);
+	}
+
+	@Test
+	public void testEncodeResourceXml() throws Exception {
+		Patient p = createPatient(1);
+		IParser parser = ourCtx.newXmlParser();
+
+		byte[] bytes = encodeResourceToBytes(parser, p);
+		assertArrayEquals(parser.encodeResourceToString(p).getBytes(Constants.CHARSET_UTF8), bytes);
+
+		Patient parsed = parser.parseResource(Patient.class, new String(bytes, Constants.CHARSET_UTF8));
+		assertEquals("FAMILY éè <&> 1", parsed.getNameFirstRep().getFamilyAsSingleString());
+		assertEquals("GIVEN 中文", parsed.getNameFirstRep().getGivenAsSingleString());
+	}
+
+	@Test
+	public void testEncodeResourceXmlPrettyPrint() throws Exception {
+		Patient p = createPatient(1);
+		IParser parser = ourCtx.newXmlParser().setPrettyPrint(true);
+
+		byte[] bytes = encodeResourceToBytes(parser, p);
+		assertArrayEquals(parser.encodeResourceToString(p).getBytes(Constants.CHARSET_UTF8), bytes);
+	}
+
+	@Test
+	public void testEncodeResourceDoesNotCloseStream() throws Exception {
+		final boolean[] closed = new boolean[1];
+		ByteArrayOutputStream bos = new ByteArrayOutputStream() {
+			@Override
+			public void close() throws IOException {
+				closed[0] = true;
+			}
+		};
+
+		ourCtx.newJsonParser().encodeResourceToOutputStream(new Observation(), bos);
+		ourCtx.newXmlParser().encodeResourceToOutputStream(new Observation(), bos);
+		assertEquals(false, closed[0]);
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	/**
+	 * Compares the writer based and byte based encoding paths on a large
+	 * search response, reporting throughput and allocation per response
+	 */
+	public static void main(String[] args) throws Exception {
+		Bundle bundle = createBundle(500);
+		int passes = 200;
+
+		for (IParser parser : new IParser[] { ourCtx.newJsonParser(), ourCtx.newXmlParser() }) {
+			benchmark(parser, bundle, passes, false);
+			benchmark(parser, bundle, passes, true);
+		}
+	}
+
+	private static void benchmark(IParser theParser, Bundle theBundle, int thePasses, boolean theUseOutputStream) throws IOException {
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		// Warm up
+		for (int i = 0; i < thePasses; i++) {
+			encodeForBenchmark(theParser, theBundle, theUseOutputStream);
+		}
+
+		long bytes = 0;
+		long startAlloc = threadBean.getThreadAllocatedBytes(threadId);
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < thePasses; i++) {
+			bytes += encodeForBenchmark(theParser, theBundle, theUseOutputStream);
+		}
+		long delay = System.currentTimeMillis() - start;
+		long alloc = threadBean.getThreadAllocatedBytes(threadId) - startAlloc;
+
+		ourLog.info("{} {} - Took {} ms - {} bytes/sec - {} bytes allocated / response", new Object[] { theParser.getEncoding(), theUseOutputStream ? "OutputStream" : "Writer", delay, (bytes * 1000L) / Math.max(delay, 1), alloc / thePasses });
+	}
+
+	private static int encodeForBenchmark(IParser theParser, Bundle theBundle, boolean theUseOutputStream) throws IOException {
+		CountingOutputStream out = new CountingOutputStream();
+		if (theUseOutputStream) {
+			theParser.encodeBundleToOutputStream(theBundle, out);
+		} else {
+			java.io.Writer writer = new java.io.OutputStreamWriter(out, Constants.CHARSET_UTF8);
+			theParser.encodeBundleToWriter(theBundle, writer);
+			writer.flush();
+		}
+		return out.myCount;
+	}
+
+	/**
+	 * Discards its output (as a servlet container would hand it off to the socket)
+	 */
+	private static class CountingOutputStream extends java.io.OutputStream {
+		private int myCount;
+
+		@Override
+		public void write(byte[] theB, int theOff, int theLen) {
+			myCount += theLen;
+		}
+
+		@Override
+		public void write(int theB) {
+			myCount++;
+		}
+	}
+
+}
@@ -0,0 +1,176 @@
+package ca.uhn.fhir.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.api.ExtensionDt;
+import ca.uhn.fhir.model.dstu2.composite.QuantityDt;
+import ca.uhn.fhir.model.dstu2.composite.ResourceReferenceDt;
+import ca.uhn.fhir.model.dstu2.resource.Bundle;
+import ca.uhn.fhir.model.dstu2.resource.Bundle.Entry;
+import ca.uhn.fhir.model.dstu2.resource.DiagnosticReport;
+import ca.uhn.fhir.model.dstu2.resource.Observation;
+import ca.uhn.fhir.model.dstu2.resource.Patient;
+import ca.uhn.fhir.model.dstu2.valueset.ObservationStatusEnum;
+import ca.uhn.fhir.model.primitive.StringDt;
+import ca.uhn.fhir.util.TestUtil;
+
+public class ParseOnlyPathsDstu2Test {
+	private static final FhirContext ourCtx = FhirContext.forDstu2();
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(ParseOnlyPathsDstu2Test.class);
+
+	private static Observation createObservation() {
+		Observation obs = new Observation();
+		obs.setId("Observation/1");
+		obs.getText().setDivAsString("<div>Some narrative</div>");
+		obs.addIdentifier().setSystem("urn:system").setValue("ID1");
+		obs.setStatus(ObservationStatusEnum.FINAL);
+		obs.getCode().addCoding().setSystem("http://loinc.org").setCode("1234-5");
+		obs.getCode().setText("CODE TEXT");
+		obs.setValue(new QuantityDt().setValue(123).setUnit("mg"));
+		obs.setSubject(new ResourceReferenceDt("Patient/123"));
+		obs.setComments("Some comments");
+		obs.addUndeclaredExtension(new ExtensionDt(false, "http://foo", new StringDt("EXT")));
+		return obs;
+	}
+
+	private static Set<String> paths(String... thePaths) {
+		return new HashSet<String>(Arrays.asList(thePaths));
+	}
+
+	private void assertOnlyRequestedPathsParsed(IParser theParser) {
+		String encoded = theParser.encodeResourceToString(createObservation());
+
+		theParser.setParseOnlyPaths(paths("Observation.code", "Observation.value", "Observation.subject"));
+		Observation obs = theParser.parseResource(Observation.class, encoded);
+
+		assertEquals("1", obs.getIdElement().getIdPart());
+		assertEquals("1234-5", obs.getCode().getCodingFirstRep().getCode());
+		assertEquals("CODE TEXT", obs.getCode().getText());
+		assertEquals("123", ((QuantityDt) obs.getValue()).getValueElement().getValueAsString());
+		assertEquals("Patient/123", obs.getSubject().getReference().getValue());
+
+		assertNull(obs.getStatus());
+		assertNull(obs.getComments());
+		assertTrue(obs.getText().isEmpty());
+		assertTrue(obs.getIdentifier().isEmpty());
+		assertTrue(obs.getUndeclaredExtensions().isEmpty());
+	}
+
+	@Test
+	public void testParseOnlyPathsJson() {
+		assertOnlyRequestedPathsParsed(ourCtx.newJsonParser());
+	}
+
+	@Test
+	public void testParseOnlyPathsXml() {
+		assertOnlyRequestedPathsParsed(ourCtx.newXmlParser());
+	}
+
+	@Test
+	public void testParseOnlyPathsNested() {
+		String encoded = ourCtx.newJsonParser().encodeResourceToString(createObservation());
+
+		IParser parser = ourCtx.newJsonParser().setParseOnlyPaths(paths("Observation.code.text", "*.extension"));
+		Observation obs = parser.parseResource(Observation.class, encoded);
+
+		assertEquals("CODE TEXT", obs.getCode().getText());
+		assertTrue(obs.getCode().getCoding().isEmpty());
+		assertTrue(obs.getSubject().isEmpty());
+		assertEquals(1, obs.getUndeclaredExtensions().size());
+		assertEquals("EXT", ((StringDt) obs.getUndeclaredExtensions().get(0).getValue()).getValue());
+	}
+
+	@Test
+	public void testParseOnlyPathsOtherResourceTypesParsedCompletely() {
+		Patient pt = new Patient();
+		pt.setId("Patient/123");
+		pt.addName().addFamily("FAMILY");
+
+		Bundle bundle = new Bundle();
+		bundle.addEntry().setResource(pt);
+		bundle.addEntry().setResource(createObservation());
+		String encoded = ourCtx.newXmlParser().encodeResourceToString(bundle);
+
+		IParser parser = ourCtx.newXmlParser().setParseOnlyPaths(paths("Observation.status"));
+		bundle = parser.parseResource(Bundle.class, encoded);
+
+		assertEquals(2, bundle.getEntry().size());
+		Patient parsedPt = (Patient) bundle.getEntry().get(0).getResource();
+		assertEquals("FAMILY", parsedPt.getNameFirstRep().getFamilyAsSingleString());
+		Observation parsedObs = (Observation) bundle.getEntry().get(1).getResource();
+		assertEquals(ObservationStatusEnum.FINAL.getCode(), parsedObs.getStatus());
+		assertTrue(parsedObs.getCode().isEmpty());
+	}
+
+	@Test
+	public void testParseOnlyPathsLargeBundle() throws Exception {
+		String input = IOUtils.toString(ParseOnlyPathsDstu2Test.class.getResourceAsStream("/diagnosticreport-examples-lab-text(72ac8493-52ac-41bd-8d5d-7258c289b5ea).xml"));
+
+		IParser parser = ourCtx.newXmlParser().setParseOnlyPaths(paths("DiagnosticReport.status", "DiagnosticReport.subject"));
+		Bundle bundle = parser.parseResource(Bundle.class, input);
+
+		assertFalse(bundle.getEntry().isEmpty());
+		for (Entry next : bundle.getEntry()) {
+			DiagnosticReport dr = (DiagnosticReport) next.getResource();
+			assertFalse(dr.getIdElement().isEmpty());
+			assertNotNull(dr.getStatus());
+			assertFalse(dr.getSubject().isEmpty());
+			assertTrue(dr.getText().isEmpty());
+			assertTrue(dr.getContained().getContainedResources().isEmpty());
+			assertTrue(dr.getPerformer().isEmpty());
+		}
+	}
+
+	@Test(expected = DataFormatException.class)
+	public void testParseOnlyPathsStillRequiresWellFormedInput() {
+		String encoded = ourCtx.newXmlParser().encodeResourceToString(createObservation());
+		encoded = encoded.replace("</comments>", "");
+		encoded = encoded.replace("<comments value=\"Some comments\"/>", "<comments value=\"Some comments\">");
+
+		IParser parser = ourCtx.newXmlParser().setParseOnlyPaths(paths("Observation.status"));
+		parser.parseResource(Observation.class, encoded);
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	public static void main(String[] args) throws Exception {
+		String input = IOUtils.toString(ParseOnlyPathsDstu2Test.class.getResourceAsStream("/diagnosticreport-examples-lab-text(72ac8493-52ac-41bd-8d5d-7258c289b5ea).xml"));
+		String inputJson = ourCtx.newJsonParser().encodeResourceToString(ourCtx.newXmlParser().parseResource(Bundle.class, input));
+		Set<String> paths = paths("DiagnosticReport.status", "DiagnosticReport.subject");
+
+		int passes = 200;
+		for (int round = 0; round < 2; round++) {
+			benchmark("XML full", ourCtx.newXmlParser(), input, passes);
+			benchmark("XML partial", ourCtx.newXmlParser().setParseOnlyPaths(paths), input, passes);
+			benchmark("JSON full", ourCtx.newJsonParser(), inputJson, passes);
+			benchmark("JSON partial", ourCtx.newJsonParser().setParseOnlyPaths(paths), inputJson, passes);
+		}
+	}
+
+	private static void benchmark(String theName, IParser theParser, String theInput, int thePasses) {
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < thePasses; i++) {
+			theParser.parseResource(Bundle.class, theInput);
+		}
+		long delay = System.currentTimeMillis() - start;
+		float per = (float) delay / (float) thePasses;
+		ourLog.info("{} - Took {} ms - {}ms / pass", new Object[] { theName, delay, per });
+	}
+
+}
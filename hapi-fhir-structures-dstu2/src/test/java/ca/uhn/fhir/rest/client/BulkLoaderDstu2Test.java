@@ -0,0 +1,337 @@
+package ca.uhn.fhir.rest.client;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.dstu2.resource.Bundle;
+import ca.uhn.fhir.model.dstu2.resource.Bundle.Entry;
+import ca.uhn.fhir.model.dstu2.resource.Patient;
+import ca.uhn.fhir.model.dstu2.valueset.BundleTypeEnum;
+import ca.uhn.fhir.rest.client.exceptions.FhirClientConnectionException;
+import ca.uhn.fhir.rest.annotation.Transaction;
+import ca.uhn.fhir.rest.annotation.TransactionParam;
+import ca.uhn.fhir.rest.server.RestfulServer;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.util.PortUtil;
+import ca.uhn.fhir.util.TestUtil;
+
+public class BulkLoaderDstu2Test {
+
+	private static final List<String> ourBundleTypes = Collections.synchronizedList(new ArrayList<String>());
+	private static final List<Integer> ourBundleSizes = Collections.synchronizedList(new ArrayList<Integer>());
+	private static FhirContext ourCtx = FhirContext.forDstu2();
+	private static volatile int ourDelayMillis;
+	private static final AtomicInteger ourFailuresRemaining = new AtomicInteger();
+	private static final AtomicInteger ourInFlight = new AtomicInteger();
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(BulkLoaderDstu2Test.class);
+	private static final AtomicInteger ourMaxInFlight = new AtomicInteger();
+	private static final AtomicInteger ourSlowRequestsRemaining = new AtomicInteger();
+	private static int ourPort;
+	private static Server ourServer;
+
+	private IGenericClient myClient;
+
+	@Before
+	public void before() {
+		ourBundleSizes.clear();
+		ourBundleTypes.clear();
+		ourDelayMillis = 0;
+		ourFailuresRemaining.set(0);
+		ourMaxInFlight.set(0);
+		ourSlowRequestsRemaining.set(0);
+		myClient = ourCtx.newRestfulGenericClient("http://localhost:" + ourPort);
+	}
+
+	@Test
+	public void testBatchCountsFailedEntries() {
+		List<Patient> patients = createPatients(5);
+		patients.get(2).getNameFirstRep().getFamilyFirstRep().setValue("BADENTRY");
+
+		BulkLoadOutcome outcome = myClient.bulkLoader().setBundleType(ca.uhn.fhir.model.valueset.BundleTypeEnum.BATCH).load(patients);
+
+		assertEquals(Arrays.asList("batch"), ourBundleTypes);
+		assertEquals(1, outcome.getBundleCount());
+		assertEquals(5, outcome.getResourceCount());
+		assertEquals(1, outcome.getFailedEntryCount());
+		assertFalse(outcome.isSuccessful());
+	}
+
+	@Test
+	public void testBatchOfCreatesIsNotRetried() {
+		ourFailuresRemaining.set(1);
+
+		BulkLoadOutcome outcome = myClient.bulkLoader().setBundleType(ca.uhn.fhir.model.valueset.BundleTypeEnum.BATCH).setRetryDelayMillis(1).load(createPatients(3));
+
+		assertEquals(0, outcome.getBundleCount());
+		assertEquals(0, outcome.getRetryCount());
+		assertEquals(1, outcome.getFailedBundles().size());
+		assertEquals(500, outcome.getFailedBundles().get(0).getException().getStatusCode());
+	}
+
+	@Test
+	public void testBatchOfUpdatesIsRetried() {
+		ourFailuresRemaining.set(1);
+		List<Patient> patients = createPatients(3);
+		for (int i = 0; i < patients.size(); i++) {
+			patients.get(i).setId("Patient/" + i);
+		}
+
+		BulkLoadOutcome outcome = myClient.bulkLoader().setBundleType(ca.uhn.fhir.model.valueset.BundleTypeEnum.BATCH).setRetryDelayMillis(1).load(patients);
+
+		assertEquals(Arrays.asList("batch"), ourBundleTypes);
+		assertEquals(1, outcome.getBundleCount());
+		assertEquals(1, outcome.getRetryCount());
+		assertTrue(outcome.isSuccessful());
+	}
+
+	@Test
+	public void testConnectionRefusedIsRetried() throws Exception {
+		IGenericClient client = ourCtx.newRestfulGenericClient("http://localhost:" + PortUtil.findFreePort());
+
+		BulkLoadOutcome outcome = client.bulkLoader().setMaximumRetries(2).setRetryDelayMillis(1).load(createPatients(3));
+
+		assertEquals(0, outcome.getBundleCount());
+		assertEquals(2, outcome.getRetryCount());
+		assertEquals(1, outcome.getFailedBundles().size());
+		assertThat(outcome.getFailedBundles().get(0).getException(), instanceOf(FhirClientConnectionException.class));
+	}
+
+	@Test
+	public void testReadTimeoutIsNotRetriedForCreates() {
+		ourSlowRequestsRemaining.set(1);
+		FhirContext ctx = FhirContext.forDstu2();
+		ctx.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
+		ctx.getRestfulClientFactory().setSocketTimeout(200);
+		IGenericClient client = ctx.newRestfulGenericClient("http://localhost:" + ourPort);
+
+		// The server may have committed the transaction after the client gave up waiting for it
+		BulkLoadOutcome outcome = client.bulkLoader().setRetryDelayMillis(1).load(createPatients(3));
+
+		assertEquals(0, outcome.getBundleCount());
+		assertEquals(0, outcome.getRetryCount());
+		assertEquals(1, outcome.getFailedBundles().size());
+		assertThat(outcome.getFailedBundles().get(0).getException(), instanceOf(FhirClientConnectionException.class));
+	}
+
+	@Test
+	public void testReadTimeoutIsRetriedForUpdates() {
+		ourSlowRequestsRemaining.set(1);
+		FhirContext ctx = FhirContext.forDstu2();
+		ctx.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
+		ctx.getRestfulClientFactory().setSocketTimeout(200);
+		IGenericClient client = ctx.newRestfulGenericClient("http://localhost:" + ourPort);
+		List<Patient> patients = createPatients(3);
+		for (int i = 0; i < patients.size(); i++) {
+			patients.get(i).setId("Patient/" + i);
+		}
+
+		BulkLoadOutcome outcome = client.bulkLoader().setRetryDelayMillis(1).load(patients);
+
+		assertEquals(1, outcome.getBundleCount());
+		assertEquals(1, outcome.getRetryCount());
+		assertTrue(outcome.isSuccessful());
+	}
+
+	@Test
+	public void testClientErrorIsNotRetried() {
+		List<Patient> patients = createPatients(3);
+		patients.get(1).getNameFirstRep().getFamilyFirstRep().setValue("INVALID");
+
+		BulkLoadOutcome outcome = myClient.bulkLoader().setMaximumBundleSize(2).setRetryDelayMillis(1).load(patients);
+
+		assertEquals(1, outcome.getBundleCount());
+		assertEquals(1, outcome.getResourceCount());
+		assertEquals(0, outcome.getRetryCount());
+		assertEquals(1, outcome.getFailedBundles().size());
+		assertEquals(400, outcome.getFailedBundles().get(0).getException().getStatusCode());
+		assertEquals(2, outcome.getFailedBundles().get(0).getResources().size());
+		assertFalse(outcome.isSuccessful());
+	}
+
+	@Test
+	public void testLoadBoundsRequestsInFlight() {
+		ourDelayMillis = 50;
+
+		BulkLoadOutcome outcome = myClient.bulkLoader().setMaximumBundleSize(1).setMaximumInFlightRequests(3).load(createPatients(12));
+
+		assertEquals(12, outcome.getBundleCount());
+		assertThat(ourMaxInFlight.get(), lessThanOrEqualTo(3));
+		assertTrue(outcome.isSuccessful());
+	}
+
+	@Test
+	public void testLoadGroupsKeepsGroupsTogether() {
+		List<List<Patient>> groups = new ArrayList<List<Patient>>();
+		groups.add(createPatients(3));
+		groups.add(createPatients(3));
+		groups.add(createPatients(1));
+		groups.add(createPatients(7));
+
+		BulkLoadOutcome outcome = myClient.bulkLoader().setMaximumBundleSize(5).setMaximumInFlightRequests(1).loadGroups(groups);
+
+		// A group larger than the maximum bundle size is sent in a bundle of its own
+		assertThat(ourBundleSizes, contains(3, 4, 7));
+		assertEquals(14, outcome.getResourceCount());
+		assertEquals(3, outcome.getBundleCount());
+	}
+
+	@Test
+	public void testLoadSplitsIntoBundles() {
+		BulkLoadOutcome outcome = myClient.bulkLoader().load(createPatients(250));
+
+		assertThat(ourBundleSizes, containsInAnyOrder(100, 100, 50));
+		assertEquals(Arrays.asList("transaction", "transaction", "transaction"), ourBundleTypes);
+		assertEquals(3, outcome.getBundleCount());
+		assertEquals(250, outcome.getResourceCount());
+		assertEquals(0, outcome.getRetryCount());
+		assertTrue(outcome.isSuccessful());
+	}
+
+	@Test
+	public void testServerErrorIsRetried() {
+		ourFailuresRemaining.set(2);
+
+		BulkLoadOutcome outcome = myClient.bulkLoader().setRetryDelayMillis(1).load(createPatients(10));
+
+		assertEquals(1, outcome.getBundleCount());
+		assertEquals(10, outcome.getResourceCount());
+		assertEquals(2, outcome.getRetryCount());
+		assertTrue(outcome.isSuccessful());
+	}
+
+	@Test
+	public void testServerErrorRetriesExhausted() {
+		ourFailuresRemaining.set(10);
+
+		BulkLoadOutcome outcome = myClient.bulkLoader().setMaximumRetries(1).setRetryDelayMillis(1).load(createPatients(10));
+
+		assertEquals(0, outcome.getBundleCount());
+		assertEquals(1, outcome.getRetryCount());
+		assertEquals(1, outcome.getFailedBundles().size());
+		assertEquals(500, outcome.getFailedBundles().get(0).getException().getStatusCode());
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() throws Exception {
+		ourServer.stop();
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@BeforeClass
+	public static void beforeClass() throws Exception {
+		ourPort = PortUtil.findFreePort();
+		ourServer = new Server(ourPort);
+
+		ServletHandler proxyHandler = new ServletHandler();
+		RestfulServer servlet = new RestfulServer(ourCtx);
+		servlet.setPlainProviders(new DummyProvider());
+		ServletHolder servletHolder = new ServletHolder(servlet);
+		proxyHandler.addServletWithMapping(servletHolder, "/*");
+		ourServer.setHandler(proxyHandler);
+		ourServer.start();
+
+		ourCtx.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
+	}
+
+	private static List<Patient> createPatients(int theCount) {
+		List<Patient> retVal = new ArrayList<Patient>();
+		for (int i = 0; i < theCount; i++) {
+			Patient patient = new Patient();
+			patient.addName().addFamily("FAMILY" + i).addGiven("GIVEN");
+			patient.addIdentifier().setSystem("urn:system").setValue("IDENTIFIER" + i);
+			retVal.add(patient);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Compares the time taken to upload a set of resources serially with the time taken
+	 * when several bundles are in flight at once, against a server which takes a fixed
+	 * amount of time to process each bundle
+	 */
+	public static void main(String[] theArgs) throws Exception {
+		beforeClass();
+		try {
+			ourDelayMillis = 20;
+			List<Patient> patients = createPatients(20000);
+			for (int pass = 0; pass < 3; pass++) {
+				for (int inFlight : new int[] { 1, 4, 8 }) {
+					IGenericClient client = ourCtx.newRestfulGenericClient("http://localhost:" + ourPort);
+					BulkLoadOutcome outcome = client.bulkLoader().setMaximumInFlightRequests(inFlight).load(patients);
+					ourLog.info("Pass {} with {} requests in flight: {}", new Object[] { pass, inFlight, outcome });
+				}
+			}
+		} finally {
+			afterClassClearContext();
+		}
+	}
+
+	public static class DummyProvider {
+
+		@Transaction
+		public Bundle transaction(@TransactionParam Bundle theRequest) throws InterruptedException {
+			int inFlight = ourInFlight.incrementAndGet();
+			try {
+				while (true) {
+					int max = ourMaxInFlight.get();
+					if (inFlight <= max || ourMaxInFlight.compareAndSet(max, inFlight)) {
+						break;
+					}
+				}
+				if (ourDelayMillis > 0) {
+					Thread.sleep(ourDelayMillis);
+				}
+				if (ourSlowRequestsRemaining.getAndDecrement() > 0) {
+					Thread.sleep(1000);
+				}
+				if (ourFailuresRemaining.getAndDecrement() > 0) {
+					throw new InternalErrorException("FAILED");
+				}
+
+				Bundle retVal = new Bundle();
+				retVal.setType(theRequest.getTypeElement().getValueAsEnum() == BundleTypeEnum.BATCH ? BundleTypeEnum.BATCH_RESPONSE : BundleTypeEnum.TRANSACTION_RESPONSE);
+				int index = 1;
+				for (Entry nextEntry : theRequest.getEntry()) {
+					String family = ((Patient) nextEntry.getResource()).getNameFirstRep().getFamilyAsSingleString();
+					if ("INVALID".equals(family)) {
+						throw new InvalidRequestException("Invalid resource");
+					}
+					Entry nextResponse = retVal.addEntry();
+					nextResponse.getResponse().setLocation("Patient/" + index++ + "/_history/1");
+					nextResponse.getResponse().setStatus("BADENTRY".equals(family) ? "400 Bad Request" : "201 Created");
+				}
+
+				ourBundleSizes.add(theRequest.getEntry().size());
+				ourBundleTypes.add(theRequest.getTypeElement().getValueAsString());
+				return retVal;
+			} finally {
+				ourInFlight.decrementAndGet();
+			}
+		}
+
+	}
+
+}
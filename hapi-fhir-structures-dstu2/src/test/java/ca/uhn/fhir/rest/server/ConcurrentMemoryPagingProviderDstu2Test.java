@@ -0,0 +1,184 @@
+package ca.uhn.fhir.rest.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.util.TestUtil;
+
+public class ConcurrentMemoryPagingProviderDstu2Test {
+
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(ConcurrentMemoryPagingProviderDstu2Test.class);
+
+	private static IBundleProvider newList(int theSize) {
+		return new SimpleBundleProvider(Collections.<IBaseResource> nCopies(theSize, null));
+	}
+
+	@Test
+	public void testConcurrentAccess() throws Exception {
+		final ConcurrentMemoryPagingProvider provider = new ConcurrentMemoryPagingProvider(10000);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < 8; i++) {
+				futures.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						int found = 0;
+						for (int j = 0; j < 100; j++) {
+							IBundleProvider list = newList(1);
+							String id = provider.storeResultList(list);
+							if (provider.retrieveResultList(id) == list) {
+								found++;
+							}
+						}
+						return found;
+					}
+				}));
+			}
+			for (Future<Integer> next : futures) {
+				assertEquals(100, next.get(10, TimeUnit.SECONDS).intValue());
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		assertEquals(800, provider.getSize());
+		assertEquals(800, provider.getWeight());
+		assertEquals(800, provider.getHitCount());
+		assertEquals(0, provider.getEvictionCount());
+	}
+
+	@Test
+	public void testEvictByCount() {
+		ConcurrentMemoryPagingProvider provider = new ConcurrentMemoryPagingProvider(3, 1);
+
+		String id0 = provider.storeResultList(newList(1));
+		String id1 = provider.storeResultList(newList(1));
+		String id2 = provider.storeResultList(newList(1));
+
+		// Access the first list so that the second is the least recently accessed
+		assertNotNull(provider.retrieveResultList(id0));
+
+		String id3 = provider.storeResultList(newList(1));
+		assertEquals(3, provider.getSize());
+		assertEquals(1, provider.getEvictionCount());
+		assertNull(provider.retrieveResultList(id1));
+		assertNotNull(provider.retrieveResultList(id0));
+		assertNotNull(provider.retrieveResultList(id2));
+		assertNotNull(provider.retrieveResultList(id3));
+		assertEquals(4, provider.getHitCount());
+		assertEquals(1, provider.getMissCount());
+	}
+
+	@Test
+	public void testEvictByWeight() {
+		ConcurrentMemoryPagingProvider provider = new ConcurrentMemoryPagingProvider(100, 1);
+		provider.setMaximumWeight(100);
+
+		String id0 = provider.storeResultList(newList(60));
+		String id1 = provider.storeResultList(newList(30));
+		assertEquals(90, provider.getWeight());
+
+		String id2 = provider.storeResultList(newList(30));
+		assertEquals(60, provider.getWeight());
+		assertNull(provider.retrieveResultList(id0));
+		assertNotNull(provider.retrieveResultList(id1));
+		assertNotNull(provider.retrieveResultList(id2));
+
+		// A list heavier than the maximum is still stored, since it could not be paged through otherwise
+		IBundleProvider huge = newList(500);
+		String id3 = provider.storeResultList(huge);
+		assertEquals(1, provider.getSize());
+		assertEquals(500, provider.getWeight());
+		assertSame(huge, provider.retrieveResultList(id3));
+		assertEquals(3, provider.getEvictionCount());
+	}
+
+	@Test
+	public void testExpireAfterAccess() throws Exception {
+		ConcurrentMemoryPagingProvider provider = new ConcurrentMemoryPagingProvider(100, 1);
+		provider.setExpireAfterAccessMillis(50);
+
+		String id0 = provider.storeResultList(newList(1));
+		String id1 = provider.storeResultList(newList(1));
+		Thread.sleep(100);
+
+		assertNull(provider.retrieveResultList(id0));
+		assertEquals(1, provider.getExpiryCount());
+
+		// Expired lists are also discarded when new lists are stored
+		String id2 = provider.storeResultList(newList(1));
+		assertEquals(2, provider.getExpiryCount());
+		assertEquals(1, provider.getSize());
+		assertNull(provider.retrieveResultList(id1));
+		assertNotNull(provider.retrieveResultList(id2));
+		assertEquals(0, provider.getEvictionCount());
+	}
+
+	@Test
+	public void testOnlySimpleBundleProvidersWeighedBySize() {
+		ConcurrentMemoryPagingProvider provider = new ConcurrentMemoryPagingProvider(100);
+		provider.storeResultList(newList(10));
+		provider.storeResultList(BundleProviders.newEmptyList());
+		assertEquals(11, provider.getWeight());
+
+		provider.clear();
+		assertEquals(0, provider.getSize());
+		assertEquals(0, provider.getWeight());
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	/**
+	 * Compares the throughput of this provider with {@link FifoMemoryPagingProvider} when
+	 * used by many threads at once
+	 */
+	public static void main(String[] theArgs) throws Exception {
+		for (int pass = 0; pass < 3; pass++) {
+			for (final IPagingProvider provider : new IPagingProvider[] { new FifoMemoryPagingProvider(1000), new ConcurrentMemoryPagingProvider(1000) }) {
+				ExecutorService executor = Executors.newFixedThreadPool(16);
+				final IBundleProvider list = newList(10);
+				long start = System.nanoTime();
+				List<Future<?>> futures = new ArrayList<Future<?>>();
+				for (int i = 0; i < 16; i++) {
+					futures.add(executor.submit(new Runnable() {
+						@Override
+						public void run() {
+							for (int j = 0; j < 20000; j++) {
+								String id = provider.storeResultList(list);
+								for (int k = 0; k < 5; k++) {
+									provider.retrieveResultList(id);
+								}
+							}
+						}
+					}));
+				}
+				for (Future<?> next : futures) {
+					next.get();
+				}
+				executor.shutdown();
+				long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+				ourLog.info("Pass {} {}: {}ms", new Object[] { pass, provider.getClass().getSimpleName(), millis });
+			}
+		}
+	}
+
+}
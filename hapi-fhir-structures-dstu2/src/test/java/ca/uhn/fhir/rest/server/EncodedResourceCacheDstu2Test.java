@@ -0,0 +1,231 @@
+package ca.uhn.fhir.rest.server;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.api.IResource;
+import ca.uhn.fhir.model.dstu2.resource.Patient;
+import ca.uhn.fhir.model.primitive.IdDt;
+import ca.uhn.fhir.rest.annotation.IdParam;
+import ca.uhn.fhir.rest.annotation.Read;
+import ca.uhn.fhir.rest.annotation.Search;
+import ca.uhn.fhir.util.PortUtil;
+import ca.uhn.fhir.util.TestUtil;
+
+public class EncodedResourceCacheDstu2Test {
+
+	private static EncodedResourceCache ourCache;
+	private static CloseableHttpClient ourClient;
+	private static FhirContext ourCtx = FhirContext.forDstu2();
+	private static String ourFamily;
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(EncodedResourceCacheDstu2Test.class);
+	private static int ourNameCount;
+	private static int ourPort;
+	private static Server ourServer;
+	private static RestfulServer ourServlet;
+
+	@Before
+	public void before() {
+		ourCache = new EncodedResourceCache();
+		ourServlet.setEncodedResourceCache(ourCache);
+		ourFamily = "FAMILY_A";
+		ourNameCount = 1;
+	}
+
+	private String get(String thePath) throws Exception {
+		HttpGet httpGet = new HttpGet("http://localhost:" + ourPort + thePath);
+		CloseableHttpResponse status = ourClient.execute(httpGet);
+		try {
+			assertEquals(200, status.getStatusLine().getStatusCode());
+			return IOUtils.toString(status.getEntity().getContent(), Constants.CHARSET_UTF8);
+		} finally {
+			status.close();
+		}
+	}
+
+	@Test
+	public void testCacheEvictsLeastRecentlyUsed() {
+		EncodedResourceCache cache = new EncodedResourceCache();
+		cache.setMaximumSizeInBytes(25);
+		cache.setMaximumEntrySizeInBytes(20);
+
+		cache.put(new IdDt("Patient/1/_history/1"), EncodingEnum.JSON, false, null, new byte[10]);
+		cache.put(new IdDt("Patient/2/_history/1"), EncodingEnum.JSON, false, null, new byte[10]);
+		assertEquals(20, cache.getSizeInBytes());
+
+		// Touch the first entry so that the second is the least recently used
+		assertArrayEquals(new byte[10], cache.get(new IdDt("Patient/1/_history/1"), EncodingEnum.JSON, false, null));
+
+		cache.put(new IdDt("Patient/3/_history/1"), EncodingEnum.JSON, false, null, new byte[10]);
+		assertEquals(2, cache.getSize());
+		assertEquals(20, cache.getSizeInBytes());
+		assertNull(cache.get(new IdDt("Patient/2/_history/1"), EncodingEnum.JSON, false, null));
+
+		// Too big to cache
+		cache.put(new IdDt("Patient/4/_history/1"), EncodingEnum.JSON, false, null, new byte[21]);
+		assertNull(cache.get(new IdDt("Patient/4/_history/1"), EncodingEnum.JSON, false, null));
+		assertEquals(2, cache.getSize());
+	}
+
+	@Test
+	public void testInvalidateRemovesAllVersionsAndEncodings() throws Exception {
+		get("/Patient/1/_history/1?_format=json");
+		get("/Patient/1/_history/1?_format=xml");
+		get("/Patient/1/_history/2?_format=json");
+		get("/Patient/2/_history/1?_format=json");
+		assertEquals(4, ourCache.getSize());
+
+		ourCache.invalidate(new IdDt("Patient/1/_history/2"));
+		assertEquals(1, ourCache.getSize());
+
+		ourFamily = "FAMILY_B";
+		assertThat(get("/Patient/1/_history/1?_format=json"), containsString("FAMILY_B"));
+	}
+
+	@Test
+	public void testReadServedFromCache() throws Exception {
+		String first = get("/Patient/1?_format=json");
+		assertThat(first, containsString("FAMILY_A"));
+		assertEquals(1, ourCache.getMissCount());
+		assertEquals(1, ourCache.getSize());
+
+		/*
+		 * The provider now returns different content for the same version, which
+		 * a well behaved server would never do, but which lets us see that the response
+		 * came from the cache
+		 */
+		ourFamily = "FAMILY_B";
+		assertEquals(first, get("/Patient/1?_format=json"));
+		assertEquals(first, get("/Patient/1/_history/1?_format=json"));
+		assertEquals(2, ourCache.getHitCount());
+
+		// Different encoding options are cached separately
+		assertThat(get("/Patient/1?_format=xml"), containsString("FAMILY_B"));
+		assertThat(get("/Patient/1?_format=json&_pretty=true"), containsString("FAMILY_B"));
+		assertEquals(3, ourCache.getSize());
+	}
+
+	@Test
+	public void testSearchNotCached() throws Exception {
+		get("/Patient?_format=json");
+		assertEquals(0, ourCache.getMissCount());
+		assertEquals(0, ourCache.getSize());
+	}
+
+	@Test
+	public void testSummaryAndElementsNotCached() throws Exception {
+		String response = get("/Patient/1/_history/1?_format=json&_summary=data");
+		assertThat(response, containsString("FAMILY_A"));
+		response = get("/Patient/1/_history/1?_format=json&_elements=gender");
+		assertThat(response, not(containsString("FAMILY_A")));
+		response = get("/Patient/1/_history/1?_format=json&_summary=text");
+		assertThat(response, not(containsString("FAMILY_A")));
+
+		assertEquals(0, ourCache.getMissCount());
+		assertEquals(0, ourCache.getSize());
+
+		// _summary=false is the same as no summary
+		get("/Patient/1/_history/1?_format=json&_summary=false");
+		assertEquals(1, ourCache.getSize());
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() throws Exception {
+		ourServer.stop();
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@BeforeClass
+	public static void beforeClass() throws Exception {
+		ourPort = PortUtil.findFreePort();
+		ourServer = new Server(ourPort);
+
+		ServletHandler proxyHandler = new ServletHandler();
+		ourServlet = new RestfulServer(ourCtx);
+		ourServlet.setResourceProviders(new DummyPatientResourceProvider());
+		ServletHolder servletHolder = new ServletHolder(ourServlet);
+		proxyHandler.addServletWithMapping(servletHolder, "/*");
+		ourServer.setHandler(proxyHandler);
+		ourServer.start();
+
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(5000, TimeUnit.MILLISECONDS);
+		HttpClientBuilder builder = HttpClientBuilder.create();
+		builder.setConnectionManager(connectionManager);
+		ourClient = builder.build();
+	}
+
+	/**
+	 * Compares the time taken to vread a large resource repeatedly with and without the cache
+	 */
+	public static void main(String[] theArgs) throws Exception {
+		beforeClass();
+		try {
+			EncodedResourceCacheDstu2Test test = new EncodedResourceCacheDstu2Test();
+			for (int pass = 0; pass < 3; pass++) {
+				for (boolean cached : new boolean[] { false, true }) {
+					test.before();
+					ourNameCount = 500;
+					ourServlet.setEncodedResourceCache(cached ? ourCache : null);
+
+					int count = 2000;
+					long start = System.nanoTime();
+					for (int i = 0; i < count; i++) {
+						test.get("/Patient/1/_history/1?_format=json");
+					}
+					long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+					ourLog.info("Pass {} cached={}: {} vreads in {}ms ({}us/read)", new Object[] { pass, cached, count, micros / 1000, micros / count });
+				}
+			}
+		} finally {
+			afterClassClearContext();
+		}
+	}
+
+	public static class DummyPatientResourceProvider implements IResourceProvider {
+
+		@Override
+		public Class<? extends IResource> getResourceType() {
+			return Patient.class;
+		}
+
+		@Read(version = true)
+		public Patient read(@IdParam IdDt theId) {
+			Patient retVal = new Patient();
+			retVal.setId(new IdDt("Patient", theId.getIdPart(), theId.hasVersionIdPart() ? theId.getVersionIdPart() : "1"));
+			for (int i = 0; i < ourNameCount; i++) {
+				retVal.addName().addFamily(ourFamily).addGiven("GIVEN" + i);
+			}
+			return retVal;
+		}
+
+		@Search
+		public List<Patient> search() {
+			return Collections.singletonList(read(new IdDt("Patient/1")));
+		}
+
+	}
+
+}
@@ -0,0 +1,334 @@
+package ca.uhn.fhir.rest.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.api.IResource;
+import ca.uhn.fhir.model.dstu2.resource.Bundle;
+import ca.uhn.fhir.model.dstu2.resource.Parameters;
+import ca.uhn.fhir.model.dstu2.resource.Patient;
+import ca.uhn.fhir.model.primitive.IdDt;
+import ca.uhn.fhir.rest.annotation.Create;
+import ca.uhn.fhir.rest.annotation.Delete;
+import ca.uhn.fhir.rest.annotation.History;
+import ca.uhn.fhir.rest.annotation.IdParam;
+import ca.uhn.fhir.rest.annotation.Operation;
+import ca.uhn.fhir.rest.annotation.OptionalParam;
+import ca.uhn.fhir.rest.annotation.Read;
+import ca.uhn.fhir.rest.annotation.RequiredParam;
+import ca.uhn.fhir.rest.annotation.ResourceParam;
+import ca.uhn.fhir.rest.annotation.Search;
+import ca.uhn.fhir.rest.annotation.Transaction;
+import ca.uhn.fhir.rest.annotation.TransactionParam;
+import ca.uhn.fhir.rest.annotation.Update;
+import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+import ca.uhn.fhir.rest.method.BaseMethodBinding;
+import ca.uhn.fhir.rest.method.RequestDetails;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import ca.uhn.fhir.util.TestUtil;
+
+public class MethodDispatchDstu2Test {
+
+	private static FhirContext ourCtx = FhirContext.forDstu2();
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(MethodDispatchDstu2Test.class);
+	private static RestfulServer ourServlet;
+
+	private static RequestDetails createRequest(RequestTypeEnum theRequestType, String theResourceName, String theId, String theOperation, String... theParamNames) {
+		ServletRequestDetails retVal = new ServletRequestDetails();
+		retVal.setRequestType(theRequestType);
+		retVal.setResourceName(theResourceName);
+		if (theId != null) {
+			retVal.setId(new IdDt(theId));
+		}
+		retVal.setOperation(theOperation);
+		Map<String, String[]> params = new HashMap<String, String[]>();
+		for (String next : theParamNames) {
+			params.put(next, new String[] { "value" });
+		}
+		retVal.setParameters(params);
+		return retVal;
+	}
+
+	/**
+	 * Returns the name of the method which handles the given request, after checking that
+	 * the dispatch table gives the same result as testing every method in order
+	 */
+	private static String dispatch(RestfulServer theServlet, RequestDetails theRequest) {
+		ResourceBinding binding;
+		if (theRequest.getResourceName() == null) {
+			binding = new ResourceBinding(null, theServlet.getServerBindings());
+		} else {
+			binding = null;
+			for (ResourceBinding next : theServlet.getResourceBindings()) {
+				if (next.getResourceName().equals(theRequest.getResourceName())) {
+					binding = next;
+				}
+			}
+		}
+		BaseMethodBinding<?> expected = binding.getMethodUsingLinearScan(theRequest);
+
+		BaseMethodBinding<?> actual;
+		try {
+			actual = theServlet.determineResourceMethod(theRequest, "path");
+		} catch (InvalidRequestException e) {
+			actual = null;
+		}
+		if (!"metadata".equals(theRequest.getOperation())) {
+			assertEquals(expected, actual);
+		}
+		return actual != null ? actual.getMethod().getName() : null;
+	}
+
+	@Test
+	public void testDispatchInstanceLevel() {
+		assertEquals("read", dispatch(ourServlet, createRequest(RequestTypeEnum.GET, "Patient", "Patient/1", null)));
+		assertEquals("read", dispatch(ourServlet, createRequest(RequestTypeEnum.GET, "Patient", "Patient/1/_history/2", "_history")));
+		assertEquals("historyInstance", dispatch(ourServlet, createRequest(RequestTypeEnum.GET, "Patient", "Patient/1", "_history")));
+		assertEquals("everything", dispatch(ourServlet, createRequest(RequestTypeEnum.GET, "Patient", "Patient/1", "$everything")));
+		assertEquals("update", dispatch(ourServlet, createRequest(RequestTypeEnum.PUT, "Patient", "Patient/1", null)));
+		assertEquals("delete", dispatch(ourServlet, createRequest(RequestTypeEnum.DELETE, "Patient", "Patient/1", null)));
+		assertNull(dispatch(ourServlet, createRequest(RequestTypeEnum.GET, "Patient", "Patient/1", "$unknown")));
+	}
+
+	@Test
+	public void testDispatchSearch() {
+		assertEquals("searchAll", dispatch(ourServlet, createRequest(RequestTypeEnum.GET, "Patient", null, null)));
+		assertEquals("searchAll", dispatch(ourServlet, createRequest(RequestTypeEnum.GET, "Patient", null, null, "_count")));
+		assertEquals("searchByName", dispatch(ourServlet, createRequest(RequestTypeEnum.GET, "Patient", null, null, "name")));
+		assertEquals("searchByName", dispatch(ourServlet, createRequest(RequestTypeEnum.GET, "Patient", null, null, "name:exact")));
+		assertEquals("searchByNameAndFamily", dispatch(ourServlet, createRequest(RequestTypeEnum.GET, "Patient", null, null, "name", "family")));
+		assertEquals("searchByIdentifier", dispatch(ourServlet, createRequest(RequestTypeEnum.GET, "Patient", null, null, "identifier", "gender")));
+		assertEquals("searchByIdentifier", dispatch(ourServlet, createRequest(RequestTypeEnum.POST, "Patient", null, "_search", "identifier")));
+		assertNull(dispatch(ourServlet, createRequest(RequestTypeEnum.GET, "Patient", null, null, "gender")));
+		assertNull(dispatch(ourServlet, createRequest(RequestTypeEnum.GET, "Patient", null, null, "foo")));
+	}
+
+	@Test
+	public void testDispatchServerLevel() {
+		assertEquals("transaction", dispatch(ourServlet, createRequest(RequestTypeEnum.POST, null, null, null)));
+		assertEquals("ping", dispatch(ourServlet, createRequest(RequestTypeEnum.GET, null, null, "$ping")));
+		assertEquals("getPage", dispatch(ourServlet, createRequest(RequestTypeEnum.GET, null, null, null, Constants.PARAM_PAGINGACTION)));
+		assertEquals("getServerConformance", dispatch(ourServlet, createRequest(RequestTypeEnum.GET, null, null, "metadata")));
+	}
+
+	@Test
+	public void testDispatchTypeLevel() {
+		assertEquals("create", dispatch(ourServlet, createRequest(RequestTypeEnum.POST, "Patient", null, null)));
+		assertNull(dispatch(ourServlet, createRequest(RequestTypeEnum.PUT, "Patient", null, "$everything")));
+	}
+
+	@Test
+	public void testMethodsAddedAfterTableBuilt() {
+		ResourceBinding binding = new ResourceBinding("Patient", new ArrayList<BaseMethodBinding<?>>());
+		RequestDetails request = createRequest(RequestTypeEnum.GET, "Patient", "Patient/1", null);
+		assertNull(binding.getMethod(request));
+
+		for (ResourceBinding next : ourServlet.getResourceBindings()) {
+			for (BaseMethodBinding<?> nextMethod : next.getMethodBindings()) {
+				binding.addMethod(nextMethod);
+			}
+		}
+		assertEquals("read", binding.getMethod(request).getMethod().getName());
+	}
+
+	@Test
+	public void testMethodBindingsCanNotBeChangedDirectly() {
+		List<BaseMethodBinding<?>> methods = new ArrayList<BaseMethodBinding<?>>();
+		ResourceBinding binding = new ResourceBinding("Patient", methods);
+		RequestDetails request = createRequest(RequestTypeEnum.GET, "Patient", "Patient/1", null);
+		assertNull(binding.getMethod(request));
+
+		// Changes to the list passed in, or to the returned list, must not leave a stale table in use
+		for (ResourceBinding next : ourServlet.getResourceBindings()) {
+			methods.addAll(next.getMethodBindings());
+		}
+		assertNull(binding.getMethod(request));
+		try {
+			binding.getMethodBindings().add(methods.get(0));
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// good
+		}
+
+		binding.setMethods(methods);
+		assertEquals("read", binding.getMethod(request).getMethod().getName());
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@BeforeClass
+	public static void beforeClass() throws Exception {
+		ourServlet = new RestfulServer(ourCtx);
+		ourServlet.setResourceProviders(new DummyPatientResourceProvider());
+		ourServlet.setPlainProviders(new DummySystemProvider());
+		ourServlet.init();
+	}
+
+	/**
+	 * Dispatch microbenchmark: a resource type with many search overloads, where the matching
+	 * method is registered last
+	 */
+	public static void main(String[] args) throws Exception {
+		RestfulServer servlet = new RestfulServer(ourCtx);
+		List<Object> providers = new ArrayList<Object>();
+		for (int i = 0; i < 25; i++) {
+			providers.add(new DummySearchProvider());
+		}
+		providers.add(new DummyPatientResourceProvider());
+		servlet.setPlainProviders(providers);
+		servlet.init();
+
+		ResourceBinding binding = null;
+		for (ResourceBinding next : servlet.getResourceBindings()) {
+			if (next.getResourceName().equals("Patient")) {
+				binding = next;
+			}
+		}
+		ourLog.info("Patient has {} method bindings", binding.getMethodBindings().size());
+
+		RequestDetails[] requests = new RequestDetails[] {
+			createRequest(RequestTypeEnum.GET, "Patient", "Patient/1", null),
+			createRequest(RequestTypeEnum.GET, "Patient", null, null, "identifier", "gender"),
+			createRequest(RequestTypeEnum.GET, "Patient", "Patient/1", "$everything")
+		};
+
+		MethodDispatchTable table = binding.compileDispatchTable();
+		int passes = 200000;
+		for (int round = 0; round < 3; round++) {
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < passes; i++) {
+				binding.getMethodUsingLinearScan(requests[i % requests.length]);
+			}
+			long linear = System.currentTimeMillis() - start;
+
+			start = System.currentTimeMillis();
+			for (int i = 0; i < passes; i++) {
+				table.getMethod(requests[i % requests.length]);
+			}
+			long indexed = System.currentTimeMillis() - start;
+
+			ourLog.info("{} lookups - Linear scan took {} ms - Dispatch table took {} ms", new Object[] { passes, linear, indexed });
+		}
+	}
+
+	public static class DummyPatientResourceProvider implements IResourceProvider {
+
+		@Create
+		public MethodOutcome create(@ResourceParam Patient thePatient) {
+			return new MethodOutcome();
+		}
+
+		@Delete
+		public MethodOutcome delete(@IdParam IdDt theId) {
+			return new MethodOutcome();
+		}
+
+		@Operation(name = "$everything", idempotent = true)
+		public Bundle everything(@IdParam IdDt theId) {
+			return new Bundle();
+		}
+
+		@Override
+		public Class<? extends IResource> getResourceType() {
+			return Patient.class;
+		}
+
+		@History
+		public List<Patient> historyInstance(@IdParam IdDt theId) {
+			return new ArrayList<Patient>();
+		}
+
+		@Read(version = true)
+		public Patient read(@IdParam IdDt theId) {
+			return new Patient();
+		}
+
+		@Search
+		public List<Patient> searchAll() {
+			return new ArrayList<Patient>();
+		}
+
+		@Search
+		public List<Patient> searchByIdentifier(@RequiredParam(name = Patient.SP_IDENTIFIER) TokenParam theIdentifier, @OptionalParam(name = Patient.SP_GENDER) TokenParam theGender) {
+			return new ArrayList<Patient>();
+		}
+
+		@Search
+		public List<Patient> searchByName(@RequiredParam(name = Patient.SP_NAME) StringParam theName) {
+			return new ArrayList<Patient>();
+		}
+
+		@Search
+		public List<Patient> searchByNameAndFamily(@RequiredParam(name = Patient.SP_NAME) StringParam theName, @RequiredParam(name = Patient.SP_FAMILY) StringParam theFamily) {
+			return new ArrayList<Patient>();
+		}
+
+		@Update
+		public MethodOutcome update(@IdParam IdDt theId, @ResourceParam Patient thePatient) {
+			return new MethodOutcome();
+		}
+
+	}
+
+	public static class DummySearchProvider {
+
+		@Search(type = Patient.class)
+		public List<Patient> searchByAddress(@RequiredParam(name = Patient.SP_ADDRESS) StringParam theAddress) {
+			return new ArrayList<Patient>();
+		}
+
+		@Search(type = Patient.class)
+		public List<Patient> searchByBirthdate(@RequiredParam(name = Patient.SP_BIRTHDATE) StringParam theBirthdate) {
+			return new ArrayList<Patient>();
+		}
+
+		@Search(type = Patient.class)
+		public List<Patient> searchByEmail(@RequiredParam(name = Patient.SP_EMAIL) StringParam theEmail) {
+			return new ArrayList<Patient>();
+		}
+
+		@Search(type = Patient.class)
+		public List<Patient> searchByGiven(@RequiredParam(name = Patient.SP_GIVEN) StringParam theGiven, @OptionalParam(name = Patient.SP_FAMILY) StringParam theFamily) {
+			return new ArrayList<Patient>();
+		}
+
+		@Search(type = Patient.class)
+		public List<Patient> searchByPhone(@RequiredParam(name = Patient.SP_PHONE) StringParam thePhone) {
+			return new ArrayList<Patient>();
+		}
+
+	}
+
+	public static class DummySystemProvider {
+
+		@Operation(name = "$ping", idempotent = true)
+		public Parameters ping() {
+			return new Parameters();
+		}
+
+		@Transaction
+		public Bundle transaction(@TransactionParam Bundle theInput) {
+			return theInput;
+		}
+
+	}
+
+}
@@ -0,0 +1,245 @@
+package ca.uhn.fhir.rest.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.api.IResource;
+import ca.uhn.fhir.model.dstu2.resource.Patient;
+import ca.uhn.fhir.model.primitive.IdDt;
+import ca.uhn.fhir.rest.annotation.Create;
+import ca.uhn.fhir.rest.annotation.IdParam;
+import ca.uhn.fhir.rest.annotation.Read;
+import ca.uhn.fhir.rest.annotation.ResourceParam;
+import ca.uhn.fhir.rest.annotation.Search;
+import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.method.RequestDetails;
+import ca.uhn.fhir.util.PortUtil;
+import ca.uhn.fhir.util.TestUtil;
+
+public class ServerPerformanceListenerDstu2Test {
+
+	private static CloseableHttpClient ourClient;
+	private static FhirContext ourCtx = FhirContext.forDstu2();
+	private static RequestPerformance ourPerformanceInProvider;
+	private static int ourPort;
+	private static Server ourServer;
+	private static RestfulServer ourServlet;
+
+	private CapturingListener myListener;
+
+	@After
+	public void after() {
+		for (IServerPerformanceListener next : ourServlet.getPerformanceListeners()) {
+			ourServlet.unregisterPerformanceListener(next);
+		}
+	}
+
+	@Before
+	public void before() {
+		ourPerformanceInProvider = null;
+		myListener = new CapturingListener();
+	}
+
+	private int execute(HttpRequestBase theRequest) throws Exception {
+		CloseableHttpResponse status = ourClient.execute(theRequest);
+		try {
+			IOUtils.toString(status.getEntity().getContent(), Constants.CHARSET_UTF8);
+			return status.getStatusLine().getStatusCode();
+		} finally {
+			status.close();
+		}
+	}
+
+	@Test
+	public void testCreateRecordsParseTime() throws Exception {
+		ourServlet.registerPerformanceListener(myListener);
+
+		HttpPost httpPost = new HttpPost("http://localhost:" + ourPort + "/Patient");
+		httpPost.setEntity(new StringEntity("{\"resourceType\":\"Patient\"}", ContentType.create(Constants.CT_FHIR_JSON, "UTF-8")));
+		assertEquals(201, execute(httpPost));
+
+		RequestPerformance performance = myListener.next();
+		assertEquals(RestOperationTypeEnum.CREATE, myListener.myRequestDetails.getRestOperationType());
+		assertEquals(1, performance.getPhaseCount(PerformancePhaseEnum.PARSE));
+		assertEquals(1, performance.getPhaseCount(PerformancePhaseEnum.DISPATCH));
+	}
+
+	@Test
+	public void testListenerFailureDoesNotAffectResponse() throws Exception {
+		ourServlet.registerPerformanceListener(new IServerPerformanceListener() {
+			@Override
+			public void requestCompleted(RequestDetails theRequestDetails, RequestPerformance thePerformance) {
+				throw new IllegalStateException("FAILED");
+			}
+		});
+		ourServlet.registerPerformanceListener(myListener);
+
+		assertEquals(200, execute(new HttpGet("http://localhost:" + ourPort + "/Patient/1")));
+		assertNotNull(myListener.next());
+	}
+
+	@Test
+	public void testNoTimingsWithoutListener() throws Exception {
+		assertEquals(200, execute(new HttpGet("http://localhost:" + ourPort + "/Patient/1")));
+		assertNull(ourPerformanceInProvider);
+		assertNull(RequestPerformance.getCurrent());
+		assertEquals(0, RequestPerformance.startTimer());
+	}
+
+	@Test
+	public void testReadRecordsTimings() throws Exception {
+		ourServlet.registerPerformanceListener(myListener);
+
+		assertEquals(200, execute(new HttpGet("http://localhost:" + ourPort + "/Patient/1")));
+
+		RequestPerformance performance = myListener.next();
+		assertEquals(RestOperationTypeEnum.READ, myListener.myRequestDetails.getRestOperationType());
+		assertEquals(performance, ourPerformanceInProvider);
+		assertEquals(1, performance.getPhaseCount(PerformancePhaseEnum.DISPATCH));
+		assertEquals(1, performance.getPhaseCount(PerformancePhaseEnum.ENCODE));
+		assertEquals(0, performance.getPhaseCount(PerformancePhaseEnum.PARSE));
+		assertEquals(1, performance.getSqlStatementCount());
+		assertTrue(performance.getTotalTimeNanos() >= performance.getPhaseTimeNanos(PerformancePhaseEnum.ENCODE));
+	}
+
+	@Test
+	public void testStatisticsAggregateRequests() throws Exception {
+		ServerPerformanceStatistics stats = new ServerPerformanceStatistics();
+		ourServlet.registerPerformanceListener(stats);
+		ourServlet.registerPerformanceListener(myListener);
+
+		assertEquals(200, execute(new HttpGet("http://localhost:" + ourPort + "/Patient/1")));
+		assertEquals(200, execute(new HttpGet("http://localhost:" + ourPort + "/Patient/2")));
+		assertEquals(200, execute(new HttpGet("http://localhost:" + ourPort + "/Patient")));
+		assertEquals(400, execute(new HttpGet("http://localhost:" + ourPort + "/Foo")));
+		for (int i = 0; i < 4; i++) {
+			myListener.next();
+		}
+
+		assertEquals(4, stats.getRequestCount());
+		assertEquals(2, stats.getSqlStatementTotalCount());
+		assertEquals(1, stats.getSqlStatementMaxCount());
+		assertEquals(3, stats.getPhaseRequestCount(PerformancePhaseEnum.DISPATCH));
+		assertEquals(4, stats.getPhaseRequestCount(PerformancePhaseEnum.ENCODE));
+		assertEquals(0, stats.getPhaseRequestCount(PerformancePhaseEnum.PARSE));
+		assertTrue(stats.getRequestTotalTimeNanos() >= stats.getRequestMaxTimeNanos());
+		assertTrue(stats.getPhaseTotalTimeNanos(PerformancePhaseEnum.ENCODE) >= stats.getPhaseMaxTimeNanos(PerformancePhaseEnum.ENCODE));
+
+		stats.reset();
+		assertEquals(0, stats.getRequestCount());
+		assertEquals(0, stats.getPhaseRequestCount(PerformancePhaseEnum.DISPATCH));
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() throws Exception {
+		ourServer.stop();
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@BeforeClass
+	public static void beforeClass() throws Exception {
+		ourPort = PortUtil.findFreePort();
+		ourServer = new Server(ourPort);
+
+		ServletHandler proxyHandler = new ServletHandler();
+		ourServlet = new RestfulServer(ourCtx);
+		ourServlet.setResourceProviders(new DummyPatientResourceProvider());
+		ServletHolder servletHolder = new ServletHolder(ourServlet);
+		proxyHandler.addServletWithMapping(servletHolder, "/*");
+		ourServer.setHandler(proxyHandler);
+		ourServer.start();
+
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(5000, TimeUnit.MILLISECONDS);
+		HttpClientBuilder builder = HttpClientBuilder.create();
+		builder.setConnectionManager(connectionManager);
+		ourClient = builder.build();
+	}
+
+	/**
+	 * Listeners are invoked after the response has been written, so the client may
+	 * see the response before the listener has been called
+	 */
+	private static class CapturingListener implements IServerPerformanceListener {
+
+		private final BlockingQueue<RequestPerformance> myQueue = new LinkedBlockingQueue<RequestPerformance>();
+		private volatile RequestDetails myRequestDetails;
+
+		RequestPerformance next() throws InterruptedException {
+			RequestPerformance retVal = myQueue.poll(10, TimeUnit.SECONDS);
+			assertNotNull("Listener was not invoked", retVal);
+			return retVal;
+		}
+
+		@Override
+		public void requestCompleted(RequestDetails theRequestDetails, RequestPerformance thePerformance) {
+			myRequestDetails = theRequestDetails;
+			myQueue.add(thePerformance);
+		}
+
+	}
+
+	public static class DummyPatientResourceProvider implements IResourceProvider {
+
+		@Create
+		public MethodOutcome create(@ResourceParam Patient thePatient) {
+			return new MethodOutcome(new IdDt("Patient/1/_history/1"), true);
+		}
+
+		@Override
+		public Class<? extends IResource> getResourceType() {
+			return Patient.class;
+		}
+
+		@Read
+		public Patient read(@IdParam IdDt theId) {
+			ourPerformanceInProvider = RequestPerformance.getCurrent();
+			if (ourPerformanceInProvider != null) {
+				// Stand in for a persistence layer reporting the statements it executes
+				ourPerformanceInProvider.incrementSqlStatementCount();
+			}
+
+			Patient retVal = new Patient();
+			retVal.setId(theId);
+			retVal.addName().addFamily("FAMILY");
+			return retVal;
+		}
+
+		@Search
+		public List<Patient> search() {
+			Patient retVal = new Patient();
+			retVal.setId("Patient/1");
+			return Collections.singletonList(retVal);
+		}
+
+	}
+
+}
@@ -0,0 +1,332 @@
+package ca.uhn.fhir.rest.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.api.IResource;
+import ca.uhn.fhir.model.dstu2.resource.Bundle;
+import ca.uhn.fhir.model.dstu2.resource.Patient;
+import ca.uhn.fhir.model.dstu2.valueset.BundleTypeEnum;
+import ca.uhn.fhir.model.dstu2.valueset.HTTPVerbEnum;
+import ca.uhn.fhir.model.primitive.IdDt;
+import ca.uhn.fhir.rest.annotation.Create;
+import ca.uhn.fhir.rest.annotation.IdParam;
+import ca.uhn.fhir.rest.annotation.ResourceParam;
+import ca.uhn.fhir.rest.annotation.Transaction;
+import ca.uhn.fhir.rest.annotation.TransactionParam;
+import ca.uhn.fhir.rest.annotation.Update;
+import ca.uhn.fhir.rest.annotation.Validate;
+import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.method.RequestDetails;
+import ca.uhn.fhir.rest.server.interceptor.IServerInterceptor;
+import ca.uhn.fhir.rest.server.interceptor.InterceptorAdapter;
+import ca.uhn.fhir.util.PortUtil;
+import ca.uhn.fhir.util.TestUtil;
+
+public class StreamingRequestBodyDstu2Test {
+
+	private static CloseableHttpClient ourClient;
+	private static FhirContext ourCtx = FhirContext.forDstu2();
+	private static Patient ourLastPatient;
+	private static String ourLastRawBody;
+	private static int ourLastTransactionSize;
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(StreamingRequestBodyDstu2Test.class);
+	private static int ourPort;
+	private static Server ourServer;
+	private static RestfulServer ourServlet;
+
+	@After
+	public void after() {
+		ourServlet.setInterceptors(new ArrayList<IServerInterceptor>());
+	}
+
+	@Before
+	public void before() {
+		ourLastPatient = null;
+		ourLastRawBody = null;
+		ourLastTransactionSize = -1;
+	}
+
+	private int execute(HttpEntityEnclosingRequestBase theRequest, byte[] theBody, String theContentEncoding) throws Exception {
+		theRequest.setEntity(new ByteArrayEntity(theBody, ContentType.create(Constants.CT_FHIR_JSON, "UTF-8")));
+		if (theContentEncoding != null) {
+			theRequest.addHeader(Constants.HEADER_CONTENT_ENCODING, theContentEncoding);
+		}
+		CloseableHttpResponse status = ourClient.execute(theRequest);
+		try {
+			String responseContent = IOUtils.toString(status.getEntity().getContent(), Constants.CHARSET_UTF8);
+			ourLog.info(responseContent);
+			return status.getStatusLine().getStatusCode();
+		} finally {
+			status.close();
+		}
+	}
+
+	@Test
+	public void testCreateDeflate() throws Exception {
+		HttpPost httpPost = new HttpPost("http://localhost:" + ourPort + "/Patient");
+		assertEquals(201, execute(httpPost, deflate(createPatientJson()), "deflate"));
+		assertEquals("FAMILY", ourLastPatient.getNameFirstRep().getFamilyAsSingleString());
+	}
+
+	@Test
+	public void testCreateEmptyGzipBody() throws Exception {
+		HttpPost httpPost = new HttpPost("http://localhost:" + ourPort + "/Patient");
+		assertEquals(400, execute(httpPost, new byte[0], Constants.ENCODING_GZIP));
+		assertNull(ourLastPatient);
+	}
+
+	@Test
+	public void testCreateGzip() throws Exception {
+		HttpPost httpPost = new HttpPost("http://localhost:" + ourPort + "/Patient");
+		assertEquals(201, execute(httpPost, gzip(createPatientJson()), Constants.ENCODING_GZIP));
+		assertEquals("FAMILY", ourLastPatient.getNameFirstRep().getFamilyAsSingleString());
+	}
+
+	@Test
+	public void testInterceptorBuffersBody() throws Exception {
+		final List<Integer> lengths = new ArrayList<Integer>();
+		ourServlet.registerInterceptor(new InterceptorAdapter() {
+			@Override
+			public boolean incomingRequestPostProcessed(RequestDetails theRequestDetails, HttpServletRequest theRequest, HttpServletResponse theResponse) {
+				lengths.add(theRequestDetails.loadRequestContents().length);
+				return true;
+			}
+		});
+
+		String body = createPatientJson();
+		HttpPost httpPost = new HttpPost("http://localhost:" + ourPort + "/Patient");
+		assertEquals(201, execute(httpPost, gzip(body), Constants.ENCODING_GZIP));
+		assertEquals(body.length(), lengths.get(0).intValue());
+		assertNotNull(ourLastPatient);
+	}
+
+	@Test
+	public void testLoadRequestContentsAfterStreamingFails() throws Exception {
+		final List<String> messages = new ArrayList<String>();
+		ourServlet.registerInterceptor(new InterceptorAdapter() {
+			@Override
+			public void incomingRequestPreHandled(RestOperationTypeEnum theOperation, ActionRequestDetails theProcessedRequest) {
+				try {
+					theProcessedRequest.getRequestDetails().loadRequestContents();
+				} catch (IllegalStateException e) {
+					messages.add(e.getMessage());
+				}
+			}
+		});
+
+		HttpPost httpPost = new HttpPost("http://localhost:" + ourPort + "/Patient");
+		assertEquals(201, execute(httpPost, createPatientJson().getBytes("UTF-8"), null));
+		assertEquals(1, messages.size());
+	}
+
+	@Test
+	public void testTransactionGzip() throws Exception {
+		HttpPost httpPost = new HttpPost("http://localhost:" + ourPort + "/");
+		assertEquals(200, execute(httpPost, gzip(createTransactionJson(10)), Constants.ENCODING_GZIP));
+		assertEquals(10, ourLastTransactionSize);
+	}
+
+	@Test
+	public void testValidateWithRawBodyGzip() throws Exception {
+		String body = createPatientJson();
+		HttpPost httpPost = new HttpPost("http://localhost:" + ourPort + "/Patient/$validate");
+		assertEquals(200, execute(httpPost, gzip(body), Constants.ENCODING_GZIP));
+		assertEquals("FAMILY", ourLastPatient.getNameFirstRep().getFamilyAsSingleString());
+		assertEquals(body, ourLastRawBody);
+	}
+
+	@Test
+	public void testUpdateWithRawBodyGzip() throws Exception {
+		String body = createPatientJson();
+		HttpPut httpPut = new HttpPut("http://localhost:" + ourPort + "/Patient/1");
+		assertEquals(200, execute(httpPut, gzip(body), Constants.ENCODING_GZIP));
+		assertEquals("FAMILY", ourLastPatient.getNameFirstRep().getFamilyAsSingleString());
+		assertEquals(body, ourLastRawBody);
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() throws Exception {
+		ourServer.stop();
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@BeforeClass
+	public static void beforeClass() throws Exception {
+		ourPort = PortUtil.findFreePort();
+		ourServer = new Server(ourPort);
+
+		ServletHandler proxyHandler = new ServletHandler();
+		ourServlet = new RestfulServer(ourCtx);
+		ourServlet.setResourceProviders(new DummyPatientResourceProvider());
+		ourServlet.setPlainProviders(new DummySystemProvider());
+		ServletHolder servletHolder = new ServletHolder(ourServlet);
+		proxyHandler.addServletWithMapping(servletHolder, "/*");
+		ourServer.setHandler(proxyHandler);
+		ourServer.start();
+
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(5000, TimeUnit.MILLISECONDS);
+		HttpClientBuilder builder = HttpClientBuilder.create();
+		builder.setConnectionManager(connectionManager);
+		ourClient = builder.build();
+	}
+
+	private static String createPatientJson() {
+		Patient patient = new Patient();
+		patient.addName().addFamily("FAMILY");
+		return ourCtx.newJsonParser().encodeResourceToString(patient);
+	}
+
+	private static String createTransactionJson(int theEntryCount) {
+		Bundle bundle = new Bundle();
+		bundle.setType(BundleTypeEnum.TRANSACTION);
+		for (int i = 0; i < theEntryCount; i++) {
+			Patient patient = new Patient();
+			patient.addIdentifier().setSystem("urn:system").setValue("identifier" + i);
+			patient.addName().addFamily("FAMILY" + i).addGiven("GIVEN" + i);
+			Bundle.Entry entry = bundle.addEntry();
+			entry.setResource(patient);
+			entry.getRequest().setMethod(HTTPVerbEnum.POST);
+			entry.getRequest().setUrl("Patient");
+		}
+		return ourCtx.newJsonParser().encodeResourceToString(bundle);
+	}
+
+	private static byte[] deflate(String theContents) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		OutputStream os = new DeflaterOutputStream(bos);
+		os.write(theContents.getBytes("UTF-8"));
+		os.close();
+		return bos.toByteArray();
+	}
+
+	private static byte[] gzip(String theContents) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		OutputStream os = new GZIPOutputStream(bos);
+		os.write(theContents.getBytes("UTF-8"));
+		os.close();
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Posts a large gzipped transaction and reports the peak heap usage of the server, which
+	 * no longer needs to hold the compressed, uncompressed and decoded copies of the body
+	 */
+	public static void main(String[] theArgs) throws Exception {
+		beforeClass();
+		try {
+			byte[] body = gzip(createTransactionJson(20000));
+			ourLog.info("Compressed transaction is {} bytes", body.length);
+
+			for (int pass = 0; pass < 5; pass++) {
+				System.gc();
+				List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+				for (MemoryPoolMXBean next : ManagementFactory.getMemoryPoolMXBeans()) {
+					if (next.getType() == MemoryType.HEAP) {
+						next.resetPeakUsage();
+						heapPools.add(next);
+					}
+				}
+
+				long start = System.nanoTime();
+				HttpPost httpPost = new HttpPost("http://localhost:" + ourPort + "/");
+				assertEquals(200, new StreamingRequestBodyDstu2Test().execute(httpPost, body, Constants.ENCODING_GZIP));
+				long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+				long peak = 0;
+				for (MemoryPoolMXBean next : heapPools) {
+					peak += next.getPeakUsage().getUsed();
+				}
+				ourLog.info("Pass {}: {}ms, peak heap {}MB", new Object[] { pass, millis, peak / (1024 * 1024) });
+			}
+		} finally {
+			afterClassClearContext();
+		}
+	}
+
+	public static class DummyPatientResourceProvider implements IResourceProvider {
+
+		@Create
+		public MethodOutcome create(@ResourceParam Patient thePatient) {
+			ourLastPatient = thePatient;
+			return new MethodOutcome(new IdDt("Patient/1/_history/1"), true);
+		}
+
+		@Override
+		public Class<? extends IResource> getResourceType() {
+			return Patient.class;
+		}
+
+		/**
+		 * The body is parsed for interceptors before the method parameters are created, so it must
+		 * be buffered before then
+		 */
+		@Validate
+		public MethodOutcome validate(@ResourceParam Patient thePatient, @ResourceParam String theRawBody) {
+			ourLastPatient = thePatient;
+			ourLastRawBody = theRawBody;
+			return new MethodOutcome();
+		}
+
+		/**
+		 * Uses both a parsed and a raw body parameter, so the body is buffered rather than streamed
+		 */
+		@Update
+		public MethodOutcome update(@IdParam IdDt theId, @ResourceParam Patient thePatient, @ResourceParam String theRawBody) {
+			ourLastPatient = thePatient;
+			ourLastRawBody = theRawBody;
+			return new MethodOutcome(theId.withVersion("2"), false);
+		}
+
+	}
+
+	public static class DummySystemProvider {
+
+		@Transaction
+		public Bundle transaction(@TransactionParam Bundle theBundle) {
+			ourLastTransactionSize = theBundle.getEntry().size();
+			Bundle retVal = new Bundle();
+			retVal.setType(BundleTypeEnum.TRANSACTION_RESPONSE);
+			return retVal;
+		}
+
+	}
+
+}
@@ -0,0 +1,244 @@
+package ca.uhn.fhir.rest.server;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.api.IResource;
+import ca.uhn.fhir.model.dstu2.resource.Bundle;
+import ca.uhn.fhir.model.dstu2.resource.Patient;
+import ca.uhn.fhir.model.primitive.InstantDt;
+import ca.uhn.fhir.rest.annotation.Search;
+import ca.uhn.fhir.rest.api.SummaryEnum;
+import ca.uhn.fhir.util.PortUtil;
+import ca.uhn.fhir.util.TestUtil;
+
+public class SummaryAwareBundleProviderDstu2Test {
+
+	private static CloseableHttpClient ourClient;
+	private static FhirContext ourCtx = FhirContext.forDstu2();
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(SummaryAwareBundleProviderDstu2Test.class);
+	private static int ourPort;
+	private static DummyBundleProvider ourProvider;
+	private static Server ourServer;
+	private static IBundleProvider ourStoredResultList;
+
+	@Before
+	public void before() {
+		ourProvider = new DummyBundleProvider(25);
+		ourStoredResultList = null;
+	}
+
+	private String execute(String theUrl) throws Exception {
+		CloseableHttpResponse status = ourClient.execute(new HttpGet(theUrl));
+		try {
+			String responseContent = IOUtils.toString(status.getEntity().getContent(), Constants.CHARSET_UTF8);
+			ourLog.info(responseContent);
+			assertEquals(200, status.getStatusLine().getStatusCode());
+			return responseContent;
+		} finally {
+			status.close();
+		}
+	}
+
+	@Test
+	public void testSearchElementsUsesView() throws Exception {
+		String responseContent = execute("http://localhost:" + ourPort + "/Patient?_elements=id&_count=10&_format=json");
+		assertThat(responseContent, not(containsString("FAMILY")));
+		assertEquals(1, ourProvider.myViewCalls.size());
+		assertEquals("0-10 [FALSE] [id]", ourProvider.myViewCalls.get(0));
+		assertEquals(0, ourProvider.myFullCalls.size());
+
+		// The view only applies to the first page, so the complete results are stored for paging
+		assertSame(ourProvider, ourStoredResultList);
+
+		Bundle bundle = ourCtx.newJsonParser().parseResource(Bundle.class, responseContent);
+		responseContent = execute(bundle.getLink(Constants.LINK_NEXT).getUrl());
+		assertThat(responseContent, containsString("FAMILY"));
+		assertEquals(1, ourProvider.myFullCalls.size());
+		assertEquals("10-20", ourProvider.myFullCalls.get(0));
+	}
+
+	@Test
+	public void testSearchSummaryCountLoadsNoResources() throws Exception {
+		String responseContent = execute("http://localhost:" + ourPort + "/Patient?_summary=count&_format=json");
+		assertThat(responseContent, containsString("\"total\":25"));
+		assertEquals(0, ourProvider.myFullCalls.size());
+		assertEquals(0, ourProvider.myViewCalls.size());
+		assertNull(ourStoredResultList);
+	}
+
+	@Test
+	public void testSearchSummaryTrueUsesView() throws Exception {
+		execute("http://localhost:" + ourPort + "/Patient?_summary=true&_count=100");
+		assertEquals(1, ourProvider.myViewCalls.size());
+		assertEquals("0-25 [TRUE] null", ourProvider.myViewCalls.get(0));
+		assertNull(ourStoredResultList);
+	}
+
+	@Test
+	public void testSearchWithoutViewLoadsFullResources() throws Exception {
+		String responseContent = execute("http://localhost:" + ourPort + "/Patient?_count=10");
+		assertThat(responseContent, containsString("FAMILY"));
+		assertEquals(1, ourProvider.myFullCalls.size());
+		assertEquals(0, ourProvider.myViewCalls.size());
+		assertSame(ourProvider, ourStoredResultList);
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() throws Exception {
+		ourServer.stop();
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@BeforeClass
+	public static void beforeClass() throws Exception {
+		ourPort = PortUtil.findFreePort();
+		ourServer = new Server(ourPort);
+
+		ServletHandler proxyHandler = new ServletHandler();
+		RestfulServer servlet = new RestfulServer(ourCtx);
+		FifoMemoryPagingProvider pagingProvider = new FifoMemoryPagingProvider(10) {
+			@Override
+			public synchronized String storeResultList(IBundleProvider theList) {
+				ourStoredResultList = theList;
+				return super.storeResultList(theList);
+			}
+		};
+		pagingProvider.setMaximumPageSize(1000);
+		servlet.setPagingProvider(pagingProvider);
+		servlet.setResourceProviders(new DummyPatientResourceProvider());
+		ServletHolder servletHolder = new ServletHolder(servlet);
+		proxyHandler.addServletWithMapping(servletHolder, "/*");
+		ourServer.setHandler(proxyHandler);
+		ourServer.start();
+
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(5000, TimeUnit.MILLISECONDS);
+		HttpClientBuilder builder = HttpClientBuilder.create();
+		builder.setConnectionManager(connectionManager);
+		ourClient = builder.build();
+	}
+
+	/**
+	 * Compares the latency of a large searchset page with and without a view which lets the
+	 * provider skip building complete resources (loading is simulated by parsing a stored copy
+	 * of each resource, as a database-backed provider would)
+	 */
+	public static void main(String[] theArgs) throws Exception {
+		beforeClass();
+		try {
+			String[] queries = new String[] { "_count=1000", "_count=1000&_elements=id", "_summary=count" };
+			for (int pass = 0; pass < 5; pass++) {
+				for (String nextQuery : queries) {
+					ourProvider = new DummyBundleProvider(5000);
+					long start = System.nanoTime();
+					new SummaryAwareBundleProviderDstu2Test().execute("http://localhost:" + ourPort + "/Patient?_format=json&" + nextQuery);
+					long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+					ourLog.info("Pass {} {}: {}ms", new Object[] { pass, nextQuery, millis });
+				}
+			}
+		} finally {
+			afterClassClearContext();
+		}
+	}
+
+	private static class DummyBundleProvider implements ISummaryAwareBundleProvider {
+
+		private final List<String> myFullCalls = Collections.synchronizedList(new ArrayList<String>());
+		private final int mySize;
+		private final String myStoredResource;
+		private final List<String> myViewCalls = Collections.synchronizedList(new ArrayList<String>());
+
+		public DummyBundleProvider(int theSize) {
+			mySize = theSize;
+			Patient patient = new Patient();
+			patient.addIdentifier().setSystem("urn:system").setValue("IDENTIFIER");
+			patient.addName().addFamily("FAMILY").addGiven("GIVEN");
+			patient.addTelecom().setValue("555-555-5555");
+			myStoredResource = ourCtx.newJsonParser().encodeResourceToString(patient);
+		}
+
+		@Override
+		public InstantDt getPublished() {
+			return InstantDt.withCurrentTime();
+		}
+
+		@Override
+		public List<IBaseResource> getResources(int theFromIndex, int theToIndex) {
+			myFullCalls.add(theFromIndex + "-" + theToIndex);
+			return loadResources(theFromIndex, theToIndex, true);
+		}
+
+		@Override
+		public List<IBaseResource> getResources(int theFromIndex, int theToIndex, Set<SummaryEnum> theSummaryMode, Set<String> theElements) {
+			myViewCalls.add(theFromIndex + "-" + theToIndex + " " + theSummaryMode + " " + theElements);
+			return loadResources(theFromIndex, theToIndex, theElements == null);
+		}
+
+		private List<IBaseResource> loadResources(int theFromIndex, int theToIndex, boolean theFull) {
+			List<IBaseResource> retVal = new ArrayList<IBaseResource>();
+			for (int i = theFromIndex; i < theToIndex; i++) {
+				Patient patient;
+				if (theFull) {
+					patient = ourCtx.newJsonParser().parseResource(Patient.class, myStoredResource);
+				} else {
+					patient = new Patient();
+				}
+				patient.setId("Patient/" + i);
+				retVal.add(patient);
+			}
+			return retVal;
+		}
+
+		@Override
+		public Integer preferredPageSize() {
+			return null;
+		}
+
+		@Override
+		public int size() {
+			return mySize;
+		}
+
+	}
+
+	public static class DummyPatientResourceProvider implements IResourceProvider {
+
+		@Override
+		public Class<? extends IResource> getResourceType() {
+			return Patient.class;
+		}
+
+		@Search
+		public IBundleProvider search() {
+			return ourProvider;
+		}
+
+	}
+
+}
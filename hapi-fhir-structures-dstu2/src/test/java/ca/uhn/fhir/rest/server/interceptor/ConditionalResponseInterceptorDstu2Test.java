@@ -0,0 +1,422 @@
+package ca.uhn.fhir.rest.server.interceptor;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.api.IResource;
+import ca.uhn.fhir.model.api.ResourceMetadataKeyEnum;
+import ca.uhn.fhir.model.dstu2.resource.Bundle;
+import ca.uhn.fhir.model.dstu2.resource.Patient;
+import ca.uhn.fhir.model.primitive.IdDt;
+import ca.uhn.fhir.model.primitive.InstantDt;
+import ca.uhn.fhir.rest.annotation.IdParam;
+import ca.uhn.fhir.rest.annotation.Read;
+import ca.uhn.fhir.rest.annotation.Search;
+import ca.uhn.fhir.rest.method.RequestDetails;
+import ca.uhn.fhir.rest.server.Constants;
+import ca.uhn.fhir.rest.server.EncodedResourceCache;
+import ca.uhn.fhir.rest.server.FifoMemoryPagingProvider;
+import ca.uhn.fhir.rest.server.IResourceProvider;
+import ca.uhn.fhir.rest.server.RestfulServer;
+import ca.uhn.fhir.rest.server.interceptor.auth.AuthorizationInterceptor;
+import ca.uhn.fhir.rest.server.interceptor.auth.IAuthRule;
+import ca.uhn.fhir.rest.server.interceptor.auth.RuleBuilder;
+import ca.uhn.fhir.util.DateUtils;
+import ca.uhn.fhir.util.PortUtil;
+import ca.uhn.fhir.util.TestUtil;
+
+public class ConditionalResponseInterceptorDstu2Test {
+
+	private static CloseableHttpClient ourClient;
+	private static CloseableHttpClient ourClientWithoutDecompression;
+	private static FhirContext ourCtx = FhirContext.forDstu2();
+	private static ConditionalResponseInterceptor ourInterceptor;
+	private static boolean ourDenyReads;
+	private static final Date ourLastUpdated = new Date(1466000000000L);
+	private static int ourPort;
+	private static int ourReadCount;
+	private static Server ourServer;
+	private static RestfulServer ourServlet;
+	private static String ourVersion;
+
+	@Before
+	public void before() {
+		ourInterceptor = new ConditionalResponseInterceptor();
+		ourServlet.setInterceptors(ourInterceptor);
+		ourReadCount = 0;
+		ourVersion = "1";
+		ourDenyReads = false;
+	}
+
+	private CloseableHttpResponse get(String theUrl, String theHeaderName, String theHeaderValue) throws Exception {
+		HttpGet httpGet = new HttpGet(theUrl);
+		if (theHeaderName != null) {
+			httpGet.addHeader(theHeaderName, theHeaderValue);
+		}
+		return ourClient.execute(httpGet);
+	}
+
+	private static String headerValueOrNull(CloseableHttpResponse theResponse, String theName) {
+		Header header = theResponse.getFirstHeader(theName);
+		return header != null ? header.getValue() : null;
+	}
+
+	private static String readAndClose(CloseableHttpResponse theResponse) throws Exception {
+		try {
+			if (theResponse.getEntity() == null) {
+				return null;
+			}
+			return IOUtils.toString(theResponse.getEntity().getContent(), Constants.CHARSET_UTF8);
+		} finally {
+			theResponse.close();
+		}
+	}
+
+	@Test
+	public void testMetadataServedFromCache() throws Exception {
+		ourInterceptor.setCacheImmutableResponses(true);
+
+		CloseableHttpResponse status = get("http://localhost:" + ourPort + "/metadata?_format=json", null, null);
+		String first = readAndClose(status);
+		assertEquals(200, status.getStatusLine().getStatusCode());
+		assertEquals(1, ourInterceptor.getCacheMissCount());
+		assertEquals(1, ourInterceptor.getCacheSize());
+
+		status = get("http://localhost:" + ourPort + "/metadata?_format=json", null, null);
+		String second = readAndClose(status);
+		assertEquals(200, status.getStatusLine().getStatusCode());
+		assertThat(status.getFirstHeader(Constants.HEADER_CONTENT_TYPE).getValue(), containsString(Constants.CT_FHIR_JSON));
+		assertEquals(first, second);
+		assertEquals(1, ourInterceptor.getCacheHitCount());
+
+		// Different encoding is a different cache entry
+		status = get("http://localhost:" + ourPort + "/metadata?_format=xml", null, null);
+		readAndClose(status);
+		assertEquals(2, ourInterceptor.getCacheMissCount());
+		assertEquals(2, ourInterceptor.getCacheSize());
+
+		ourInterceptor.clearCache();
+		assertEquals(0, ourInterceptor.getCacheSize());
+	}
+
+	@Test
+	public void testReadIfModifiedSince() throws Exception {
+		String url = "http://localhost:" + ourPort + "/Patient/1";
+
+		CloseableHttpResponse status = get(url, Constants.HEADER_IF_MODIFIED_SINCE, DateUtils.formatDate(ourLastUpdated));
+		readAndClose(status);
+		assertEquals(304, status.getStatusLine().getStatusCode());
+
+		status = get(url, Constants.HEADER_IF_MODIFIED_SINCE, DateUtils.formatDate(new Date(ourLastUpdated.getTime() - 60000)));
+		readAndClose(status);
+		assertEquals(200, status.getStatusLine().getStatusCode());
+		assertEquals(1, ourInterceptor.getNotModifiedCount());
+	}
+
+	@Test
+	public void testSearchETag() throws Exception {
+		String url = "http://localhost:" + ourPort + "/Patient?_format=json";
+
+		CloseableHttpResponse status = get(url, null, null);
+		readAndClose(status);
+		assertEquals(200, status.getStatusLine().getStatusCode());
+		String eTag = headerValueOrNull(status, Constants.HEADER_ETAG);
+		assertNotNull(eTag);
+		assertThat(eTag, startsWith("\""));
+
+		status = get(url, Constants.HEADER_IF_NONE_MATCH, eTag);
+		assertNull(readAndClose(status));
+		assertEquals(304, status.getStatusLine().getStatusCode());
+		assertEquals(eTag, headerValueOrNull(status, Constants.HEADER_ETAG));
+		assertEquals(1, ourInterceptor.getNotModifiedCount());
+
+		// Same search, different encoding
+		status = get("http://localhost:" + ourPort + "/Patient?_format=xml", Constants.HEADER_IF_NONE_MATCH, eTag);
+		readAndClose(status);
+		assertEquals(200, status.getStatusLine().getStatusCode());
+		assertNotEquals(eTag, headerValueOrNull(status, Constants.HEADER_ETAG));
+
+		// A resource in the results has changed
+		ourVersion = "2";
+		status = get(url, Constants.HEADER_IF_NONE_MATCH, eTag);
+		String responseContent = readAndClose(status);
+		assertEquals(200, status.getStatusLine().getStatusCode());
+		assertNotEquals(eTag, headerValueOrNull(status, Constants.HEADER_ETAG));
+		Bundle bundle = ourCtx.newJsonParser().parseResource(Bundle.class, responseContent);
+		assertEquals("2", bundle.getEntry().get(0).getResource().getIdElement().getVersionIdPart());
+		assertEquals(1, ourInterceptor.getNotModifiedCount());
+	}
+
+	@Test
+	public void testSearchPageIfModifiedSince() throws Exception {
+		CloseableHttpResponse status = get("http://localhost:" + ourPort + "/Patient?_count=1&_format=json", null, null);
+		String responseContent = readAndClose(status);
+		Bundle bundle = ourCtx.newJsonParser().parseResource(Bundle.class, responseContent);
+		String nextUrl = bundle.getLink(Bundle.LINK_NEXT).getUrl();
+		assertThat(nextUrl, containsString(Constants.PARAM_PAGINGACTION));
+
+		status = get(nextUrl, Constants.HEADER_IF_MODIFIED_SINCE, DateUtils.formatDate(new Date()));
+		readAndClose(status);
+		assertEquals(304, status.getStatusLine().getStatusCode());
+
+		status = get(nextUrl, Constants.HEADER_IF_MODIFIED_SINCE, DateUtils.formatDate(new Date(ourLastUpdated.getTime() - 60000)));
+		readAndClose(status);
+		assertEquals(200, status.getStatusLine().getStatusCode());
+		String eTag = headerValueOrNull(status, Constants.HEADER_ETAG);
+		assertNotNull(eTag);
+
+		status = get(nextUrl, Constants.HEADER_IF_NONE_MATCH, eTag);
+		readAndClose(status);
+		assertEquals(304, status.getStatusLine().getStatusCode());
+	}
+
+	@Test
+	public void testSearchWithoutFirstPageIfModifiedSince() throws Exception {
+		// The first page of a search could gain or lose entries so If-Modified-Since is not applied
+		CloseableHttpResponse status = get("http://localhost:" + ourPort + "/Patient", Constants.HEADER_IF_MODIFIED_SINCE, DateUtils.formatDate(new Date()));
+		readAndClose(status);
+		assertEquals(200, status.getStatusLine().getStatusCode());
+	}
+
+	@Test
+	public void testVreadServedFromCache() throws Exception {
+		ourInterceptor.setCacheImmutableResponses(true);
+		String url = "http://localhost:" + ourPort + "/Patient/1/_history/1";
+
+		CloseableHttpResponse status = get(url, null, null);
+		String first = readAndClose(status);
+		assertEquals(200, status.getStatusLine().getStatusCode());
+		assertEquals(1, ourReadCount);
+		assertThat(first, containsString("FAMILY1"));
+		assertThat(status.getFirstHeader(Constants.HEADER_CONTENT_TYPE).getValue(), containsString(Constants.CT_FHIR_XML));
+		assertEquals("W/\"1\"", headerValueOrNull(status, Constants.HEADER_ETAG));
+		assertEquals("http://localhost:" + ourPort + "/Patient/1/_history/1", headerValueOrNull(status, Constants.HEADER_CONTENT_LOCATION));
+
+		status = get(url, null, null);
+		String second = readAndClose(status);
+		assertEquals(200, status.getStatusLine().getStatusCode());
+		assertEquals(first, second);
+		assertEquals(1, ourReadCount);
+		assertEquals(1, ourInterceptor.getCacheHitCount());
+		assertEquals("W/\"1\"", headerValueOrNull(status, Constants.HEADER_ETAG));
+		assertEquals(DateUtils.formatDate(ourLastUpdated), headerValueOrNull(status, Constants.HEADER_LAST_MODIFIED));
+		assertEquals("http://localhost:" + ourPort + "/Patient/1/_history/1", headerValueOrNull(status, Constants.HEADER_CONTENT_LOCATION));
+
+		status = get(url, Constants.HEADER_IF_NONE_MATCH, "W/\"1\"");
+		readAndClose(status);
+		assertEquals(304, status.getStatusLine().getStatusCode());
+		assertEquals(1, ourReadCount);
+
+		// Non version specific reads are never cached
+		status = get("http://localhost:" + ourPort + "/Patient/1", null, null);
+		readAndClose(status);
+		status = get("http://localhost:" + ourPort + "/Patient/1", null, null);
+		readAndClose(status);
+		assertEquals(3, ourReadCount);
+		assertEquals(1, ourInterceptor.getCacheSize());
+	}
+
+	@Test
+	public void testVreadServedFromCacheGzip() throws Exception {
+		ourInterceptor.setCacheImmutableResponses(true);
+		String url = "http://localhost:" + ourPort + "/Patient/1/_history/1";
+
+		String first = readAndClose(get(url, null, null));
+
+		HttpGet httpGet = new HttpGet(url);
+		httpGet.addHeader(Constants.HEADER_ACCEPT_ENCODING, Constants.ENCODING_GZIP);
+		CloseableHttpResponse status = ourClientWithoutDecompression.execute(httpGet);
+		try {
+			assertEquals(200, status.getStatusLine().getStatusCode());
+			assertEquals(Constants.ENCODING_GZIP, headerValueOrNull(status, Constants.HEADER_CONTENT_ENCODING));
+			String second = IOUtils.toString(new GZIPInputStream(status.getEntity().getContent()), Constants.CHARSET_UTF8);
+			assertEquals(first, second);
+		} finally {
+			status.close();
+		}
+		assertEquals(1, ourReadCount);
+		assertEquals(1, ourInterceptor.getCacheHitCount());
+	}
+
+	@Test
+	public void testVreadMissInvokesOtherInterceptors() throws Exception {
+		ourInterceptor.setCacheImmutableResponses(true);
+		CountingInterceptor counter = new CountingInterceptor();
+		ourServlet.setInterceptors(ourInterceptor, counter);
+		String url = "http://localhost:" + ourPort + "/Patient/1/_history/1";
+
+		CloseableHttpResponse status = get(url, null, null);
+		String first = readAndClose(status);
+		assertEquals(200, status.getStatusLine().getStatusCode());
+		assertEquals(1, counter.myOutgoingResponseCount);
+
+		String second = readAndClose(get(url, null, null));
+		assertEquals(first, second);
+		assertEquals(1, ourReadCount);
+	}
+
+	@Test
+	public void testVreadNotCachedWithAuthorizationInterceptor() throws Exception {
+		ourInterceptor.setCacheImmutableResponses(true);
+		ourServlet.setInterceptors(ourInterceptor, new AuthorizationInterceptor() {
+			@Override
+			public List<IAuthRule> buildRuleList(RequestDetails theRequestDetails) {
+				if (ourDenyReads) {
+					return new RuleBuilder().denyAll("Deny reads").build();
+				}
+				return new RuleBuilder().allowAll("Allow reads").build();
+			}
+		});
+		String url = "http://localhost:" + ourPort + "/Patient/1/_history/1";
+
+		CloseableHttpResponse status = get(url, null, null);
+		readAndClose(status);
+		assertEquals(200, status.getStatusLine().getStatusCode());
+
+		ourDenyReads = true;
+		status = get(url, null, null);
+		readAndClose(status);
+		assertEquals(403, status.getStatusLine().getStatusCode());
+		assertEquals(2, ourReadCount);
+		assertEquals(0, ourInterceptor.getCacheSize());
+		assertEquals(0, ourInterceptor.getCacheHitCount());
+	}
+
+	@Test
+	public void testVreadSharesServerEncodedResourceCache() throws Exception {
+		EncodedResourceCache encodedResourceCache = new EncodedResourceCache();
+		ourServlet.setEncodedResourceCache(encodedResourceCache);
+		try {
+			ourInterceptor.setCacheImmutableResponses(true);
+			String url = "http://localhost:" + ourPort + "/Patient/1/_history/1";
+
+			String first = readAndClose(get(url, null, null));
+			assertEquals(1, encodedResourceCache.getSize());
+
+			String second = readAndClose(get(url, null, null));
+			assertEquals(first, second);
+			assertEquals(1, ourReadCount);
+
+			// Invalidating the resource in the server's cache also applies to this interceptor
+			encodedResourceCache.invalidate(new IdDt("Patient/1"));
+			CloseableHttpResponse status = get(url, null, null);
+			String third = readAndClose(status);
+			assertEquals(200, status.getStatusLine().getStatusCode());
+			assertEquals(first, third);
+			assertEquals(2, ourReadCount);
+		} finally {
+			ourServlet.setEncodedResourceCache(null);
+		}
+	}
+
+	@Test
+	public void testVreadWithSummaryNotCached() throws Exception {
+		ourInterceptor.setCacheImmutableResponses(true);
+		String url = "http://localhost:" + ourPort + "/Patient/1/_history/1?_summary=true";
+
+		readAndClose(get(url, null, null));
+		readAndClose(get(url, null, null));
+		assertEquals(2, ourReadCount);
+		assertEquals(0, ourInterceptor.getCacheSize());
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() throws Exception {
+		ourServer.stop();
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@BeforeClass
+	public static void beforeClass() throws Exception {
+		ourPort = PortUtil.findFreePort();
+		ourServer = new Server(ourPort);
+
+		ServletHandler proxyHandler = new ServletHandler();
+		ourServlet = new RestfulServer(ourCtx);
+		ourServlet.setResourceProviders(new DummyPatientResourceProvider());
+		ourServlet.setPagingProvider(new FifoMemoryPagingProvider(10));
+		ServletHolder servletHolder = new ServletHolder(ourServlet);
+		proxyHandler.addServletWithMapping(servletHolder, "/*");
+		ourServer.setHandler(proxyHandler);
+		ourServer.start();
+
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(5000, TimeUnit.MILLISECONDS);
+		HttpClientBuilder builder = HttpClientBuilder.create();
+		builder.setConnectionManager(connectionManager);
+		ourClient = builder.build();
+		ourClientWithoutDecompression = HttpClientBuilder.create().disableContentCompression().build();
+	}
+
+	private static Patient createPatient(String theId, String theVersion) {
+		Patient retVal = new Patient();
+		retVal.setId(new IdDt("Patient", theId, theVersion));
+		retVal.addName().addFamily("FAMILY" + theId);
+		ResourceMetadataKeyEnum.UPDATED.put(retVal, new InstantDt(ourLastUpdated));
+		return retVal;
+	}
+
+	private static class CountingInterceptor extends InterceptorAdapter {
+		private int myOutgoingResponseCount;
+
+		@Override
+		public boolean outgoingResponse(RequestDetails theRequestDetails, IBaseResource theResponseObject, HttpServletRequest theServletRequest, HttpServletResponse theServletResponse) {
+			myOutgoingResponseCount++;
+			return true;
+		}
+	}
+
+	public static class DummyPatientResourceProvider implements IResourceProvider {
+
+		@Override
+		public Class<? extends IResource> getResourceType() {
+			return Patient.class;
+		}
+
+		@Read(version = true)
+		public Patient read(@IdParam IdDt theId) {
+			ourReadCount++;
+			return createPatient(theId.getIdPart(), theId.hasVersionIdPart() ? theId.getVersionIdPart() : ourVersion);
+		}
+
+		@Search
+		public List<Patient> search() {
+			List<Patient> retVal = new ArrayList<Patient>();
+			retVal.add(createPatient("1", ourVersion));
+			retVal.add(createPatient("2", "1"));
+			return retVal;
+		}
+
+	}
+
+}
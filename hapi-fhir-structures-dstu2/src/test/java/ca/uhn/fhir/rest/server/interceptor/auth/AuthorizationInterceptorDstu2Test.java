@@ -11,6 +11,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpEntity;
@@ -681,8 +682,113 @@ public class AuthorizationInterceptorDstu2Test {
 		assertFalse(ourHitMethod);
 	}
 
-	
-	
+	@Test
+	public void testReadByCompartmentWithMultipleOwners() throws Exception {
+		ourServlet.registerInterceptor(new AuthorizationInterceptor(PolicyEnum.DENY) {
+			@Override
+			public List<IAuthRule> buildRuleList(RequestDetails theRequestDetails) {
+				//@formatter:off
+				return new RuleBuilder()
+					.allow("Rule 1").read().allResources().inCompartment("Patient", Arrays.asList(new IdDt("Patient/1"), new IdDt("Patient/2")))
+					.build();
+				//@formatter:on
+			}
+		});
+
+		HttpGet httpGet;
+		HttpResponse status;
+
+		ourReturn = Arrays.asList(createPatient(2), createObservation(10, "Patient/1"), createObservation(11, "Patient/2"));
+		httpGet = new HttpGet("http://localhost:" + ourPort + "/Patient");
+		status = ourClient.execute(httpGet);
+		extractResponseAndClose(status);
+		assertEquals(200, status.getStatusLine().getStatusCode());
+
+		ourReturn = Arrays.asList(createObservation(10, "Patient/1"), createObservation(12, "Patient/3"));
+		httpGet = new HttpGet("http://localhost:" + ourPort + "/Patient");
+		status = ourClient.execute(httpGet);
+		assertThat(extractResponseAndClose(status), containsString("Access denied by default policy (no applicable rules)"));
+		assertEquals(403, status.getStatusLine().getStatusCode());
+	}
+
+	@Test
+	public void testRuleListBuiltOncePerRequest() throws Exception {
+		final AtomicInteger buildCount = new AtomicInteger();
+		AuthorizationInterceptor interceptor = new AuthorizationInterceptor(PolicyEnum.DENY) {
+			@Override
+			public List<IAuthRule> buildRuleList(RequestDetails theRequestDetails) {
+				buildCount.incrementAndGet();
+				//@formatter:off
+				return new RuleBuilder()
+					.allow("Rule 1").read().resourcesOfType(Patient.class).withAnyId().andThen()
+					.allow("Rule 2").read().resourcesOfType(Observation.class).inCompartment("Patient", new IdDt("Patient/1"))
+					.build();
+				//@formatter:on
+			}
+		};
+		ourServlet.registerInterceptor(interceptor);
+
+		ourReturn = Arrays.asList(createPatient(1), createObservation(10, "Patient/1"), createObservation(11, "Patient/1"));
+		HttpGet httpGet = new HttpGet("http://localhost:" + ourPort + "/Patient");
+		HttpResponse status = ourClient.execute(httpGet);
+		extractResponseAndClose(status);
+		assertEquals(200, status.getStatusLine().getStatusCode());
+
+		assertEquals(1, buildCount.get());
+		assertEquals(1, interceptor.getDecisionCount());
+		assertTrue(interceptor.getDecisionTimeNanos() > 0);
+	}
+
+	@Test
+	public void testRuleListCachedByKey() throws Exception {
+		final AtomicInteger buildCount = new AtomicInteger();
+		AuthorizationInterceptor interceptor = new AuthorizationInterceptor(PolicyEnum.DENY) {
+			@Override
+			public List<IAuthRule> buildRuleList(RequestDetails theRequestDetails) {
+				buildCount.incrementAndGet();
+				//@formatter:off
+				return new RuleBuilder()
+					.allow("Rule 1").read().resourcesOfType(Patient.class).inCompartment("Patient", new IdDt(theRequestDetails.getHeader("X-Patient")))
+					.build();
+				//@formatter:on
+			}
+
+			@Override
+			protected Object getRuleListCacheKey(RequestDetails theRequestDetails) {
+				return theRequestDetails.getHeader("X-Patient");
+			}
+		};
+		ourServlet.registerInterceptor(interceptor);
+
+		HttpGet httpGet;
+		HttpResponse status;
+
+		ourReturn = Arrays.asList(createPatient(1));
+		for (int i = 0; i < 3; i++) {
+			httpGet = new HttpGet("http://localhost:" + ourPort + "/Patient/1");
+			httpGet.addHeader("X-Patient", "Patient/1");
+			status = ourClient.execute(httpGet);
+			extractResponseAndClose(status);
+			assertEquals(200, status.getStatusLine().getStatusCode());
+		}
+		assertEquals(1, buildCount.get());
+
+		// A different key gets its own rule list
+		httpGet = new HttpGet("http://localhost:" + ourPort + "/Patient/1");
+		httpGet.addHeader("X-Patient", "Patient/2");
+		status = ourClient.execute(httpGet);
+		extractResponseAndClose(status);
+		assertEquals(403, status.getStatusLine().getStatusCode());
+		assertEquals(2, buildCount.get());
+
+		interceptor.invalidateRuleListCache("Patient/1");
+		httpGet = new HttpGet("http://localhost:" + ourPort + "/Patient/1");
+		httpGet.addHeader("X-Patient", "Patient/1");
+		status = ourClient.execute(httpGet);
+		extractResponseAndClose(status);
+		assertEquals(200, status.getStatusLine().getStatusCode());
+		assertEquals(3, buildCount.get());
+	}
 
 	@AfterClass
 	public static void afterClassClearContext() throws Exception {
@@ -2,6 +2,8 @@ package ca.uhn.fhir.util;
 
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
@@ -11,17 +13,21 @@ import static org.mockito.Mockito.when;
 
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.hl7.fhir.instance.model.api.IBase;
 import org.hl7.fhir.instance.model.api.IBaseReference;
+import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.junit.AfterClass;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
 import ca.uhn.fhir.context.BaseRuntimeChildDefinition;
 import ca.uhn.fhir.context.BaseRuntimeElementDefinition;
+import ca.uhn.fhir.context.ConfigurationException;
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeSearchParam;
 import ca.uhn.fhir.model.api.ExtensionDt;
 import ca.uhn.fhir.model.dstu2.composite.IdentifierDt;
 import ca.uhn.fhir.model.dstu2.composite.MoneyDt;
@@ -38,6 +44,7 @@ import ca.uhn.fhir.parser.DataFormatException;
 public class FhirTerserDstu2Test {
 
 	private static FhirContext ourCtx = FhirContext.forDstu2();
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(FhirTerserDstu2Test.class);
 
 	@Test
 	public void testCloneIntoComposite() {
@@ -131,6 +138,61 @@ public class FhirTerserDstu2Test {
 		assertEquals("COMMENTS", obs.getComments());
    }
 
+	@Test
+	public void testGetAllPopulatedChildElementsOfTypeFindsResourcesAndReferencesInExtensions() {
+		Patient p = new Patient();
+		p.addName().addFamily("PATIENT").addUndeclaredExtension(false, "urn:foo", new ResourceReferenceDt("Practitioner/1"));
+		p.getManagingOrganization().setReference("Organization/1");
+
+		Organization o = new Organization();
+		o.setName("ORG");
+		o.getPartOf().setReference("Organization/2");
+		p.getContained().getContainedResources().add(o);
+
+		FhirTerser t = ourCtx.newTerser();
+		List<IBaseResource> resources = t.getAllPopulatedChildElementsOfType(p, IBaseResource.class);
+		assertEquals(2, resources.size());
+		assertSame(p, resources.get(0));
+		assertSame(o, resources.get(1));
+
+		List<IBaseReference> refs = t.getAllPopulatedChildElementsOfType(p, IBaseReference.class);
+		assertEquals(3, refs.size());
+		assertTrue(refs.contains(p.getManagingOrganization()));
+		assertTrue(refs.contains(o.getPartOf()));
+	}
+
+	@Test
+	public void testGetFirstPopulatedChildElementOfType() {
+		Patient p = new Patient();
+		p.addName().addFamily("FAMILY1").addFamily("FAMILY2");
+		p.getManagingOrganization().setReference("Organization/1");
+
+		FhirTerser t = ourCtx.newTerser();
+		assertEquals("FAMILY1", t.getFirstPopulatedChildElementOfType(p, StringDt.class).getValue());
+		assertSame(p.getManagingOrganization(), t.getFirstPopulatedChildElementOfType(p, IBaseReference.class));
+		assertSame(p, t.getFirstPopulatedChildElementOfType(p, IBaseResource.class));
+		assertNull(t.getFirstPopulatedChildElementOfType(p, QuantityDt.class));
+	}
+
+	@Test
+	public void testGetAllResourceReferencesPaths() {
+		Patient p = new Patient();
+		p.getManagingOrganization().setReference("Organization/1");
+		p.addContact().getOrganization().setReference("Organization/2");
+		p.addCareProvider().setReference("Practitioner/3");
+
+		Organization o = new Organization();
+		o.getPartOf().setReference("Organization/4");
+		p.getContained().getContainedResources().add(o);
+
+		List<ResourceReferenceInfo> refs = ourCtx.newTerser().getAllResourceReferences(p);
+		List<String> names = new ArrayList<String>();
+		for (ResourceReferenceInfo next : refs) {
+			names.add(next.getName() + "=" + next.getResourceReference().getReferenceElement().getValue());
+		}
+		assertThat(names, containsInAnyOrder("contact.organization=Organization/2", "careProvider=Practitioner/3", "managingOrganization=Organization/1", "partOf=Organization/4"));
+	}
+
 	@Test
 	public void testGetAllPopulatedChildElementsOfTypeDescendsIntoContained() {
 		Patient p = new Patient();
@@ -207,11 +269,159 @@ public class FhirTerserDstu2Test {
 
 	}
 
+	@Test
+	public void testCompilePathIsCachedPerContext() {
+		CompiledTerserPath path = ourCtx.newTerser().compilePath("Patient.name.family");
+		assertSame(path, ourCtx.newTerser().compilePath("Patient.name.family"));
+		assertEquals("Patient.name.family", path.getPath());
+
+		FhirContext otherCtx = FhirContext.forDstu2();
+		assertNotSame(path, otherCtx.newTerser().compilePath("Patient.name.family"));
+	}
+
+	@Test
+	public void testGetValuesWithCompiledPath() {
+		Patient p = new Patient();
+		p.addName().addFamily("FAMILY1").addFamily("FAMILY2");
+		p.addName().addFamily("FAMILY3");
+
+		FhirTerser t = ourCtx.newTerser();
+		CompiledTerserPath path = t.compilePath("Patient.name.family");
+		List<StringDt> values = t.getValues(p, path, StringDt.class);
+		assertEquals(3, values.size());
+		assertEquals("FAMILY1", values.get(0).getValue());
+		assertEquals("FAMILY3", values.get(2).getValue());
+
+		// The same compiled path may be used repeatedly, and against other instances
+		values = t.getValues(new Patient(), path, StringDt.class);
+		assertEquals(0, values.size());
+		values = t.getValues(p, path, StringDt.class);
+		assertEquals(3, values.size());
+	}
+
+	@Test
+	public void testGetValuesChoice() {
+		Observation obs = new Observation();
+		obs.setValue(new StringDt("VALUE"));
+
+		FhirTerser t = ourCtx.newTerser();
+		assertEquals(1, t.getValues(obs, "Observation.valueString").size());
+		assertEquals(0, t.getValues(obs, "Observation.valueQuantity").size());
+		assertEquals(1, t.getValues(obs, "Observation.value[x]").size());
+		assertEquals(0, t.getValues(obs, "Observation.valueString", QuantityDt.class).size());
+	}
+
+	@Test
+	public void testGetValuesInvalidPath() {
+		try {
+			ourCtx.newTerser().getValues(new Patient(), "Patient.foo");
+			fail();
+		} catch (DataFormatException e) {
+			// good
+		}
+		try {
+			ourCtx.newTerser().getValues(new Patient(), "Patient");
+			fail();
+		} catch (ConfigurationException e) {
+			// good
+		}
+	}
+
+	@Test
+	public void testGetSingleValueOrNull() {
+		Patient p = new Patient();
+		p.addName().addFamily("FAMILY1").addFamily("FAMILY2");
+
+		FhirTerser t = ourCtx.newTerser();
+		assertEquals("FAMILY1", t.getSingleValueOrNull(p.getNameFirstRep(), "family", StringDt.class).getValue());
+		assertNull(t.getSingleValueOrNull(p.getNameFirstRep(), "given", StringDt.class));
+	}
+
 	@AfterClass
 	public static void afterClassClearContext() {
 		TestUtil.clearAllStaticFieldsForUnitTest();
 	}
 
+	public static void main(String[] args) {
+		benchmarkGetValues();
+		benchmarkGetAllPopulatedChildElementsOfType();
+	}
+
+	/**
+	 * Searches a Bundle containing many deep resources for references and
+	 * resources, as the parser and JPA server do on every read and write
+	 */
+	private static void benchmarkGetAllPopulatedChildElementsOfType() {
+		Bundle b = new Bundle();
+		for (int i = 0; i < 100; i++) {
+			Patient p = new Patient();
+			p.setId("Patient/" + i);
+			p.addIdentifier().setSystem("urn:system").setValue("ID" + i).getAssigner().setReference("Organization/1");
+			p.addName().addFamily("FAMILY").addGiven("GIVEN").addGiven("GIVEN2");
+			p.addAddress().addLine("LINE1").addLine("LINE2").setCity("CITY").setState("STATE");
+			p.addTelecom().setValue("555-1212");
+			p.addContact().getName().addFamily("CONTACT");
+			p.getManagingOrganization().setReference("Organization/1");
+			Organization o = new Organization();
+			o.setId("#org" + i);
+			o.setName("ORG");
+			o.addAddress().addLine("ORGLINE");
+			p.getContained().getContainedResources().add(o);
+			b.addEntry().setResource(p);
+		}
+
+		FhirTerser t = ourCtx.newTerser();
+		int passes = 200;
+		for (int round = 0; round < 3; round++) {
+			long start = System.currentTimeMillis();
+			int count = 0;
+			for (int i = 0; i < passes; i++) {
+				for (Bundle.Entry next : b.getEntry()) {
+					count += t.getAllPopulatedChildElementsOfType(next.getResource(), IBaseReference.class).size();
+					count += t.getAllPopulatedChildElementsOfType(next.getResource(), IBaseResource.class).size();
+				}
+				count += t.getAllPopulatedChildElementsOfType(b, IBaseResource.class).size();
+			}
+			long delay = System.currentTimeMillis() - start;
+			ourLog.info("Searched {} resources ({} matches) in {} ms - {} resources/sec", new Object[] { passes * b.getEntry().size(), count, delay, (passes * b.getEntry().size() * 1000L) / Math.max(delay, 1) });
+		}
+	}
+
+	/**
+	 * Extracts the values for every search parameter of a few resource types repeatedly,
+	 * as the JPA server does when indexing resources
+	 */
+	private static void benchmarkGetValues() {
+		Patient p = new Patient();
+		p.addIdentifier().setSystem("urn:system").setValue("ID");
+		p.addName().addFamily("FAMILY").addGiven("GIVEN");
+		p.addAddress().addLine("LINE").setCity("CITY");
+		p.getManagingOrganization().setReference("Organization/1");
+
+		Observation obs = new Observation();
+		obs.getCode().addCoding().setSystem("http://loinc.org").setCode("1234-5");
+		obs.setValue(new QuantityDt().setValue(123).setUnit("mg"));
+		obs.getSubject().setReference("Patient/1");
+
+		FhirTerser t = ourCtx.newTerser();
+		int passes = 100000;
+		for (int round = 0; round < 3; round++) {
+			long start = System.currentTimeMillis();
+			int count = 0;
+			for (int i = 0; i < passes; i++) {
+				for (IBaseResource next : new IBaseResource[] { p, obs }) {
+					for (RuntimeSearchParam nextParam : ourCtx.getResourceDefinition(next).getSearchParams()) {
+						for (String nextPath : nextParam.getPathsSplit()) {
+							count += t.getValues(next, nextPath).size();
+						}
+					}
+				}
+			}
+			long delay = System.currentTimeMillis() - start;
+			ourLog.info("Indexed {} resources ({} values) in {} ms - {} resources/sec", new Object[] { passes * 2, count, delay, (passes * 2000L) / Math.max(delay, 1) });
+		}
+	}
+
 	/**
 	 * See http://stackoverflow.com/questions/182636/how-to-determine-the-class-of-a-generic-type
 	 */
@@ -29,7 +29,6 @@ import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 
-import org.apache.commons.lang3.Validate;
 import org.hl7.fhir.dstu3.model.Bundle;
 import org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent;
 import org.hl7.fhir.dstu3.model.Bundle.BundleLinkComponent;
@@ -340,8 +339,7 @@ public class Dstu3BundleFactory implements IVersionSpecificBundleFactory {
 				searchId = theSearchId;
 			} else {
 				if (theResult.size() > numToReturn) {
-					searchId = pagingProvider.storeResultList(theResult);
-					Validate.notNull(searchId, "Paging provider returned null searchId");
+					searchId = RestfulServerUtils.storeResultList(pagingProvider, theResult);
 				}
 			}
 		}
@@ -389,7 +387,7 @@ public class Dstu3BundleFactory implements IVersionSpecificBundleFactory {
 		myBundle.addLink().setRelation(Constants.LINK_SELF).setUrl(theCompleteUrl);
 		myBundle.getTypeElement().setValueAsString(theBundleType.getCode());
 
-		if (theBundleType.equals(BundleTypeEnum.TRANSACTION)) {
+		if (theBundleType.equals(BundleTypeEnum.TRANSACTION) || theBundleType.equals(BundleTypeEnum.BATCH)) {
 			for (IBaseResource nextBaseRes : theResources) {
 				Resource next = (Resource) nextBaseRes;
 				BundleEntryComponent nextEntry = myBundle.addEntry();
@@ -0,0 +1,360 @@
+package org.hl7.fhir.dstu3.hapi.validation;
+
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+import org.hl7.fhir.dstu3.model.CodeSystem;
+import org.hl7.fhir.dstu3.model.StructureDefinition;
+import org.hl7.fhir.dstu3.model.ValueSet.ConceptSetComponent;
+import org.hl7.fhir.dstu3.model.ValueSet.ValueSetExpansionComponent;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import ca.uhn.fhir.context.FhirContext;
+
+/**
+ * Validation support which remembers the results returned by another validation support (typically a
+ * {@link ValidationSupportChain}), so that resources and code validations which are needed by every
+ * validation are only looked up once.
+ * <p>
+ * Lookups which find nothing (such as an extension URL which is not known to the server, or a code system
+ * which is not supported) are remembered as well, for a shorter time than lookups which find something, so
+ * that a resource which is added later will be found. Call {@link #flush()} when the resources behind the
+ * wrapped validation support change.
+ * </p>
+ * <p>
+ * Results are not separated by {@link FhirContext}, so an instance should only be used with one context.
+ * Instances are thread safe as long as the wrapped validation support is thread safe. Note that the
+ * resources returned by this class are shared by all callers, and must not be modified.
+ * </p>
+ *
+ * @since 1.6
+ */
+public class CachingValidationSupport implements IValidationSupport {
+
+	/**
+	 * Default value for {@link #setExpireAfterMillis(long)}: 10 minutes
+	 */
+	public static final long DEFAULT_EXPIRE_AFTER_MILLIS = 10 * 60 * 1000L;
+
+	/**
+	 * Default value for {@link #setMaximumSize(int)}
+	 */
+	public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+	/**
+	 * Default value for {@link #setMissExpireAfterMillis(long)}: 1 minute
+	 */
+	public static final long DEFAULT_MISS_EXPIRE_AFTER_MILLIS = 60 * 1000L;
+
+	private final LinkedHashMap<String, CacheEntry> myCache = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> theEldest) {
+			return size() > myMaximumSize;
+		}
+	};
+	private volatile long myExpireAfterMillis = DEFAULT_EXPIRE_AFTER_MILLIS;
+	private final AtomicLong myHitCount = new AtomicLong();
+	private volatile int myMaximumSize = DEFAULT_MAXIMUM_SIZE;
+	private final AtomicLong myMissCount = new AtomicLong();
+	private volatile long myMissExpireAfterMillis = DEFAULT_MISS_EXPIRE_AFTER_MILLIS;
+	private final AtomicLong myNegativeHitCount = new AtomicLong();
+	private final IValidationSupport myWrap;
+
+	/**
+	 * Constructor
+	 *
+	 * @param theWrap
+	 *           The validation support whose results will be cached
+	 */
+	public CachingValidationSupport(IValidationSupport theWrap) {
+		Validate.notNull(theWrap, "theWrap must not be null");
+		myWrap = theWrap;
+	}
+
+	/**
+	 * Expansions are not cached, since the include is not a suitable cache key
+	 */
+	@Override
+	public ValueSetExpansionComponent expandValueSet(FhirContext theContext, ConceptSetComponent theInclude) {
+		return myWrap.expandValueSet(theContext, theInclude);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<StructureDefinition> fetchAllStructureDefinitions(FhirContext theContext) {
+		String key = "fetchAllStructureDefinitions";
+		CacheEntry entry = getEntry(key);
+		if (entry != null) {
+			return (List<StructureDefinition>) entry.getValue();
+		}
+		List<StructureDefinition> retVal = myWrap.fetchAllStructureDefinitions(theContext);
+		putEntry(key, retVal, retVal != null);
+		return retVal;
+	}
+
+	@Override
+	public CodeSystem fetchCodeSystem(FhirContext theContext, String theSystem) {
+		String key = "fetchCodeSystem " + theSystem;
+		CacheEntry entry = getEntry(key);
+		if (entry != null) {
+			return (CodeSystem) entry.getValue();
+		}
+		CodeSystem retVal = myWrap.fetchCodeSystem(theContext, theSystem);
+		putEntry(key, retVal, retVal != null);
+		return retVal;
+	}
+
+	@Override
+	public <T extends IBaseResource> T fetchResource(FhirContext theContext, Class<T> theClass, String theUri) {
+		String key = "fetchResource " + theClass.getName() + " " + theUri;
+		CacheEntry entry = getEntry(key);
+		if (entry != null) {
+			return theClass.cast(entry.getValue());
+		}
+		T retVal = myWrap.fetchResource(theContext, theClass, theUri);
+		putEntry(key, retVal, retVal != null);
+		return retVal;
+	}
+
+	@Override
+	public StructureDefinition fetchStructureDefinition(FhirContext theContext, String theUrl) {
+		String key = "fetchStructureDefinition " + theUrl;
+		CacheEntry entry = getEntry(key);
+		if (entry != null) {
+			return (StructureDefinition) entry.getValue();
+		}
+		StructureDefinition retVal = myWrap.fetchStructureDefinition(theContext, theUrl);
+		putEntry(key, retVal, retVal != null);
+		return retVal;
+	}
+
+	/**
+	 * Discards all cached results, so that the next lookups go to the wrapped validation support. This should be
+	 * called whenever a StructureDefinition, ValueSet or CodeSystem behind the wrapped validation support is
+	 * created, changed or deleted.
+	 */
+	public void flush() {
+		synchronized (myCache) {
+			myCache.clear();
+		}
+	}
+
+	/**
+	 * Returns the number of entries currently in the cache (including entries which have expired but have not
+	 * yet been removed)
+	 */
+	public int getCacheSize() {
+		synchronized (myCache) {
+			return myCache.size();
+		}
+	}
+
+	/**
+	 * Returns the time in milliseconds after which a result which was found is looked up again (default is
+	 * {@link #DEFAULT_EXPIRE_AFTER_MILLIS})
+	 */
+	public long getExpireAfterMillis() {
+		return myExpireAfterMillis;
+	}
+
+	/**
+	 * Returns the number of lookups which were answered from the cache, including those answered with a cached
+	 * miss (see {@link #getNegativeHitCount()})
+	 */
+	public long getHitCount() {
+		return myHitCount.get();
+	}
+
+	/**
+	 * Returns the maximum number of results which will be cached (default is {@link #DEFAULT_MAXIMUM_SIZE})
+	 */
+	public int getMaximumSize() {
+		return myMaximumSize;
+	}
+
+	/**
+	 * Returns the number of lookups which were passed to the wrapped validation support
+	 */
+	public long getMissCount() {
+		return myMissCount.get();
+	}
+
+	/**
+	 * Returns the time in milliseconds after which a lookup which found nothing (or a code system which was not
+	 * supported) is tried again (default is {@link #DEFAULT_MISS_EXPIRE_AFTER_MILLIS})
+	 */
+	public long getMissExpireAfterMillis() {
+		return myMissExpireAfterMillis;
+	}
+
+	/**
+	 * Returns the number of lookups which were answered with a cached result of "not found" (or "not supported")
+	 */
+	public long getNegativeHitCount() {
+		return myNegativeHitCount.get();
+	}
+
+	/**
+	 * Returns the wrapped validation support
+	 */
+	public IValidationSupport getWrappedValidationSupport() {
+		return myWrap;
+	}
+
+	@Override
+	public boolean isCodeSystemSupported(FhirContext theContext, String theSystem) {
+		String key = "isCodeSystemSupported " + theSystem;
+		CacheEntry entry = getEntry(key);
+		if (entry != null) {
+			return (Boolean) entry.getValue();
+		}
+		boolean retVal = myWrap.isCodeSystemSupported(theContext, theSystem);
+		putEntry(key, retVal, retVal);
+		return retVal;
+	}
+
+	/**
+	 * Loads the given resources into the cache (in the same way as calling
+	 * {@link #fetchResource(FhirContext, Class, String)} for each of them), so that the first validations which
+	 * need them do not have to wait for them to be looked up
+	 *
+	 * @return Returns the number of the given resources which were found
+	 */
+	public <T extends IBaseResource> int prefetch(FhirContext theContext, Class<T> theClass, Collection<String> theUris) {
+		int retVal = 0;
+		for (String next : theUris) {
+			if (fetchResource(theContext, theClass, next) != null) {
+				retVal++;
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Loads all of the structure definitions which are known to the wrapped validation support (see
+	 * {@link IValidationSupport#fetchAllStructureDefinitions(FhirContext)}) into the cache, so that they can be
+	 * fetched by URL without a lookup
+	 *
+	 * @return Returns the number of structure definitions which were loaded
+	 */
+	public int prefetchStructureDefinitions(FhirContext theContext) {
+		int retVal = 0;
+		for (StructureDefinition next : fetchAllStructureDefinitions(theContext)) {
+			if (isNotBlank(next.getUrl())) {
+				putEntry("fetchStructureDefinition " + next.getUrl(), next, true);
+				putEntry("fetchResource " + StructureDefinition.class.getName() + " " + next.getUrl(), next, true);
+				retVal++;
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Sets the time in milliseconds after which a result which was found is looked up again (default is
+	 * {@link #DEFAULT_EXPIRE_AFTER_MILLIS})
+	 */
+	public void setExpireAfterMillis(long theExpireAfterMillis) {
+		Validate.isTrue(theExpireAfterMillis >= 0, "theExpireAfterMillis must not be negative");
+		myExpireAfterMillis = theExpireAfterMillis;
+	}
+
+	/**
+	 * Sets the maximum number of results which will be cached (default is {@link #DEFAULT_MAXIMUM_SIZE}). Once
+	 * the cache is full, the least recently used result is removed whenever a new one is added.
+	 */
+	public void setMaximumSize(int theMaximumSize) {
+		Validate.isTrue(theMaximumSize >= 0, "theMaximumSize must not be negative");
+		myMaximumSize = theMaximumSize;
+	}
+
+	/**
+	 * Sets the time in milliseconds after which a lookup which found nothing (or a code system which was not
+	 * supported) is tried again (default is {@link #DEFAULT_MISS_EXPIRE_AFTER_MILLIS}). Set to 0 to never cache
+	 * lookups which found nothing.
+	 */
+	public void setMissExpireAfterMillis(long theMissExpireAfterMillis) {
+		Validate.isTrue(theMissExpireAfterMillis >= 0, "theMissExpireAfterMillis must not be negative");
+		myMissExpireAfterMillis = theMissExpireAfterMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "CachingValidationSupport[size=" + getCacheSize() + ", hits=" + getHitCount() + ", negativeHits=" + getNegativeHitCount() + ", misses=" + getMissCount() + "]";
+	}
+
+	@Override
+	public CodeValidationResult validateCode(FhirContext theContext, String theCodeSystem, String theCode, String theDisplay) {
+		String key = "validateCode " + theCodeSystem + " " + theCode + " " + theDisplay;
+		CacheEntry entry = getEntry(key);
+		if (entry != null) {
+			return (CodeValidationResult) entry.getValue();
+		}
+		CodeValidationResult retVal = myWrap.validateCode(theContext, theCodeSystem, theCode, theDisplay);
+		putEntry(key, retVal, retVal != null);
+		return retVal;
+	}
+
+	private CacheEntry getEntry(String theKey) {
+		CacheEntry retVal;
+		synchronized (myCache) {
+			retVal = myCache.get(theKey);
+			if (retVal != null && retVal.isExpired(System.currentTimeMillis())) {
+				myCache.remove(theKey);
+				retVal = null;
+			}
+		}
+		if (retVal == null) {
+			myMissCount.incrementAndGet();
+		} else {
+			myHitCount.incrementAndGet();
+			if (!retVal.isFound()) {
+				myNegativeHitCount.incrementAndGet();
+			}
+		}
+		return retVal;
+	}
+
+	private void putEntry(String theKey, Object theValue, boolean theFound) {
+		long expireAfter = theFound ? myExpireAfterMillis : myMissExpireAfterMillis;
+		if (expireAfter <= 0 || myMaximumSize == 0) {
+			return;
+		}
+		CacheEntry entry = new CacheEntry(theValue, theFound, System.currentTimeMillis() + expireAfter);
+		synchronized (myCache) {
+			myCache.put(theKey, entry);
+		}
+	}
+
+	private static class CacheEntry {
+		private final long myExpires;
+		private final boolean myFound;
+		private final Object myValue;
+
+		CacheEntry(Object theValue, boolean theFound, long theExpires) {
+			myValue = theValue;
+			myFound = theFound;
+			myExpires = theExpires;
+		}
+
+		Object getValue() {
+			return myValue;
+		}
+
+		boolean isFound() {
+			return myFound;
+		}
+
+		boolean isExpired(long theNow) {
+			return theNow >= myExpires;
+		}
+	}
+
+}
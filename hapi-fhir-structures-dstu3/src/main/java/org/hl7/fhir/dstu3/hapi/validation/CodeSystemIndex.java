@@ -0,0 +1,153 @@
+package org.hl7.fhir.dstu3.hapi.validation;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.dstu3.hapi.validation.IValidationSupport.CodeValidationResult;
+import org.hl7.fhir.dstu3.model.CodeSystem;
+import org.hl7.fhir.dstu3.model.CodeSystem.ConceptDefinitionComponent;
+
+/**
+ * The concepts of one version of a code system, indexed by code, so that a code can be
+ * validated (and its display found) without scanning the concepts of the code system.
+ * <p>
+ * Concepts nested inside other concepts are indexed as well. If a code occurs more than once,
+ * the first occurrence (in the order in which the concepts are listed, parents before their
+ * children) is the one which is found. Instances are created by a {@link CodeSystemIndexCache},
+ * are immutable, and are shared by all callers, so the concepts they return must not be modified.
+ * </p>
+ *
+ * @since 1.6
+ */
+public class CodeSystemIndex {
+
+	private final Map<String, ConceptDefinitionComponent> myConcepts;
+	private final String myUrl;
+	private final String myVersion;
+
+	private CodeSystemIndex(String theUrl, String theVersion, Map<String, ConceptDefinitionComponent> theConcepts) {
+		myUrl = theUrl;
+		myVersion = theVersion;
+		myConcepts = theConcepts;
+	}
+
+	/**
+	 * Returns the concept with the given code, or <code>null</code> if the code system does not
+	 * contain the code
+	 */
+	public ConceptDefinitionComponent findConcept(String theCode) {
+		return myConcepts.get(theCode);
+	}
+
+	/**
+	 * Returns the display of the concept with the given code, or <code>null</code> if the code system
+	 * does not contain the code (or the concept has no display)
+	 */
+	public String getDisplay(String theCode) {
+		ConceptDefinitionComponent concept = myConcepts.get(theCode);
+		return concept != null ? concept.getDisplay() : null;
+	}
+
+	public String getUrl() {
+		return myUrl;
+	}
+
+	public String getVersion() {
+		return myVersion;
+	}
+
+	/**
+	 * Returns the number of codes in the index
+	 */
+	public int size() {
+		return myConcepts.size();
+	}
+
+	/**
+	 * Returns a result for the concept with the given code, or <code>null</code> if the code system
+	 * does not contain the code
+	 */
+	public CodeValidationResult validateCode(String theCode) {
+		ConceptDefinitionComponent concept = myConcepts.get(theCode);
+		return concept != null ? new CodeValidationResult(concept) : null;
+	}
+
+	/**
+	 * Counts the concepts of a code system (including nested concepts)
+	 */
+	static int countConcepts(List<ConceptDefinitionComponent> theConcepts) {
+		int retVal = 0;
+		for (ConceptDefinitionComponent next : theConcepts) {
+			retVal += 1 + countConcepts(next.getConcept());
+		}
+		return retVal;
+	}
+
+	/**
+	 * Builds an index from the concepts which are added to it
+	 */
+	public static class Builder {
+		private final Map<String, ConceptDefinitionComponent> myConcepts;
+		private final String myUrl;
+		private final String myVersion;
+
+		/**
+		 * Constructor
+		 *
+		 * @param theUrl
+		 *           The URL of the code system
+		 * @param theVersion
+		 *           The version of the code system (may be <code>null</code>)
+		 * @param theExpectedSize
+		 *           The number of concepts which will be added (used to size the index)
+		 */
+		public Builder(String theUrl, String theVersion, int theExpectedSize) {
+			myUrl = theUrl;
+			myVersion = theVersion;
+			myConcepts = new HashMap<String, ConceptDefinitionComponent>(Math.max(16, (int) (theExpectedSize / 0.75f) + 1));
+		}
+
+		/**
+		 * Adds a concept, and the concepts nested inside it
+		 */
+		public Builder addConcept(ConceptDefinitionComponent theConcept) {
+			if (theConcept.getCode() != null && !myConcepts.containsKey(theConcept.getCode())) {
+				myConcepts.put(theConcept.getCode(), theConcept);
+			}
+			for (ConceptDefinitionComponent next : theConcept.getConcept()) {
+				addConcept(next);
+			}
+			return this;
+		}
+
+		/**
+		 * Adds a concept which has only a code and a display
+		 */
+		public Builder addConcept(String theCode, String theDisplay) {
+			if (theCode != null && !myConcepts.containsKey(theCode)) {
+				ConceptDefinitionComponent concept = new ConceptDefinitionComponent();
+				concept.setCode(theCode);
+				concept.setDisplay(theDisplay);
+				myConcepts.put(theCode, concept);
+			}
+			return this;
+		}
+
+		public CodeSystemIndex build() {
+			return new CodeSystemIndex(myUrl, myVersion, myConcepts);
+		}
+
+		/**
+		 * Creates a builder containing all the concepts of a code system
+		 */
+		public static Builder forCodeSystem(CodeSystem theCodeSystem) {
+			Builder retVal = new Builder(theCodeSystem.getUrl(), theCodeSystem.getVersion(), countConcepts(theCodeSystem.getConcept()));
+			for (ConceptDefinitionComponent next : theCodeSystem.getConcept()) {
+				retVal.addConcept(next);
+			}
+			return retVal;
+		}
+	}
+
+}
@@ -0,0 +1,250 @@
+package org.hl7.fhir.dstu3.hapi.validation;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+import org.hl7.fhir.dstu3.model.CodeSystem;
+
+/**
+ * Holds a {@link CodeSystemIndex} for each code system (URL and version) which is used for
+ * validation. Indexes are built the first time a code system is used, and the total number of
+ * concepts held is bounded (see {@link #setMaximumConcepts(int)}): when it would be exceeded, the
+ * indexes which have not been used for the longest time are dropped, and code systems which are
+ * larger than the bound are not indexed at all (callers then look the codes up as they would
+ * without an index).
+ * <p>
+ * Each validation support which indexes code systems creates its own cache by default. A cache can be
+ * shared between them (so that they share the bound) by passing the same instance to each of them, e.g.
+ * the one returned by {@link #getSharedInstance()}. Instances are thread safe; looking up an index does
+ * not lock.
+ * </p>
+ *
+ * @since 1.6
+ */
+public class CodeSystemIndexCache {
+
+	/**
+	 * Default value for {@link #setMaximumConcepts(int)}
+	 */
+	public static final int DEFAULT_MAXIMUM_CONCEPTS = 500000;
+
+	private static final CodeSystemIndexCache ourSharedInstance = new CodeSystemIndexCache();
+
+	private final AtomicLong myBuildCount = new AtomicLong();
+	private final ConcurrentMap<String, CacheEntry> myCache = new ConcurrentHashMap<String, CacheEntry>();
+	private final AtomicLong myClock = new AtomicLong();
+	private final AtomicLong myFlushCount = new AtomicLong();
+	private final AtomicLong myHitCount = new AtomicLong();
+	private volatile int myMaximumConcepts = DEFAULT_MAXIMUM_CONCEPTS;
+
+	/**
+	 * Removes all indexes
+	 */
+	public void flush() {
+		myFlushCount.incrementAndGet();
+		myCache.clear();
+	}
+
+	/**
+	 * Removes the indexes of all versions of the given code system, so that they are built again when next
+	 * used. This should be called when the concepts of a code system are changed without changing the
+	 * source of its index.
+	 */
+	public void flush(String theUrl) {
+		myFlushCount.incrementAndGet();
+		for (Iterator<CacheEntry> iter = myCache.values().iterator(); iter.hasNext();) {
+			if (theUrl.equals(iter.next().myUrl)) {
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of indexes which have been built
+	 */
+	public long getBuildCount() {
+		return myBuildCount.get();
+	}
+
+	/**
+	 * Returns the number of concepts held by all of the indexes
+	 */
+	public int getConceptCount() {
+		int retVal = 0;
+		for (CacheEntry next : myCache.values()) {
+			retVal += next.getConceptCount();
+		}
+		return retVal;
+	}
+
+	/**
+	 * Returns the number of times an existing index was returned
+	 */
+	public long getHitCount() {
+		return myHitCount.get();
+	}
+
+	/**
+	 * Returns the index of a code system resource, building it if needed. The index is built again if
+	 * a different instance of the resource (with the same URL and version) is passed in.
+	 *
+	 * @return The index, or <code>null</code> if the code system is too large to index
+	 */
+	public CodeSystemIndex getIndex(final CodeSystem theCodeSystem) {
+		CacheEntry entry = getEntry(theCodeSystem.getUrl(), theCodeSystem.getVersion(), theCodeSystem);
+		if (entry != null) {
+			return entry.myIndex;
+		}
+		return buildIndex(theCodeSystem.getUrl(), theCodeSystem.getVersion(), theCodeSystem, new IConceptLoader() {
+			@Override
+			public int countConcepts() {
+				return CodeSystemIndex.countConcepts(theCodeSystem.getConcept());
+			}
+
+			@Override
+			public CodeSystemIndex loadConcepts(int theConceptCount) {
+				return CodeSystemIndex.Builder.forCodeSystem(theCodeSystem).build();
+			}
+		});
+	}
+
+	/**
+	 * Returns the index of a code system, building it using the given loader if needed
+	 *
+	 * @param theUrl
+	 *           The URL of the code system
+	 * @param theVersion
+	 *           The version of the code system (may be <code>null</code>)
+	 * @param theSource
+	 *           The object the concepts are loaded from. If an index exists but was built from a different
+	 *           source object (compared by identity), it is built again.
+	 * @param theLoader
+	 *           Loads the concepts, if there is no index
+	 * @return The index, or <code>null</code> if the code system is too large to index
+	 */
+	public CodeSystemIndex getIndex(String theUrl, String theVersion, Object theSource, IConceptLoader theLoader) {
+		CacheEntry entry = getEntry(theUrl, theVersion, theSource);
+		if (entry != null) {
+			return entry.myIndex;
+		}
+		return buildIndex(theUrl, theVersion, theSource, theLoader);
+	}
+
+	public int getMaximumConcepts() {
+		return myMaximumConcepts;
+	}
+
+	/**
+	 * Sets the largest number of concepts which may be held by all of the indexes together. Default is
+	 * {@link #DEFAULT_MAXIMUM_CONCEPTS}.
+	 */
+	public void setMaximumConcepts(int theMaximumConcepts) {
+		Validate.isTrue(theMaximumConcepts >= 0, "theMaximumConcepts must not be negative");
+		myMaximumConcepts = theMaximumConcepts;
+	}
+
+	/**
+	 * Two threads may build the same index at the same time, in which case one of them is discarded. This is
+	 * better than making other lookups wait while a large code system is loaded. An index is not kept if the
+	 * cache was flushed while it was being built, since it may have been loaded from the concepts which were
+	 * being replaced.
+	 */
+	private CodeSystemIndex buildIndex(String theUrl, String theVersion, Object theSource, IConceptLoader theLoader) {
+		long flushCount = myFlushCount.get();
+		int maximum = myMaximumConcepts;
+		int count = theLoader.countConcepts();
+		CodeSystemIndex index = null;
+		if (count <= maximum) {
+			index = theLoader.loadConcepts(count);
+			myBuildCount.incrementAndGet();
+		}
+
+		CacheEntry entry = new CacheEntry(theUrl, theSource, index, myClock.incrementAndGet());
+		synchronized (this) {
+			if (myFlushCount.get() != flushCount) {
+				return index;
+			}
+			int total = getConceptCount() + entry.getConceptCount();
+			while (total > maximum) {
+				CacheEntry oldest = null;
+				for (CacheEntry next : myCache.values()) {
+					if (oldest == null || next.myLastUsed < oldest.myLastUsed) {
+						oldest = next;
+					}
+				}
+				if (oldest == null) {
+					break;
+				}
+				myCache.values().remove(oldest);
+				total -= oldest.getConceptCount();
+			}
+			myCache.put(toKey(theUrl, theVersion), entry);
+		}
+		return index;
+	}
+
+	private CacheEntry getEntry(String theUrl, String theVersion, Object theSource) {
+		CacheEntry retVal = myCache.get(toKey(theUrl, theVersion));
+		if (retVal == null || retVal.mySource != theSource) {
+			return null;
+		}
+		retVal.myLastUsed = myClock.incrementAndGet();
+		myHitCount.incrementAndGet();
+		return retVal;
+	}
+
+	private static String toKey(String theUrl, String theVersion) {
+		return theVersion == null ? theUrl : theUrl + "|" + theVersion;
+	}
+
+	/**
+	 * Returns a cache which is shared by everything in the JVM which is configured to use it. It is
+	 * not used unless it is explicitly passed to a validation support.
+	 */
+	public static CodeSystemIndexCache getSharedInstance() {
+		return ourSharedInstance;
+	}
+
+	/**
+	 * Loads the concepts of a code system to be indexed
+	 */
+	public interface IConceptLoader {
+
+		/**
+		 * Returns the number of concepts in the code system, which is used to decide whether it will be
+		 * indexed (before the concepts are loaded)
+		 */
+		int countConcepts();
+
+		/**
+		 * Loads the concepts into a new index (see {@link CodeSystemIndex.Builder})
+		 *
+		 * @param theConceptCount
+		 *           The number of concepts, as returned by {@link #countConcepts()}
+		 */
+		CodeSystemIndex loadConcepts(int theConceptCount);
+
+	}
+
+	private static class CacheEntry {
+		private final CodeSystemIndex myIndex;
+		private volatile long myLastUsed;
+		private final Object mySource;
+		private final String myUrl;
+
+		CacheEntry(String theUrl, Object theSource, CodeSystemIndex theIndex, long theLastUsed) {
+			myUrl = theUrl;
+			mySource = theSource;
+			myIndex = theIndex;
+			myLastUsed = theLastUsed;
+		}
+
+		int getConceptCount() {
+			return myIndex != null ? myIndex.size() : 0;
+		}
+	}
+
+}
@@ -32,6 +32,7 @@ public class DefaultProfileValidationSupport implements IValidationSupport {
 
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(DefaultProfileValidationSupport.class);
 
+	private CodeSystemIndexCache myCodeSystemIndexCache = new CodeSystemIndexCache();
 	private Map<String, CodeSystem> myCodeSystems;
 	private Map<String, StructureDefinition> myStructureDefinitions;
 	private Map<String, ValueSet> myValueSets;
@@ -148,6 +149,17 @@ public class DefaultProfileValidationSupport implements IValidationSupport {
 		myStructureDefinitions = null;
 	}
 
+	/**
+	 * Sets the cache holding the indexes used to validate codes. Default is a cache used only by
+	 * this instance. If set to <code>null</code>, the concepts of the code system are scanned for
+	 * each code.
+	 * 
+	 * @since 1.6
+	 */
+	public void setCodeSystemIndexCache(CodeSystemIndexCache theCodeSystemIndexCache) {
+		myCodeSystemIndexCache = theCodeSystemIndexCache;
+	}
+
 	@Override
 	public boolean isCodeSystemSupported(FhirContext theContext, String theSystem) {
 		CodeSystem cs = fetchCodeSystem(theContext, theSystem);
@@ -223,7 +235,13 @@ public class DefaultProfileValidationSupport implements IValidationSupport {
 	public CodeValidationResult validateCode(FhirContext theContext, String theCodeSystem, String theCode, String theDisplay) {
 		CodeSystem cs = fetchCodeSystem(theContext, theCodeSystem);
 		if (cs != null) {
-			CodeValidationResult retVal = testIfConceptIsInList(theCode, cs.getConcept());
+			CodeSystemIndex index = myCodeSystemIndexCache != null ? myCodeSystemIndexCache.getIndex(cs) : null;
+			CodeValidationResult retVal;
+			if (index != null) {
+				retVal = index.validateCode(theCode);
+			} else {
+				retVal = testIfConceptIsInList(theCode, cs.getConcept());
+			}
 			
 			if (retVal != null) {
 				return retVal;
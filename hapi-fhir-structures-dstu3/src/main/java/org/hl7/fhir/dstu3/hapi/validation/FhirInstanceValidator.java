@@ -4,13 +4,26 @@ import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 
 import org.apache.commons.lang3.Validate;
+import org.hl7.fhir.dstu3.exceptions.FHIRException;
+import org.hl7.fhir.dstu3.metamodel.ObjectParser;
+import org.hl7.fhir.dstu3.metamodel.ParserBase.ValidationPolicy;
+import org.hl7.fhir.dstu3.model.ExpressionNode;
 import org.hl7.fhir.dstu3.model.OperationOutcome.IssueSeverity;
+import org.hl7.fhir.dstu3.model.Resource;
 import org.hl7.fhir.dstu3.model.StructureDefinition;
+import org.hl7.fhir.dstu3.utils.FHIRPathEngine;
+import org.hl7.fhir.dstu3.utils.QuestionnaireIndexCache;
+import org.hl7.fhir.dstu3.utils.SnapshotCache;
 import org.hl7.fhir.dstu3.validation.IResourceValidator.BestPracticeWarningLevel;
 import org.hl7.fhir.dstu3.validation.IResourceValidator.IdStatus;
 import org.hl7.fhir.dstu3.validation.InstanceValidator;
@@ -24,18 +37,33 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
 
-import ca.uhn.fhir.context.ConfigurationException;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.rest.server.EncodingEnum;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.validation.IValidationContext;
 import ca.uhn.fhir.validation.IValidatorModule;
 
+/**
+ * Validator module which uses the FHIR Instance Validator.
+ * <p>
+ * Instances of this class are thread safe, and should be reused: the worker context (including the
+ * resources it has fetched from the {@link IValidationSupport validation support}) and the parsed
+ * FHIRPath invariants are shared by all threads using the validator, while the state of each
+ * validation is kept separate. If the resources returned by the validation support change, call
+ * {@link #flushCaches()} so that they are fetched again.
+ * </p>
+ */
 public class FhirInstanceValidator extends BaseValidatorBridge implements IValidatorModule {
 
+	private static final Gson ourGson = new GsonBuilder().create();
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(FhirInstanceValidator.class);
 	private BestPracticeWarningLevel myBestPracticeWarningLevel;
+	private ExecutorService myBundleEntryExecutor;
 	private DocumentBuilderFactory myDocBuilderFactory;
+	private int myMaxConcurrentBundleEntries;
+	private volatile SharedState mySharedState;
+	private QuestionnaireIndexCache myQuestionnaireIndexCache = new QuestionnaireIndexCache();
+	private SnapshotCache mySnapshotCache = new SnapshotCache();
 	private StructureDefinition myStructureDefintion;
 	private IValidationSupport myValidationSupport;
 
@@ -74,6 +102,21 @@ public class FhirInstanceValidator extends BaseValidatorBridge implements IValid
 		return root.getLocalName();
 	}
 
+	/**
+	 * Discards the resources which have been fetched from the {@link IValidationSupport validation support},
+	 * the parsed invariants and the questionnaire indexes, so that they will be loaded again by the next
+	 * validation
+	 * 
+	 * @since 1.6
+	 */
+	public void flushCaches() {
+		mySharedState = null;
+		QuestionnaireIndexCache questionnaireIndexCache = myQuestionnaireIndexCache;
+		if (questionnaireIndexCache != null) {
+			questionnaireIndexCache.flush();
+		}
+	}
+
 	/**
 	 * Returns the "best practice" warning level (default is {@link BestPracticeWarningLevel#Hint}).
 	 * <p>
@@ -115,6 +158,75 @@ public class FhirInstanceValidator extends BaseValidatorBridge implements IValid
 		myBestPracticeWarningLevel = theBestPracticeWarningLevel;
 	}
 
+	/**
+	 * Validates the entries of Bundle resources concurrently, instead of one after another. Messages
+	 * are reported in the same order either way, and references between the entries of a Bundle are
+	 * resolved as usual. This is off by default, and is worthwhile for large Bundles.
+	 * <p>
+	 * The validating thread waits for the entries to be validated, so the executor must not be a
+	 * bounded pool which also runs the validations themselves.
+	 * </p>
+	 * 
+	 * @param theExecutorService
+	 *           The executor which validates the entries, or <code>null</code> to validate them one after
+	 *           another
+	 * @param theMaxConcurrentEntries
+	 *           The largest number of entries of any one Bundle which may be in progress at once (this
+	 *           bounds the share of the executor which a single validation can take)
+	 * @since 1.6
+	 */
+	public void setConcurrentBundleValidation(ExecutorService theExecutorService, int theMaxConcurrentEntries) {
+		if (theExecutorService != null) {
+			Validate.isTrue(theMaxConcurrentEntries > 0, "theMaxConcurrentEntries must be greater than 0");
+		}
+		myBundleEntryExecutor = theExecutorService;
+		myMaxConcurrentBundleEntries = theMaxConcurrentEntries;
+	}
+
+	/**
+	 * Returns the cache holding the indexes of the questionnaires which <code>QuestionnaireResponse</code>
+	 * resources are validated against, or <code>null</code> if questionnaires are indexed for each response
+	 * 
+	 * @since 1.6
+	 */
+	public QuestionnaireIndexCache getQuestionnaireIndexCache() {
+		return myQuestionnaireIndexCache;
+	}
+
+	/**
+	 * Sets the cache holding the indexes of the questionnaires which <code>QuestionnaireResponse</code>
+	 * resources are validated against, so that a questionnaire is indexed once rather than for each
+	 * response. By default each validator has its own cache. If set to <code>null</code>, the questionnaire
+	 * is indexed again for each response.
+	 * 
+	 * @since 1.6
+	 */
+	public void setQuestionnaireIndexCache(QuestionnaireIndexCache theQuestionnaireIndexCache) {
+		myQuestionnaireIndexCache = theQuestionnaireIndexCache;
+	}
+
+	/**
+	 * Returns the cache holding the snapshots generated for profiles which are provided without one
+	 * (which also counts the snapshots generated and the time taken), or <code>null</code> if snapshots
+	 * are not generated
+	 * 
+	 * @since 1.6
+	 */
+	public SnapshotCache getSnapshotCache() {
+		return mySnapshotCache;
+	}
+
+	/**
+	 * Sets the cache used to generate and hold the snapshots of profiles which are provided without one.
+	 * By default each validator has its own cache, but one can be shared between validators which use
+	 * the same profiles. If set to <code>null</code>, profiles without a snapshot are reported as errors.
+	 * 
+	 * @since 1.6
+	 */
+	public void setSnapshotCache(SnapshotCache theSnapshotCache) {
+		mySnapshotCache = theSnapshotCache;
+	}
+
 	public void setStructureDefintion(StructureDefinition theStructureDefintion) {
 		myStructureDefintion = theStructureDefintion;
 	}
@@ -125,84 +237,208 @@ public class FhirInstanceValidator extends BaseValidatorBridge implements IValid
 	 */
 	public void setValidationSupport(IValidationSupport theValidationSupport) {
 		myValidationSupport = theValidationSupport;
+		mySharedState = null;
 	}
 
-	protected List<ValidationMessage> validate(final FhirContext theCtx, String theInput, EncodingEnum theEncoding) {
-		HapiWorkerContext workerContext = new HapiWorkerContext(theCtx, myValidationSupport);
+	private SharedState getSharedState(FhirContext theCtx) {
+		SharedState retVal = mySharedState;
+		if (retVal == null || retVal.myCtx != theCtx || retVal.myValidationSupport != myValidationSupport) {
+			/*
+			 * If two threads get here at once they will both build a state, and one of them will
+			 * be discarded once the validation using it has finished. This is harmless.
+			 */
+			retVal = new SharedState(theCtx, myValidationSupport);
+			mySharedState = retVal;
+		}
+		return retVal;
+	}
 
-		InstanceValidator v;
-		try {
-			v = new InstanceValidator(workerContext);
-		} catch (Exception e) {
-			throw new ConfigurationException(e);
+	private InstanceValidator newInstanceValidator(SharedState theState, FHIRPathEngine theFhirPathEngine) {
+		InstanceValidator retVal = new InstanceValidator(theState.myWorkerContext, theFhirPathEngine, theState.myExpressionCache);
+		retVal.setBestPracticeWarningLevel(myBestPracticeWarningLevel);
+		retVal.setAnyExtensionsAllowed(true);
+		retVal.setResourceIdRule(IdStatus.OPTIONAL);
+		retVal.setSnapshotCache(mySnapshotCache);
+		retVal.setQuestionnaireIndexCache(myQuestionnaireIndexCache);
+		if (myBundleEntryExecutor != null) {
+			retVal.setBundleEntryExecutor(myBundleEntryExecutor, myMaxConcurrentBundleEntries, theState.myFhirPathEngines);
 		}
+		return retVal;
+	}
 
-		v.setBestPracticeWarningLevel(myBestPracticeWarningLevel);
-		v.setAnyExtensionsAllowed(true);
-		v.setResourceIdRule(IdStatus.OPTIONAL);
+	private List<ValidationMessage> removeIgnoredMessages(List<ValidationMessage> theMessages) {
+		for (int i = 0; i < theMessages.size(); i++) {
+			ValidationMessage next = theMessages.get(i);
+			if ("Binding has no source, so can't be checked".equals(next.getMessage())) {
+				theMessages.remove(i);
+				i--;
+			}
+		}
+		return theMessages;
+	}
 
-		List<ValidationMessage> messages = new ArrayList<ValidationMessage>();
+	protected List<ValidationMessage> validate(final FhirContext theCtx, String theInput, EncodingEnum theEncoding) {
+		SharedState state = getSharedState(theCtx);
 
-		if (theEncoding == EncodingEnum.XML) {
-			Document document;
-			try {
-				DocumentBuilder builder = myDocBuilderFactory.newDocumentBuilder();
-				InputSource src = new InputSource(new StringReader(theInput));
-				document = builder.parse(src);
-			} catch (Exception e2) {
-				ourLog.error("Failure to parse XML input", e2);
-				ValidationMessage m = new ValidationMessage();
-				m.setLevel(IssueSeverity.FATAL);
-				m.setMessage("Failed to parse input, it does not appear to be valid XML:" + e2.getMessage());
-				return Collections.singletonList(m);
-			}
+		FHIRPathEngine fhirPathEngine = state.borrowFhirPathEngine();
+		try {
+			InstanceValidator v = newInstanceValidator(state, fhirPathEngine);
 
-			String resourceName = determineResourceName(document);
-			StructureDefinition profile = findStructureDefinitionForResourceName(theCtx, resourceName);
-			if (profile != null) {
+			List<ValidationMessage> messages = new ArrayList<ValidationMessage>();
+
+			if (theEncoding == EncodingEnum.XML) {
+				Document document;
 				try {
-					v.validate(messages, document, profile);
-				} catch (Exception e) {
-					throw new InternalErrorException("Unexpected failure while validating resource", e);
+					DocumentBuilder builder;
+					synchronized (myDocBuilderFactory) {
+						builder = myDocBuilderFactory.newDocumentBuilder();
+					}
+					InputSource src = new InputSource(new StringReader(theInput));
+					document = builder.parse(src);
+				} catch (Exception e2) {
+					ourLog.error("Failure to parse XML input", e2);
+					ValidationMessage m = new ValidationMessage();
+					m.setLevel(IssueSeverity.FATAL);
+					m.setMessage("Failed to parse input, it does not appear to be valid XML:" + e2.getMessage());
+					return Collections.singletonList(m);
 				}
-			}
-		} else if (theEncoding == EncodingEnum.JSON) {
-			Gson gson = new GsonBuilder().create();
-			JsonObject json = gson.fromJson(theInput, JsonObject.class);
 
-			String resourceName = json.get("resourceType").getAsString();
-			StructureDefinition profile = findStructureDefinitionForResourceName(theCtx, resourceName);
-			if (profile != null) {
-				try {
-					v.validate(messages, json, profile);
-				} catch (Exception e) {
-					throw new InternalErrorException("Unexpected failure while validating resource", e);
+				String resourceName = determineResourceName(document);
+				StructureDefinition profile = findStructureDefinitionForResourceName(theCtx, state, resourceName);
+				if (profile != null) {
+					try {
+						v.validate(messages, document, profile);
+					} catch (Exception e) {
+						throw new InternalErrorException("Unexpected failure while validating resource", e);
+					}
 				}
+			} else if (theEncoding == EncodingEnum.JSON) {
+				JsonObject json = ourGson.fromJson(theInput, JsonObject.class);
+
+				String resourceName = json.get("resourceType").getAsString();
+				StructureDefinition profile = findStructureDefinitionForResourceName(theCtx, state, resourceName);
+				if (profile != null) {
+					try {
+						v.validate(messages, json, profile);
+					} catch (Exception e) {
+						throw new InternalErrorException("Unexpected failure while validating resource", e);
+					}
+				}
+			} else {
+				throw new IllegalArgumentException("Unknown encoding: " + theEncoding);
 			}
-		} else {
-			throw new IllegalArgumentException("Unknown encoding: " + theEncoding);
+
+			return removeIgnoredMessages(messages);
+		} finally {
+			state.returnFhirPathEngine(fhirPathEngine);
 		}
+	}
 
-		for (int i = 0; i < messages.size(); i++) {
-			ValidationMessage next = messages.get(i);
-			if ("Binding has no source, so can't be checked".equals(next.getMessage())) {
-				messages.remove(i);
-				i--;
-			}
+	/**
+	 * Validates a resource by building the validator's element model directly from the resource
+	 * object, instead of encoding it and parsing the encoded text.
+	 * 
+	 * @return The messages, or <code>null</code> if the resource holds content which is only
+	 *         resolved when it is encoded (such as inline resources which are not yet contained,
+	 *         or extensions declared on a custom resource class) and should be validated as text
+	 */
+	protected List<ValidationMessage> validate(final FhirContext theCtx, Resource theResource) {
+		if (!theCtx.getResourceDefinition(theResource).isStandardType()) {
+			return null;
+		}
+
+		SharedState state = getSharedState(theCtx);
+		StructureDefinition profile = findStructureDefinitionForResourceName(theCtx, state, theResource.fhirType());
+		if (profile == null) {
+			return new ArrayList<ValidationMessage>();
+		}
+
+		List<ValidationMessage> messages = new ArrayList<ValidationMessage>();
+		org.hl7.fhir.dstu3.metamodel.Element element;
+		try {
+			ObjectParser parser = new ObjectParser(state.myWorkerContext);
+			parser.setupValidation(ValidationPolicy.EVERYTHING, messages);
+			element = parser.parse(theResource);
+		} catch (FHIRException e) {
+			ourLog.debug("Resource can not be validated without being encoded: {}", e.getMessage());
+			return null;
+		} catch (Exception e) {
+			throw new InternalErrorException("Unexpected failure while validating resource", e);
 		}
-		return messages;
+		if (element == null) {
+			return removeIgnoredMessages(messages);
+		}
+
+		FHIRPathEngine fhirPathEngine = state.borrowFhirPathEngine();
+		try {
+			newInstanceValidator(state, fhirPathEngine).validate(messages, element, profile);
+		} catch (Exception e) {
+			throw new InternalErrorException("Unexpected failure while validating resource", e);
+		} finally {
+			state.returnFhirPathEngine(fhirPathEngine);
+		}
+		return removeIgnoredMessages(messages);
 	}
 
-	private StructureDefinition findStructureDefinitionForResourceName(final FhirContext theCtx, String resourceName) {
-		String sdName = "http://hl7.org/fhir/StructureDefinition/" + resourceName;
-		StructureDefinition profile = myStructureDefintion != null ? myStructureDefintion : myValidationSupport.fetchStructureDefinition(theCtx, sdName);
-		return profile;
+	private StructureDefinition findStructureDefinitionForResourceName(final FhirContext theCtx, SharedState theState, String resourceName) {
+		if (myStructureDefintion != null) {
+			return myStructureDefintion;
+		}
+		StructureDefinition retVal = theState.myResourceProfiles.get(resourceName);
+		if (retVal == null) {
+			String sdName = "http://hl7.org/fhir/StructureDefinition/" + resourceName;
+			retVal = theState.myValidationSupport.fetchStructureDefinition(theCtx, sdName);
+			if (retVal != null) {
+				theState.myResourceProfiles.put(resourceName, retVal);
+			}
+		}
+		return retVal;
 	}
 
 	@Override
 	protected List<ValidationMessage> validate(IValidationContext<?> theCtx) {
+		if (!theCtx.isResourceSuppliedAsText() && theCtx.getResource() instanceof Resource) {
+			List<ValidationMessage> retVal = validate(theCtx.getFhirContext(), (Resource) theCtx.getResource());
+			if (retVal != null) {
+				return retVal;
+			}
+		}
 		return validate(theCtx.getFhirContext(), theCtx.getResourceAsString(), theCtx.getResourceAsStringEncoding());
 	}
 
+	/**
+	 * State which is shared by all validations using the same context and validation support.
+	 * {@link FHIRPathEngine} instances are not thread safe, so each validation borrows one from
+	 * a pool (which never grows beyond the number of concurrent validations).
+	 */
+	private static class SharedState {
+
+		private final FhirContext myCtx;
+		private final ConcurrentMap<String, ExpressionNode> myExpressionCache = new ConcurrentHashMap<String, ExpressionNode>();
+		private final Queue<FHIRPathEngine> myFhirPathEngines = new ConcurrentLinkedQueue<FHIRPathEngine>();
+		private final ConcurrentMap<String, StructureDefinition> myResourceProfiles = new ConcurrentHashMap<String, StructureDefinition>();
+		private final IValidationSupport myValidationSupport;
+		private final HapiWorkerContext myWorkerContext;
+
+		SharedState(FhirContext theCtx, IValidationSupport theValidationSupport) {
+			myCtx = theCtx;
+			myValidationSupport = theValidationSupport;
+			myWorkerContext = new HapiWorkerContext(theCtx, theValidationSupport);
+		}
+
+		FHIRPathEngine borrowFhirPathEngine() {
+			FHIRPathEngine retVal = myFhirPathEngines.poll();
+			if (retVal == null) {
+				retVal = new FHIRPathEngine(myWorkerContext);
+			}
+			return retVal;
+		}
+
+		void returnFhirPathEngine(FHIRPathEngine theFhirPathEngine) {
+			myFhirPathEngines.offer(theFhirPathEngine);
+		}
+
+	}
+
 
 }
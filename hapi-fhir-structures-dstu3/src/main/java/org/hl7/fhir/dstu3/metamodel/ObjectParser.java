@@ -0,0 +1,186 @@
+package org.hl7.fhir.dstu3.metamodel;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.hl7.fhir.dstu3.exceptions.DefinitionException;
+import org.hl7.fhir.dstu3.exceptions.FHIRException;
+import org.hl7.fhir.dstu3.exceptions.FHIRFormatError;
+import org.hl7.fhir.dstu3.formats.FormatUtilities;
+import org.hl7.fhir.dstu3.formats.IParser.OutputStyle;
+import org.hl7.fhir.dstu3.metamodel.Element.SpecialElement;
+import org.hl7.fhir.dstu3.model.Base;
+import org.hl7.fhir.dstu3.model.ElementDefinition.TypeRefComponent;
+import org.hl7.fhir.dstu3.model.Narrative;
+import org.hl7.fhir.dstu3.model.Reference;
+import org.hl7.fhir.dstu3.model.Resource;
+import org.hl7.fhir.dstu3.model.StructureDefinition;
+import org.hl7.fhir.dstu3.utils.IWorkerContext;
+import org.hl7.fhir.utilities.Utilities;
+import org.hl7.fhir.utilities.xhtml.XhtmlComposer;
+import org.hl7.fhir.utilities.xhtml.XhtmlNode;
+
+/**
+ * Builds the element model directly from a resource in the object model,
+ * instead of encoding the resource and parsing the result
+ *
+ * Since the object model can only hold content which has a place in the
+ * definitions, no format errors are reported, and elements have no location
+ */
+public class ObjectParser extends ParserBase {
+
+	public ObjectParser(IWorkerContext context) {
+		super(context);
+	}
+
+	@Override
+	public Element parse(InputStream stream) throws Exception {
+		throw new Error("The object parser does not read streams");
+	}
+
+	@Override
+	public void compose(Element e, OutputStream destination, OutputStyle style, String base) throws Exception {
+		throw new Error("The object parser does not compose");
+	}
+
+	public Element parse(Resource resource) throws Exception {
+		String name = resource.fhirType();
+		StructureDefinition sd = getDefinition(-1, -1, name);
+		if (sd == null)
+			return null;
+
+		Element result = new Element(name, new Property(context, sd.getSnapshot().getElement().get(0), sd)).markLocation(-1, -1);
+		result.setType(name);
+		parseChildren("/"+name, resource, result);
+		result.numberChildren();
+		return result;
+	}
+
+	private void parseChildren(String path, Base object, Element context) throws FHIRException {
+		List<Property> properties = context.getProperty().getChildProperties(context.getName(), null);
+		for (Property property : properties) {
+			String name = property.getName();
+			boolean choice = name.endsWith("[x]");
+			if (choice)
+				name = name.substring(0, name.length()-3);
+			String npath = path+"/"+name;
+
+			if (!choice && "xhtml".equals(property.getType())) {
+				if (object instanceof Narrative)
+					parseXhtml(npath, ((Narrative) object).getDiv(), context, property);
+				continue;
+			}
+
+			Base[] values = object.getProperty(name.hashCode(), name, false);
+			if (values == null)
+				continue;
+			for (Base value : values) {
+				if (value == null || value.isEmpty())
+					continue;
+				if (object instanceof Resource && name.equals("id")) {
+					parseResourceId((Resource) object, context, property);
+				} else {
+					String eName = choice ? name+Utilities.capitalize(choiceType(npath, property, value)) : name;
+					parseChild(npath, value, context, property, eName);
+				}
+			}
+		}
+	}
+
+	private void parseChild(String npath, Base value, Element context, Property property, String name) throws FHIRException {
+		Element n = new Element(name, property).markLocation(-1, -1);
+		context.getChildren().add(n);
+		if (value.isPrimitive()) {
+			n.setValue(value.primitiveValue());
+			// id and extensions on a primitive are the only content a primitive has besides its value
+			org.hl7.fhir.dstu3.model.Element e = (org.hl7.fhir.dstu3.model.Element) value;
+			if (e.hasId() || e.hasExtension())
+				parseChildren(npath, value, n);
+		} else if (property.isResource()) {
+			parseResource(npath, (Resource) value, n);
+		} else {
+			if (value instanceof Reference)
+				checkReference(npath, (Reference) value);
+			parseChildren(npath, value, n);
+		}
+	}
+
+	private void parseResource(String npath, Resource res, Element parent) throws FHIRException {
+		String name = res.fhirType();
+		StructureDefinition sd = context.fetchResource(StructureDefinition.class, "http://hl7.org/fhir/StructureDefinition/"+name);
+		if (sd == null)
+			throw new FHIRFormatError("Contained resource does not appear to be a FHIR resource (unknown name '"+name+"')");
+		parent.updateProperty(new Property(context, sd.getSnapshot().getElement().get(0), sd), parent.getProperty().getName().equals("contained") ? SpecialElement.CONTAINED : SpecialElement.BUNDLE_ENTRY);
+		parent.setType(name);
+		if (parent.getSpecial() == SpecialElement.CONTAINED && !res.getIdElement().hasIdPart())
+			throw new FHIRFormatError("Contained resource at "+npath+" has no id, so one would be assigned when it was encoded");
+		parseChildren(npath, res, parent);
+	}
+
+	/**
+	 * The id of a resource in the object model may be a complete URL, but only the
+	 * logical id is part of the resource content (and contained resources are
+	 * identified with a leading '#', which is not part of the id either)
+	 */
+	private void parseResourceId(Resource res, Element context, Property property) {
+		String id = res.getIdElement().getIdPart();
+		if (id != null && id.startsWith("#"))
+			id = id.substring(1);
+		if (!Utilities.noString(id))
+			context.getChildren().add(new Element("id", property, "id", id).markLocation(-1, -1));
+	}
+
+	private void parseXhtml(String npath, XhtmlNode div, Element context, Property property) throws FHIRException {
+		if (div == null || div.isEmpty())
+			return;
+		// the div always gets the XHTML namespace when it is encoded, whether or not the object model has it
+		XhtmlNode xhtml = div;
+		if (xhtml.getNsDecl() == null) {
+			xhtml = div.copy();
+			xhtml.setAttribute("xmlns", FormatUtilities.XHTML_NS);
+		}
+		String value;
+		try {
+			value = new XhtmlComposer().setXmlOnly(true).compose(xhtml);
+		} catch (Exception e) {
+			throw new FHIRFormatError("Error composing XHTML at "+npath+": "+e.getMessage(), e);
+		}
+		context.getChildren().add(new Element("div", property, "xhtml", value).setXhtml(xhtml).markLocation(-1, -1));
+	}
+
+	/**
+	 * An inline resource which is not already contained is moved into the contained
+	 * resources when the resource is encoded, so the element model would not match
+	 * what would be encoded
+	 */
+	private void checkReference(String npath, Reference ref) throws FHIRFormatError {
+		if (ref.getResource() != null && !ref.hasReference())
+			throw new FHIRFormatError("Reference at "+npath+" has an inline resource which is not contained");
+	}
+
+	/**
+	 * Works out the name suffix for a choice element. Specialisations such as
+	 * SimpleQuantity use the name of the type they specialise
+	 */
+	private String choiceType(String npath, Property property, Base value) throws DefinitionException {
+		String type = value.fhirType();
+		Class<?> c = value.getClass();
+		while (!isAllowedType(property, type)) {
+			c = c.getSuperclass();
+			if (c == null || !Base.class.isAssignableFrom(c))
+				throw new DefinitionException("Type '"+value.fhirType()+"' is not an acceptable type at "+npath);
+			type = c.getSimpleName();
+		}
+		return type;
+	}
+
+	private boolean isAllowedType(Property property, String type) {
+		for (TypeRefComponent tr : property.getDefinition().getType()) {
+			if (type.equals(tr.getCode()) || "*".equals(tr.getCode()))
+				return true;
+		}
+		return false;
+	}
+
+}
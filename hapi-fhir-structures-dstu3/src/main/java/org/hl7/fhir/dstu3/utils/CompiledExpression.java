@@ -0,0 +1,69 @@
+package org.hl7.fhir.dstu3.utils;
+
+import java.util.Map;
+
+import org.hl7.fhir.dstu3.model.ExpressionNode;
+import org.hl7.fhir.dstu3.model.Type;
+
+/**
+ * A FHIRPath expression which has been parsed and prepared for evaluation by
+ * {@link FHIRPathEngine#compile(String)}.
+ *
+ * When an expression is compiled, the functions are resolved and their parameters
+ * checked, literal and fixed constants (e.g. <code>'abc'</code>, <code>3</code>,
+ * <code>%loinc</code>) are converted once, and an expression which only navigates
+ * through element names (e.g. <code>Patient.name.family</code>) is evaluated without
+ * going through the general interpreter at all.
+ *
+ * A compiled expression is immutable, so it can be kept and shared between threads,
+ * and evaluated by any engine using the same kind of worker context (engines themselves
+ * are not thread safe). Each evaluation returns new values for the constants, so the
+ * results can be changed by the caller without affecting later evaluations.
+ */
+public class CompiledExpression {
+
+  private final String expression;
+  private final ExpressionNode node;
+  private final Map<ExpressionNode, Type> constants;
+  private final String[] navigation;
+
+  CompiledExpression(String expression, ExpressionNode node, Map<ExpressionNode, Type> constants, String[] navigation) {
+    this.expression = expression;
+    this.node = node;
+    this.constants = constants;
+    this.navigation = navigation;
+  }
+
+  /**
+   * @return the source of the expression
+   */
+  public String getExpression() {
+    return expression;
+  }
+
+  /**
+   * @return true if the expression only navigates through element names, and is
+   *   evaluated without the interpreter
+   */
+  public boolean isSimpleNavigation() {
+    return navigation != null;
+  }
+
+  ExpressionNode getNode() {
+    return node;
+  }
+
+  Map<ExpressionNode, Type> getConstants() {
+    return constants;
+  }
+
+  String[] getNavigation() {
+    return navigation;
+  }
+
+  @Override
+  public String toString() {
+    return expression;
+  }
+
+}
@@ -2,10 +2,12 @@ package org.hl7.fhir.dstu3.utils;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -185,6 +187,139 @@ public class FHIRPathEngine {
 		return result;    
 	}
 
+  /**
+   * Parse a path once so that it can be evaluated many times. Functions are resolved,
+   * literal and fixed constants are converted, and a path that only navigates through
+   * element names is prepared for evaluation without the interpreter. The result is
+   * immutable, and can be shared between threads and engines
+   *
+   * @param path - the FHIR Path statement to compile
+   * @return the compiled expression
+   * @throws FHIRLexerException if the path is not valid
+   * @throws PathEngineException if a constant in the path is not valid
+   */
+  public CompiledExpression compile(String path) throws FHIRLexerException, PathEngineException {
+    ExpressionNode node = parse(path);
+    Map<ExpressionNode, Type> constants = new IdentityHashMap<ExpressionNode, Type>();
+    foldConstants(node, constants);
+    return new CompiledExpression(path, node, Collections.unmodifiableMap(constants), compileNavigation(node));
+  }
+
+  private void foldConstants(ExpressionNode node, Map<ExpressionNode, Type> constants) throws PathEngineException {
+    if (node == null)
+      return;
+    if (node.getKind() == Kind.Constant) {
+      Type value = foldConstant(node.getConstant());
+      if (value != null)
+        constants.put(node, value);
+    }
+    foldConstants(node.getGroup(), constants);
+    foldConstants(node.getInner(), constants);
+    foldConstants(node.getOpNext(), constants);
+    if (node.getParameters() != null)
+      for (ExpressionNode p : node.getParameters())
+        foldConstants(p, constants);
+  }
+
+  /**
+   * %resource and the constants provided by the host depend on the evaluation, so they
+   * are left to be resolved each time
+   */
+  private Type foldConstant(String constant) throws PathEngineException {
+    if (constant.equals("{}"))
+      return null;
+    if (constant.startsWith("%")) {
+      if (!(constant.equals("%sct") || constant.equals("%loinc") || constant.equals("%ucum") || constant.equals("%us-zip") 
+          || constant.startsWith("%\"vs-") || constant.startsWith("%\"cs-") || constant.startsWith("%\"ext-")))
+        return null;
+      return (Type) resolveConstant(null, constant);
+    }
+    if (constant.startsWith("@"))
+      return (Type) processDateConstant(null, constant.substring(1));
+    return (Type) processConstant(null, constant);
+  }
+
+  /**
+   * @return the names of a path like Patient.name.family, or null if the path does anything else
+   */
+  private String[] compileNavigation(ExpressionNode node) {
+    List<String> names = new ArrayList<String>();
+    for (ExpressionNode n = node; n != null; n = n.getInner()) {
+      if (n.getKind() != Kind.Name || n.getOperation() != null || n.getName().startsWith("$"))
+        return null;
+      names.add(n.getName());
+    }
+    return names.toArray(new String[names.size()]);
+  }
+
+  /**
+   * evaluate a compiled path and return the matching elements
+   * 
+   * @param base - the object against which the path is being evaluated
+   * @param expression - the compiled FHIR Path statement to use
+   * @return
+   * @throws FHIRException 
+   */
+  public List<Base> evaluate(Base base, CompiledExpression expression) throws FHIRException {
+    return evaluate(null, null, base, expression);
+  }
+
+  /**
+   * evaluate a compiled path and return the matching elements
+   * 
+   * @param base - the object against which the path is being evaluated
+   * @param expression - the compiled FHIR Path statement to use
+   * @return
+   * @throws FHIRException 
+   */
+  public List<Base> evaluate(Object appContext, Base resource, Base base, CompiledExpression expression) throws FHIRException {
+    if (expression.getNavigation() != null) {
+      log.setLength(0);
+      return navigate(base, expression.getNavigation());
+    }
+    List<Base> list = new ArrayList<Base>();
+    if (base != null)
+      list.add(base);
+    log = new StringBuilder();
+    ExecutionContext context = new ExecutionContext(appContext, resource, base);
+    context.constants = expression.getConstants();
+    return execute(context, list, expression.getNode(), true);
+  }
+
+  /**
+   * evaluate a compiled path and return true or false (e.g. for an invariant)
+   * 
+   * @param base - the object against which the path is being evaluated
+   * @param expression - the compiled FHIR Path statement to use
+   * @return
+   * @throws FHIRException 
+   */
+  public boolean evaluateToBoolean(Base resource, Base base, CompiledExpression expression) throws FHIRException {
+    return convertToBoolean(evaluate(null, resource, base, expression));
+  }
+
+  /**
+   * The same as {@link #execute(ExecutionContext, List, ExpressionNode, boolean)} for a 
+   * path of names, without building the intermediate lists for each step
+   */
+  private List<Base> navigate(Base base, String[] names) throws FHIRException {
+    List<Base> focus = new ArrayList<Base>();
+    if (base == null)
+      return focus;
+    if (Character.isUpperCase(names[0].charAt(0))) {
+      if (base instanceof Resource && ((Resource) base).getResourceType().toString().equals(names[0]))
+        focus.add(base);
+    } else
+      getChildrenByName(base, names[0], focus);
+    for (int i = 1; i < names.length && !focus.isEmpty(); i++) {
+      List<Base> next = new ArrayList<Base>();
+      for (Base item : focus)
+        getChildrenByName(item, names[i], next);
+      focus = next;
+    }
+    return focus;
+  }
+
   /**
    * Parse a path that is part of some other syntax
    *  
@@ -446,6 +581,7 @@ public class FHIRPathEngine {
 		private Object appInfo;
     private Base resource;
     private Base thisItem;
+    private Map<ExpressionNode, Type> constants;
     public ExecutionContext(Object appInfo, Base resource, Base thisItem) {
 			this.appInfo = appInfo;
 			this.resource = resource; 
@@ -781,7 +917,8 @@ public class FHIRPathEngine {
 			work.addAll(work2);
 			break;
 		case Constant:
-      Base b = processConstant(context, exp.getConstant());
+      Type folded = context.constants == null ? null : context.constants.get(exp);
+      Base b = folded != null ? folded.copy() : processConstant(context, exp.getConstant());
       if (b != null)
         work.add(b);
 			break;
@@ -1988,7 +2125,9 @@ public class FHIRPathEngine {
 
 
   private ExecutionContext changeThis(ExecutionContext context, Base newThis) {
-    return new ExecutionContext(context.appInfo, context.resource, newThis);
+    ExecutionContext result = new ExecutionContext(context.appInfo, context.resource, newThis);
+    result.constants = context.constants;
+    return result;
   }
 
   private ExecutionTypeContext changeThis(ExecutionTypeContext context, TypeDetails newThis) {
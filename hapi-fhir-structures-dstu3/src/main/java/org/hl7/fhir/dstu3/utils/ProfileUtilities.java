@@ -169,69 +169,15 @@ public class ProfileUtilities {
  *
  * @param structure The structure to navigate into
  * @param path The path of the element within the structure to get the children for
- * @return A Map containing the name of the element child (not the path) and the child itself (an Element)
+ * @return A Map containing the name of the element child (not the path) and the child itself (an Element). The
+ *   list is shared by all callers (see {@link SnapshotIndex}), so it can not be modified
  * @throws DefinitionException 
  * @throws Exception
  */
   public static List<ElementDefinition> getChildMap(StructureDefinition profile, String name, String path, String contentReference) throws DefinitionException {
-    List<ElementDefinition> res = new ArrayList<ElementDefinition>();
-
-    // if we have a name reference, we have to find it, and iterate it's children
-    if (contentReference != null) {
-    	boolean found = false;
-      for (ElementDefinition e : profile.getSnapshot().getElement()) {
-      	String elementPath = e.getPath();
-			if (elementPath.startsWith(profile.getName()) && elementPath.endsWith("." + contentReference.substring(1))) {
-      		found = true;
-      		path = elementPath;
-      		break;
-      	} else if (contentReference.equals("#"+e.getId())) {
-      		found = true;
-      		path = elementPath;
-      		break;
-      	}
-      }
-      if (!found)
-      	throw new DefinitionException("Unable to resolve name reference "+contentReference+" at path "+path);
-    }
-
-    for (ElementDefinition e : profile.getSnapshot().getElement())
-    {
-      String p = e.getPath();
-
-      if (path != null && !Utilities.noString(e.getContentReference()) && path.startsWith(p))
-      {
-    	/* The path we are navigating to is on or below this element, but the element defers its definition to another named part of the
-    	 * structure.
-    	 */
-        if (path.length() > p.length())
-        {
-          // The path navigates further into the referenced element, so go ahead along the path over there
-          return getChildMap(profile, name, e.getContentReference()+"."+path.substring(p.length()+1), null);
-        }
-        else
-        {
-          // The path we are looking for is actually this element, but since it defers it definition, go get the referenced element
-          return getChildMap(profile, name, e.getContentReference(), null);
-        }
-      }
-      else if (p.startsWith(path+"."))
-      {
-    	  // The path of the element is a child of the path we're looking for (i.e. the parent),
-    	  // so add this element to the result.
-          String tail = p.substring(path.length()+1);
-
-          // Only add direct children, not any deeper paths
-          if (!tail.contains(".")) {
-            res.add(e);
-          }
-        }
-      }
-
-    return res;
+    return SnapshotIndex.forProfile(profile).getChildMap(path, contentReference);
   }
 
-
   public static List<ElementDefinition> getChildMap(StructureDefinition profile, ElementDefinition element) throws DefinitionException {
 	  	return getChildMap(profile, element.getName(), element.getPath(), element.getContentReference());
   }
@@ -242,36 +188,13 @@ public class ProfileUtilities {
    *
    * @param structure The structure to navigate into
    * @param path The path of the element within the structure to get the children for
-   * @return A List containing the element children (all of them are Elements)
+   * @return A List containing the element children (all of them are Elements). The list is shared by all
+   *   callers (see {@link SnapshotIndex}), so it can not be modified
    */
   public static List<ElementDefinition> getChildList(StructureDefinition profile, String path) {
-    List<ElementDefinition> res = new ArrayList<ElementDefinition>();
-
-    for (ElementDefinition e : profile.getSnapshot().getElement())
-    {
-      String p = e.getPath();
-
-      if (!Utilities.noString(e.getContentReference()) && path.startsWith(p))
-      {
-        if (path.length() > p.length())
-          return getChildList(profile, e.getContentReference()+"."+path.substring(p.length()+1));
-        else
-          return getChildList(profile, e.getContentReference());
-      }
-      else if (p.startsWith(path+".") && !p.equals(path))
-      {
-          String tail = p.substring(path.length()+1);
-          if (!tail.contains(".")) {
-            res.add(e);
-          }
-        }
-
-      }
-
-    return res;
+    return SnapshotIndex.forProfile(profile).getChildList(path);
   }
 
-
   public static List<ElementDefinition> getChildList(StructureDefinition structure, ElementDefinition element) {
 	  	return getChildList(structure, element.getPath());
 	  }
@@ -297,22 +220,26 @@ public class ProfileUtilities {
     if (snapshotStack.contains(derived.getUrl()))
       throw new DefinitionException("Circular snapshot references detected; cannot generate snapshot (stack = "+snapshotStack.toString()+")");
     snapshotStack.add(derived.getUrl());
-    
-//    System.out.println("Generate Snapshot for "+derived.getUrl());
+    try {
+//      System.out.println("Generate Snapshot for "+derived.getUrl());
 
-    derived.setSnapshot(new StructureDefinitionSnapshotComponent());
+      derived.setSnapshot(new StructureDefinitionSnapshotComponent());
 
-    // so we have two lists - the base list, and the differential list
-    // the differential list is only allowed to include things that are in the base list, but
-    // is allowed to include them multiple times - thereby slicing them
+      // so we have two lists - the base list, and the differential list
+      // the differential list is only allowed to include things that are in the base list, but
+      // is allowed to include them multiple times - thereby slicing them
 
-    // our approach is to walk through the base list, and see whether the differential
-    // says anything about them.
-    int baseCursor = 0;
-    int diffCursor = 0; // we need a diff cursor because we can only look ahead, in the bound scoped by longer paths
+      // our approach is to walk through the base list, and see whether the differential
+      // says anything about them.
+      int baseCursor = 0;
+      int diffCursor = 0; // we need a diff cursor because we can only look ahead, in the bound scoped by longer paths
 
-    // we actually delegate the work to a subroutine so we can re-enter it with a different cursors
-    processPaths(derived.getSnapshot(), base.getSnapshot(), derived.getDifferential(), baseCursor, diffCursor, base.getSnapshot().getElement().size()-1, derived.getDifferential().getElement().size()-1, url, derived.getId(), null, false, base.getUrl(), null, false);
+      // we actually delegate the work to a subroutine so we can re-enter it with a different cursors
+      processPaths(derived.getSnapshot(), base.getSnapshot(), derived.getDifferential(), baseCursor, diffCursor, base.getSnapshot().getElement().size()-1, derived.getDifferential().getElement().size()-1, url, derived.getId(), null, false, base.getUrl(), null, false);
+    } finally {
+      // the same structure can be generated again later (it is only circular while it is being generated)
+      snapshotStack.remove(derived.getUrl());
+    }
   }
 
   /**
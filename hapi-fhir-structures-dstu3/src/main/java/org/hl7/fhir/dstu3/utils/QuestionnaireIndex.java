@@ -0,0 +1,198 @@
+package org.hl7.fhir.dstu3.utils;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hl7.fhir.dstu3.model.Coding;
+import org.hl7.fhir.dstu3.model.PrimitiveType;
+import org.hl7.fhir.dstu3.model.Questionnaire;
+import org.hl7.fhir.dstu3.model.Questionnaire.QuestionnaireItemComponent;
+import org.hl7.fhir.dstu3.model.Questionnaire.QuestionnaireItemEnableWhenComponent;
+import org.hl7.fhir.dstu3.model.Questionnaire.QuestionnaireItemOptionComponent;
+import org.hl7.fhir.dstu3.model.Type;
+
+/**
+ * The items of a questionnaire, indexed so that a response can be validated without
+ * searching the questionnaire for each of its items:
+ *
+ *  - the items by linkId (wherever they are in the questionnaire)
+ *  - the position of each item amongst the items it is listed with
+ *  - the option values of each item, by type
+ *  - the linkIds of the questions which enableWhen conditions depend on
+ *
+ * If a linkId is used more than once, the first item (in the order in which the items are
+ * listed, parents before their children) is the one which is found, and the first position
+ * amongst the items it is listed with.
+ *
+ * An index is built for one instance of a questionnaire, and must not be used once the
+ * questionnaire is changed. Indexes are usually obtained from a {@link QuestionnaireIndexCache},
+ * so that they are shared by all the responses to the same version of a questionnaire.
+ */
+public class QuestionnaireIndex {
+
+  private final Questionnaire questionnaire;
+  private final Map<String, QuestionnaireItemComponent> items = new HashMap<String, QuestionnaireItemComponent>();
+  private final Map<List<QuestionnaireItemComponent>, Map<String, Integer>> positions = new IdentityHashMap<List<QuestionnaireItemComponent>, Map<String, Integer>>();
+  private final Map<QuestionnaireItemComponent, Options> options = new IdentityHashMap<QuestionnaireItemComponent, Options>();
+  private final Set<String> enableWhenQuestions = new HashSet<String>();
+  private int itemCount;
+
+  public QuestionnaireIndex(Questionnaire questionnaire) {
+    this.questionnaire = questionnaire;
+    indexItems(questionnaire.getItem());
+  }
+
+  /**
+   * @return the questionnaire which is indexed. Responses must be validated against the items of this
+   * instance, since the positions of items are found using the lists which hold them
+   */
+  public Questionnaire getQuestionnaire() {
+    return questionnaire;
+  }
+
+  /**
+   * @return the number of items in the questionnaire (including nested items)
+   */
+  public int getItemCount() {
+    return itemCount;
+  }
+
+  /**
+   * @return the item with the given linkId, or null if there is none
+   */
+  public QuestionnaireItemComponent findItem(String linkId) {
+    return items.get(linkId);
+  }
+
+  /**
+   * @param list - a list of items of the questionnaire (e.g. questionnaire.getItem(), or item.getItem())
+   * @return the position of the item with the given linkId in the list, or -1 if it is not in the list
+   */
+  public int indexOf(List<QuestionnaireItemComponent> list, String linkId) {
+    Map<String, Integer> map = positions.get(list);
+    if (map == null) {
+      // not a list of this instance of the questionnaire
+      for (int i = 0; i < list.size(); i++) {
+        if (linkId.equals(list.get(i).getLinkId()))
+          return i;
+      }
+      return -1;
+    }
+    Integer result = map.get(linkId);
+    return result == null ? -1 : result;
+  }
+
+  /**
+   * @return true if the item has options of the given type ("integer", "date", "time", "string" or "Coding")
+   */
+  public boolean hasOptions(QuestionnaireItemComponent item, String type) {
+    Options o = options.get(item);
+    if (o == null)
+      return false;
+    return "Coding".equals(type) ? !o.codings.isEmpty() : o.values.containsKey(type);
+  }
+
+  /**
+   * @param type - "integer", "date", "time" or "string"
+   * @param value - the value of the answer
+   * @return true if the value is one of the options of the item. Integers are compared by value,
+   * the other types by their string representation
+   */
+  public boolean isOption(QuestionnaireItemComponent item, String type, String value) {
+    Options o = options.get(item);
+    if (o == null || value == null)
+      return false;
+    Set<String> values = o.values.get(type);
+    if (values == null)
+      return false;
+    if ("integer".equals(type)) {
+      try {
+        value = Integer.toString(Integer.parseInt(value));
+      } catch (NumberFormatException e) {
+        return false;
+      }
+    }
+    return values.contains(value);
+  }
+
+  /**
+   * @return true if the system and code (either of which may be null) match one of the Coding options of the item
+   */
+  public boolean isCodingOption(QuestionnaireItemComponent item, String system, String code) {
+    Options o = options.get(item);
+    if (o == null)
+      return false;
+    Set<String> codes = o.codings.get(system);
+    return codes != null && codes.contains(code);
+  }
+
+  /**
+   * @return true if any item of the questionnaire has an enableWhen condition
+   */
+  public boolean hasEnableWhen() {
+    return !enableWhenQuestions.isEmpty();
+  }
+
+  /**
+   * @return true if an enableWhen condition of any item depends on the answers to the question with the given linkId
+   */
+  public boolean isEnableWhenQuestion(String linkId) {
+    return enableWhenQuestions.contains(linkId);
+  }
+
+  private void indexItems(List<QuestionnaireItemComponent> list) {
+    Map<String, Integer> map = new HashMap<String, Integer>();
+    positions.put(list, map);
+    for (int i = 0; i < list.size(); i++) {
+      QuestionnaireItemComponent item = list.get(i);
+      itemCount++;
+      String linkId = item.getLinkId();
+      if (linkId != null) {
+        if (!map.containsKey(linkId))
+          map.put(linkId, i);
+        if (!items.containsKey(linkId))
+          items.put(linkId, item);
+      }
+      if (item.hasOption())
+        options.put(item, new Options(item.getOption()));
+      for (QuestionnaireItemEnableWhenComponent ew : item.getEnableWhen()) {
+        if (ew.hasQuestion())
+          enableWhenQuestions.add(ew.getQuestion());
+      }
+      indexItems(item.getItem());
+    }
+  }
+
+  private static class Options {
+    private final Map<String, Set<String>> values = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> codings = new HashMap<String, Set<String>>();
+
+    private Options(List<QuestionnaireItemOptionComponent> list) {
+      for (QuestionnaireItemOptionComponent option : list) {
+        Type value = option.getValue();
+        if (value instanceof Coding) {
+          Coding c = (Coding) value;
+          Set<String> codes = codings.get(c.getSystem());
+          if (codes == null) {
+            codes = new HashSet<String>();
+            codings.put(c.getSystem(), codes);
+          }
+          codes.add(c.getCode());
+        } else if (value instanceof PrimitiveType && ((PrimitiveType<?>) value).hasValue()) {
+          String type = value.fhirType();
+          Set<String> set = values.get(type);
+          if (set == null) {
+            set = new HashSet<String>();
+            values.put(type, set);
+          }
+          set.add(value.primitiveValue());
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,145 @@
+package org.hl7.fhir.dstu3.utils;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.hl7.fhir.dstu3.model.IdType;
+import org.hl7.fhir.dstu3.model.Questionnaire;
+
+/**
+ * Holds a {@link QuestionnaireIndex} for each questionnaire used to validate responses, so
+ * that the questionnaire is indexed once rather than for each response.
+ *
+ * An index is used again for the same instance of a questionnaire, and also for a different
+ * instance (e.g. one loaded from a server again) of the same version of a questionnaire,
+ * which is identified by its canonical url and version, or else by its absolute id (including
+ * the base URL of the server it came from) and version id. Relative ids are not used, since
+ * different servers may hold different questionnaires with the same id. Questionnaires
+ * which can not be identified in either of these ways are only matched by instance. An index
+ * of a different instance is not used if the two instances both have a meta.versionId or both
+ * have a meta.lastUpdated, and they differ (e.g. a questionnaire which was changed on the server
+ * without changing its business version). A questionnaire which is changed after it has been used
+ * must otherwise be given a new version, or be used as a new instance.
+ *
+ * Indexes are held by soft references, so they are dropped (and built again when next used)
+ * if memory runs short. The cache is safe to use from several threads at once.
+ */
+public class QuestionnaireIndexCache {
+
+  // an index refers to its questionnaire, so the values can not be strong references
+  private final Map<Questionnaire, SoftReference<QuestionnaireIndex>> instances = new WeakHashMap<Questionnaire, SoftReference<QuestionnaireIndex>>();
+  private final Map<String, VersionReference> versions = new HashMap<String, VersionReference>();
+  // the references in versions which have been cleared, so that their keys can be removed
+  private final ReferenceQueue<QuestionnaireIndex> cleared = new ReferenceQueue<QuestionnaireIndex>();
+  private long buildCount;
+  private long hitCount;
+
+  /**
+   * @return the index of the questionnaire, building it if required. Responses must be validated
+   * against the questionnaire returned by {@link QuestionnaireIndex#getQuestionnaire()}, which may
+   * be an earlier instance of the same version of the questionnaire
+   */
+  public synchronized QuestionnaireIndex getIndex(Questionnaire questionnaire) {
+    purgeCleared();
+    QuestionnaireIndex index = get(instances.get(questionnaire));
+    String key = versionKey(questionnaire);
+    if (index == null && key != null) {
+      index = get(versions.get(key));
+      if (index != null && !sameMeta(index.getQuestionnaire(), questionnaire))
+        index = null;
+      if (index != null)
+        instances.put(questionnaire, new SoftReference<QuestionnaireIndex>(index));
+    }
+    if (index != null) {
+      hitCount++;
+      return index;
+    }
+
+    index = new QuestionnaireIndex(questionnaire);
+    buildCount++;
+    if (key != null) {
+      VersionReference ref = new VersionReference(index, key, cleared);
+      instances.put(questionnaire, ref);
+      versions.put(key, ref);
+    } else
+      instances.put(questionnaire, new SoftReference<QuestionnaireIndex>(index));
+    return index;
+  }
+
+  /**
+   * @return the number of questionnaires which have been indexed
+   */
+  public synchronized long getBuildCount() {
+    return buildCount;
+  }
+
+  /**
+   * @return the number of times an existing index was used again
+   */
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  /**
+   * Forget all the indexes, so that questionnaires are indexed again when next used
+   */
+  public synchronized void flush() {
+    instances.clear();
+    versions.clear();
+  }
+
+  private QuestionnaireIndex get(SoftReference<QuestionnaireIndex> ref) {
+    return ref == null ? null : ref.get();
+  }
+
+  private void purgeCleared() {
+    Reference<? extends QuestionnaireIndex> next;
+    while ((next = cleared.poll()) != null) {
+      String key = ((VersionReference) next).key;
+      // the key may have been given a new index since
+      if (versions.get(key) == next)
+        versions.remove(key);
+    }
+  }
+
+  private boolean sameMeta(Questionnaire cached, Questionnaire questionnaire) {
+    if (!cached.hasMeta() || !questionnaire.hasMeta())
+      return true;
+    String cachedVersionId = cached.getMeta().getVersionId();
+    String versionId = questionnaire.getMeta().getVersionId();
+    if (cachedVersionId != null && versionId != null && !cachedVersionId.equals(versionId))
+      return false;
+    Date cachedLastUpdated = cached.getMeta().getLastUpdated();
+    Date lastUpdated = questionnaire.getMeta().getLastUpdated();
+    if (cachedLastUpdated != null && lastUpdated != null && cachedLastUpdated.getTime() != lastUpdated.getTime())
+      return false;
+    return true;
+  }
+
+  private String versionKey(Questionnaire questionnaire) {
+    if (questionnaire.hasUrl() && questionnaire.hasVersion())
+      return "url:"+questionnaire.getUrl()+"|"+questionnaire.getVersion();
+    if (questionnaire.hasIdElement() && questionnaire.getIdElement().hasIdPart() && questionnaire.getIdElement().hasBaseUrl()) {
+      IdType id = questionnaire.getIdElement();
+      String versionId = id.hasVersionIdPart() ? id.getVersionIdPart() : questionnaire.hasMeta() ? questionnaire.getMeta().getVersionId() : null;
+      if (versionId != null)
+        return "id:"+id.toVersionless().getValue()+"/_history/"+versionId;
+    }
+    return null;
+  }
+
+  private static class VersionReference extends SoftReference<QuestionnaireIndex> {
+    private final String key;
+
+    private VersionReference(QuestionnaireIndex index, String key, ReferenceQueue<QuestionnaireIndex> queue) {
+      super(index, queue);
+      this.key = key;
+    }
+  }
+
+}
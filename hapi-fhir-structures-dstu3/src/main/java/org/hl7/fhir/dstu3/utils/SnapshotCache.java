@@ -0,0 +1,291 @@
+package org.hl7.fhir.dstu3.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hl7.fhir.dstu3.exceptions.DefinitionException;
+import org.hl7.fhir.dstu3.exceptions.FHIRException;
+import org.hl7.fhir.dstu3.model.ElementDefinition.ElementDefinitionBindingComponent;
+import org.hl7.fhir.dstu3.model.StructureDefinition;
+import org.hl7.fhir.dstu3.model.StructureDefinition.StructureDefinitionDifferentialComponent;
+import org.hl7.fhir.dstu3.model.StructureDefinition.StructureDefinitionSnapshotComponent;
+import org.hl7.fhir.dstu3.model.StructureDefinition.TypeDerivationRule;
+import org.hl7.fhir.dstu3.utils.ProfileUtilities.ProfileKnowledgeProvider;
+import org.hl7.fhir.dstu3.validation.ValidationMessage;
+import org.hl7.fhir.utilities.Utilities;
+
+/**
+ * Generates the snapshots of profiles which are provided without one (using
+ * {@link ProfileUtilities#generateSnapshot(StructureDefinition, StructureDefinition, String, String)}),
+ * and remembers them so that they are not generated again each time the profile is used.
+ *
+ * Snapshots are generated along the derivation chain: the snapshot of the base is found
+ * (or generated) first, so a profile derived from a profile derived from a resource only
+ * causes the profiles which have changed to be generated again. A snapshot is kept for
+ * each profile url and version, and is used again as long as the differential of the profile
+ * is the same as when it was generated, and it was generated from the same snapshot of the
+ * base. Changing a profile (or any of its ancestors) therefore causes it (and the profiles
+ * derived from it) to be generated again the next time they are used.
+ *
+ * The profiles passed in (and their base profiles) are never modified, since they are usually
+ * shared by everything using the same context: snapshots are generated into copies of them. Profiles
+ * which were provided with a snapshot are returned as they are. The copies with a generated snapshot
+ * are shared by all the callers asking for a profile with the same url, version and differential,
+ * so they can not be modified.
+ *
+ * The cache is safe to use from several threads at once. Finding a snapshot which was already
+ * generated does not take a lock, and a snapshot is only generated once when several threads
+ * ask for it at the same time (the others wait for it). At most {@link #getMaximumSize()} snapshots
+ * are kept, and the least recently used ones are forgotten first.
+ */
+public class SnapshotCache {
+
+  /**
+   * Default value for {@link #setMaximumSize(int)}
+   */
+  public static final int DEFAULT_MAXIMUM_SIZE = 1000;
+
+  // marks the snapshots generated by a cache, so that they can be recognised without a lookup
+  private static final String GENERATED_BY = SnapshotCache.class.getName();
+
+  private final AtomicLong clock = new AtomicLong();
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+  private final AtomicLong generationCount = new AtomicLong();
+  private final AtomicLong generationNanos = new AtomicLong();
+  private final AtomicLong hitCount = new AtomicLong();
+  private volatile int maximumSize = DEFAULT_MAXIMUM_SIZE;
+
+  /**
+   * Find the version of a profile which has a snapshot, generating it (and the snapshots of its base
+   * profiles) if required. The profile is returned as it is if it was provided with a snapshot, or
+   * is not a constraint on another profile
+   *
+   * @param context - the context used to find the base profiles
+   * @param profile - the profile, which is not modified
+   * @return the profile, or a copy of it with a generated snapshot (which must not be modified)
+   * @throws DefinitionException if a base profile can not be found, or the profiles refer to each other
+   * @throws FHIRException if the snapshot can not be generated
+   */
+  public StructureDefinition generateSnapshot(IWorkerContext context, StructureDefinition profile) throws FHIRException {
+    return withSnapshot(context, profile, new ArrayList<String>());
+  }
+
+  /**
+   * @return true if the snapshot of the profile was generated by this cache (i.e. not provided with the profile)
+   */
+  public boolean isGenerated(StructureDefinition profile) {
+    return profile.hasSnapshot() && profile.getSnapshot().getUserData(GENERATED_BY) == this;
+  }
+
+  /**
+   * @return the number of snapshots which have been generated
+   */
+  public long getGenerationCount() {
+    return generationCount.get();
+  }
+
+  /**
+   * @return the total time spent generating snapshots, in milliseconds
+   */
+  public long getGenerationTimeMillis() {
+    return generationNanos.get() / 1000000;
+  }
+
+  /**
+   * @return the number of times a snapshot was used again instead of being generated
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * @return the maximum number of snapshots kept. Default is {@link #DEFAULT_MAXIMUM_SIZE}
+   */
+  public int getMaximumSize() {
+    return maximumSize;
+  }
+
+  /**
+   * @param maximumSize - the maximum number of snapshots kept. Default is {@link #DEFAULT_MAXIMUM_SIZE}
+   */
+  public void setMaximumSize(int maximumSize) {
+    if (maximumSize < 1)
+      throw new IllegalArgumentException("maximumSize must be at least 1");
+    this.maximumSize = maximumSize;
+    evictIfNeeded();
+  }
+
+  /**
+   * @return the number of snapshots currently kept
+   */
+  public int getSize() {
+    return entries.size();
+  }
+
+  /**
+   * Forget all the snapshots, so that they will be generated again when next used
+   */
+  public void flush() {
+    entries.clear();
+  }
+
+  private StructureDefinition withSnapshot(final IWorkerContext context, StructureDefinition profile, List<String> stack) throws FHIRException {
+    if (profile.hasSnapshot() && !isGenerated(profile))
+      return profile;
+    if (profile.getDerivation() != TypeDerivationRule.CONSTRAINT || Utilities.noString(profile.getBaseDefinition()))
+      return profile;
+
+    String key = profile.getUrl()+"|"+profile.getVersion();
+    if (stack.contains(key))
+      throw new DefinitionException("Circular snapshot references detected; cannot generate snapshot (stack = "+stack.toString()+")");
+    stack.add(key);
+
+    StructureDefinition fetched = context.fetchResource(StructureDefinition.class, profile.getBaseDefinition());
+    if (fetched == null)
+      throw new DefinitionException("no base for "+profile.getBaseDefinition());
+    final StructureDefinition base = withSnapshot(context, fetched, stack);
+    if (!base.hasSnapshot())
+      throw new DefinitionException("no snapshot for base "+profile.getBaseDefinition());
+
+    while (true) {
+      Entry entry = entries.get(key);
+      if (entry != null && entry.baseSnapshot == base.getSnapshot() && entry.differential.equalsDeep(profile.getDifferential())) {
+        // if another thread is still generating this snapshot, this waits for it
+        StructureDefinition retVal = entry.get();
+        entry.lastUsed = clock.incrementAndGet();
+        hitCount.incrementAndGet();
+        return retVal;
+      }
+
+      // the snapshot is generated into a copy, since the profile may be in use by other threads
+      final StructureDefinition copy = profile.copy();
+      StructureDefinitionDifferentialComponent differential = profile.getDifferential().copy();
+      Entry created = new Entry(differential, base.getSnapshot(), new FutureTask<StructureDefinition>(new Callable<StructureDefinition>() {
+        @Override
+        public StructureDefinition call() throws Exception {
+          long start = System.nanoTime();
+          new ProfileUtilities(context, new ArrayList<ValidationMessage>(), new ResourceKnowledgeProvider(context)).generateSnapshot(base, copy, copy.getUrl(), copy.getName());
+          generationNanos.addAndGet(System.nanoTime() - start);
+          generationCount.incrementAndGet();
+          copy.getSnapshot().setUserData(GENERATED_BY, SnapshotCache.this);
+          return copy;
+        }
+      }));
+      created.lastUsed = clock.incrementAndGet();
+
+      // if another thread got there first, use (or wait for) its snapshot instead
+      boolean added = entry == null ? entries.putIfAbsent(key, created) == null : entries.replace(key, entry, created);
+      if (!added)
+        continue;
+      evictIfNeeded();
+
+      created.task.run();
+      boolean generated = false;
+      try {
+        StructureDefinition retVal = created.get();
+        generated = true;
+        return retVal;
+      } finally {
+        // don't keep a failure, so that the next caller tries again
+        if (!generated)
+          entries.remove(key, created);
+      }
+    }
+  }
+
+  private void evictIfNeeded() {
+    while (entries.size() > maximumSize) {
+      String eldest = null;
+      long eldestUsed = Long.MAX_VALUE;
+      for (Map.Entry<String, Entry> next : entries.entrySet()) {
+        if (next.getValue().lastUsed < eldestUsed) {
+          eldest = next.getKey();
+          eldestUsed = next.getValue().lastUsed;
+        }
+      }
+      if (eldest == null)
+        return;
+      entries.remove(eldest);
+    }
+  }
+
+  private static class Entry {
+    private final StructureDefinitionDifferentialComponent differential;
+    private final StructureDefinitionSnapshotComponent baseSnapshot;
+    private final FutureTask<StructureDefinition> task;
+    private volatile long lastUsed;
+
+    private Entry(StructureDefinitionDifferentialComponent differential, StructureDefinitionSnapshotComponent baseSnapshot, FutureTask<StructureDefinition> task) {
+      this.differential = differential;
+      this.baseSnapshot = baseSnapshot;
+      this.task = task;
+    }
+
+    private StructureDefinition get() throws FHIRException {
+      try {
+        return task.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new FHIRException("Interrupted while waiting for a snapshot to be generated", e);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof FHIRException)
+          throw (FHIRException) cause;
+        if (cause instanceof RuntimeException)
+          throw (RuntimeException) cause;
+        if (cause instanceof Error)
+          throw (Error) cause;
+        throw new FHIRException(cause);
+      }
+    }
+  }
+
+  /**
+   * Snapshot generation only needs to know which types are resources
+   */
+  private static class ResourceKnowledgeProvider implements ProfileKnowledgeProvider {
+    private final IWorkerContext context;
+
+    private ResourceKnowledgeProvider(IWorkerContext context) {
+      this.context = context;
+    }
+
+    @Override
+    public boolean isDatatype(String typeSimple) {
+      return !isResource(typeSimple);
+    }
+
+    @Override
+    public boolean isResource(String typeSimple) {
+      return context.getResourceNames().contains(typeSimple);
+    }
+
+    @Override
+    public boolean hasLinkFor(String typeSimple) {
+      return false;
+    }
+
+    @Override
+    public String getLinkFor(String typeSimple) {
+      return null;
+    }
+
+    @Override
+    public BindingResolution resolveBinding(ElementDefinitionBindingComponent binding) {
+      return null;
+    }
+
+    @Override
+    public String getLinkForProfile(StructureDefinition profile, String url) {
+      return null;
+    }
+  }
+
+}
@@ -0,0 +1,167 @@
+package org.hl7.fhir.dstu3.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.hl7.fhir.dstu3.exceptions.DefinitionException;
+import org.hl7.fhir.dstu3.model.ElementDefinition;
+import org.hl7.fhir.dstu3.model.StructureDefinition;
+import org.hl7.fhir.dstu3.model.StructureDefinition.StructureDefinitionSnapshotComponent;
+import org.hl7.fhir.utilities.Utilities;
+
+/**
+ * An index of the snapshot of a structure definition, so that the children of an
+ * element can be found without scanning the whole snapshot.
+ *
+ * Each element is indexed under the path of its parent, and the elements which defer
+ * their definition to another part of the structure (content references) are kept in
+ * snapshot order. The results of {@link #getChildMap(String, String)} and
+ * {@link #getChildList(String)} are the same as scanning the snapshot, and are
+ * remembered for the life of the index.
+ *
+ * Indexes are built on first use and shared (they are safe to use from several threads
+ * at once). An index is built again if the snapshot it was built from changes size or
+ * is replaced, but changes to the paths of existing elements are not noticed.
+ */
+public class SnapshotIndex {
+
+  private static final Map<StructureDefinitionSnapshotComponent, SnapshotIndex> indexes = Collections.synchronizedMap(new WeakHashMap<StructureDefinitionSnapshotComponent, SnapshotIndex>());
+
+  private final String profileName;
+  private final List<ElementDefinition> elements;
+  private final int size;
+  private final Map<String, List<ElementDefinition>> childrenByPath = new HashMap<String, List<ElementDefinition>>();
+  private final List<ElementDefinition> contentReferences = new ArrayList<ElementDefinition>();
+  private final ConcurrentMap<String, List<ElementDefinition>> childMaps = new ConcurrentHashMap<String, List<ElementDefinition>>();
+  private final ConcurrentMap<String, List<ElementDefinition>> referencedChildMaps = new ConcurrentHashMap<String, List<ElementDefinition>>();
+  private final ConcurrentMap<String, List<ElementDefinition>> childLists = new ConcurrentHashMap<String, List<ElementDefinition>>();
+
+  private SnapshotIndex(StructureDefinition profile) {
+    profileName = profile.getName();
+    elements = profile.getSnapshot().getElement();
+    size = elements.size();
+    for (ElementDefinition e : elements) {
+      String p = e.getPath();
+      if (p == null)
+        continue;
+      if (!Utilities.noString(e.getContentReference()))
+        contentReferences.add(e);
+      int dot = p.lastIndexOf('.');
+      if (dot > 0) {
+        String parent = p.substring(0, dot);
+        List<ElementDefinition> children = childrenByPath.get(parent);
+        if (children == null) {
+          children = new ArrayList<ElementDefinition>();
+          childrenByPath.put(parent, children);
+        }
+        children.add(e);
+      }
+    }
+  }
+
+  /**
+   * Returns the index for the snapshot of the given structure, building it if there
+   * is no index yet, or if the snapshot has changed since the index was built
+   */
+  public static SnapshotIndex forProfile(StructureDefinition profile) {
+    StructureDefinitionSnapshotComponent snapshot = profile.getSnapshot();
+    SnapshotIndex retVal = indexes.get(snapshot);
+    if (retVal == null || !retVal.isCurrent(profile)) {
+      retVal = new SnapshotIndex(profile);
+      indexes.put(snapshot, retVal);
+    }
+    return retVal;
+  }
+
+  private boolean isCurrent(StructureDefinition profile) {
+    List<ElementDefinition> current = profile.getSnapshot().getElement();
+    return current == elements && current.size() == size && Utilities.equals(profileName, profile.getName());
+  }
+
+  /**
+   * See {@link ProfileUtilities#getChildMap(StructureDefinition, String, String, String)}
+   */
+  public List<ElementDefinition> getChildMap(String path, String contentReference) throws DefinitionException {
+    // most lookups have no content reference, so they are keyed by the path alone
+    ConcurrentMap<String, List<ElementDefinition>> cache = contentReference == null ? childMaps : referencedChildMaps;
+    String key = contentReference == null ? String.valueOf(path) : contentReference + "|" + path;
+    List<ElementDefinition> retVal = cache.get(key);
+    if (retVal == null) {
+      retVal = Collections.unmodifiableList(buildChildMap(path, contentReference));
+      cache.put(key, retVal);
+    }
+    return retVal;
+  }
+
+  private List<ElementDefinition> buildChildMap(String path, String contentReference) throws DefinitionException {
+    // if we have a name reference, we have to find it, and iterate it's children
+    if (contentReference != null) {
+      boolean found = false;
+      for (ElementDefinition e : elements) {
+        String elementPath = e.getPath();
+        if (elementPath.startsWith(profileName) && elementPath.endsWith("." + contentReference.substring(1))) {
+          found = true;
+          path = elementPath;
+          break;
+        } else if (contentReference.equals("#"+e.getId())) {
+          found = true;
+          path = elementPath;
+          break;
+        }
+      }
+      if (!found)
+        throw new DefinitionException("Unable to resolve name reference "+contentReference+" at path "+path);
+    }
+
+    if (path != null) {
+      for (ElementDefinition e : contentReferences) {
+        String p = e.getPath();
+        if (path.startsWith(p)) {
+          // The path is on or below an element which defers its definition to another named part of the structure
+          if (path.length() > p.length())
+            return getChildMap(e.getContentReference()+"."+path.substring(p.length()+1), null);
+          else
+            return getChildMap(e.getContentReference(), null);
+        }
+      }
+    }
+    return children(path);
+  }
+
+  /**
+   * See {@link ProfileUtilities#getChildList(StructureDefinition, String)}
+   */
+  public List<ElementDefinition> getChildList(String path) {
+    List<ElementDefinition> retVal = childLists.get(path);
+    if (retVal == null) {
+      retVal = Collections.unmodifiableList(buildChildList(path));
+      childLists.put(path, retVal);
+    }
+    return retVal;
+  }
+
+  private List<ElementDefinition> buildChildList(String path) {
+    for (ElementDefinition e : contentReferences) {
+      String p = e.getPath();
+      if (path.startsWith(p)) {
+        if (path.length() > p.length())
+          return getChildList(e.getContentReference()+"."+path.substring(p.length()+1));
+        else
+          return getChildList(e.getContentReference());
+      }
+    }
+    return children(path);
+  }
+
+  private List<ElementDefinition> children(String path) {
+    List<ElementDefinition> children = childrenByPath.get(path);
+    return children == null ? new ArrayList<ElementDefinition>() : new ArrayList<ElementDefinition>(children);
+  }
+
+}
@@ -8,6 +8,13 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.hl7.fhir.dstu3.exceptions.DefinitionException;
 import org.hl7.fhir.dstu3.exceptions.FHIRException;
@@ -17,6 +24,7 @@ import org.hl7.fhir.dstu3.metamodel.Element.SpecialElement;
 import org.hl7.fhir.dstu3.metamodel.JsonParser;
 import org.hl7.fhir.dstu3.metamodel.Manager;
 import org.hl7.fhir.dstu3.metamodel.Manager.FhirFormat;
+import org.hl7.fhir.dstu3.metamodel.ObjectParser;
 import org.hl7.fhir.dstu3.metamodel.ParserBase;
 import org.hl7.fhir.dstu3.metamodel.ParserBase.ValidationPolicy;
 import org.hl7.fhir.dstu3.metamodel.XmlParser;
@@ -48,7 +56,7 @@ import org.hl7.fhir.dstu3.model.Period;
 import org.hl7.fhir.dstu3.model.Quantity;
 import org.hl7.fhir.dstu3.model.Questionnaire;
 import org.hl7.fhir.dstu3.model.Questionnaire.QuestionnaireItemComponent;
-import org.hl7.fhir.dstu3.model.Questionnaire.QuestionnaireItemOptionComponent;
+import org.hl7.fhir.dstu3.model.Questionnaire.QuestionnaireItemEnableWhenComponent;
 import org.hl7.fhir.dstu3.model.Questionnaire.QuestionnaireItemType;
 import org.hl7.fhir.dstu3.model.Range;
 import org.hl7.fhir.dstu3.model.Ratio;
@@ -61,7 +69,6 @@ import org.hl7.fhir.dstu3.model.StructureDefinition.ExtensionContext;
 import org.hl7.fhir.dstu3.model.StructureDefinition.StructureDefinitionKind;
 import org.hl7.fhir.dstu3.model.StructureDefinition.StructureDefinitionSnapshotComponent;
 import org.hl7.fhir.dstu3.model.StructureDefinition.TypeDerivationRule;
-import org.hl7.fhir.dstu3.model.TimeType;
 import org.hl7.fhir.dstu3.model.Timing;
 import org.hl7.fhir.dstu3.model.Type;
 import org.hl7.fhir.dstu3.model.UriType;
@@ -71,6 +78,9 @@ import org.hl7.fhir.dstu3.utils.FHIRPathEngine;
 import org.hl7.fhir.dstu3.utils.IWorkerContext;
 import org.hl7.fhir.dstu3.utils.IWorkerContext.ValidationResult;
 import org.hl7.fhir.dstu3.utils.ProfileUtilities;
+import org.hl7.fhir.dstu3.utils.QuestionnaireIndex;
+import org.hl7.fhir.dstu3.utils.QuestionnaireIndexCache;
+import org.hl7.fhir.dstu3.utils.SnapshotCache;
 import org.hl7.fhir.dstu3.validation.ValidationMessage.Source;
 import org.hl7.fhir.exceptions.TerminologyServiceException;
 import org.hl7.fhir.utilities.CommaSeparatedStringBuilder;
@@ -99,6 +109,7 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
   private CheckDisplayOption checkDisplay;
   private IWorkerContext context;
   private FHIRPathEngine fpe; 
+  private Map<String, ExpressionNode> expressionCache;
 
   private List<String> extensionDomains = new ArrayList<String>();
 
@@ -110,6 +121,18 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
 
   private Bundle logical;
 
+  // concurrent validation of bundle entries (see setBundleEntryExecutor)
+  private ExecutorService entryExecutor;
+  private int maxConcurrentEntries;
+  private Queue<FHIRPathEngine> entryFhirPathEngines;
+  private List<DeferredEntry> deferredEntries;
+
+  // generates the snapshots of profiles provided without one (see setSnapshotCache)
+  private SnapshotCache snapshotCache;
+
+  // indexes of the questionnaires which responses are validated against (see setQuestionnaireIndexCache)
+  private QuestionnaireIndexCache questionnaireIndexCache;
+
   // time tracking
   private long overall = 0;
   private long txTime = 0;
@@ -125,6 +148,20 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     source = Source.InstanceValidator;
   }
 
+  /**
+   * Creates a validator which uses the given FHIRPath engine (which must not be used by any other
+   * thread while this validator is in use), and stores parsed invariant expressions in the given 
+   * cache (keyed by expression) instead of in the user data of the profile being validated against.
+   * The cache must be thread safe if it is shared between validators used by different threads.
+   */
+  public InstanceValidator(IWorkerContext theContext, FHIRPathEngine theFhirPathEngine, Map<String, ExpressionNode> theExpressionCache) {
+    super();
+    this.context = theContext;
+    fpe = theFhirPathEngine;
+    expressionCache = theExpressionCache;
+    source = Source.InstanceValidator;
+  }
+
   private boolean allowUnknownExtension(String url) {
     if (url.contains("example.org") || url.contains("acme.com") || url.contains("nema.org"))
       return true;
@@ -196,13 +233,14 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
 
   @Override
   public org.hl7.fhir.dstu3.metamodel.Element validate(List<ValidationMessage> errors, Resource resource, StructureDefinition profile) throws Exception {
-    throw new Exception("Not done yet");
-    //    ParserBase parser = new ObjectParser(context);
-    //    parser.setupValidation(ValidationPolicy.EVERYTHING, errors); 
-    //    long t = System.nanoTime();
-    //    Element e = parser.parse(resource);
-    //    loadTime = System.nanoTime() - t;
-    //    validate(errors, e, profile);    
+    ObjectParser parser = new ObjectParser(context);
+    parser.setupValidation(ValidationPolicy.EVERYTHING, errors); 
+    long t = System.nanoTime();
+    Element e = parser.parse(resource);
+    loadTime = System.nanoTime() - t;
+    if (e != null)
+      validate(errors, e, profile);
+    return e;
   }
 
   @Override
@@ -304,10 +342,43 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
   public void validate(List<ValidationMessage> errors, Element element, StructureDefinition profile) throws Exception {
     // this is the main entry point; all the other entry points end up here coming here...
     long t = System.nanoTime();
-    validateResource(errors, element, element, profile, resourceIdRule, new NodeStack(element));
+    if (entryExecutor != null && "Bundle".equals(element.getType())) {
+      deferredEntries = new ArrayList<DeferredEntry>();
+      try {
+        validateResource(errors, element, element, profile, resourceIdRule, new NodeStack(element));
+        joinDeferredEntries();
+      } finally {
+        for (DeferredEntry next : deferredEntries)
+          next.future.cancel(false);
+        deferredEntries = null;
+      }
+    } else
+      validateResource(errors, element, element, profile, resourceIdRule, new NodeStack(element));
     overall = System.nanoTime() - t;
   }
 
+  /**
+   * Waits for the entries which are being validated concurrently, and inserts their messages at the
+   * point where they would have been reported if the entries had been validated one at a time
+   */
+  private void joinDeferredEntries() throws Exception {
+    List<List<ValidationMessage>> results = new ArrayList<List<ValidationMessage>>(deferredEntries.size());
+    for (DeferredEntry next : deferredEntries) {
+      try {
+        results.add(next.future.get());
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof Exception)
+          throw (Exception) e.getCause();
+        throw e;
+      }
+    }
+    // work backwards so that the recorded positions of the earlier entries are still valid
+    for (int i = deferredEntries.size() - 1; i >= 0; i--) {
+      DeferredEntry next = deferredEntries.get(i);
+      next.errors.addAll(next.index, results.get(i));
+    }
+  }
+
 
   private boolean check(String v1, String v2) {
     return v1 == null ? Utilities.noString(v1) : v1.equals(v2);
@@ -552,6 +623,7 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
           StructureDefinition pr = context.fetchResource(StructureDefinition.class, ref);
           sdTime = sdTime + (System.nanoTime() - t);
           if (warning(errors, IssueType.INVALID, element.line(), element.col(), p, pr != null, "StructureDefinition reference \"{0}\" could not be resolved", ref)) {
+            pr = generateSnapshot(errors, element, p, pr);
             if (rule(errors, IssueType.STRUCTURE, element.line(), element.col(), p, pr.hasSnapshot(),
                 "StructureDefinition has no snapshot - validation is against the snapshot, so it must be provided")) {
               validateElement(errors, pr, pr.getSnapshot().getElement().get(0), null, null, resource, element, element.getName(), stack, false);
@@ -1529,6 +1601,53 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     this.allowXsiLocation = allowXsiLocation;
   }
 
+  /**
+   * Validates the resources in the entries of a bundle concurrently, using the given executor, with
+   * at most maxConcurrentEntries entries of any one bundle in progress at once. The messages are
+   * reported in the same order as when the entries are validated one after another, and references
+   * between the entries are resolved as usual. Only the entries of the bundle being validated are
+   * split up; bundles nested inside them are validated as a whole.
+   * <p>
+   * The validation waits for the entries to finish, so it must not itself be run by a bounded
+   * executor which is also used here, or it may wait forever. Each entry is validated with its own
+   * FHIRPathEngine, which is taken from (and returned to) fhirPathEngines; this queue must be thread
+   * safe, and may be <code>null</code> to keep a pool for this validator only.
+   * </p>
+   * 
+   * @param executor the executor, or <code>null</code> to validate the entries one after another
+   */
+  public void setBundleEntryExecutor(ExecutorService executor, int maxConcurrentEntries, Queue<FHIRPathEngine> fhirPathEngines) {
+    if (executor != null && maxConcurrentEntries < 1)
+      throw new IllegalArgumentException("maxConcurrentEntries must be at least 1");
+    this.entryExecutor = executor;
+    this.maxConcurrentEntries = maxConcurrentEntries;
+    this.entryFhirPathEngines = fhirPathEngines != null ? fhirPathEngines : new ConcurrentLinkedQueue<FHIRPathEngine>();
+    // the parsed invariants can't be kept in the (unsynchronized) user data of the profiles
+    if (executor != null && expressionCache == null)
+      expressionCache = new ConcurrentHashMap<String, ExpressionNode>();
+  }
+
+  /**
+   * Profiles are validated against their snapshot. If a cache is set, the snapshot of a profile 
+   * which is provided without one is generated (or taken from the cache) when the profile is used;
+   * otherwise such profiles are reported as errors
+   * 
+   * @param snapshotCache the cache, or <code>null</code> to not generate snapshots
+   */
+  public void setSnapshotCache(SnapshotCache snapshotCache) {
+    this.snapshotCache = snapshotCache;
+  }
+
+  /**
+   * QuestionnaireResponses are validated using an index of the items of their questionnaire. If a 
+   * cache is set, the index is kept there and used again for other responses to the same questionnaire
+   * 
+   * @param questionnaireIndexCache the cache, or <code>null</code> to index the questionnaire for each response
+   */
+  public void setQuestionnaireIndexCache(QuestionnaireIndexCache questionnaireIndexCache) {
+    this.questionnaireIndexCache = questionnaireIndexCache;
+  }
+
   /**
    * 
    * @param element
@@ -1567,6 +1686,7 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
   // the instance validator had no issues against the base resource profile
   private void start(List<ValidationMessage> errors, Element resource, Element element, StructureDefinition profile, NodeStack stack) throws FHIRException, FHIRException {
     // profile is valid, and matches the resource name
+    profile = generateSnapshot(errors, element, stack.getLiteralPath(), profile);
     if (rule(errors, IssueType.STRUCTURE, element.line(), element.col(), stack.getLiteralPath(), profile.hasSnapshot(),
         "StructureDefinition has no snapshot - validation is against the snapshot, so it must be provided")) {
       validateElement(errors, profile, profile.getSnapshot().getElement().get(0), null, null, resource, element, element.getName(), stack, false);
@@ -1590,22 +1710,82 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
       Questionnaire qsrc = context.fetchResource(Questionnaire.class, q.getNamedChildValue("reference"));
       sdTime = sdTime + (System.nanoTime() - t);
       if (warning(errors, IssueType.REQUIRED, q.line(), q.col(), stack.getLiteralPath(), qsrc != null, "The questionnaire could not be resolved, so no validation can be performed against the base questionnaire")) {
-        boolean inProgress = "in-progress".equals(element.getNamedChildValue("status"));
-        validateQuestionannaireResponseItems(qsrc, qsrc.getItem(), errors, element, stack, inProgress);        
+        QuestionnaireIndex qIndex = questionnaireIndexCache != null ? questionnaireIndexCache.getIndex(qsrc) : new QuestionnaireIndex(qsrc);
+        QuestionnaireResponseContext qctxt = new QuestionnaireResponseContext(qIndex, "in-progress".equals(element.getNamedChildValue("status")));
+        if (qIndex.hasEnableWhen())
+          collectEnableWhenAnswers(qctxt, element);
+        validateQuestionannaireResponseItems(qctxt, qIndex.getQuestionnaire().getItem(), errors, element, stack);
       }
     }
   }
 
-  private void validateQuestionannaireResponseItem(Questionnaire qsrc, QuestionnaireItemComponent qItem, List<ValidationMessage> errors, Element element, NodeStack stack, boolean inProgress) {
+  private void collectEnableWhenAnswers(QuestionnaireResponseContext qctxt, Element element) {
+    List<Element> items = new ArrayList<Element>();
+    element.getNamedChildren("item", items);
+    for (Element item : items) {
+      List<Element> answers = new ArrayList<Element>();
+      item.getNamedChildren("answer", answers);
+      String linkId = item.getNamedChildValue("linkId");
+      if (linkId != null && qctxt.index.isEnableWhenQuestion(linkId) && !answers.isEmpty()) {
+        List<Element> list = qctxt.enableWhenAnswers.get(linkId);
+        if (list == null) {
+          list = new ArrayList<Element>();
+          qctxt.enableWhenAnswers.put(linkId, list);
+        }
+        list.addAll(answers);
+      }
+      collectEnableWhenAnswers(qctxt, item);
+      for (Element answer : answers)
+        collectEnableWhenAnswers(qctxt, answer);
+    }
+  }
+
+  /**
+   * An item is enabled if it has no enableWhen conditions, or any of them is met by the answers in the response
+   */
+  private boolean isEnabled(QuestionnaireResponseContext qctxt, QuestionnaireItemComponent qItem) {
+    if (!qItem.hasEnableWhen())
+      return true;
+    for (QuestionnaireItemEnableWhenComponent ew : qItem.getEnableWhen()) {
+      List<Element> answers = qctxt.enableWhenAnswers.get(ew.getQuestion());
+      if (ew.hasHasAnswer()) {
+        if (ew.getHasAnswer() == (answers != null))
+          return true;
+      } else if (ew.getAnswer() != null && !ew.getAnswer().isEmpty()) {
+        if (answers != null) {
+          for (Element answer : answers)
+            if (answerMatches(answer, ew.getAnswer()))
+              return true;
+        }
+      } else
+        return true; // no condition
+    }
+    return false;
+  }
+
+  private boolean answerMatches(Element answer, Type value) {
+    List<Element> values = new ArrayList<Element>();
+    answer.getNamedChildrenWithWildcard("value[x]", values);
+    if (values.isEmpty())
+      return false;
+    Element v = values.get(0);
+    if (value instanceof Coding)
+      return ObjectUtil.equals(((Coding) value).getSystem(), v.getNamedChildValue("system")) && ObjectUtil.equals(((Coding) value).getCode(), v.getNamedChildValue("code"));
+    if (value.isPrimitive())
+      return v.getName().equals("value"+Utilities.capitalize(value.fhirType())) && ObjectUtil.equals(value.primitiveValue(), v.primitiveValue());
+    return true; // other types are not compared, so the condition is assumed to be met
+  }
+
+  private void validateQuestionannaireResponseItem(QuestionnaireResponseContext qctxt, QuestionnaireItemComponent qItem, List<ValidationMessage> errors, Element element, NodeStack stack) {
     String text = element.getNamedChildValue("text");
     rule(errors, IssueType.INVALID, element.line(), element.col(), stack.getLiteralPath(), Utilities.noString(text) || text.equals(qItem.getText()), "If text exists, it must match the questionnaire definition for linkId "+qItem.getLinkId());
 
     List<Element> answers = new ArrayList<Element>();
     element.getNamedChildren("answer", answers);
-    if (inProgress)
-      warning(errors, IssueType.REQUIRED, element.line(), element.col(), stack.getLiteralPath(), (answers.size() > 0) || !qItem.getRequired(), "No response answer found for required item "+qItem.getLinkId());
+    if (qctxt.inProgress)
+      warning(errors, IssueType.REQUIRED, element.line(), element.col(), stack.getLiteralPath(), (answers.size() > 0) || !qItem.getRequired() || !isEnabled(qctxt, qItem), "No response answer found for required item "+qItem.getLinkId());
     else
-      rule(errors, IssueType.REQUIRED, element.line(), element.col(), stack.getLiteralPath(), (answers.size() > 0) || !qItem.getRequired(), "No response answer found for required item "+qItem.getLinkId());
+      rule(errors, IssueType.REQUIRED, element.line(), element.col(), stack.getLiteralPath(), (answers.size() > 0) || !qItem.getRequired() || !isEnabled(qctxt, qItem), "No response answer found for required item "+qItem.getLinkId());
     if (answers.size() > 1)
       rule(errors, IssueType.INVALID, answers.get(1).line(), answers.get(1).col(), stack.getLiteralPath(), qItem.getRepeats(), "Only one response answer item with this linkId allowed");
 
@@ -1660,27 +1840,27 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
         break;
       case CHOICE:     
         String itemType=validateQuestionnaireResponseItemType(errors, answer, ns, "Coding", "date", "time", "integer", "string");
-        if (itemType.equals("Coding")) validateAnswerCode(errors, answer, ns, qsrc, qItem, false);
-        else if (itemType.equals("date")) checkOption(errors, answer, ns, qsrc, qItem, "date");
-        else if (itemType.equals("time")) checkOption(errors, answer, ns, qsrc, qItem, "time");
-        else if (itemType.equals("integer")) checkOption(errors, answer, ns, qsrc, qItem, "integer");
-        else if (itemType.equals("string")) checkOption(errors, answer, ns, qsrc, qItem, "string");
+        if (itemType.equals("Coding")) validateAnswerCode(errors, answer, ns, qctxt.index, qItem, false);
+        else if (itemType.equals("date")) checkOption(errors, answer, ns, qctxt.index, qItem, "date");
+        else if (itemType.equals("time")) checkOption(errors, answer, ns, qctxt.index, qItem, "time");
+        else if (itemType.equals("integer")) checkOption(errors, answer, ns, qctxt.index, qItem, "integer");
+        else if (itemType.equals("string")) checkOption(errors, answer, ns, qctxt.index, qItem, "string");
         break;
       case OPENCHOICE: 
         itemType=validateQuestionnaireResponseItemType(errors, answer, ns, "Coding", "date", "time", "integer", "string");
-        if (itemType.equals("Coding")) validateAnswerCode(errors, answer, ns, qsrc, qItem, true);
-        else if (itemType.equals("date")) checkOption(errors, answer, ns, qsrc, qItem, "date");
-        else if (itemType.equals("time")) checkOption(errors, answer, ns, qsrc, qItem, "time");
-        else if (itemType.equals("integer")) checkOption(errors, answer, ns, qsrc, qItem, "integer");
-        else if (itemType.equals("string")) checkOption(errors, answer, ns, qsrc, qItem, "string", true);
+        if (itemType.equals("Coding")) validateAnswerCode(errors, answer, ns, qctxt.index, qItem, true);
+        else if (itemType.equals("date")) checkOption(errors, answer, ns, qctxt.index, qItem, "date");
+        else if (itemType.equals("time")) checkOption(errors, answer, ns, qctxt.index, qItem, "time");
+        else if (itemType.equals("integer")) checkOption(errors, answer, ns, qctxt.index, qItem, "integer");
+        else if (itemType.equals("string")) checkOption(errors, answer, ns, qctxt.index, qItem, "string", true);
         break;
       }
-      validateQuestionannaireResponseItems(qsrc, qItem.getItem(), errors, answer, stack, inProgress);
+      validateQuestionannaireResponseItems(qctxt, qItem.getItem(), errors, answer, stack);
     }
     if (qItem.getType() == null) {
       fail(errors, IssueType.REQUIRED, element.line(), element.col(), stack.getLiteralPath(), false, "Definition for item "+qItem.getLinkId() + " does not contain a type");
     } else if (qItem.getType() == QuestionnaireItemType.GROUP) {
-      validateQuestionannaireResponseItems(qsrc, qItem.getItem(), errors, element, stack, inProgress);
+      validateQuestionannaireResponseItems(qctxt, qItem.getItem(), errors, element, stack);
     } else {
       List<Element> items = new ArrayList<Element>();
       element.getNamedChildren("item", items);
@@ -1691,24 +1871,16 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     }
   }
 
-  private void validateQuestionannaireResponseItem(Questionnaire qsrc, QuestionnaireItemComponent qItem, List<ValidationMessage> errors, List<Element> elements, NodeStack stack, boolean inProgress) {
+  private void validateQuestionannaireResponseItem(QuestionnaireResponseContext qctxt, QuestionnaireItemComponent qItem, List<ValidationMessage> errors, List<Element> elements, NodeStack stack) {
     if (elements.size() > 1)
       rule(errors, IssueType.INVALID, elements.get(1).line(), elements.get(1).col(), stack.getLiteralPath(), qItem.getRepeats(), "Only one response item with this linkId allowed");
     for (Element element : elements) {
       NodeStack ns = stack.push(element, -1, null, null);
-      validateQuestionannaireResponseItem(qsrc, qItem, errors, element, ns, inProgress);
+      validateQuestionannaireResponseItem(qctxt, qItem, errors, element, ns);
     }
   }
 
-  private int getLinkIdIndex(List<QuestionnaireItemComponent> qItems, String linkId) {
-    for (int i = 0; i < qItems.size(); i++) {
-      if (linkId.equals(qItems.get(i).getLinkId()))
-        return i;
-    }
-    return -1;
-  }
-
-  private void validateQuestionannaireResponseItems(Questionnaire qsrc, List<QuestionnaireItemComponent> qItems, List<ValidationMessage> errors, Element element, NodeStack stack, boolean inProgress) {
+  private void validateQuestionannaireResponseItems(QuestionnaireResponseContext qctxt, List<QuestionnaireItemComponent> qItems, List<ValidationMessage> errors, Element element, NodeStack stack) {
     List<Element> items = new ArrayList<Element>();
     element.getNamedChildren("item", items);
     // now, sort into stacks
@@ -1717,13 +1889,13 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     for (Element item : items) {
       String linkId = item.getNamedChildValue("linkId");
       if (rule(errors, IssueType.REQUIRED, item.line(), item.col(), stack.getLiteralPath(), !Utilities.noString(linkId), "No LinkId, so can't be validated")) {
-        int index = getLinkIdIndex(qItems, linkId);
+        int index = qctxt.index.indexOf(qItems, linkId);
         if (index == -1) {
-          QuestionnaireItemComponent qItem = findQuestionnaireItem(qsrc, linkId);
+          QuestionnaireItemComponent qItem = qctxt.index.findItem(linkId);
           if (qItem != null) {
             rule(errors, IssueType.STRUCTURE, item.line(), item.col(), stack.getLiteralPath(), index > -1, "Structural Error: item is in the wrong place");
             NodeStack ns = stack.push(item, -1, null, null);
-            validateQuestionannaireResponseItem(qsrc, qItem, errors, element, ns, inProgress);
+            validateQuestionannaireResponseItem(qctxt, qItem, errors, element, ns);
           }
           else
             rule(errors, IssueType.NOTFOUND, item.line(), item.col(), stack.getLiteralPath(), index > -1, "LinkId \""+linkId+"\" not found in questionnaire");
@@ -1746,9 +1918,9 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     for (QuestionnaireItemComponent qItem : qItems) {
       List<Element> mapItem = map.get(qItem.getLinkId());
       if (mapItem != null)
-        validateQuestionannaireResponseItem(qsrc, qItem, errors, mapItem, stack, inProgress);
+        validateQuestionannaireResponseItem(qctxt, qItem, errors, mapItem, stack);
       else
-        rule(errors, IssueType.REQUIRED, element.line(), element.col(), stack.getLiteralPath(), !qItem.getRequired(), "No response found for required item "+qItem.getLinkId());
+        rule(errors, IssueType.REQUIRED, element.line(), element.col(), stack.getLiteralPath(), !qItem.getRequired() || !isEnabled(qctxt, qItem), "No response found for required item "+qItem.getLinkId());
     }
   }
 
@@ -1775,21 +1947,6 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     return null;
   }
 
-  private QuestionnaireItemComponent findQuestionnaireItem(Questionnaire qSrc, String linkId) {
-    return findItem(qSrc.getItem(), linkId);
-  }
-
-  private QuestionnaireItemComponent findItem(List<QuestionnaireItemComponent> list, String linkId) {
-    for (QuestionnaireItemComponent item : list) {
-      if (linkId.equals(item.getLinkId()))
-        return item;
-      QuestionnaireItemComponent result = findItem(item.getItem(), linkId);
-      if (result != null)
-        return result;
-    }
-    return null;
-  }
-
   /*	private void validateAnswerCode(List<ValidationMessage> errors, Element value, NodeStack stack, List<Coding> optionList) {
 	  String system = value.getNamedChildValue("system");
 	  String code = value.getNamedChildValue("code");
@@ -1825,52 +1982,38 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     }
   }
 
-  private void validateAnswerCode( List<ValidationMessage> errors, Element answer, NodeStack stack, Questionnaire qSrc, QuestionnaireItemComponent qItem, boolean theOpenChoice) {
+  private void validateAnswerCode( List<ValidationMessage> errors, Element answer, NodeStack stack, QuestionnaireIndex qIndex, QuestionnaireItemComponent qItem, boolean theOpenChoice) {
     Element v = answer.getNamedChild("valueCoding");
     NodeStack ns = stack.push(v, -1, null, null);
     if (qItem.getOption().size() > 0)
-      checkCodingOption(errors, answer, stack, qSrc, qItem, theOpenChoice);
+      checkCodingOption(errors, answer, stack, qIndex, qItem, theOpenChoice);
     //	    validateAnswerCode(errors, v, stack, qItem.getOption());
     else if (qItem.hasOptions())
-      validateAnswerCode(errors, v, stack, qSrc, qItem.getOptions(), theOpenChoice);
+      validateAnswerCode(errors, v, stack, qIndex.getQuestionnaire(), qItem.getOptions(), theOpenChoice);
     else
       hint(errors, IssueType.STRUCTURE, v.line(), v.col(), stack.getLiteralPath(), false, "Cannot validate options because no option or options are provided");
   }
 
-  private void checkOption( List<ValidationMessage> errors, Element answer, NodeStack stack, Questionnaire qSrc, QuestionnaireItemComponent qItem, String type) {
-    checkOption(errors, answer, stack, qSrc,  qItem, type, false);
+  private void checkOption( List<ValidationMessage> errors, Element answer, NodeStack stack, QuestionnaireIndex qIndex, QuestionnaireItemComponent qItem, String type) {
+    checkOption(errors, answer, stack, qIndex,  qItem, type, false);
   }
 
-  private void checkOption( List<ValidationMessage> errors, Element answer, NodeStack stack, Questionnaire qSrc, QuestionnaireItemComponent qItem, String type, boolean openChoice) {
-    if (type.equals("integer"))     checkIntegerOption(errors, answer, stack, qSrc, qItem, openChoice);
-    else if (type.equals("date"))   checkDateOption(errors, answer, stack, qSrc, qItem, openChoice);
-    else if (type.equals("time"))   checkTimeOption(errors, answer, stack, qSrc, qItem, openChoice);
-    else if (type.equals("string")) checkStringOption(errors, answer, stack, qSrc, qItem, openChoice);
-    else if (type.equals("Coding")) checkCodingOption(errors, answer, stack, qSrc, qItem, openChoice);
+  private void checkOption( List<ValidationMessage> errors, Element answer, NodeStack stack, QuestionnaireIndex qIndex, QuestionnaireItemComponent qItem, String type, boolean openChoice) {
+    if (type.equals("integer"))     checkIntegerOption(errors, answer, stack, qIndex, qItem, openChoice);
+    else if (type.equals("date"))   checkDateOption(errors, answer, stack, qIndex, qItem, openChoice);
+    else if (type.equals("time"))   checkTimeOption(errors, answer, stack, qIndex, qItem, openChoice);
+    else if (type.equals("string")) checkStringOption(errors, answer, stack, qIndex, qItem, openChoice);
+    else if (type.equals("Coding")) checkCodingOption(errors, answer, stack, qIndex, qItem, openChoice);
   }
 
-  private void checkIntegerOption( List<ValidationMessage> errors, Element answer, NodeStack stack, Questionnaire qSrc, QuestionnaireItemComponent qItem, boolean openChoice) {
+  private void checkIntegerOption( List<ValidationMessage> errors, Element answer, NodeStack stack, QuestionnaireIndex qIndex, QuestionnaireItemComponent qItem, boolean openChoice) {
     Element v = answer.getNamedChild("valueInteger");
     NodeStack ns = stack.push(v, -1, null, null);
     if (qItem.getOption().size() > 0) {
-      List<IntegerType> list = new ArrayList<IntegerType>();
-      for (QuestionnaireItemOptionComponent components : qItem.getOption())  {
-        try {
-          list.add(components.getValueIntegerType());
-        } catch (FHIRException e) {
-          // If it's the wrong type, just keep going
-        }
-      }
-      if (list.isEmpty() && !openChoice) {
+      if (!qIndex.hasOptions(qItem, "integer") && !openChoice) {
         rule(errors, IssueType.STRUCTURE, v.line(), v.col(), stack.getLiteralPath(), false, "Option list has no option values of type integer");
       } else {
-        boolean found = false;
-        for (IntegerType item : list) {
-          if (item.getValue() == Integer.parseInt(v.primitiveValue())) {
-            found = true;
-            break;
-          }
-        }
+        boolean found = qIndex.isOption(qItem, "integer", v.primitiveValue());
         if (!found) {
           rule(errors, IssueType.STRUCTURE, v.line(), v.col(), stack.getLiteralPath(), found, "The integer "+v.primitiveValue()+" is not a valid option");
         }
@@ -1879,28 +2022,14 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
       hint(errors, IssueType.STRUCTURE, v.line(), v.col(), stack.getLiteralPath(), false, "Cannot validate integer answer option because no option list is provided");
   }
 
-  private void checkDateOption( List<ValidationMessage> errors, Element answer, NodeStack stack, Questionnaire qSrc, QuestionnaireItemComponent qItem, boolean openChoice) {
+  private void checkDateOption( List<ValidationMessage> errors, Element answer, NodeStack stack, QuestionnaireIndex qIndex, QuestionnaireItemComponent qItem, boolean openChoice) {
     Element v = answer.getNamedChild("valueDate");
     NodeStack ns = stack.push(v, -1, null, null);
     if (qItem.getOption().size() > 0) {
-      List<DateType> list = new ArrayList<DateType>();
-      for (QuestionnaireItemOptionComponent components : qItem.getOption())  {
-        try {
-          list.add(components.getValueDateType());
-        } catch (FHIRException e) {
-          // If it's the wrong type, just keep going
-        }
-      }
-      if (list.isEmpty() && !openChoice) {
+      if (!qIndex.hasOptions(qItem, "date") && !openChoice) {
         rule(errors, IssueType.STRUCTURE, v.line(), v.col(), stack.getLiteralPath(), false, "Option list has no option values of type date");
       } else {
-        boolean found = false;
-        for (DateType item : list) {
-          if (item.getValue().equals(v.primitiveValue())) {
-            found = true;
-            break;
-          }
-        }
+        boolean found = qIndex.isOption(qItem, "date", v.primitiveValue());
         if (!found) {
           rule(errors, IssueType.STRUCTURE, v.line(), v.col(), stack.getLiteralPath(), found, "The date "+v.primitiveValue()+" is not a valid option");
         }
@@ -1909,28 +2038,14 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
       hint(errors, IssueType.STRUCTURE, v.line(), v.col(), stack.getLiteralPath(), false, "Cannot validate date answer option because no option list is provided");
   }
 
-  private void checkTimeOption( List<ValidationMessage> errors, Element answer, NodeStack stack, Questionnaire qSrc, QuestionnaireItemComponent qItem, boolean openChoice) {
+  private void checkTimeOption( List<ValidationMessage> errors, Element answer, NodeStack stack, QuestionnaireIndex qIndex, QuestionnaireItemComponent qItem, boolean openChoice) {
     Element v = answer.getNamedChild("valueTime");
     NodeStack ns = stack.push(v, -1, null, null);
     if (qItem.getOption().size() > 0) {
-      List<TimeType> list = new ArrayList<TimeType>();
-      for (QuestionnaireItemOptionComponent components : qItem.getOption())  {
-        try {
-          list.add(components.getValueTimeType());
-        } catch (FHIRException e) {
-          // If it's the wrong type, just keep going
-        }
-      }
-      if (list.isEmpty() && !openChoice) {
+      if (!qIndex.hasOptions(qItem, "time") && !openChoice) {
         rule(errors, IssueType.STRUCTURE, v.line(), v.col(), stack.getLiteralPath(), false, "Option list has no option values of type time");
       } else {
-        boolean found = false;
-        for (TimeType item : list) {
-          if (item.getValue().equals(v.primitiveValue())) {
-            found = true;
-            break;
-          }
-        }
+        boolean found = qIndex.isOption(qItem, "time", v.primitiveValue());
         if (!found) {
           rule(errors, IssueType.STRUCTURE, v.line(), v.col(), stack.getLiteralPath(), found, "The time "+v.primitiveValue()+" is not a valid option");
         }
@@ -1939,30 +2054,14 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
       hint(errors, IssueType.STRUCTURE, v.line(), v.col(), stack.getLiteralPath(), false, "Cannot validate time answer option because no option list is provided");
   }
 
-  private void checkStringOption( List<ValidationMessage> errors, Element answer, NodeStack stack, Questionnaire qSrc, QuestionnaireItemComponent qItem, boolean openChoice) {
+  private void checkStringOption( List<ValidationMessage> errors, Element answer, NodeStack stack, QuestionnaireIndex qIndex, QuestionnaireItemComponent qItem, boolean openChoice) {
     Element v = answer.getNamedChild("valueString");
     NodeStack ns = stack.push(v, -1, null, null);
     if (qItem.getOption().size() > 0) {
-      List<StringType> list = new ArrayList<StringType>();
-      for (QuestionnaireItemOptionComponent components : qItem.getOption())  {
-        try {
-          if (components.getValue() != null) {
-            list.add(components.getValueStringType());
-          }
-        } catch (FHIRException e) {
-          // If it's the wrong type, just keep going
-        }
-      }
-      if (list.isEmpty() && !openChoice) {
+      if (!qIndex.hasOptions(qItem, "string") && !openChoice) {
         rule(errors, IssueType.STRUCTURE, v.line(), v.col(), stack.getLiteralPath(), false, "Option list has no option values of type string");
       } else {
-        boolean found = false;
-        for (StringType item : list) {
-          if (item.getValue().equals((v.primitiveValue()))) {
-            found = true;
-            break;
-          }
-        }
+        boolean found = qIndex.isOption(qItem, "string", v.primitiveValue());
         if (!found) {
           rule(errors, IssueType.STRUCTURE, v.line(), v.col(), stack.getLiteralPath(), found, "The string "+v.primitiveValue()+" is not a valid option");
         }
@@ -1972,32 +2071,16 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     }
   }
 
-  private void checkCodingOption( List<ValidationMessage> errors, Element answer, NodeStack stack, Questionnaire qSrc, QuestionnaireItemComponent qItem, boolean openChoice) {
+  private void checkCodingOption( List<ValidationMessage> errors, Element answer, NodeStack stack, QuestionnaireIndex qIndex, QuestionnaireItemComponent qItem, boolean openChoice) {
     Element v = answer.getNamedChild("valueCoding");
     String system = v.getNamedChildValue("system");
     String code = v.getNamedChildValue("code");
     NodeStack ns = stack.push(v, -1, null, null);
     if (qItem.getOption().size() > 0) {
-      List<Coding> list = new ArrayList<Coding>();
-      for (QuestionnaireItemOptionComponent components : qItem.getOption())  {
-        try {
-          if (components.getValue() != null) {
-            list.add(components.getValueCoding());
-          }
-        } catch (FHIRException e) {
-          // If it's the wrong type, just keep going
-        }
-      }
-      if (list.isEmpty() && !openChoice) {
+      if (!qIndex.hasOptions(qItem, "Coding") && !openChoice) {
         rule(errors, IssueType.STRUCTURE, v.line(), v.col(), stack.getLiteralPath(), false, "Option list has no option values of type coding");
       } else {
-        boolean found = false;
-        for (Coding item : list) {
-          if (ObjectUtil.equals(item.getSystem(), system) && ObjectUtil.equals(item.getCode(), code)) {
-            found = true;
-            break;
-          }
-        }
+        boolean found = qIndex.isCodingOption(qItem, system, code);
         if (!found) {
           rule(errors, IssueType.STRUCTURE, v.line(), v.col(), stack.getLiteralPath(), found, "The code "+system+"::"+code+" is not a valid option");
         }
@@ -2065,6 +2148,69 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     }
   }
 
+  /**
+   * Validates the resource in a bundle entry on the entry executor, using a validator of its own
+   */
+  private void deferContains(List<ValidationMessage> errors, final String path, final ElementDefinition child, final ElementDefinition definition, final Element resource, final Element element, final NodeStack stack, final IdStatus idstatus) throws FHIRException {
+    // bound the number of entries of this bundle which are in progress at once
+    int waitFor = deferredEntries.size() - maxConcurrentEntries;
+    if (waitFor >= 0) {
+      try {
+        deferredEntries.get(waitFor).future.get();
+      } catch (ExecutionException e) {
+        // reported when the entries are joined
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new FHIRException("Interrupted while validating bundle entries", e);
+      }
+    }
+
+    Future<List<ValidationMessage>> future = entryExecutor.submit(new Callable<List<ValidationMessage>>() {
+      @Override
+      public List<ValidationMessage> call() throws Exception {
+        FHIRPathEngine engine = entryFhirPathEngines.poll();
+        if (engine == null)
+          engine = new FHIRPathEngine(context);
+        try {
+          List<ValidationMessage> entryErrors = new ArrayList<ValidationMessage>();
+          newEntryValidator(engine).validateContains(entryErrors, path, child, definition, resource, element, stack, idstatus);
+          return entryErrors;
+        } finally {
+          entryFhirPathEngines.offer(engine);
+        }
+      }
+    });
+    deferredEntries.add(new DeferredEntry(errors, errors.size(), future));
+  }
+
+  // returns the profile to validate against: a copy with a generated snapshot if the profile was provided without one
+  private StructureDefinition generateSnapshot(List<ValidationMessage> errors, Element element, String path, StructureDefinition profile) {
+    if (snapshotCache != null) {
+      try {
+        return snapshotCache.generateSnapshot(context, profile);
+      } catch (FHIRException e) {
+        rule(errors, IssueType.STRUCTURE, element.line(), element.col(), path, false, "Unable to generate the snapshot of StructureDefinition \"{0}\": {1}", profile.getUrl(), e.getMessage());
+      }
+    }
+    return profile;
+  }
+
+  private InstanceValidator newEntryValidator(FHIRPathEngine engine) {
+    InstanceValidator retVal = new InstanceValidator(context, engine, expressionCache);
+    retVal.anyExtensionsAllowed = anyExtensionsAllowed;
+    retVal.bpWarnings = bpWarnings;
+    retVal.checkDisplay = checkDisplay;
+    retVal.extensionDomains = extensionDomains;
+    retVal.resourceIdRule = resourceIdRule;
+    retVal.allowXsiLocation = allowXsiLocation;
+    retVal.suppressLoincSnomedMessages = suppressLoincSnomedMessages;
+    retVal.logical = logical;
+    retVal.source = source;
+    retVal.snapshotCache = snapshotCache;
+    retVal.questionnaireIndexCache = questionnaireIndexCache;
+    return retVal;
+  }
+
   private void validateContains(List<ValidationMessage> errors, String path, ElementDefinition child, ElementDefinition context, Element resource, Element element, NodeStack stack, IdStatus idstatus) throws FHIRException, FHIRException {
     String resourceName = element.getType();
     long t = System.nanoTime();
@@ -2239,10 +2385,13 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
 
             if (type.equals("Extension"))
               checkExtension(errors, ei.path, ei.element, ei.definition, profile, localStack);
-            else if (type.equals("Resource"))
-              validateContains(errors, ei.path, ei.definition, definition, resource, ei.element, localStack, idStatusForEntry(element, ei)); // if
+            else if (type.equals("Resource")) {
+              if (deferredEntries != null && ei.element.getSpecial() == SpecialElement.BUNDLE_ENTRY)
+                deferContains(errors, ei.path, ei.definition, definition, resource, ei.element, localStack, idStatusForEntry(element, ei));
+              else
+                validateContains(errors, ei.path, ei.definition, definition, resource, ei.element, localStack, idStatusForEntry(element, ei)); // if
             // (str.matches(".*([.,/])work\\1$"))
-            else {
+            } else {
               StructureDefinition p = getProfileForType(type);
               if (rule(errors, IssueType.STRUCTURE, ei.line(), ei.col(), ei.path, p != null, "Unknown type " + type)) {
                 validateElement(errors, p, p.getSnapshot().getElement().get(0), profile, ei.definition, resource, ei.element, type, localStack, thisIsCodeableConcept);
@@ -2298,12 +2447,15 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
   private void checkInvariants(List<ValidationMessage> errors, String path, StructureDefinition profile, ElementDefinition ed, String typename, String typeProfile, Element resource, Element element) throws FHIRException, FHIRException {
     for (ElementDefinitionConstraintComponent inv : ed.getConstraint()) {
       if (inv.hasExpression()) {
-        ExpressionNode n = (ExpressionNode) inv.getUserData("validator.expression.cache");
+        ExpressionNode n = expressionCache != null ? expressionCache.get(inv.getExpression()) : (ExpressionNode) inv.getUserData("validator.expression.cache");
         if (n == null) {
           long t = System.nanoTime();
           n = fpe.parse(inv.getExpression());
           fpeTime = fpeTime + (System.nanoTime() - t);
-          inv.setUserData("validator.expression.cache", n);
+          if (expressionCache != null)
+            expressionCache.put(inv.getExpression(), n);
+          else
+            inv.setUserData("validator.expression.cache", n);
         }
 
         String msg;
@@ -2477,6 +2629,37 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     }
   }
 
+  /**
+   * A bundle entry which is being validated concurrently, and the position that its messages
+   * belong at
+   */
+  private static class DeferredEntry {
+    private final List<ValidationMessage> errors;
+    private final Future<List<ValidationMessage>> future;
+    private final int index;
+
+    private DeferredEntry(List<ValidationMessage> errors, int index, Future<List<ValidationMessage>> future) {
+      this.errors = errors;
+      this.index = index;
+      this.future = future;
+    }
+  }
+
+  /**
+   * The questionnaire a response is being validated against, and the answers in the response 
+   * which enableWhen conditions depend on (by linkId)
+   */
+  private static class QuestionnaireResponseContext {
+    private final QuestionnaireIndex index;
+    private final boolean inProgress;
+    private final Map<String, List<Element>> enableWhenAnswers = new HashMap<String, List<Element>>();
+
+    private QuestionnaireResponseContext(QuestionnaireIndex index, boolean inProgress) {
+      this.index = index;
+      this.inProgress = inProgress;
+    }
+  }
+
   private class NodeStack {
     private ElementDefinition definition;
     private Element element;
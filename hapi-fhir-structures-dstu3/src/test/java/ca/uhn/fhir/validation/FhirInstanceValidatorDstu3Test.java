@@ -7,7 +7,10 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
@@ -19,6 +22,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.io.IOUtils;
@@ -32,13 +41,19 @@ import org.hl7.fhir.dstu3.model.Base;
 import org.hl7.fhir.dstu3.model.BooleanType;
 import org.hl7.fhir.dstu3.model.Bundle;
 import org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.dstu3.model.Bundle.BundleType;
+import org.hl7.fhir.dstu3.model.Bundle.HTTPVerb;
 import org.hl7.fhir.dstu3.model.CodeSystem;
 import org.hl7.fhir.dstu3.model.CodeSystem.ConceptDefinitionComponent;
 import org.hl7.fhir.dstu3.model.CodeType;
+import org.hl7.fhir.dstu3.model.HumanName;
+import org.hl7.fhir.dstu3.model.Narrative.NarrativeStatus;
 import org.hl7.fhir.dstu3.model.Observation;
 import org.hl7.fhir.dstu3.model.Observation.ObservationStatus;
 import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.Quantity;
 import org.hl7.fhir.dstu3.model.RelatedPerson;
+import org.hl7.fhir.dstu3.model.Resource;
 import org.hl7.fhir.dstu3.model.StringType;
 import org.hl7.fhir.dstu3.model.StructureDefinition;
 import org.hl7.fhir.dstu3.model.ValueSet;
@@ -510,6 +525,174 @@ public class FhirInstanceValidatorDstu3Test {
 
 	}
 
+	@Test
+	public void testValidateConcurrently() throws Exception {
+		final List<String> inputs = createConcurrencyTestInputs();
+		final List<String> expected = new ArrayList<String>();
+		for (String next : inputs) {
+			expected.add(myVal.validateWithResult(next).getMessages().toString());
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < 8; i++) {
+				futures.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						int matched = 0;
+						for (int j = 0; j < 10; j++) {
+							for (int k = 0; k < inputs.size(); k++) {
+								if (expected.get(k).equals(myVal.validateWithResult(inputs.get(k)).getMessages().toString())) {
+									matched++;
+								}
+							}
+						}
+						return matched;
+					}
+				}));
+			}
+			for (Future<Integer> next : futures) {
+				assertEquals(10 * inputs.size(), next.get(60, TimeUnit.SECONDS).intValue());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testValidateBundleEntriesConcurrently() throws Exception {
+		Bundle bundle = createLargeTransactionBundle(40);
+		String encoded = ourCtx.newJsonParser().encodeResourceToString(bundle);
+		List<String> expected = toStrings(myVal.validateWithResult(bundle));
+		List<String> expectedFromText = toStrings(myVal.validateWithResult(encoded));
+		assertThat(expected.toString(), containsString("Bundle.entry[12].resource.status"));
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			myInstanceVal.setConcurrentBundleValidation(executor, 3);
+			for (int i = 0; i < 5; i++) {
+				assertEquals(expected, toStrings(myVal.validateWithResult(bundle)));
+				assertEquals(expectedFromText, toStrings(myVal.validateWithResult(encoded)));
+			}
+
+			// A single entry at a time still works
+			myInstanceVal.setConcurrentBundleValidation(executor, 1);
+			assertEquals(expected, toStrings(myVal.validateWithResult(bundle)));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Resources supplied as objects are validated without being encoded, which
+	 * should give the same results as validating the encoded resource
+	 */
+	@Test
+	public void testValidateResourceObjectMatchesEncoded() {
+		List<Resource> inputs = new ArrayList<Resource>();
+
+		Observation obs = new Observation();
+		obs.getText().setStatus(NarrativeStatus.GENERATED).setDivAsString("<div>Observation</div>");
+		obs.getCode().addCoding().setSystem("http://loinc.org").setCode("12345");
+		obs.setValue(new Quantity().setValue(1.5).setUnit("mg"));
+		inputs.add(obs);
+
+		Patient patient = new Patient();
+		patient.setId("Patient/123/_history/2");
+		patient.addName().addFamily("FAMILY").addGiven("GIVEN");
+		patient.getBirthDateElement().setValueAsString("2011-02-02");
+		patient.getActiveElement().setValue(true).addExtension().setUrl("http://foo").setValue(new CodeType("bar"));
+		inputs.add(patient);
+
+		Observation containing = new Observation();
+		containing.setStatus(ObservationStatus.FINAL);
+		containing.getCode().setText("CODE");
+		Patient contained = new Patient();
+		contained.setId("#pat");
+		contained.addName().addFamily("CONTAINED");
+		containing.getContained().add(contained);
+		containing.getSubject().setReference("#pat");
+		inputs.add(containing);
+
+		// Inline resources are only contained when encoding, so this one is validated as text
+		Observation inline = new Observation();
+		inline.setStatus(ObservationStatus.FINAL);
+		inline.getCode().setText("CODE");
+		inline.getSubject().setResource(new Patient().addName(new HumanName().addFamily("INLINE")));
+		inputs.add(inline);
+
+		for (Resource next : inputs) {
+			ValidationResult fromObject = myVal.validateWithResult(next);
+			ValidationResult fromText = myVal.validateWithResult(ourCtx.newXmlParser().encodeResourceToString(next));
+			assertEquals(toStrings(fromText), toStrings(fromObject));
+		}
+	}
+
+	private static List<String> toStrings(ValidationResult theResult) {
+		List<String> retVal = new ArrayList<String>();
+		for (SingleValidationMessage next : theResult.getMessages()) {
+			retVal.add(next.getSeverity() + " " + next.getLocationString() + " " + next.getMessage());
+		}
+		return retVal;
+	}
+
+	@Test
+	public void testFlushCachesFetchesProfileAgain() {
+		String input = ourCtx.newJsonParser().encodeResourceToString(new Patient());
+		String url = "http://hl7.org/fhir/StructureDefinition/Patient";
+
+		myVal.validateWithResult(input);
+		myVal.validateWithResult(input);
+		verify(myMockSupport, times(1)).fetchStructureDefinition(any(FhirContext.class), eq(url));
+
+		myInstanceVal.flushCaches();
+		myVal.validateWithResult(input);
+		verify(myMockSupport, times(2)).fetchStructureDefinition(any(FhirContext.class), eq(url));
+	}
+
+	/**
+	 * A transaction Bundle whose Observations refer to the Patients in the other entries, with
+	 * every few entries missing a required element
+	 */
+	private static Bundle createLargeTransactionBundle(int theEntries) {
+		Bundle retVal = new Bundle();
+		retVal.setType(BundleType.TRANSACTION);
+		for (int i = 0; i < theEntries; i++) {
+			String patientUrl = "urn:uuid:" + UUID.nameUUIDFromBytes(("pat" + i).getBytes()).toString();
+			Patient patient = new Patient();
+			patient.addName().addFamily("FAMILY" + i);
+			retVal.addEntry().setFullUrl(patientUrl).setResource(patient).getRequest().setMethod(HTTPVerb.POST).setUrl("Patient");
+
+			Observation obs = new Observation();
+			if (i % 5 != 0) {
+				obs.setStatus(ObservationStatus.FINAL);
+			}
+			obs.getCode().setText("CODE" + i);
+			obs.setValue(new Quantity().setValue(i).setUnit("mg"));
+			obs.getSubject().setReference(patientUrl);
+			retVal.addEntry().setResource(obs).getRequest().setMethod(HTTPVerb.POST).setUrl("Observation");
+		}
+		return retVal;
+	}
+
+	private static List<String> createConcurrencyTestInputs() {
+		List<String> retVal = new ArrayList<String>();
+
+		Observation obs = new Observation();
+		obs.getCode().addCoding().setSystem("http://loinc.org").setCode("12345");
+		obs.setValue(new StringType("AAA"));
+		retVal.add(ourCtx.newJsonParser().encodeResourceToString(obs));
+
+		Patient patient = new Patient();
+		patient.addName().addFamily("FAMILY").addGiven("GIVEN");
+		patient.addIdentifier().setSystem("http://system").setValue("12345").getType().addCoding().setSystem("http://hl7.org/fhir/v2/0203").setCode("MR");
+		retVal.add(ourCtx.newXmlParser().encodeResourceToString(patient));
+		retVal.add(ourCtx.newJsonParser().encodeResourceToString(patient));
+
+		return retVal;
+	}
+
 	@Test
 	public void testValidateResourceWithDefaultValueset() {
 		Observation input = new Observation();
@@ -644,6 +827,39 @@ public class FhirInstanceValidatorDstu3Test {
 		ourLog.info(output.getMessages().get(0).getMessage());
 	}
 
+	/**
+	 * Measures the time taken to validate a large transaction Bundle with its entries validated one
+	 * after another, and concurrently
+	 */
+	private static void benchmarkLargeBundle() throws Exception {
+		FhirValidator val = ourCtx.newValidator();
+		val.setValidateAgainstStandardSchema(false);
+		val.setValidateAgainstStandardSchematron(false);
+		FhirInstanceValidator instanceVal = new FhirInstanceValidator(myDefaultValidationSupport);
+		val.registerValidatorModule(instanceVal);
+
+		Bundle bundle = createLargeTransactionBundle(5000);
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (int pass = 0; pass < 3; pass++) {
+				instanceVal.setConcurrentBundleValidation(null, 0);
+				long start = System.nanoTime();
+				int messages = val.validateWithResult(bundle).getMessages().size();
+				long sequential = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+				instanceVal.setConcurrentBundleValidation(executor, threads * 2);
+				start = System.nanoTime();
+				val.validateWithResult(bundle);
+				long concurrent = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+				ourLog.info("Pass {}: {} entries ({} messages) in {}ms sequentially, {}ms with {} threads", new Object[] { pass, bundle.getEntry().size(), messages, sequential, concurrent, threads });
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
 	@AfterClass
 	public static void afterClassClearContext() {
 		myDefaultValidationSupport.flush();
@@ -651,4 +867,46 @@ public class FhirInstanceValidatorDstu3Test {
 		TestUtil.clearAllStaticFieldsForUnitTest();
 	}
 
+	/**
+	 * Measures the throughput of a single shared validator as the number of threads using it
+	 * grows
+	 */
+	public static void main(String[] theArgs) throws Exception {
+		if (theArgs.length > 0 && "bundle".equals(theArgs[0])) {
+			benchmarkLargeBundle();
+			return;
+		}
+
+		final FhirValidator val = ourCtx.newValidator();
+		val.setValidateAgainstStandardSchema(false);
+		val.setValidateAgainstStandardSchematron(false);
+		val.registerValidatorModule(new FhirInstanceValidator(myDefaultValidationSupport));
+
+		final List<String> inputs = createConcurrencyTestInputs();
+		for (int pass = 0; pass < 3; pass++) {
+			for (int threads : new int[] { 1, 2, 4, 8 }) {
+				ExecutorService executor = Executors.newFixedThreadPool(threads);
+				final int perThread = 2000 / threads;
+				long start = System.nanoTime();
+				List<Future<?>> futures = new ArrayList<Future<?>>();
+				for (int i = 0; i < threads; i++) {
+					futures.add(executor.submit(new Runnable() {
+						@Override
+						public void run() {
+							for (int j = 0; j < perThread; j++) {
+								val.validateWithResult(inputs.get(j % inputs.size()));
+							}
+						}
+					}));
+				}
+				for (Future<?> next : futures) {
+					next.get();
+				}
+				executor.shutdown();
+				long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+				ourLog.info("Pass {} with {} threads: {} validations in {}ms", new Object[] { pass, threads, perThread * threads, millis });
+			}
+		}
+	}
+
 }
@@ -2,6 +2,7 @@ package ca.uhn.fhir.validation;
 
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
@@ -19,6 +20,7 @@ import org.hl7.fhir.dstu3.hapi.validation.HapiWorkerContext;
 import org.hl7.fhir.dstu3.hapi.validation.IValidationSupport;
 import org.hl7.fhir.dstu3.hapi.validation.IValidationSupport.CodeValidationResult;
 import org.hl7.fhir.dstu3.hapi.validation.ValidationSupportChain;
+import org.hl7.fhir.dstu3.model.BooleanType;
 import org.hl7.fhir.dstu3.model.CodeSystem;
 import org.hl7.fhir.dstu3.model.CodeSystem.CodeSystemContentMode;
 import org.hl7.fhir.dstu3.model.CodeSystem.ConceptDefinitionComponent;
@@ -224,6 +226,32 @@ public class QuestionnaireResponseValidatorDstu3Test {
 		assertThat(errors.toString(), containsString("No response found for required item link0"));
 	}
 
+	@Test
+	public void testMissingRequiredQuestionDisabledByEnableWhen() {
+		Questionnaire q = new Questionnaire();
+		q.addItem().setLinkId("link0").setRequired(false).setType(QuestionnaireItemType.BOOLEAN);
+		q.addItem().setLinkId("link1").setRequired(true).setType(QuestionnaireItemType.STRING).addEnableWhen().setQuestion("link0").setAnswer(new BooleanType(true));
+		q.addItem().setLinkId("link2").setRequired(true).setType(QuestionnaireItemType.STRING).addEnableWhen().setQuestion("link0").setHasAnswer(true);
+		String reference = "http://example.com/Questionnaire/q1";
+		when(myValSupport.fetchResource(any(FhirContext.class), eq(Questionnaire.class), eq(reference))).thenReturn(q);
+
+		QuestionnaireResponse qa = new QuestionnaireResponse();
+		qa.setStatus(QuestionnaireResponseStatus.COMPLETED);
+		qa.getQuestionnaire().setReference(reference);
+		qa.addItem().setLinkId("link0").addAnswer().setValue(new BooleanType(false));
+
+		ValidationResult errors = myVal.validateWithResult(qa);
+		ourLog.info(errors.toString());
+		assertThat(errors.toString(), not(containsString("required item link1")));
+		assertThat(errors.toString(), containsString("No response found for required item link2"));
+
+		qa.getItem().get(0).getAnswer().get(0).setValue(new BooleanType(true));
+		errors = myVal.validateWithResult(qa);
+		ourLog.info(errors.toString());
+		assertThat(errors.toString(), containsString("No response found for required item link1"));
+		assertEquals(1, myInstanceVal.getQuestionnaireIndexCache().getBuildCount());
+	}
+
 	@Test
 	public void testOpenchoiceAnswer() {
 		String questionnaireRef = "http://example.com/Questionnaire/q1";
@@ -1,16 +1,23 @@
 package ca.uhn.fhir.validation;
 
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.junit.Assert.*;
 
-import java.util.Locale;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.hl7.fhir.dstu3.model.Extension;
 import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.StringType;
 import org.junit.AfterClass;
 import org.junit.Test;
 
 import ca.uhn.fhir.context.FhirContext;
-import ca.uhn.fhir.parser.DataFormatException;
 import ca.uhn.fhir.util.TestUtil;
 
 public class SchemaValidationTestDstu3 {
@@ -19,6 +26,97 @@ public class SchemaValidationTestDstu3 {
 
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(SchemaValidationTestDstu3.class);
 
+	private static Patient createInvalidPatient() {
+		Patient retVal = new Patient();
+		retVal.addName().addFamily("FAMILY");
+		// Schema: the url attribute is required
+		retVal.addExtension(new Extension().setValue(new StringType("VALUE")));
+		// Schematron: a contact needs details or an organization
+		retVal.addContact().setGender(org.hl7.fhir.dstu3.model.Enumerations.AdministrativeGender.MALE);
+		return retVal;
+	}
+
+	private static FhirValidator newValidator() {
+		FhirValidator retVal = ourCtx.newValidator();
+		retVal.setValidateAgainstStandardSchema(true);
+		retVal.setValidateAgainstStandardSchematron(true);
+		return retVal;
+	}
+
+	/**
+	 * Resource objects are passed to the schema and schematron as encoder events rather than
+	 * being serialized, so the results should be the same as validating the encoded text apart
+	 * from the line numbers
+	 */
+	@Test
+	public void testValidateObjectMatchesEncodedTextSchema() {
+		Patient patient = createInvalidPatient();
+		FhirValidator val = ourCtx.newValidator();
+		val.setValidateAgainstStandardSchema(true);
+		val.setValidateAgainstStandardSchematron(false);
+
+		ValidationResult fromObject = val.validateWithResult(patient);
+		ValidationResult fromText = val.validateWithResult(ourCtx.newXmlParser().encodeResourceToString(patient));
+
+		List<String> objectMessages = toMessages(fromObject);
+		ourLog.info("Messages: {}", objectMessages);
+		assertEquals(toMessages(fromText), objectMessages);
+		assertThat(objectMessages.toString(), containsString("url"));
+		assertFalse(fromObject.isSuccessful());
+	}
+
+	@Test
+	public void testValidateObjectMatchesEncodedTextSchematron() {
+		Patient patient = createInvalidPatient();
+		// The schematron validator parses text input, which fails for an extension with no url
+		patient.getExtension().clear();
+		FhirValidator val = ourCtx.newValidator();
+		val.setValidateAgainstStandardSchema(false);
+		val.setValidateAgainstStandardSchematron(true);
+
+		ValidationResult fromObject = val.validateWithResult(patient);
+		ValidationResult fromText = val.validateWithResult(ourCtx.newXmlParser().encodeResourceToString(patient));
+
+		List<String> objectMessages = toMessages(fromObject);
+		ourLog.info("Messages: {}", objectMessages);
+		assertEquals(toMessages(fromText), objectMessages);
+		assertThat(objectMessages.toString(), containsString("pat-1"));
+		assertFalse(fromObject.isSuccessful());
+	}
+
+	@Test
+	public void testValidateObjectConcurrently() throws Exception {
+		final FhirValidator val = newValidator();
+		final List<String> expected = toMessages(val.validateWithResult(createInvalidPatient()));
+		assertThat(expected.size(), greaterThan(0));
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>();
+			for (int i = 0; i < 200; i++) {
+				futures.add(executor.submit(new Callable<List<String>>() {
+					@Override
+					public List<String> call() throws Exception {
+						return toMessages(val.validateWithResult(createInvalidPatient()));
+					}
+				}));
+			}
+			for (Future<List<String>> next : futures) {
+				assertEquals(expected, next.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static List<String> toMessages(ValidationResult theResult) {
+		List<String> retVal = new ArrayList<String>();
+		for (SingleValidationMessage next : theResult.getMessages()) {
+			retVal.add(next.getSeverity() + " " + next.getMessage());
+		}
+		return retVal;
+	}
+
 	/**
 	 * See #339
 	 * 
@@ -46,18 +144,54 @@ public class SchemaValidationTestDstu3 {
 		FhirValidator val = ourCtx.newValidator();
 		val.setValidateAgainstStandardSchema(true);
 		val.setValidateAgainstStandardSchematron(false);
-		ValidationResult result = val.validateWithResult(input);
 
-		String encoded = ourCtx.newXmlParser().setPrettyPrint(true).encodeResourceToString(result.toOperationOutcome());
-		ourLog.info(encoded);
+		// The second pass uses a validator which was reset and returned to the pool
+		for (int i = 0; i < 2; i++) {
+			ValidationResult result = val.validateWithResult(input);
 
-		assertFalse(result.isSuccessful());
-		assertThat(encoded, containsString("passwd"));
-		assertThat(encoded, containsString("accessExternalDTD"));
+			String encoded = ourCtx.newXmlParser().setPrettyPrint(true).encodeResourceToString(result.toOperationOutcome());
+			ourLog.info(encoded);
+
+			assertFalse(result.isSuccessful());
+			assertThat(encoded, containsString("passwd"));
+			assertThat(encoded, containsString("accessExternalDTD"));
+		}
 	}
 
 	@AfterClass
 	public static void afterClassClearContext() {
 		TestUtil.clearAllStaticFieldsForUnitTest();
 	}
+
+	/**
+	 * Measures schema and schematron validation throughput for resource objects with several
+	 * threads sharing one validator
+	 */
+	public static void main(String[] theArgs) throws Exception {
+		final FhirValidator val = newValidator();
+		int threads = theArgs.length > 0 ? Integer.parseInt(theArgs[0]) : 8;
+		int reps = 2000;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (int pass = 0; pass < 5; pass++) {
+				long start = System.nanoTime();
+				List<Future<?>> futures = new ArrayList<Future<?>>();
+				for (int i = 0; i < reps; i++) {
+					futures.add(executor.submit(new Runnable() {
+						@Override
+						public void run() {
+							val.validateWithResult(createInvalidPatient());
+						}
+					}));
+				}
+				for (Future<?> next : futures) {
+					next.get();
+				}
+				long micros = (System.nanoTime() - start) / 1000;
+				ourLog.info("Pass {}: {} threads {} validations/sec", new Object[] { pass, threads, (reps * 1000000L) / micros });
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
 }
@@ -0,0 +1,210 @@
+package org.hl7.fhir.dstu3.hapi.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.dstu3.hapi.validation.IValidationSupport.CodeValidationResult;
+import org.hl7.fhir.dstu3.model.CodeSystem;
+import org.hl7.fhir.dstu3.model.CodeSystem.ConceptDefinitionComponent;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.TestUtil;
+
+public class CodeSystemIndexCacheTest {
+
+	private static FhirContext ourCtx = FhirContext.forDstu3();
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(CodeSystemIndexCacheTest.class);
+
+	private CodeSystemIndexCache mySvc;
+
+	@Before
+	public void before() {
+		mySvc = new CodeSystemIndexCache();
+	}
+
+	@Test
+	public void testDefaultProfileValidationSupportUsesIndex() {
+		DefaultProfileValidationSupport support = new DefaultProfileValidationSupport();
+		support.setCodeSystemIndexCache(mySvc);
+		DefaultProfileValidationSupport scanning = new DefaultProfileValidationSupport();
+		scanning.setCodeSystemIndexCache(null);
+
+		String system = "http://hl7.org/fhir/v3/ActCode";
+		CodeSystem cs = support.fetchCodeSystem(ourCtx, system);
+		assertNotNull(cs);
+		List<String> codes = new ArrayList<String>();
+		collectCodes(cs.getConcept(), codes);
+		codes.add("this-is-not-a-code");
+
+		for (String next : codes) {
+			CodeValidationResult expected = scanning.validateCode(ourCtx, system, next, null);
+			CodeValidationResult actual = support.validateCode(ourCtx, system, next, null);
+			assertEquals(next, expected.isOk(), actual.isOk());
+			assertEquals(next, expected.getDisplay(), actual.getDisplay());
+			assertEquals(next, expected.getMessage(), actual.getMessage());
+		}
+		assertEquals(1, mySvc.getBuildCount());
+		assertEquals(codes.size() - 1, mySvc.getHitCount());
+	}
+
+	@Test
+	public void testIndexBuiltDuringFlushIsNotKept() {
+		final CodeSystem cs = createCodeSystem("http://foo/cs", 3);
+		CodeSystemIndexCache.IConceptLoader loader = new CodeSystemIndexCache.IConceptLoader() {
+			@Override
+			public int countConcepts() {
+				return 3;
+			}
+
+			@Override
+			public CodeSystemIndex loadConcepts(int theConceptCount) {
+				// The concepts are replaced while they are being loaded
+				mySvc.flush("http://foo/cs");
+				return CodeSystemIndex.Builder.forCodeSystem(cs).build();
+			}
+		};
+
+		assertNotNull(mySvc.getIndex("http://foo/cs", null, this, loader));
+		assertEquals(0, mySvc.getConceptCount());
+		assertNotNull(mySvc.getIndex("http://foo/cs", null, this, loader));
+		assertEquals(2, mySvc.getBuildCount());
+		assertEquals(0, mySvc.getHitCount());
+	}
+
+	@Test
+	public void testIndexFindsNestedConceptsInOrder() {
+		CodeSystem cs = createCodeSystem("http://foo/cs", 2);
+		ConceptDefinitionComponent nested = cs.getConcept().get(0).addConcept().setCode("nested").setDisplay("Nested");
+		cs.getConcept().get(1).addConcept().setCode("nested").setDisplay("Second");
+
+		CodeSystemIndex index = mySvc.getIndex(cs);
+		assertEquals(3, index.size());
+		assertSame(nested, index.findConcept("nested"));
+		assertEquals("Display 1", index.getDisplay("code1"));
+		assertNull(index.getDisplay("foo"));
+		assertTrue(index.validateCode("code0").isOk());
+		assertNull(index.validateCode("foo"));
+	}
+
+	@Test
+	public void testIndexIsBuiltAgainForNewCodeSystem() {
+		CodeSystem cs = createCodeSystem("http://foo/cs", 3);
+		CodeSystemIndex index = mySvc.getIndex(cs);
+		assertSame(index, mySvc.getIndex(cs));
+		assertEquals(1, mySvc.getBuildCount());
+
+		CodeSystemIndex index2 = mySvc.getIndex(createCodeSystem("http://foo/cs", 3));
+		assertNotSame(index, index2);
+		assertEquals(2, mySvc.getBuildCount());
+
+		mySvc.flush("http://foo/cs");
+		assertEquals(0, mySvc.getConceptCount());
+	}
+
+	@Test
+	public void testMaximumConcepts() {
+		mySvc.setMaximumConcepts(10);
+
+		CodeSystem cs1 = createCodeSystem("http://foo/cs1", 4);
+		CodeSystem cs2 = createCodeSystem("http://foo/cs2", 4);
+		CodeSystem cs3 = createCodeSystem("http://foo/cs3", 4);
+		CodeSystem tooLarge = createCodeSystem("http://foo/large", 11);
+
+		assertNull(mySvc.getIndex(tooLarge));
+		assertNull(mySvc.getIndex(tooLarge));
+
+		assertNotNull(mySvc.getIndex(cs1));
+		assertNotNull(mySvc.getIndex(cs2));
+		mySvc.getIndex(cs1);
+		assertNotNull(mySvc.getIndex(cs3));
+		assertEquals(8, mySvc.getConceptCount());
+
+		// cs2 was the least recently used, so it was dropped
+		long builds = mySvc.getBuildCount();
+		mySvc.getIndex(cs1);
+		mySvc.getIndex(cs3);
+		assertEquals(builds, mySvc.getBuildCount());
+		mySvc.getIndex(cs2);
+		assertEquals(builds + 1, mySvc.getBuildCount());
+	}
+
+	@Test
+	public void testVersionsAreSeparate() {
+		CodeSystem cs1 = createCodeSystem("http://foo/cs", 2).setVersion("1");
+		CodeSystem cs2 = createCodeSystem("http://foo/cs", 3).setVersion("2");
+
+		assertEquals(2, mySvc.getIndex(cs1).size());
+		assertEquals(3, mySvc.getIndex(cs2).size());
+		assertEquals(2, mySvc.getIndex(cs1).size());
+		assertEquals(2, mySvc.getBuildCount());
+		assertFalse(mySvc.getIndex(cs1) == mySvc.getIndex(cs2));
+	}
+
+	private static void collectCodes(List<ConceptDefinitionComponent> theConcepts, List<String> theCodes) {
+		for (ConceptDefinitionComponent next : theConcepts) {
+			theCodes.add(next.getCode());
+			collectCodes(next.getConcept(), theCodes);
+		}
+	}
+
+	private static CodeSystem createCodeSystem(String theUrl, int theCount) {
+		CodeSystem retVal = new CodeSystem();
+		retVal.setUrl(theUrl);
+		for (int i = 0; i < theCount; i++) {
+			retVal.addConcept().setCode("code" + i).setDisplay("Display " + i);
+		}
+		return retVal;
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	/**
+	 * Compares validating the codes of a large (hierarchical) code system with and without an index
+	 */
+	public static void main(String[] args) {
+		String system = "http://hl7.org/fhir/v3/ActCode";
+		DefaultProfileValidationSupport indexed = new DefaultProfileValidationSupport();
+		DefaultProfileValidationSupport scanning = new DefaultProfileValidationSupport();
+		scanning.setCodeSystemIndexCache(null);
+
+		List<String> codes = new ArrayList<String>();
+		collectCodes(indexed.fetchCodeSystem(ourCtx, system).getConcept(), codes);
+		scanning.fetchCodeSystem(ourCtx, system);
+
+		int passes = 200;
+		for (int round = 0; round < 3; round++) {
+			long start = System.nanoTime();
+			for (int pass = 0; pass < passes; pass++) {
+				for (String next : codes) {
+					scanning.validateCode(ourCtx, system, next, null);
+				}
+			}
+			long scanned = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int pass = 0; pass < passes; pass++) {
+				for (String next : codes) {
+					indexed.validateCode(ourCtx, system, next, null);
+				}
+			}
+			long index = System.nanoTime() - start;
+			int count = passes * codes.size();
+			ourLog.info("Validated {} codes: {}ns per code scanning, {}ns per code indexed", new Object[] { count, scanned / count, index / count });
+		}
+	}
+
+}
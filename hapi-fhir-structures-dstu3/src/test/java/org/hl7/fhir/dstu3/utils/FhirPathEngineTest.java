@@ -2,6 +2,8 @@ package org.hl7.fhir.dstu3.utils;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 import org.hl7.fhir.dstu3.exceptions.FHIRException;
@@ -9,6 +11,7 @@ import org.hl7.fhir.dstu3.hapi.validation.DefaultProfileValidationSupport;
 import org.hl7.fhir.dstu3.hapi.validation.HapiWorkerContext;
 import org.hl7.fhir.dstu3.model.Base;
 import org.hl7.fhir.dstu3.model.BooleanType;
+import org.hl7.fhir.dstu3.model.HumanName.NameUse;
 import org.hl7.fhir.dstu3.model.Observation;
 import org.hl7.fhir.dstu3.model.Patient;
 import org.hl7.fhir.dstu3.model.StringType;
@@ -35,6 +38,60 @@ public class FhirPathEngineTest {
 		assertEquals("FOO", ((StringType)value.get(0)).getValue());
 	}
 	
+	@Test
+	public void testCompiledConstantsAreNotShared() throws FHIRException {
+		CompiledExpression exp = ourEngine.compile("'abc'");
+		assertFalse(exp.isSimpleNavigation());
+
+		StringType first = (StringType) ourEngine.evaluate(new Patient(), exp).get(0);
+		first.setValue("changed");
+		StringType second = (StringType) ourEngine.evaluate(new Patient(), exp).get(0);
+		assertEquals("abc", second.getValue());
+		assertNotSame(first, second);
+	}
+
+	@Test
+	public void testCompiledMatchesInterpreted() throws FHIRException {
+		Patient patient = createPatient();
+		String[] paths = { 
+			"Patient.name.family", 
+			"name.given", 
+			"Observation.status", 
+			"Patient.name.where(use = 'official').given", 
+			"Patient.name.given.first() = 'G0'", 
+			"Patient.birthDate > @1970-01-01", 
+			"Patient.identifier.where(system = %loinc).value", 
+			"Patient.name.count() + 1", 
+			"Patient.name.given.exists() and Patient.active" 
+		};
+		for (String next : paths) {
+			CompiledExpression exp = ourEngine.compile(next);
+			assertEquals(next, exp.getExpression());
+			assertEquals(next, toStrings(ourEngine.evaluate(patient, next)), toStrings(ourEngine.evaluate(patient, exp)));
+		}
+	}
+
+	@Test
+	public void testCompiledSimpleNavigation() throws FHIRException {
+		Patient patient = createPatient();
+
+		CompiledExpression exp = ourEngine.compile("Patient.name.given");
+		assertTrue(exp.isSimpleNavigation());
+		assertEquals("[G0, G1, G2]", toStrings(ourEngine.evaluate(patient, exp)));
+		assertTrue(ourEngine.evaluate(new Observation(), exp).isEmpty());
+		assertTrue(ourEngine.evaluate(null, exp).isEmpty());
+
+		assertFalse(ourEngine.compile("Patient.name.given.first()").isSimpleNavigation());
+		assertFalse(ourEngine.compile("Patient.active or Patient.deceased").isSimpleNavigation());
+	}
+
+	@Test
+	public void testCompiledToBoolean() throws FHIRException {
+		Patient patient = createPatient();
+		assertTrue(ourEngine.evaluateToBoolean(patient, patient, ourEngine.compile("name.where(family = 'F0').exists()")));
+		assertFalse(ourEngine.evaluateToBoolean(patient, patient, ourEngine.compile("name.where(family = 'XX').exists()")));
+	}
+
 	@Test
 	public void testExistsWithNoValue() throws FHIRException {
 		Patient patient = new Patient();
@@ -53,6 +110,26 @@ public class FhirPathEngineTest {
 		assertTrue(((BooleanType)eval.get(0)).getValue());
 	}
 
+	private static Patient createPatient() {
+		Patient patient = new Patient();
+		patient.setActive(true);
+		patient.setBirthDate(new Date(0L + 365L * 24 * 60 * 60 * 1000));
+		patient.addIdentifier().setSystem("http://loinc.org").setValue("123");
+		patient.addIdentifier().setSystem("http://foo").setValue("456");
+		for (int i = 0; i < 3; i++) {
+			patient.addName().setUse(i == 0 ? NameUse.OFFICIAL : NameUse.USUAL).addFamily("F" + i).addGiven("G" + i);
+		}
+		return patient;
+	}
+
+	private static String toStrings(List<Base> theValues) {
+		List<String> retVal = new ArrayList<String>();
+		for (Base next : theValues) {
+			retVal.add(next.isPrimitive() ? next.primitiveValue() : next.fhirType());
+		}
+		return retVal.toString();
+	}
+
 	@AfterClass
 	public static void afterClassClearContext() throws Exception {
 		TestUtil.clearAllStaticFieldsForUnitTest();
@@ -63,4 +140,31 @@ public class FhirPathEngineTest {
 		ourEngine = new FHIRPathEngine(new HapiWorkerContext(ourCtx, new DefaultProfileValidationSupport()));
 	}
 
+	/**
+	 * Compares evaluating paths as strings with evaluating them compiled
+	 */
+	public static void main(String[] args) throws Exception {
+		beforeClass();
+		Patient patient = createPatient();
+		String[] paths = { "Patient.name.family", "Patient.name.where(use = 'official').given", "Patient.identifier.where(system = %loinc).value" };
+		int count = 200000;
+		for (int pass = 0; pass < 3; pass++) {
+			for (String path : paths) {
+				long start = System.nanoTime();
+				for (int i = 0; i < count; i++) {
+					ourEngine.evaluate(patient, path);
+				}
+				long interpreted = System.nanoTime() - start;
+
+				CompiledExpression exp = ourEngine.compile(path);
+				start = System.nanoTime();
+				for (int i = 0; i < count; i++) {
+					ourEngine.evaluate(patient, exp);
+				}
+				long compiled = System.nanoTime() - start;
+				ourLog.info("{}: {}ns per evaluation as a string, {}ns compiled", new Object[] { path, interpreted / count, compiled / count });
+			}
+		}
+	}
+
 }
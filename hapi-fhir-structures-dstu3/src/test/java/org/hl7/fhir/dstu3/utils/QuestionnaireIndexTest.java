@@ -0,0 +1,250 @@
+package org.hl7.fhir.dstu3.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.hl7.fhir.dstu3.model.Coding;
+import org.hl7.fhir.dstu3.model.DateType;
+import org.hl7.fhir.dstu3.model.IntegerType;
+import org.hl7.fhir.dstu3.model.Questionnaire;
+import org.hl7.fhir.dstu3.model.Questionnaire.QuestionnaireItemComponent;
+import org.hl7.fhir.dstu3.model.Questionnaire.QuestionnaireItemType;
+import org.hl7.fhir.dstu3.model.StringType;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.util.TestUtil;
+
+public class QuestionnaireIndexTest {
+
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(QuestionnaireIndexTest.class);
+
+	@Test
+	public void testCacheReusesIndexForSameVersion() {
+		QuestionnaireIndexCache cache = new QuestionnaireIndexCache();
+
+		Questionnaire q = createQuestionnaire(3);
+		QuestionnaireIndex index = cache.getIndex(q);
+		assertSame(index, cache.getIndex(q));
+		assertEquals(1, cache.getBuildCount());
+		assertEquals(1, cache.getHitCount());
+
+		// Another instance without any version is indexed again
+		assertNotSame(index, cache.getIndex(createQuestionnaire(3)));
+		assertEquals(2, cache.getBuildCount());
+
+		// The same version, loaded again
+		Questionnaire v1 = createQuestionnaire(3);
+		v1.setId("http://foo/Questionnaire/q/_history/1");
+		QuestionnaireIndex v1Index = cache.getIndex(v1);
+		Questionnaire v1Again = createQuestionnaire(3);
+		v1Again.setId("http://foo/Questionnaire/q");
+		v1Again.getMeta().setVersionId("1");
+		assertSame(v1Index, cache.getIndex(v1Again));
+		assertSame(v1, cache.getIndex(v1Again).getQuestionnaire());
+
+		Questionnaire v2 = createQuestionnaire(3);
+		v2.setId("http://foo/Questionnaire/q/_history/2");
+		assertNotSame(v1Index, cache.getIndex(v2));
+
+		Questionnaire byUrl = createQuestionnaire(3).setUrl("http://foo/q").setVersion("1");
+		QuestionnaireIndex byUrlIndex = cache.getIndex(byUrl);
+		assertSame(byUrlIndex, cache.getIndex(createQuestionnaire(3).setUrl("http://foo/q").setVersion("1")));
+		assertNotSame(byUrlIndex, cache.getIndex(createQuestionnaire(3).setUrl("http://foo/q").setVersion("2")));
+
+		cache.flush();
+		assertNotSame(byUrlIndex, cache.getIndex(byUrl));
+	}
+
+	@Test
+	public void testCacheDoesNotReuseIndexForChangedMeta() {
+		QuestionnaireIndexCache cache = new QuestionnaireIndexCache();
+
+		Questionnaire original = createQuestionnaire(3).setUrl("http://foo/q").setVersion("1");
+		original.getMeta().setVersionId("1").setLastUpdated(new Date(1000));
+		QuestionnaireIndex index = cache.getIndex(original);
+
+		// Changed on the server without changing the business version
+		Questionnaire changed = createQuestionnaire(2).setUrl("http://foo/q").setVersion("1");
+		changed.getMeta().setVersionId("2").setLastUpdated(new Date(2000));
+		QuestionnaireIndex changedIndex = cache.getIndex(changed);
+		assertNotSame(index, changedIndex);
+		assertSame(changed, changedIndex.getQuestionnaire());
+
+		Questionnaire touched = createQuestionnaire(2).setUrl("http://foo/q").setVersion("1");
+		touched.getMeta().setLastUpdated(new Date(3000));
+		assertNotSame(changedIndex, cache.getIndex(touched));
+		assertEquals(3, cache.getBuildCount());
+
+		// The same server version, loaded again
+		Questionnaire reloaded = createQuestionnaire(2).setUrl("http://foo/q").setVersion("1");
+		reloaded.getMeta().setLastUpdated(new Date(3000));
+		assertSame(cache.getIndex(touched), cache.getIndex(reloaded));
+		assertEquals(3, cache.getBuildCount());
+	}
+
+	@Test
+	public void testCacheDoesNotMatchRelativeIds() {
+		QuestionnaireIndexCache cache = new QuestionnaireIndexCache();
+
+		// The same relative id and version, but from different servers
+		Questionnaire fromServerA = createQuestionnaire(3);
+		fromServerA.setId("Questionnaire/q/_history/1");
+		Questionnaire fromServerB = createQuestionnaire(2);
+		fromServerB.setId("Questionnaire/q/_history/1");
+
+		QuestionnaireIndex indexA = cache.getIndex(fromServerA);
+		QuestionnaireIndex indexB = cache.getIndex(fromServerB);
+		assertNotSame(indexA, indexB);
+		assertSame(fromServerB, indexB.getQuestionnaire());
+		assertEquals(2, cache.getBuildCount());
+
+		// The same absolute id on different servers
+		fromServerA.setId("http://a/Questionnaire/q/_history/1");
+		fromServerB.setId("http://b/Questionnaire/q/_history/1");
+		cache.flush();
+		assertNotSame(cache.getIndex(fromServerA), cache.getIndex(fromServerB));
+
+		// The canonical url and version is preferred over the id
+		Questionnaire withUrl = createQuestionnaire(3).setUrl("http://foo/q").setVersion("1");
+		withUrl.setId("http://a/Questionnaire/q/_history/1");
+		Questionnaire withUrlElsewhere = createQuestionnaire(3).setUrl("http://foo/q").setVersion("1");
+		withUrlElsewhere.setId("http://b/Questionnaire/other/_history/5");
+		assertSame(cache.getIndex(withUrl), cache.getIndex(withUrlElsewhere));
+	}
+
+	@Test
+	public void testEnableWhenQuestions() {
+		Questionnaire q = createQuestionnaire(3);
+		assertFalse(new QuestionnaireIndex(q).hasEnableWhen());
+
+		q.getItem().get(2).addItem().setLinkId("nested").addEnableWhen().setQuestion("q0").setHasAnswer(true);
+		QuestionnaireIndex index = new QuestionnaireIndex(q);
+		assertTrue(index.hasEnableWhen());
+		assertTrue(index.isEnableWhenQuestion("q0"));
+		assertFalse(index.isEnableWhenQuestion("q1"));
+	}
+
+	@Test
+	public void testFindItemAndPosition() {
+		Questionnaire q = createQuestionnaire(3);
+		QuestionnaireItemComponent group = q.getItem().get(1);
+		QuestionnaireItemComponent nested = group.addItem().setLinkId("nested");
+		group.addItem().setLinkId("q2");
+		q.getItem().get(2).addItem().setLinkId("nested");
+		q.addItem().setLinkId("q0");
+
+		QuestionnaireIndex index = new QuestionnaireIndex(q);
+		assertEquals(7, index.getItemCount());
+		assertSame(nested, index.findItem("nested"));
+		assertSame(q.getItem().get(0), index.findItem("q0"));
+		assertNull(index.findItem("foo"));
+
+		assertEquals(0, index.indexOf(q.getItem(), "q0"));
+		assertEquals(2, index.indexOf(q.getItem(), "q2"));
+		assertEquals(-1, index.indexOf(q.getItem(), "nested"));
+		assertEquals(1, index.indexOf(group.getItem(), "q2"));
+
+		// A list which is not part of the questionnaire
+		List<QuestionnaireItemComponent> other = new ArrayList<QuestionnaireItemComponent>(group.getItem());
+		assertEquals(1, index.indexOf(other, "q2"));
+		assertEquals(-1, index.indexOf(other, "q0"));
+	}
+
+	@Test
+	public void testOptions() {
+		Questionnaire q = createQuestionnaire(2);
+		QuestionnaireItemComponent item = q.getItem().get(0).setType(QuestionnaireItemType.CHOICE);
+		item.addOption().setValue(new IntegerType(5));
+		item.addOption().setValue(new StringType("five"));
+		item.addOption().setValue(new DateType("2016-05-05"));
+		item.addOption().setValue(new Coding("http://foo", "5", null));
+		item.addOption().setValue(new Coding(null, "6", null));
+
+		QuestionnaireIndex index = new QuestionnaireIndex(q);
+		assertTrue(index.hasOptions(item, "integer"));
+		assertTrue(index.hasOptions(item, "Coding"));
+		assertFalse(index.hasOptions(item, "time"));
+		assertFalse(index.hasOptions(q.getItem().get(1), "string"));
+
+		assertTrue(index.isOption(item, "integer", "5"));
+		assertTrue(index.isOption(item, "integer", "05"));
+		assertFalse(index.isOption(item, "integer", "6"));
+		assertFalse(index.isOption(item, "integer", "five"));
+		assertTrue(index.isOption(item, "string", "five"));
+		assertFalse(index.isOption(item, "string", "5"));
+		assertTrue(index.isOption(item, "date", "2016-05-05"));
+
+		assertTrue(index.isCodingOption(item, "http://foo", "5"));
+		assertFalse(index.isCodingOption(item, "http://foo", "6"));
+		assertTrue(index.isCodingOption(item, null, "6"));
+		assertFalse(index.isCodingOption(item, null, "5"));
+	}
+
+	private static Questionnaire createQuestionnaire(int theCount) {
+		Questionnaire retVal = new Questionnaire();
+		for (int i = 0; i < theCount; i++) {
+			retVal.addItem().setLinkId("q" + i).setType(QuestionnaireItemType.STRING);
+		}
+		return retVal;
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	/**
+	 * Compares matching the items of a response to those of a large questionnaire by searching the
+	 * questionnaire (as the validator did before) and by using an index
+	 */
+	public static void main(String[] args) {
+		for (int size : new int[] { 500, 2000 }) {
+			Questionnaire q = createQuestionnaire(size);
+			String[] linkIds = new String[size];
+			for (int i = 0; i < size; i++) {
+				linkIds[i] = "q" + i;
+			}
+			QuestionnaireIndexCache cache = new QuestionnaireIndexCache();
+
+			int passes = 100;
+			for (int round = 0; round < 3; round++) {
+				long start = System.nanoTime();
+				for (int pass = 0; pass < passes; pass++) {
+					for (String next : linkIds) {
+						linearIndexOf(q.getItem(), next);
+					}
+				}
+				long scanned = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				for (int pass = 0; pass < passes; pass++) {
+					QuestionnaireIndex index = cache.getIndex(q);
+					for (String next : linkIds) {
+						index.indexOf(q.getItem(), next);
+					}
+				}
+				long indexed = System.nanoTime() - start;
+				ourLog.info("Matched {} items: {}us per response searching, {}us per response indexed", new Object[] { size, scanned / passes / 1000, indexed / passes / 1000 });
+			}
+		}
+	}
+
+	private static int linearIndexOf(List<QuestionnaireItemComponent> theItems, String theLinkId) {
+		for (int i = 0; i < theItems.size(); i++) {
+			if (theLinkId.equals(theItems.get(i).getLinkId())) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,217 @@
+package org.hl7.fhir.dstu3.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.hl7.fhir.dstu3.hapi.validation.DefaultProfileValidationSupport;
+import org.hl7.fhir.dstu3.model.ElementDefinition;
+import org.hl7.fhir.dstu3.model.StructureDefinition;
+import org.hl7.fhir.dstu3.model.StructureDefinition.TypeDerivationRule;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.TestUtil;
+
+public class SnapshotCacheTest {
+
+	private static final String BASE_URL = "http://hl7.org/fhir/StructureDefinition/HumanName";
+	private static FhirContext ourCtx = FhirContext.forDstu3();
+	private static final String PARENT_URL = "http://foo/StructureDefinition/parent-name";
+	private static final String CHILD_URL = "http://foo/StructureDefinition/child-name";
+
+	private IWorkerContext myContext;
+	private Map<String, StructureDefinition> myProfiles;
+	private SnapshotCache mySvc;
+
+	@Before
+	public void before() {
+		myProfiles = new HashMap<String, StructureDefinition>();
+		myProfiles.put(BASE_URL, new DefaultProfileValidationSupport().fetchStructureDefinition(ourCtx, BASE_URL));
+		myProfiles.put(PARENT_URL, createProfile(PARENT_URL, BASE_URL, "HumanName.family", 1, "*"));
+		myProfiles.put(CHILD_URL, createProfile(CHILD_URL, PARENT_URL, "HumanName.given", 0, "1"));
+
+		myContext = mock(IWorkerContext.class);
+		when(myContext.getResourceNames()).thenReturn(Arrays.asList("Patient", "Practitioner"));
+		when(myContext.fetchResource(eq(StructureDefinition.class), anyString())).thenAnswer(new Answer<StructureDefinition>() {
+			@Override
+			public StructureDefinition answer(InvocationOnMock theInvocation) throws Throwable {
+				return myProfiles.get(theInvocation.getArguments()[1]);
+			}
+		});
+
+		mySvc = new SnapshotCache();
+	}
+
+	@Test
+	public void testAncestorChangeRegeneratesChain() throws Exception {
+		StructureDefinition child = myProfiles.get(CHILD_URL);
+		mySvc.generateSnapshot(myContext, child);
+		assertEquals(2, mySvc.getGenerationCount());
+
+		myProfiles.get(PARENT_URL).getDifferential().getElementFirstRep().setMin(2);
+		StructureDefinition generated = mySvc.generateSnapshot(myContext, child);
+		assertEquals(4, mySvc.getGenerationCount());
+		assertEquals(2, findElement(generated, "HumanName.family").getMin());
+	}
+
+	@Test
+	public void testConcurrentCallersGenerateOnce() throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<StructureDefinition>> futures = new ArrayList<Future<StructureDefinition>>();
+			for (int i = 0; i < 8; i++) {
+				futures.add(executor.submit(new Callable<StructureDefinition>() {
+					@Override
+					public StructureDefinition call() throws Exception {
+						start.await();
+						return mySvc.generateSnapshot(myContext, myProfiles.get(CHILD_URL));
+					}
+				}));
+			}
+			start.countDown();
+
+			StructureDefinition first = futures.get(0).get();
+			for (Future<StructureDefinition> next : futures) {
+				assertSame(first, next.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(2, mySvc.getGenerationCount());
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() throws Exception {
+		mySvc.setMaximumSize(1);
+		StructureDefinition child = mySvc.generateSnapshot(myContext, myProfiles.get(CHILD_URL));
+		assertEquals(2, mySvc.getGenerationCount());
+		assertEquals(1, mySvc.getSize());
+
+		// the parent was evicted, so it is generated again, and so is the child which depends on it
+		assertNotSame(child, mySvc.generateSnapshot(myContext, myProfiles.get(CHILD_URL)));
+		assertEquals(4, mySvc.getGenerationCount());
+		assertEquals(1, mySvc.getSize());
+	}
+
+	@Test
+	public void testGeneratesChain() throws Exception {
+		StructureDefinition child = mySvc.generateSnapshot(myContext, myProfiles.get(CHILD_URL));
+		assertEquals(2, mySvc.getGenerationCount());
+
+		StructureDefinition parent = mySvc.generateSnapshot(myContext, myProfiles.get(PARENT_URL));
+		assertEquals(2, mySvc.getGenerationCount());
+		assertTrue(mySvc.isGenerated(child));
+		assertTrue(mySvc.isGenerated(parent));
+		assertFalse(mySvc.isGenerated(myProfiles.get(BASE_URL)));
+		assertSame(myProfiles.get(BASE_URL), mySvc.generateSnapshot(myContext, myProfiles.get(BASE_URL)));
+
+		assertEquals(1, findElement(child, "HumanName.family").getMin());
+		assertEquals("1", findElement(child, "HumanName.given").getMax());
+		assertEquals("*", findElement(parent, "HumanName.given").getMax());
+	}
+
+	@Test
+	public void testLeafChangeRegeneratesOnlyLeaf() throws Exception {
+		mySvc.generateSnapshot(myContext, myProfiles.get(CHILD_URL));
+		assertEquals(2, mySvc.getGenerationCount());
+
+		StructureDefinition changed = createProfile(CHILD_URL, PARENT_URL, "HumanName.given", 1, "1");
+		StructureDefinition generated = mySvc.generateSnapshot(myContext, changed);
+		assertEquals(3, mySvc.getGenerationCount());
+		assertEquals(1, findElement(generated, "HumanName.given").getMin());
+	}
+
+	@Test
+	public void testProvidedSnapshotIsKept() throws Exception {
+		StructureDefinition base = myProfiles.get(BASE_URL);
+		StructureDefinition provided = createProfile(CHILD_URL, BASE_URL, "HumanName.given", 0, "1");
+		provided.setSnapshot(base.getSnapshot().copy());
+
+		assertSame(provided, mySvc.generateSnapshot(myContext, provided));
+		assertEquals(0, mySvc.getGenerationCount());
+		assertFalse(mySvc.isGenerated(provided));
+		assertEquals("*", findElement(provided, "HumanName.given").getMax());
+	}
+
+	@Test
+	public void testReusesSnapshotForUnchangedProfile() throws Exception {
+		StructureDefinition child = mySvc.generateSnapshot(myContext, myProfiles.get(CHILD_URL));
+
+		// the same profile, loaded again
+		StructureDefinition reloaded = createProfile(CHILD_URL, PARENT_URL, "HumanName.given", 0, "1");
+		StructureDefinition generated = mySvc.generateSnapshot(myContext, reloaded);
+
+		assertEquals(2, mySvc.getGenerationCount());
+		assertEquals(2, mySvc.getHitCount());
+		assertSame(child, generated);
+
+		mySvc.flush();
+		generated = mySvc.generateSnapshot(myContext, reloaded);
+		assertEquals(4, mySvc.getGenerationCount());
+		assertNotSame(child, generated);
+	}
+
+	@Test
+	public void testSharedProfilesAreNotModified() throws Exception {
+		StructureDefinition child = myProfiles.get(CHILD_URL);
+		StructureDefinition generated = mySvc.generateSnapshot(myContext, child);
+
+		assertNotSame(child, generated);
+		assertTrue(generated.hasSnapshot());
+		assertFalse(child.hasSnapshot());
+		assertFalse(myProfiles.get(PARENT_URL).hasSnapshot());
+		assertEquals(1, child.getDifferential().getElement().size());
+	}
+
+	private static StructureDefinition createProfile(String theUrl, String theBaseUrl, String thePath, int theMin, String theMax) {
+		StructureDefinition retVal = new StructureDefinition();
+		retVal.setId(theUrl.substring(theUrl.lastIndexOf('/') + 1));
+		retVal.setUrl(theUrl);
+		retVal.setName(retVal.getId());
+		retVal.setDerivation(TypeDerivationRule.CONSTRAINT);
+		retVal.setBaseDefinition(theBaseUrl);
+		retVal.setBaseType("HumanName");
+		retVal.getDifferential().addElement().setPath(thePath).setMin(theMin).setMax(theMax);
+		return retVal;
+	}
+
+	private static ElementDefinition findElement(StructureDefinition theProfile, String thePath) {
+		for (ElementDefinition next : theProfile.getSnapshot().getElement()) {
+			if (next.getPath().equals(thePath)) {
+				return next;
+			}
+		}
+		assertNotNull("No element " + thePath, null);
+		return null;
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
@@ -0,0 +1,134 @@
+package org.hl7.fhir.dstu3.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.dstu3.hapi.validation.DefaultProfileValidationSupport;
+import org.hl7.fhir.dstu3.model.ElementDefinition;
+import org.hl7.fhir.dstu3.model.StructureDefinition;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.TestUtil;
+
+public class SnapshotIndexTest {
+
+	private static FhirContext ourCtx = FhirContext.forDstu3();
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(SnapshotIndexTest.class);
+
+	private static StructureDefinition createQuestionnaireLikeStructure() {
+		StructureDefinition retVal = new StructureDefinition();
+		retVal.setName("Questionnaire");
+		retVal.getSnapshot().addElement().setPath("Questionnaire");
+		retVal.getSnapshot().addElement().setPath("Questionnaire.id");
+		retVal.getSnapshot().addElement().setPath("Questionnaire.item");
+		retVal.getSnapshot().addElement().setPath("Questionnaire.item.linkId");
+		retVal.getSnapshot().addElement().setPath("Questionnaire.item.text");
+		retVal.getSnapshot().addElement().setPath("Questionnaire.item.item").setContentReference("#item");
+		return retVal;
+	}
+
+	/**
+	 * The direct children of an element, found by scanning the snapshot
+	 */
+	private static List<String> scanChildren(StructureDefinition theStructure, String thePath) {
+		List<String> retVal = new ArrayList<String>();
+		for (ElementDefinition next : theStructure.getSnapshot().getElement()) {
+			String path = next.getPath();
+			if (path.startsWith(thePath + ".") && !path.substring(thePath.length() + 1).contains(".")) {
+				retVal.add(path);
+			}
+		}
+		return retVal;
+	}
+
+	private static List<String> toPaths(List<ElementDefinition> theElements) {
+		List<String> retVal = new ArrayList<String>();
+		for (ElementDefinition next : theElements) {
+			retVal.add(next.getPath());
+		}
+		return retVal;
+	}
+
+	@Test
+	public void testChildMapFollowsContentReference() throws Exception {
+		StructureDefinition structure = createQuestionnaireLikeStructure();
+
+		List<String> expected = toPaths(ProfileUtilities.getChildMap(structure, structure.getSnapshot().getElement().get(2)));
+		assertEquals("[Questionnaire.item.linkId, Questionnaire.item.text, Questionnaire.item.item]", expected.toString());
+
+		// Nested items are defined by the item they refer to
+		ElementDefinition nested = structure.getSnapshot().getElement().get(5);
+		assertEquals(expected, toPaths(ProfileUtilities.getChildMap(structure, nested)));
+	}
+
+	@Test
+	public void testChildMapMatchesScanForAllTypes() throws Exception {
+		DefaultProfileValidationSupport support = new DefaultProfileValidationSupport();
+		int checked = 0;
+		for (StructureDefinition next : support.fetchAllStructureDefinitions(ourCtx)) {
+			for (ElementDefinition nextElement : next.getSnapshot().getElement()) {
+				if (nextElement.hasContentReference()) {
+					continue;
+				}
+				assertEquals(scanChildren(next, nextElement.getPath()), toPaths(ProfileUtilities.getChildMap(next, nextElement)));
+				assertEquals(scanChildren(next, nextElement.getPath()), toPaths(ProfileUtilities.getChildList(next, nextElement)));
+				checked++;
+			}
+		}
+		assertThat(checked, greaterThan(0));
+		support.flush();
+	}
+
+	@Test
+	public void testIndexRebuiltWhenSnapshotChanges() throws Exception {
+		StructureDefinition structure = createQuestionnaireLikeStructure();
+		SnapshotIndex index = SnapshotIndex.forProfile(structure);
+		assertSame(index, SnapshotIndex.forProfile(structure));
+		assertEquals("[Questionnaire.id, Questionnaire.item]", toPaths(ProfileUtilities.getChildMap(structure, null, "Questionnaire", null)).toString());
+
+		structure.getSnapshot().addElement().setPath("Questionnaire.title");
+		assertNotSame(index, SnapshotIndex.forProfile(structure));
+		assertEquals("[Questionnaire.id, Questionnaire.item, Questionnaire.title]", toPaths(ProfileUtilities.getChildMap(structure, null, "Questionnaire", null)).toString());
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	/**
+	 * Measures the cost of finding the children of every element in the largest type
+	 * definitions, as the validator does for each element it visits
+	 */
+	public static void main(String[] theArgs) throws Exception {
+		DefaultProfileValidationSupport support = new DefaultProfileValidationSupport();
+		StructureDefinition largest = null;
+		for (StructureDefinition next : support.fetchAllStructureDefinitions(ourCtx)) {
+			if (largest == null || next.getSnapshot().getElement().size() > largest.getSnapshot().getElement().size()) {
+				largest = next;
+			}
+		}
+
+		int size = largest.getSnapshot().getElement().size();
+		int reps = 1000;
+		for (int pass = 0; pass < 5; pass++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < reps; i++) {
+				for (ElementDefinition next : largest.getSnapshot().getElement()) {
+					ProfileUtilities.getChildMap(largest, next);
+				}
+			}
+			long nanos = (System.nanoTime() - start) / (reps * size);
+			ourLog.info("Pass {}: {} ({} elements) {}ns per lookup", new Object[] { pass, largest.getName(), size, nanos });
+		}
+	}
+
+}
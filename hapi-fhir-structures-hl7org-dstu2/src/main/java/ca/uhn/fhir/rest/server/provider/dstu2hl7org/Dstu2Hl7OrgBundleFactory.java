@@ -30,7 +30,6 @@ import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 
-import org.apache.commons.lang3.Validate;
 import org.hl7.fhir.instance.model.Bundle;
 import org.hl7.fhir.instance.model.Bundle.BundleEntryComponent;
 import org.hl7.fhir.instance.model.Bundle.BundleLinkComponent;
@@ -330,8 +329,7 @@ public class Dstu2Hl7OrgBundleFactory implements IVersionSpecificBundleFactory {
         searchId = theSearchId;
       } else {
         if (theResult.size() > numToReturn) {
-          searchId = pagingProvider.storeResultList(theResult);
-          Validate.notNull(searchId, "Paging provider returned null searchId");
+          searchId = RestfulServerUtils.storeResultList(pagingProvider, theResult);
         }
       }
     }
@@ -382,7 +380,7 @@ public class Dstu2Hl7OrgBundleFactory implements IVersionSpecificBundleFactory {
     myBundle.addLink().setRelation(Constants.LINK_SELF).setUrl(theCompleteUrl);
     myBundle.getTypeElement().setValueAsString(theBundleType.getCode());
 
-    if (theBundleType.equals(BundleTypeEnum.TRANSACTION)) {
+    if (theBundleType.equals(BundleTypeEnum.TRANSACTION) || theBundleType.equals(BundleTypeEnum.BATCH)) {
       for (IBaseResource nextBaseRes : theResources) {
         IBaseResource next = (IBaseResource) nextBaseRes;
         BundleEntryComponent nextEntry = myBundle.addEntry();
@@ -5,14 +5,16 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.Validate;
 import org.hl7.fhir.instance.model.Attachment;
 import org.hl7.fhir.instance.model.BooleanType;
 import org.hl7.fhir.instance.model.Coding;
@@ -61,6 +63,7 @@ public class QuestionnaireResponseValidator extends BaseValidator {
    */
   // @formatter:on
 
+  private final Map<ValueSet, Map<String, Set<String>>> myValueSetCodes = new IdentityHashMap<ValueSet, Map<String, Set<String>>>();
   private WorkerContext myWorkerCtx;
 
   public QuestionnaireResponseValidator(WorkerContext theWorkerCtx) {
@@ -80,29 +83,39 @@ public class QuestionnaireResponseValidator extends BaseValidator {
     return Collections.unmodifiableSet(retVal);
   }
 
-  private List<org.hl7.fhir.instance.model.QuestionnaireResponse.QuestionComponent> findAnswersByLinkId(List<org.hl7.fhir.instance.model.QuestionnaireResponse.QuestionComponent> theQuestion,
-      String theLinkId) {
-    Validate.notBlank(theLinkId, "theLinkId must not be blank");
-
-    ArrayList<org.hl7.fhir.instance.model.QuestionnaireResponse.QuestionComponent> retVal = new ArrayList<QuestionnaireResponse.QuestionComponent>();
-    for (org.hl7.fhir.instance.model.QuestionnaireResponse.QuestionComponent next : theQuestion) {
-      if (theLinkId.equals(next.getLinkId())) {
-        retVal.add(next);
+  /**
+   * Returns the answers to the questions of a group, by linkId (in the order they are listed)
+   */
+  private Map<String, List<org.hl7.fhir.instance.model.QuestionnaireResponse.QuestionComponent>> indexAnswersByLinkId(
+      List<org.hl7.fhir.instance.model.QuestionnaireResponse.QuestionComponent> theQuestions) {
+    Map<String, List<org.hl7.fhir.instance.model.QuestionnaireResponse.QuestionComponent>> retVal = new HashMap<String, List<org.hl7.fhir.instance.model.QuestionnaireResponse.QuestionComponent>>();
+    for (org.hl7.fhir.instance.model.QuestionnaireResponse.QuestionComponent next : theQuestions) {
+      if (next.getLinkId() == null) {
+        continue;
       }
+      List<org.hl7.fhir.instance.model.QuestionnaireResponse.QuestionComponent> list = retVal.get(next.getLinkId());
+      if (list == null) {
+        list = new ArrayList<QuestionnaireResponse.QuestionComponent>();
+        retVal.put(next.getLinkId(), list);
+      }
+      list.add(next);
     }
     return retVal;
   }
 
-  private List<org.hl7.fhir.instance.model.QuestionnaireResponse.GroupComponent> findGroupByLinkId(List<org.hl7.fhir.instance.model.QuestionnaireResponse.GroupComponent> theGroups, String theLinkId) {
-    ArrayList<org.hl7.fhir.instance.model.QuestionnaireResponse.GroupComponent> retVal = new ArrayList<QuestionnaireResponse.GroupComponent>();
-    for (org.hl7.fhir.instance.model.QuestionnaireResponse.GroupComponent next : theGroups) {
-      if (theLinkId == null) {
-        if (next.getLinkId() == null) {
-          retVal.add(next);
-        }
-      } else if (theLinkId.equals(next.getLinkId())) {
-        retVal.add(next);
+  /**
+   * Returns the positions of the answer groups in the given list, by linkId (which may be <code>null</code>)
+   */
+  private Map<String, List<Integer>> indexGroupsByLinkId(List<org.hl7.fhir.instance.model.QuestionnaireResponse.GroupComponent> theGroups) {
+    Map<String, List<Integer>> retVal = new HashMap<String, List<Integer>>();
+    for (int i = 0; i < theGroups.size(); i++) {
+      String linkId = theGroups.get(i).getLinkId();
+      List<Integer> list = retVal.get(linkId);
+      if (list == null) {
+        list = new ArrayList<Integer>();
+        retVal.put(linkId, list);
       }
+      list.add(i);
     }
     return retVal;
   }
@@ -201,9 +214,10 @@ public class QuestionnaireResponseValidator extends BaseValidator {
       allowedQuestions.add(nextQuestion.getLinkId());
     }
 
+    Map<String, List<org.hl7.fhir.instance.model.QuestionnaireResponse.QuestionComponent>> answersByLinkId = indexAnswersByLinkId(theAnsGroup.getQuestion());
     for (int i = 0; i < theQuestGroup.getQuestion().size(); i++) {
       QuestionComponent nextQuestion = theQuestGroup.getQuestion().get(i);
-      validateQuestion(theErrors, nextQuestion, theAnsGroup, thePathStack, theAnswers, theValidateRequired);
+      validateQuestion(theErrors, nextQuestion, answersByLinkId, thePathStack, theAnswers, theValidateRequired);
     }
 
     // Check that there are no extra answers
@@ -219,8 +233,9 @@ public class QuestionnaireResponseValidator extends BaseValidator {
 
   }
 
-  private void validateQuestion(List<ValidationMessage> theErrors, QuestionComponent theQuestion, org.hl7.fhir.instance.model.QuestionnaireResponse.GroupComponent theAnsGroup,
-      LinkedList<String> thePathStack, QuestionnaireResponse theAnswers, boolean theValidateRequired) {
+  private void validateQuestion(List<ValidationMessage> theErrors, QuestionComponent theQuestion,
+      Map<String, List<org.hl7.fhir.instance.model.QuestionnaireResponse.QuestionComponent>> theAnswersByLinkId, LinkedList<String> thePathStack, QuestionnaireResponse theAnswers,
+      boolean theValidateRequired) {
     QuestionComponent question = theQuestion;
     String linkId = question.getLinkId();
     if (!fail(theErrors, IssueType.INVALID, thePathStack, isNotBlank(linkId), "Questionnaire is invalid, question found with no link ID")) {
@@ -262,7 +277,10 @@ public class QuestionnaireResponseValidator extends BaseValidator {
       }
     }
 
-    List<org.hl7.fhir.instance.model.QuestionnaireResponse.QuestionComponent> answers = findAnswersByLinkId(theAnsGroup.getQuestion(), linkId);
+    List<org.hl7.fhir.instance.model.QuestionnaireResponse.QuestionComponent> answers = theAnswersByLinkId.get(linkId);
+    if (answers == null) {
+      answers = Collections.emptyList();
+    }
     if (answers.size() > 1) {
       rule(theErrors, IssueType.BUSINESSRULE, thePathStack, !question.getRequired(), "Multiple answers repetitions found with linkId[{0}]", linkId);
     }
@@ -314,12 +332,13 @@ public class QuestionnaireResponseValidator extends BaseValidator {
     }
 
     Set<String> allowedGroups = new HashSet<String>();
+    Map<String, List<Integer>> answerGroupsByLinkId = indexGroupsByLinkId(theAnswerGroups);
     for (GroupComponent nextQuestionGroup : theQuestionGroups) {
       String linkId = nextQuestionGroup.getLinkId();
       allowedGroups.add(linkId);
 
-      List<org.hl7.fhir.instance.model.QuestionnaireResponse.GroupComponent> answerGroups = findGroupByLinkId(theAnswerGroups, linkId);
-      if (answerGroups.isEmpty()) {
+      List<Integer> answerGroups = answerGroupsByLinkId.get(linkId);
+      if (answerGroups == null) {
         if (nextQuestionGroup.getRequired()) {
           if (theValidateRequired) {
             rule(theErrors, IssueType.BUSINESSRULE, thePathStack, false, "Missing required group with linkId[{0}]", linkId);
@@ -331,16 +350,15 @@ public class QuestionnaireResponseValidator extends BaseValidator {
       }
       if (answerGroups.size() > 1) {
         if (nextQuestionGroup.getRepeats() == false) {
-          int index = theAnswerGroups.indexOf(answerGroups.get(1));
+          int index = answerGroups.get(1);
           thePathStack.add("group[" + index + "]");
           rule(theErrors, IssueType.BUSINESSRULE, thePathStack, false, "Multiple repetitions of group with linkId[{0}] found at this position, but this group can not repeat", linkId);
           thePathStack.removeLast();
         }
       }
-      for (org.hl7.fhir.instance.model.QuestionnaireResponse.GroupComponent nextAnswerGroup : answerGroups) {
-        int index = theAnswerGroups.indexOf(nextAnswerGroup);
+      for (int index : answerGroups) {
         thePathStack.add("group[" + index + "]");
-        validateGroup(theErrors, nextQuestionGroup, nextAnswerGroup, thePathStack, theAnswers, theValidateRequired);
+        validateGroup(theErrors, nextQuestionGroup, theAnswerGroups.get(index), thePathStack, theAnswers, theValidateRequired);
         thePathStack.removeLast();
       }
     }
@@ -414,30 +432,8 @@ public class QuestionnaireResponseValidator extends BaseValidator {
                 continue;
               }
 
-              boolean found = false;
-              if (coding.getSystem().equals(valueSet.getCodeSystem().getSystem())) {
-                for (ConceptDefinitionComponent next : valueSet.getCodeSystem().getConcept()) {
-                  if (coding.getCode().equals(next.getCode())) {
-                    found = true;
-                    break;
-                  }
-                }
-              }
-              if (!found) {
-                for (ConceptSetComponent nextCompose : valueSet.getCompose().getInclude()) {
-                  if (coding.getSystem().equals(nextCompose.getSystem())) {
-                    for (ConceptReferenceComponent next : nextCompose.getConcept()) {
-                      if (coding.getCode().equals(next.getCode())) {
-                        found = true;
-                        break;
-                      }
-                    }
-                  }
-                  if (found) {
-                    break;
-                  }
-                }
-              }
+              Set<String> codes = getValueSetCodes(valueSet).get(coding.getSystem());
+              boolean found = codes != null && codes.contains(coding.getCode());
 
               rule(theErrors, IssueType.BUSINESSRULE, thePathStack, found, "Question with linkId[{0}] has answer with system[{1}] and code[{2}] but this is not a valid answer for ValueSet[{3}]",
                   linkId, coding.getSystem(), coding.getCode(), optionsRef);
@@ -452,6 +448,42 @@ public class QuestionnaireResponseValidator extends BaseValidator {
     } // for answers
   }
 
+  /**
+   * Returns the codes which are listed in a ValueSet (those defined by it, and those listed in
+   * its compose includes), by system. These are collected once for each ValueSet, since the same
+   * ValueSet is usually used by many questions.
+   */
+  private Map<String, Set<String>> getValueSetCodes(ValueSet theValueSet) {
+    Map<String, Set<String>> retVal = myValueSetCodes.get(theValueSet);
+    if (retVal == null) {
+      retVal = new HashMap<String, Set<String>>();
+      if (theValueSet.getCodeSystem().getSystem() != null) {
+        for (ConceptDefinitionComponent next : theValueSet.getCodeSystem().getConcept()) {
+          addValueSetCode(retVal, theValueSet.getCodeSystem().getSystem(), next.getCode());
+        }
+      }
+      for (ConceptSetComponent nextCompose : theValueSet.getCompose().getInclude()) {
+        for (ConceptReferenceComponent next : nextCompose.getConcept()) {
+          addValueSetCode(retVal, nextCompose.getSystem(), next.getCode());
+        }
+      }
+      myValueSetCodes.put(theValueSet, retVal);
+    }
+    return retVal;
+  }
+
+  private static void addValueSetCode(Map<String, Set<String>> theCodes, String theSystem, String theCode) {
+    if (theSystem == null || theCode == null) {
+      return;
+    }
+    Set<String> codes = theCodes.get(theSystem);
+    if (codes == null) {
+      codes = new HashSet<String>();
+      theCodes.put(theSystem, codes);
+    }
+    codes.add(theCode);
+  }
+
   private Set<Class<? extends Type>> determineAllowedAnswerTypes(AnswerFormat type) {
     Set<Class<? extends Type>> allowedAnswerTypes;
     switch (type) {
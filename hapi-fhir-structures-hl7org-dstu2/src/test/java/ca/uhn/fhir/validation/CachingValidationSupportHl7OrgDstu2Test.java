@@ -0,0 +1,150 @@
+package ca.uhn.fhir.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+
+import org.hl7.fhir.instance.hapi.validation.CachingValidationSupport;
+import org.hl7.fhir.instance.hapi.validation.IValidationSupport;
+import org.hl7.fhir.instance.hapi.validation.IValidationSupport.CodeValidationResult;
+import org.hl7.fhir.instance.model.OperationOutcome.IssueSeverity;
+import org.hl7.fhir.instance.model.StructureDefinition;
+import org.hl7.fhir.instance.model.ValueSet;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.TestUtil;
+
+public class CachingValidationSupportHl7OrgDstu2Test {
+
+	private static FhirContext ourCtx = FhirContext.forDstu2Hl7Org();
+
+	private IValidationSupport myMockSupport;
+	private CachingValidationSupport mySvc;
+
+	@Before
+	public void before() {
+		myMockSupport = mock(IValidationSupport.class);
+		mySvc = new CachingValidationSupport(myMockSupport);
+	}
+
+	@Test
+	public void testFetchCodeSystemCachesMiss() {
+		assertNull(mySvc.fetchCodeSystem(ourCtx, "http://foo/cs"));
+		assertNull(mySvc.fetchCodeSystem(ourCtx, "http://foo/cs"));
+
+		verify(myMockSupport, times(1)).fetchCodeSystem(any(FhirContext.class), eq("http://foo/cs"));
+		assertEquals(1, mySvc.getNegativeHitCount());
+	}
+
+	@Test
+	public void testFetchResourceCachesHit() {
+		ValueSet vs = new ValueSet();
+		when(myMockSupport.fetchResource(any(FhirContext.class), eq(ValueSet.class), eq("http://foo/vs"))).thenReturn(vs);
+
+		assertSame(vs, mySvc.fetchResource(ourCtx, ValueSet.class, "http://foo/vs"));
+		assertSame(vs, mySvc.fetchResource(ourCtx, ValueSet.class, "http://foo/vs"));
+
+		verify(myMockSupport, times(1)).fetchResource(any(FhirContext.class), eq(ValueSet.class), eq("http://foo/vs"));
+		assertEquals(1, mySvc.getHitCount());
+		assertEquals(1, mySvc.getMissCount());
+		assertEquals(0, mySvc.getNegativeHitCount());
+	}
+
+	@Test
+	public void testFlush() {
+		assertNull(mySvc.fetchResource(ourCtx, StructureDefinition.class, "http://foo/ext"));
+
+		StructureDefinition sd = new StructureDefinition();
+		when(myMockSupport.fetchResource(any(FhirContext.class), eq(StructureDefinition.class), eq("http://foo/ext"))).thenReturn(sd);
+		mySvc.flush();
+
+		assertEquals(0, mySvc.getCacheSize());
+		assertSame(sd, mySvc.fetchResource(ourCtx, StructureDefinition.class, "http://foo/ext"));
+	}
+
+	@Test
+	public void testMaximumSize() {
+		mySvc.setMaximumSize(2);
+
+		mySvc.fetchCodeSystem(ourCtx, "http://foo/1");
+		mySvc.fetchCodeSystem(ourCtx, "http://foo/2");
+		mySvc.fetchCodeSystem(ourCtx, "http://foo/1");
+		mySvc.fetchCodeSystem(ourCtx, "http://foo/3");
+		mySvc.fetchCodeSystem(ourCtx, "http://foo/3");
+		mySvc.fetchCodeSystem(ourCtx, "http://foo/1");
+		mySvc.fetchCodeSystem(ourCtx, "http://foo/2");
+
+		assertEquals(2, mySvc.getCacheSize());
+		verify(myMockSupport, times(1)).fetchCodeSystem(any(FhirContext.class), eq("http://foo/1"));
+		verify(myMockSupport, times(2)).fetchCodeSystem(any(FhirContext.class), eq("http://foo/2"));
+		verify(myMockSupport, times(1)).fetchCodeSystem(any(FhirContext.class), eq("http://foo/3"));
+	}
+
+	@Test
+	public void testMissExpires() throws Exception {
+		mySvc.setMissExpireAfterMillis(50);
+
+		assertFalse(mySvc.isCodeSystemSupported(ourCtx, "http://foo/cs"));
+		assertFalse(mySvc.isCodeSystemSupported(ourCtx, "http://foo/cs"));
+		verify(myMockSupport, times(1)).isCodeSystemSupported(any(FhirContext.class), eq("http://foo/cs"));
+
+		Thread.sleep(100);
+
+		assertFalse(mySvc.isCodeSystemSupported(ourCtx, "http://foo/cs"));
+		verify(myMockSupport, times(2)).isCodeSystemSupported(any(FhirContext.class), eq("http://foo/cs"));
+	}
+
+	@Test
+	public void testMissNotCachedIfDisabled() {
+		mySvc.setMissExpireAfterMillis(0);
+
+		mySvc.fetchResource(ourCtx, ValueSet.class, "http://foo/vs");
+		mySvc.fetchResource(ourCtx, ValueSet.class, "http://foo/vs");
+
+		verify(myMockSupport, times(2)).fetchResource(any(FhirContext.class), eq(ValueSet.class), eq("http://foo/vs"));
+	}
+
+	@Test
+	public void testPrefetch() {
+		ValueSet vs = new ValueSet();
+		when(myMockSupport.fetchResource(any(FhirContext.class), eq(ValueSet.class), eq("http://foo/vs1"))).thenReturn(vs);
+
+		assertEquals(1, mySvc.prefetch(ourCtx, ValueSet.class, Arrays.asList("http://foo/vs1", "http://foo/vs2")));
+
+		assertSame(vs, mySvc.fetchResource(ourCtx, ValueSet.class, "http://foo/vs1"));
+		assertNull(mySvc.fetchResource(ourCtx, ValueSet.class, "http://foo/vs2"));
+		verify(myMockSupport, times(1)).fetchResource(any(FhirContext.class), eq(ValueSet.class), eq("http://foo/vs1"));
+		verify(myMockSupport, times(1)).fetchResource(any(FhirContext.class), eq(ValueSet.class), eq("http://foo/vs2"));
+	}
+
+	@Test
+	public void testValidateCodeKeyedByDisplay() {
+		CodeValidationResult result = new CodeValidationResult(IssueSeverity.ERROR, "Bad display");
+		when(myMockSupport.validateCode(any(FhirContext.class), eq("http://foo/cs"), eq("code"), eq("display"))).thenReturn(result);
+
+		assertSame(result, mySvc.validateCode(ourCtx, "http://foo/cs", "code", "display"));
+		assertSame(result, mySvc.validateCode(ourCtx, "http://foo/cs", "code", "display"));
+		assertNull(mySvc.validateCode(ourCtx, "http://foo/cs", "code", null));
+
+		verify(myMockSupport, times(1)).validateCode(any(FhirContext.class), eq("http://foo/cs"), eq("code"), eq("display"));
+		verify(myMockSupport, times(1)).validateCode(any(FhirContext.class), eq("http://foo/cs"), eq("code"), eq((String) null));
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
@@ -309,6 +309,31 @@ public class QuestionnaireResponseValidatorTest {
     assertEquals(1, errors.size());
   }
 
+  @Test
+  public void testRepeatedGroupWhichDoesNotRepeat() {
+    Questionnaire q = new Questionnaire();
+    q.getGroup().addGroup().setLinkId("link0").setRepeats(true).addQuestion().setLinkId("link1").setRequired(true).setType(AnswerFormat.STRING);
+    q.getGroup().addGroup().setLinkId("link2").setRepeats(false);
+
+    QuestionnaireResponse qa = new QuestionnaireResponse();
+    qa.getQuestionnaire().setReference("http://example.com/Questionnaire/q1");
+    qa.setStatus(QuestionnaireResponseStatus.COMPLETED);
+    qa.getGroup().addGroup().setLinkId("link0").addQuestion().setLinkId("link1").addAnswer().setValue(new StringType("FOO"));
+    qa.getGroup().addGroup().setLinkId("link2");
+    qa.getGroup().addGroup().setLinkId("link0");
+    qa.getGroup().addGroup().setLinkId("link2");
+
+    myWorkerCtx.getQuestionnaires().put(qa.getQuestionnaire().getReference(), q);
+    List<ValidationMessage> errors = new ArrayList<ValidationMessage>();
+    myVal.validate(errors, qa);
+
+    ourLog.info(errors.toString());
+    assertThat(errors.toString(), containsString("group[0]/group[2],message=Missing answer to required question with linkId[link1]"));
+    assertThat(errors.toString(), containsString(
+        "group[0]/group[3],message=Multiple repetitions of group with linkId[link2] found at this position, but this group can not repeat"));
+    assertEquals(errors.toString(), 2, errors.size());
+  }
+
   @Test
   public void testUnexpectedAnswer() {
     Questionnaire q = new Questionnaire();
@@ -372,4 +397,31 @@ public class QuestionnaireResponseValidatorTest {
     assertEquals(errors.toString(), 10, errors.size());
   }
 
+  /**
+   * Validates responses to a questionnaire with many questions in one group
+   */
+  public static void main(String[] args) {
+    for (int size : new int[] { 500, 2000 }) {
+      Questionnaire q = new Questionnaire();
+      QuestionnaireResponse qa = new QuestionnaireResponse();
+      qa.getQuestionnaire().setReference("http://example.com/Questionnaire/q1");
+      qa.setStatus(QuestionnaireResponseStatus.COMPLETED);
+      for (int i = 0; i < size; i++) {
+        q.getGroup().addQuestion().setLinkId("link" + i).setRequired(true).setType(AnswerFormat.STRING);
+        qa.getGroup().addQuestion().setLinkId("link" + i).addAnswer().setValue(new StringType("FOO" + i));
+      }
+      WorkerContext workerCtx = new WorkerContext();
+      workerCtx.getQuestionnaires().put(qa.getQuestionnaire().getReference(), q);
+
+      int passes = 50;
+      for (int round = 0; round < 3; round++) {
+        long start = System.nanoTime();
+        for (int pass = 0; pass < passes; pass++) {
+          new QuestionnaireResponseValidator(workerCtx).validate(new ArrayList<ValidationMessage>(), qa);
+        }
+        ourLog.info("Validated response with {} answers: {}us per response", size, (System.nanoTime() - start) / passes / 1000);
+      }
+    }
+  }
+
 }